@@ -0,0 +1,98 @@
+package mjpegslicer.benchmarks;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mjpegslicer.DecodeOptions;
+import mjpegslicer.ImageEvent;
+import mjpegslicer.JpegInfo;
+
+/**
+ * Compares the full decode of an image with the decodes that skip pixels,
+ * decode a region only or reuse a destination image. Run with
+ * <code>-prof gc</code> to see the allocation per decode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+	@Param({ "320x240", "640x480", "1280x720", "1920x1080" })
+	public String resolution;
+
+	private ImageEvent event;
+
+	private DecodeOptions subsampled;
+
+	private DecodeOptions region;
+
+	private DecodeOptions reused;
+
+	private DecodeOptions reusedSubsampled;
+
+	@Setup
+	public void setUp() {
+		event = new ImageEvent(this, System.currentTimeMillis(), 1,
+				MjpegStreams.createJpeg(resolution));
+		JpegInfo info = event.getJpegInfo();
+		subsampled = new DecodeOptions.Builder().setSourceSubsampling(4, 4)
+				.build();
+		// the centre quarter of the image
+		region = new DecodeOptions.Builder().setSourceRegion(
+				new Rectangle(info.getWidth() / 4, info.getHeight() / 4, info
+						.getWidth() / 2, info.getHeight() / 2)).build();
+		reused = new DecodeOptions.Builder().setDestination(
+				DecodeOptions.DEFAULT.createDestination(info)).build();
+		reusedSubsampled = new DecodeOptions.Builder(subsampled)
+				.setDestination(subsampled.createDestination(info)).build();
+	}
+
+	/**
+	 * The baseline: <code>ImageIO.read</code> into a new image.
+	 */
+	@Benchmark
+	public BufferedImage full() {
+		return event.createBufferedImage();
+	}
+
+	@Benchmark
+	public BufferedImage fullWithOptions() {
+		return event.createBufferedImage(DecodeOptions.DEFAULT);
+	}
+
+	@Benchmark
+	public BufferedImage subsampled() {
+		return event.createBufferedImage(subsampled);
+	}
+
+	@Benchmark
+	public BufferedImage region() {
+		return event.createBufferedImage(region);
+	}
+
+	@Benchmark
+	public BufferedImage reusedDestination() {
+		return event.createBufferedImage(reused);
+	}
+
+	@Benchmark
+	public BufferedImage reusedSubsampledDestination() {
+		return event.createBufferedImage(reusedSubsampled);
+	}
+}
@@ -0,0 +1,88 @@
+package mjpegslicer.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mjpegslicer.DecodeOptions;
+import mjpegslicer.DecodedImageListener;
+import mjpegslicer.ImageEvent;
+import mjpegslicer.impl.DecodingImageListener;
+
+/**
+ * Measures the decoded frames per second of one camera with a decode pool
+ * of 1 to 8 threads; the throughput should scale with the number of cores
+ * up to the thread count.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodePoolBenchmark {
+
+	private static final int FRAMES = 64;
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	@Param({ "1280x720", "1920x1080" })
+	public String resolution;
+
+	private byte[] imageData;
+
+	private ExecutorService pool;
+
+	private DecodingImageListener decoding;
+
+	private final Semaphore delivered = new Semaphore(0);
+
+	@Setup
+	public void setUp() {
+		imageData = MjpegStreams.createJpeg(resolution);
+		pool = Executors.newFixedThreadPool(threads);
+		decoding = new DecodingImageListener(new DecodedImageListener() {
+			@Override
+			public void newDecodedImage(ImageEvent event, BufferedImage image) {
+				delivered.release();
+			}
+		}, FRAMES, DecodeOptions.DEFAULT, pool);
+	}
+
+	@TearDown
+	public void tearDown() {
+		decoding.shutdown();
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Hands a burst of frames to the pool and waits until all are delivered
+	 * in order; the window is as large as the burst, so none is dropped.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public void decodeBurst() throws InterruptedException {
+		for (int i = 0; i < FRAMES; i++) {
+			decoding.newImage(new ImageEvent(this, 0L, i, imageData,
+					imageData.length, null));
+		}
+		delivered.acquire(FRAMES);
+	}
+}
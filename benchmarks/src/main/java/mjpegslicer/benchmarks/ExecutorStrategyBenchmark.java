@@ -0,0 +1,328 @@
+package mjpegslicer.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mjpegslicer.ImageEvent;
+import mjpegslicer.ImageListener;
+import mjpegslicer.impl.FrameBufferPool;
+import mjpegslicer.impl.SinkTemplate;
+import mjpegslicer.impl.SourceTemplate;
+import mjpegslicer.mockcam.Camera;
+import mjpegslicer.mockcam.Feeder;
+import mjpegslicer.mockcam.FeederFactory;
+import mjpegslicer.mockcam.FeederTemplate;
+import mjpegslicer.util.ExecutorStrategy;
+import mjpegslicer.util.PlatformThreadStrategy;
+import mjpegslicer.util.VirtualThreadStrategy;
+
+/**
+ * Compares the executor strategies with many blocking streams: a mock camera
+ * serves the streams and each stream is sliced by a {@link SinkTemplate}; the
+ * camera and the sinks use the same strategy. The invocations only sample
+ * the streams, so the primary score is of no interest; the secondary results
+ * are the images per second, the number of platform threads, the resident
+ * memory and the latency from writing a frame to the socket until its image
+ * listener is notified.
+ * <p>
+ * Each strategy runs in a forked JVM of its own. The virtual strategy needs
+ * a Java 21 runtime:
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar ExecutorStrategyBenchmark -p strategy=virtual
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 3)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class ExecutorStrategyBenchmark {
+
+	@Param({ "platform", "virtual" })
+	public String strategy;
+
+	@Param({ "1000" })
+	public int streams;
+
+	private static final long SAMPLE_MILLIS = 100L;
+
+	private static final int RATE = 5;
+	private static final int WIDTH = 160;
+	private static final int HEIGHT = 120;
+	private static final int RING_CAPACITY = 8;
+	private static final int MAX_LATENCY_MILLIS = 1000;
+
+	/**
+	 * A JPEG whose comment segment takes the time stamp of each frame.
+	 */
+	private static final byte[] JPEG = createJpeg();
+
+	/**
+	 * The offset of the time stamp in the JPEG.
+	 */
+	private static final int STAMP_OFFSET = 6;
+
+	private static byte[] createJpeg() {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			ImageIO.write(new BufferedImage(WIDTH, HEIGHT,
+					BufferedImage.TYPE_3BYTE_BGR), "JPG", baos);
+			byte[] encoded = baos.toByteArray();
+			// SOI, COM with 8 bytes, then the rest of the encoded image
+			byte[] result = new byte[encoded.length + 12];
+			result[0] = (byte) 0xff;
+			result[1] = (byte) 0xd8;
+			result[2] = (byte) 0xff;
+			result[3] = (byte) 0xfe;
+			result[4] = 0;
+			result[5] = 10;
+			System.arraycopy(encoded, 2, result, 14, encoded.length - 2);
+			return result;
+		} catch (IOException ioe) {
+			throw new IllegalStateException(ioe);
+		}
+	}
+
+	/**
+	 * A feeder that sends the same small JPEG, stamped with the time of
+	 * writing it. The encoding is left out, so that the threads and not the
+	 * JPEG encoder are measured.
+	 */
+	private static class StampingFeeder extends FeederTemplate {
+
+		private final byte[] frame = JPEG.clone();
+
+		@Override
+		public void prepareFrame() {
+		}
+
+		@Override
+		public void flushFrame() {
+			long stamp = System.nanoTime();
+			for (int i = 0; i < 8; i++) {
+				frame[STAMP_OFFSET + i] = (byte) (stamp >>> (56 - 8 * i));
+			}
+			try {
+				OutputStream os = getOutputStream();
+				os.write(("--myboundary\r\nContent-Type: image/jpeg\r\n"
+						+ "Content-Length: " + frame.length + "\r\n\r\n")
+						.getBytes("US-ASCII"));
+				os.write(frame);
+				os.write('\r');
+				os.write('\n');
+				os.flush();
+			} catch (IOException ioe) {
+				// the sink went away
+				stop();
+			}
+		}
+	}
+
+	/**
+	 * Records the latency of each image in a histogram with a bucket per
+	 * millisecond.
+	 */
+	private static class LatencyListener implements ImageListener {
+
+		private final AtomicLongArray buckets = new AtomicLongArray(
+				MAX_LATENCY_MILLIS + 1);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sumNanos = new AtomicLong();
+
+		@Override
+		public void newImage(ImageEvent event) {
+			long now = System.nanoTime();
+			long stamp = 0L;
+			ByteBuffer buffer = event.getImageBuffer();
+			for (int i = 0; i < 8; i++) {
+				stamp = (stamp << 8) | (buffer.get(STAMP_OFFSET + i) & 0xff);
+			}
+			long nanos = now - stamp;
+			count.incrementAndGet();
+			sumNanos.addAndGet(nanos);
+			buckets.incrementAndGet((int) Math.min(nanos / 1000000L,
+					MAX_LATENCY_MILLIS));
+		}
+
+		private void clear() {
+			for (int i = 0; i < buckets.length(); i++) {
+				buckets.set(i, 0L);
+			}
+			count.set(0L);
+			sumNanos.set(0L);
+		}
+
+		private long percentileMillis(double percentile) {
+			long threshold = (long) Math.ceil(count.get() * percentile);
+			long seen = 0L;
+			for (int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+				if (seen >= threshold) {
+					return i;
+				}
+			}
+			return MAX_LATENCY_MILLIS;
+		}
+	}
+
+	private static long readResidentSetKiB() {
+		// Linux only; stacks of platform threads are native memory
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(
+					"/proc/self/status"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.startsWith("VmRSS:")) {
+						return Long.parseLong(line.replaceAll("[^0-9]", ""));
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException ignored) {
+		}
+		return -1L;
+	}
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	private Camera camera;
+
+	private LatencyListener listener;
+
+	private final List<SourceTemplate> sources = new ArrayList<SourceTemplate>();
+
+	private final List<SinkTemplate> sinks = new ArrayList<SinkTemplate>();
+
+	/**
+	 * The images delivered per second.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class ImageCounter {
+
+		public long images;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			images = 0L;
+		}
+	}
+
+	/**
+	 * The footprint and the latencies of the iteration so far.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+
+		public long platformThreads;
+
+		public long residentKiB;
+
+		public long meanLatencyMicros;
+
+		public long p50LatencyMillis;
+
+		public long p99LatencyMillis;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		ExecutorStrategy executorStrategy = "virtual".equals(strategy)
+				? new VirtualThreadStrategy() : new PlatformThreadStrategy();
+		camera = new Camera();
+		camera.setExecutorStrategy(executorStrategy);
+		camera.setFeederFactory(new FeederFactory() {
+			@Override
+			public Feeder newFeeder() {
+				Feeder result = new StampingFeeder();
+				result.setRate(RATE);
+				result.setMaxFrameSequenceNumber(
+						Feeder.UNLIMITED_MAX_FRAME_SEQUENCE_NUMBER);
+				return result;
+			}
+		});
+		camera.start();
+		listener = new LatencyListener();
+		FrameBufferPool pool = new FrameBufferPool();
+		for (int i = 0; i < streams; i++) {
+			SourceTemplate source = new SourceTemplate();
+			source.setPort(Camera.DEFAULT_PORT);
+			SinkTemplate sink = new SinkTemplate();
+			sink.setExecutorStrategy(executorStrategy);
+			sink.setFrameBufferPool(pool);
+			// the ring keeps its images until the slots are reused
+			sink.setRingCapacity(RING_CAPACITY);
+			sink.addImageListener(listener);
+			sink.startStream(source.startStream());
+			sources.add(source);
+			sinks.add(sink);
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void clearLatencies() {
+		listener.clear();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		for (int i = 0; i < sinks.size(); i++) {
+			sinks.get(i).stopStream();
+			sources.get(i).stopStream();
+		}
+		sinks.clear();
+		sources.clear();
+		camera.stop();
+	}
+
+	@Benchmark
+	public void sample(ImageCounter counter, Footprint footprint)
+			throws InterruptedException {
+		long before = listener.count.get();
+		Thread.sleep(SAMPLE_MILLIS);
+		counter.images += listener.count.get() - before;
+		footprint.platformThreads = threads.getThreadCount();
+		footprint.residentKiB = readResidentSetKiB();
+		long count = listener.count.get();
+		if (count > 0) {
+			footprint.meanLatencyMicros = listener.sumNanos.get() / count
+					/ 1000L;
+			footprint.p50LatencyMillis = listener.percentileMillis(0.5);
+			footprint.p99LatencyMillis = listener.percentileMillis(0.99);
+		}
+	}
+}
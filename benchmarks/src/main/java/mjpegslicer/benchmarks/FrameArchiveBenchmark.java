@@ -0,0 +1,122 @@
+package mjpegslicer.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mjpegslicer.ImageEvent;
+import mjpegslicer.store.FrameArchive;
+import mjpegslicer.store.FrameRecorder;
+import mjpegslicer.store.FrameSlice;
+import mjpegslicer.store.SegmentReader;
+
+/**
+ * Measures the seek latency of the archive by time and by sequence number
+ * at random positions of a recording of 25 frames per second, against a
+ * scan of the segments as without an index. The recording is written to
+ * <code>java.io.tmpdir</code> unless <code>-Dbenchmark.dir</code> is set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameArchiveBenchmark {
+
+	private static final long START_MILLIS = 1000000000000L;
+
+	private static final long FRAME_MILLIS = 40L;
+
+	@Param({ "10000", "100000" })
+	public int frames;
+
+	private File directory;
+
+	private FrameArchive archive;
+
+	private final Random random = new Random(42L);
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = File.createTempFile("archive-", "",
+				new File(System.getProperty("benchmark.dir",
+						System.getProperty("java.io.tmpdir"))));
+		directory.delete();
+		FrameRecorder recorder = new FrameRecorder(directory);
+		recorder.setMaxSegmentBytes(16L * 1024 * 1024);
+		recorder.start();
+		// the seek does not depend on the size of the images
+		byte[] imageData = new byte[1024];
+		for (int i = 0; i < frames; i++) {
+			recorder.newImage(new ImageEvent(this, START_MILLIS + FRAME_MILLIS
+					* i, i, imageData));
+		}
+		recorder.close();
+		archive = new FrameArchive(directory);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		archive.close();
+		archive = null;
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private long randomMillis() {
+		return START_MILLIS
+				+ (long) (random.nextDouble() * frames * FRAME_MILLIS);
+	}
+
+	@Benchmark
+	public FrameSlice findByTime() {
+		return archive.findByTime(randomMillis());
+	}
+
+	@Benchmark
+	public FrameSlice findBySequenceNumber() {
+		return archive.findBySequenceNumber(random.nextInt(frames));
+	}
+
+	@Benchmark
+	public int firstByteByTime() {
+		// touches the mapped image data
+		return archive.findByTime(randomMillis()).getImageBuffer().get(0);
+	}
+
+	@Benchmark
+	public long scanByTime() throws IOException {
+		long millis = randomMillis();
+		for (File segment : FrameRecorder.listSegments(directory)) {
+			SegmentReader reader = new SegmentReader(segment);
+			try {
+				while (reader.next()) {
+					if (reader.getReceivedMillis() + FRAME_MILLIS > millis) {
+						return reader.getRecordOffset();
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		return -1L;
+	}
+}
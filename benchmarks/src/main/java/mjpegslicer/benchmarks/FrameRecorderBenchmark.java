@@ -0,0 +1,89 @@
+package mjpegslicer.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mjpegslicer.ImageEvent;
+import mjpegslicer.store.FrameRecorder;
+
+/**
+ * Measures the sustained append throughput of the recorder; compare the
+ * bytes per second with the bandwidth of the disk. The segments are written
+ * to <code>java.io.tmpdir</code> unless <code>-Dbenchmark.dir</code> is
+ * set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrameRecorderBenchmark {
+
+	@Param({ "640x480", "1920x1080" })
+	public String resolution;
+
+	@Param({ "1000" })
+	public long commitIntervalMillis;
+
+	private File directory;
+
+	private FrameRecorder recorder;
+
+	private byte[] imageData;
+
+	private int sequenceNumber;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class ByteCounter {
+
+		public long bytes;
+	}
+
+	@Setup(Level.Iteration)
+	public void setUp() throws IOException {
+		directory = File.createTempFile("recorder-", "",
+				new File(System.getProperty("benchmark.dir",
+						System.getProperty("java.io.tmpdir"))));
+		directory.delete();
+		recorder = new FrameRecorder(directory);
+		recorder.setCommitIntervalMillis(commitIntervalMillis);
+		recorder.start();
+		imageData = MjpegStreams.createJpeg(resolution);
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() throws IOException {
+		recorder.close();
+		// the segments and their index files
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Benchmark
+	public void append(ByteCounter counter) {
+		// a new sequence number each, a repeated one rolls the segment over
+		recorder.newImage(new ImageEvent(this, System.currentTimeMillis(),
+				sequenceNumber++, imageData, imageData.length, null));
+		counter.bytes += imageData.length;
+	}
+}
@@ -0,0 +1,43 @@
+package mjpegslicer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mjpegslicer.impl.HttpHeadersImpl;
+
+/**
+ * Measures the parsing of the header lines of a part.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpHeadersBenchmark {
+
+	/**
+	 * The lines of a part header as the mock camera sends it.
+	 */
+	private final String[] lines = { MjpegStreams.BOUNDARY,
+			"Content-Type: image/jpeg", "Content-Length: 28657" };
+
+	@Benchmark
+	public HttpHeadersImpl addHeader() {
+		HttpHeadersImpl.Builder builder = new HttpHeadersImpl.Builder(
+				MjpegStreams.BOUNDARY);
+		for (String line : lines) {
+			builder.addHeader(line);
+		}
+		return builder.build();
+	}
+}
@@ -0,0 +1,91 @@
+package mjpegslicer.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mjpegslicer.ImageEvent;
+import mjpegslicer.JpegInfo;
+
+/**
+ * Measures the creation of events, the decoding of their images and the
+ * probing of their headers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageEventBenchmark {
+
+	@Param({ "320x240", "640x480", "1280x720", "1920x1080" })
+	public String resolution;
+
+	private byte[] imageData;
+
+	private ImageEvent event;
+
+	@Setup
+	public void setUp() {
+		imageData = MjpegStreams.createJpeg(resolution);
+		event = new ImageEvent(this, System.currentTimeMillis(), 1, imageData);
+	}
+
+	/**
+	 * The public constructor clones the image data.
+	 */
+	@Benchmark
+	public ImageEvent createCloning() {
+		return new ImageEvent(this, 0L, 1, imageData);
+	}
+
+	/**
+	 * The constructor the sink uses takes ownership of the image data.
+	 */
+	@Benchmark
+	public ImageEvent createOwning() {
+		return new ImageEvent(this, 0L, 1, imageData, imageData.length, null);
+	}
+
+	/**
+	 * Decodes with the reader of the benchmark thread.
+	 */
+	@Benchmark
+	public BufferedImage createBufferedImage() {
+		return event.createBufferedImage();
+	}
+
+	/**
+	 * The former decode path: a registry lookup, a new reader and a new
+	 * stream per image.
+	 */
+	@Benchmark
+	public BufferedImage imageIoRead() throws IOException {
+		return ImageIO.read(new ByteArrayInputStream(imageData));
+	}
+
+	/**
+	 * The header probe that replaces decoding when only the dimensions and
+	 * tables are needed; it bypasses the cache of the event.
+	 */
+	@Benchmark
+	public JpegInfo probeJpegInfo() {
+		return JpegInfo.probe(imageData, imageData.length);
+	}
+}
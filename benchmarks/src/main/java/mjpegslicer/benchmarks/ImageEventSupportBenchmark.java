@@ -0,0 +1,59 @@
+package mjpegslicer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import mjpegslicer.ImageEvent;
+import mjpegslicer.ImageListener;
+import mjpegslicer.impl.ImageEventSupport;
+
+/**
+ * Measures the distribution of an event to the registered listeners.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageEventSupportBenchmark {
+
+	@Param({ "1", "4", "16", "64" })
+	public int listeners;
+
+	private ImageEventSupport support;
+
+	private ImageEvent event;
+
+	@Setup
+	public void setUp(final Blackhole blackhole) {
+		support = new ImageEventSupport();
+		for (int i = 0; i < listeners; i++) {
+			support.addImageListener(new ImageListener() {
+				@Override
+				public void newImage(ImageEvent event) {
+					blackhole.consume(event);
+				}
+			});
+		}
+		event = new ImageEvent(this, System.currentTimeMillis(), 1,
+				MjpegStreams.createJpeg("320x240"));
+	}
+
+	@Benchmark
+	public void newImage() {
+		support.newImage(event);
+	}
+}
@@ -0,0 +1,135 @@
+package mjpegslicer.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+import mjpegslicer.mockcam.FeederTemplate;
+import mjpegslicer.mockcam.RainbowBackgroundContentProvider;
+
+/**
+ * Creates in-memory M-JPEG streams as the mock camera sends them.
+ */
+final class MjpegStreams {
+
+	/**
+	 * The boundary line of the streams.
+	 */
+	static final String BOUNDARY = "--myboundary";
+
+	/**
+	 * The HTTP response header in front of the first part.
+	 */
+	static final byte[] RESPONSE_HEADER = toAscii("HTTP/1.1 200 OK\r\n"
+			+ "Content-Type: multipart/x-mixed-replace;boundary=myboundary\r\n"
+			+ "\r\n");
+
+	// prevent instantiation
+	private MjpegStreams() {
+	}
+
+	private static byte[] toAscii(String s) {
+		try {
+			return s.getBytes("US-ASCII");
+		} catch (UnsupportedEncodingException uee) {
+			throw new IllegalStateException(uee);
+		}
+	}
+
+	/**
+	 * Parses a resolution parameter.
+	 *
+	 * @param resolution
+	 *            The resolution; e.g., "640x480".
+	 * @return The width and the height.
+	 */
+	static int[] parseResolution(String resolution) {
+		int x = resolution.indexOf('x');
+		return new int[] { Integer.parseInt(resolution.substring(0, x)),
+				Integer.parseInt(resolution.substring(x + 1)) };
+	}
+
+	/**
+	 * Creates the parts of a stream; i.e., the stream without the response
+	 * header.
+	 *
+	 * @param resolution
+	 *            The resolution; e.g., "640x480".
+	 * @param frames
+	 *            The number of frames.
+	 * @return The parts.
+	 */
+	static byte[] createParts(String resolution, int frames) {
+		int[] size = parseResolution(resolution);
+		FeederTemplate feeder = new FeederTemplate();
+		feeder.setWidth(size[0]);
+		feeder.setHeight(size[1]);
+		feeder.setContentProvider(new RainbowBackgroundContentProvider());
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		feeder.setOutputStream(baos);
+		for (int i = 0; i < frames; i++) {
+			feeder.prepareFrame();
+			feeder.flushFrame();
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Creates a JPEG image as the mock camera sends it.
+	 *
+	 * @param resolution
+	 *            The resolution; e.g., "640x480".
+	 * @return The image data.
+	 */
+	static byte[] createJpeg(String resolution) {
+		byte[] parts = createParts(resolution, 1);
+		String text = new String(parts, 0, Math.min(parts.length, 200));
+		int start = text.indexOf("\r\n\r\n") + 4;
+		// the part ends with CR LF
+		byte[] result = new byte[parts.length - start - 2];
+		System.arraycopy(parts, start, result, 0, result.length);
+		return result;
+	}
+
+	/**
+	 * An endless stream: the response header is followed by the same parts
+	 * over and over again.
+	 */
+	static class CyclicInputStream extends InputStream {
+
+		private final byte[] parts;
+		private byte[] current = RESPONSE_HEADER;
+		private int pos = 0;
+
+		/**
+		 * Creates a stream instance.
+		 *
+		 * @param parts
+		 *            The parts that are repeated.
+		 */
+		CyclicInputStream(byte[] parts) {
+			this.parts = parts;
+		}
+
+		@Override
+		public int read() {
+			if (pos == current.length) {
+				current = parts;
+				pos = 0;
+			}
+			return current[pos++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (pos == current.length) {
+				current = parts;
+				pos = 0;
+			}
+			int actual = Math.min(len, current.length - pos);
+			System.arraycopy(current, pos, b, off, actual);
+			pos += actual;
+			return actual;
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package mjpegslicer.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mjpegslicer.impl.FrameBuffer;
+import mjpegslicer.impl.HttpHeadersImpl;
+import mjpegslicer.impl.MultipartParser;
+import mjpegslicer.impl.PartHeader;
+import mjpegslicer.impl.SinkTemplate;
+
+/**
+ * Measures the slicing of an in-memory stream as the mock camera sends it.
+ * The frames per second are the operations per second; the bytes counter
+ * yields the byte rate, and <code>-prof gc</code> the bytes allocated per
+ * frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlicingBenchmark {
+
+	@Param({ "320x240", "640x480", "1280x720", "1920x1080" })
+	public String resolution;
+
+	/**
+	 * The number of different frames in the stream.
+	 */
+	private static final int FRAMES = 8;
+
+	/**
+	 * The size of the chunks fed to the parser, as a socket read yields
+	 * them.
+	 */
+	private static final int CHUNK_SIZE = 16 * 1024;
+
+	private BenchmarkSink sink;
+
+	private byte[] parts;
+
+	private ByteBuffer chunk;
+
+	private MultipartParser parser;
+
+	private int imageBytes;
+
+	/**
+	 * The bytes sliced per second.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class ByteCounter {
+
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			bytes = 0L;
+		}
+	}
+
+	/**
+	 * A sink that is driven by the benchmark thread: the runner thread
+	 * leaves the stream alone.
+	 */
+	static class BenchmarkSink extends SinkTemplate {
+
+		@Override
+		protected boolean readStreamStart() {
+			return false;
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		parts = MjpegStreams.createParts(resolution, FRAMES);
+		sink = new BenchmarkSink();
+		sink.startStream(new MjpegStreams.CyclicInputStream(parts));
+		sink.readHttpHeader();
+		sink.setBoundary(MjpegStreams.BOUNDARY);
+		chunk = ByteBuffer.wrap(parts);
+		parser = new MultipartParser(new MultipartParser.Listener() {
+
+			@Override
+			public void httpHeader(PartHeader header) {
+				// only the images count
+			}
+
+			@Override
+			public void imageData(ByteBuffer data) {
+				imageBytes += data.remaining();
+			}
+		});
+		parser.feed(ByteBuffer.wrap(MjpegStreams.RESPONSE_HEADER));
+	}
+
+	@TearDown
+	public void tearDown() {
+		sink.stopStream();
+	}
+
+	/**
+	 * The original API: the header lines are strings, and each image is a
+	 * new array.
+	 */
+	@Benchmark
+	public byte[] readHttpHeaderAndImageData(ByteCounter counter) {
+		HttpHeadersImpl.Builder builder = new HttpHeadersImpl.Builder(
+				MjpegStreams.BOUNDARY);
+		for (String line : sink.readHttpHeader()) {
+			builder.addHeader(line);
+		}
+		byte[] result = sink.readImageData(builder.build().getContentLength());
+		counter.bytes += result.length;
+		return result;
+	}
+
+	/**
+	 * The allocation-free API the runner uses: the part header is reused,
+	 * and the image is read into a pooled buffer.
+	 */
+	@Benchmark
+	public int readPartHeaderAndFrame(ByteCounter counter) {
+		PartHeader header = sink.readPartHeader();
+		FrameBuffer frame = sink.readFrame(header.getContentLength());
+		int result = frame.length();
+		frame.release();
+		counter.bytes += result;
+		return result;
+	}
+
+	/**
+	 * The push parser the ingest engine uses, fed with the same stream in
+	 * socket-sized chunks; the images are views of the chunks where they
+	 * fit.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public int feedMultipartParser(ByteCounter counter) {
+		imageBytes = 0;
+		for (int position = 0; position < parts.length; position += CHUNK_SIZE) {
+			chunk.limit(Math.min(position + CHUNK_SIZE, parts.length));
+			chunk.position(position);
+			parser.feed(chunk);
+		}
+		counter.bytes += imageBytes;
+		return imageBytes;
+	}
+}
@@ -0,0 +1,74 @@
+package mjpegslicer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.TraceSwitch;
+import mjpegslicer.util.Validator;
+
+/**
+ * Shows that disabled tracing costs nothing: the traced method should be as
+ * fast as the plain one and, with <code>-prof gc</code>, allocate nothing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TracingBenchmark {
+
+	/**
+	 * Does the same small piece of work with and without tracing.
+	 */
+	static class Worker extends LoggableObject {
+
+		private final Object label = "worker";
+
+		int plain(int value) {
+			return value * 31 + 7;
+		}
+
+		int traced(int value) {
+			String mn = debugEntering("traced", "label: ", label);
+			Validator.checkState(mn, label != null, "no label.");
+			Validator.checkArgument(mn, "value", value, value >= 0,
+					"must not be negative.");
+			int result = value * 31 + 7;
+			debugLeaving(mn, "label: ", label);
+			return result;
+		}
+	}
+
+	private Worker worker;
+
+	private int value;
+
+	@Setup
+	public void setUp() {
+		TraceSwitch.forClass(Worker.class).setEnabled(false);
+		worker = new Worker();
+		value = 4711;
+	}
+
+	@Benchmark
+	public int plain() {
+		return worker.plain(value);
+	}
+
+	@Benchmark
+	public int tracedDisabled() {
+		return worker.traced(value);
+	}
+}
@@ -0,0 +1,19 @@
+package mjpegslicer;
+
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A {@link Source} that is able to hand out the raw connection as a channel.
+ * Sinks can read such a channel into their own buffers, so no stream buffering
+ * is needed in between.
+ */
+public interface ChannelSource extends Source {
+
+	/**
+	 * Starts the streaming.
+	 * 
+	 * @return The {@link ReadableByteChannel} that is used for streaming. The
+	 *         data start with the HTTP response header.
+	 */
+	public ReadableByteChannel startChannel();
+}
@@ -0,0 +1,272 @@
+package mjpegslicer;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.Validator;
+
+/**
+ * The options of {@link ImageEvent#createBufferedImage(DecodeOptions)}: the
+ * decoder can skip pixels (subsampling), decode a region of interest only,
+ * produce a specific image type and decode into an image that the caller
+ * reuses for every frame, so that no raster is allocated per frame.
+ * <p>
+ * Instances are immutable and created by a {@link Builder}. Options without
+ * a destination can be shared by threads; a destination image must only be
+ * used by one thread at a time.
+ */
+public final class DecodeOptions {
+
+	/**
+	 * The options of a plain full-resolution decode.
+	 */
+	public static final DecodeOptions DEFAULT = new Builder().build();
+
+	private final int xSubsampling;
+	private final int ySubsampling;
+	private final Rectangle sourceRegion;
+	private final int destinationType;
+	private final BufferedImage destination;
+
+	private DecodeOptions(Builder builder) {
+		xSubsampling = builder.xSubsampling;
+		ySubsampling = builder.ySubsampling;
+		sourceRegion = builder.sourceRegion;
+		destinationType = builder.destinationType;
+		destination = builder.destination;
+	}
+
+	/**
+	 * Returns the horizontal subsampling; i.e., only every n-th column is
+	 * decoded.
+	 *
+	 * @return The period, <code>1</code> for full resolution.
+	 */
+	public int getXSubsampling() {
+		return xSubsampling;
+	}
+
+	/**
+	 * Returns the vertical subsampling; i.e., only every n-th row is decoded.
+	 *
+	 * @return The period, <code>1</code> for full resolution.
+	 */
+	public int getYSubsampling() {
+		return ySubsampling;
+	}
+
+	/**
+	 * Returns the region of the image that is decoded.
+	 *
+	 * @return A copy of the region or <code>null</code> if the whole image is
+	 *         decoded.
+	 */
+	public Rectangle getSourceRegion() {
+		return sourceRegion == null ? null : new Rectangle(sourceRegion);
+	}
+
+	/**
+	 * Returns the type of the decoded image.
+	 *
+	 * @return One of the <code>BufferedImage.TYPE_</code> constants or
+	 *         {@link BufferedImage#TYPE_CUSTOM} if the decoder chooses.
+	 */
+	public int getDestinationType() {
+		return destinationType;
+	}
+
+	/**
+	 * Returns the image the data are decoded into.
+	 *
+	 * @return The image or <code>null</code> if a new image is created for
+	 *         each decode.
+	 */
+	public BufferedImage getDestination() {
+		return destination;
+	}
+
+	/**
+	 * Returns the width of the decoded image.
+	 *
+	 * @param info
+	 *            The header of the image.
+	 * @return The number of pixels.
+	 */
+	public int getDecodedWidth(JpegInfo info) {
+		int x = sourceRegion == null ? 0 : sourceRegion.x;
+		int width = sourceRegion == null ? info.getWidth() : Math.min(
+				sourceRegion.width, info.getWidth() - x);
+		return Math.max(0, (width + xSubsampling - 1) / xSubsampling);
+	}
+
+	/**
+	 * Returns the height of the decoded image.
+	 *
+	 * @param info
+	 *            The header of the image.
+	 * @return The number of pixels.
+	 */
+	public int getDecodedHeight(JpegInfo info) {
+		int y = sourceRegion == null ? 0 : sourceRegion.y;
+		int height = sourceRegion == null ? info.getHeight() : Math.min(
+				sourceRegion.height, info.getHeight() - y);
+		return Math.max(0, (height + ySubsampling - 1) / ySubsampling);
+	}
+
+	/**
+	 * Creates an image that fits the decoded images of a stream; e.g., to
+	 * build the options of the following decodes with it as destination.
+	 *
+	 * @param info
+	 *            The header of an image of the stream.
+	 * @return The image; its type is the destination type or, if the decoder
+	 *         chooses, the type that matches the number of components.
+	 */
+	public BufferedImage createDestination(JpegInfo info) {
+		int type = destinationType;
+		if (type == BufferedImage.TYPE_CUSTOM) {
+			type = info.getComponentCount() == 1 ? BufferedImage.TYPE_BYTE_GRAY
+					: BufferedImage.TYPE_3BYTE_BGR;
+		}
+		return new BufferedImage(Math.max(1, getDecodedWidth(info)), Math.max(
+				1, getDecodedHeight(info)), type);
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("DecodeOptions[subsampling=");
+		sb.append(xSubsampling);
+		sb.append("x");
+		sb.append(ySubsampling);
+		sb.append(",region=");
+		sb.append(sourceRegion);
+		sb.append(",type=");
+		sb.append(destinationType);
+		sb.append(",destination=");
+		sb.append(destination != null);
+		sb.append("]");
+		return sb.toString();
+	}
+
+	/**
+	 * Creates {@link DecodeOptions} instances.
+	 */
+	public static class Builder extends LoggableObject {
+
+		private int xSubsampling = 1;
+		private int ySubsampling = 1;
+		private Rectangle sourceRegion = null;
+		private int destinationType = BufferedImage.TYPE_CUSTOM;
+		private BufferedImage destination = null;
+
+		/**
+		 * Creates a builder for full-resolution decodes.
+		 */
+		public Builder() {
+		}
+
+		/**
+		 * Creates a builder that starts with the values of other options.
+		 *
+		 * @param options
+		 *            The options.
+		 */
+		public Builder(DecodeOptions options) {
+			xSubsampling = options.xSubsampling;
+			ySubsampling = options.ySubsampling;
+			sourceRegion = options.sourceRegion;
+			destinationType = options.destinationType;
+			destination = options.destination;
+		}
+
+		/**
+		 * Redefines the subsampling; e.g., 4 and 4 for a quarter-scale image.
+		 *
+		 * @param xSubsampling
+		 *            Only every n-th column is decoded.
+		 * @param ySubsampling
+		 *            Only every n-th row is decoded.
+		 * @return This builder.
+		 */
+		public Builder setSourceSubsampling(int xSubsampling, int ySubsampling) {
+			String mn = "setSourceSubsampling";
+			Validator.checkArgument(mn, "xSubsampling", xSubsampling,
+					xSubsampling > 0, "must be positive.");
+			Validator.checkArgument(mn, "ySubsampling", ySubsampling,
+					ySubsampling > 0, "must be positive.");
+			this.xSubsampling = xSubsampling;
+			this.ySubsampling = ySubsampling;
+			return this;
+		}
+
+		/**
+		 * Redefines the region of the image that is decoded. Parts of the
+		 * region outside of the image are ignored.
+		 *
+		 * @param sourceRegion
+		 *            The region or <code>null</code> for the whole image.
+		 * @return This builder.
+		 */
+		public Builder setSourceRegion(Rectangle sourceRegion) {
+			String mn = "setSourceRegion";
+			if (sourceRegion != null) {
+				Validator.checkArgument(mn, "sourceRegion", sourceRegion,
+						sourceRegion.x >= 0 && sourceRegion.y >= 0
+								&& !sourceRegion.isEmpty(),
+						"must be a non-empty region at non-negative offsets.");
+			}
+			this.sourceRegion = sourceRegion == null ? null : new Rectangle(
+					sourceRegion);
+			return this;
+		}
+
+		/**
+		 * Redefines the type of the decoded image. The decoder converts into
+		 * types with as many bands as the image has components; e.g., RGB and
+		 * BGR types for colour images but no types with alpha.
+		 *
+		 * @param destinationType
+		 *            One of the <code>BufferedImage.TYPE_</code> constants or
+		 *            {@link BufferedImage#TYPE_CUSTOM} if the decoder chooses.
+		 * @return This builder.
+		 */
+		public Builder setDestinationType(int destinationType) {
+			Validator.checkArgument("setDestinationType", "destinationType",
+					destinationType, destinationType >= 0
+							&& destinationType <= BufferedImage.TYPE_BYTE_INDEXED,
+					"not a BufferedImage type.");
+			this.destinationType = destinationType;
+			return this;
+		}
+
+		/**
+		 * Redefines the image the data are decoded into. The image must be at
+		 * least as large as the decoded region; its type takes precedence
+		 * over the destination type.
+		 *
+		 * @param destination
+		 *            The image or <code>null</code> to create a new image for
+		 *            each decode.
+		 * @return This builder.
+		 */
+		public Builder setDestination(BufferedImage destination) {
+			this.destination = destination;
+			return this;
+		}
+
+		/**
+		 * Creates the options.
+		 *
+		 * @return The options.
+		 */
+		public DecodeOptions build() {
+			return new DecodeOptions(this);
+		}
+	}
+}
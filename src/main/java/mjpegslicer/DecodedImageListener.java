@@ -0,0 +1,21 @@
+package mjpegslicer;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Clients that want to be notified when an image of the camera M-JPEG stream
+ * was decoded must implement this interface.
+ */
+public interface DecodedImageListener {
+
+	/**
+	 * Notification method.
+	 * 
+	 * @param event
+	 *            The event that describes the image; valid for the duration
+	 *            of the call only, unless it is retained.
+	 * @param image
+	 *            The decoded image.
+	 */
+	public void newDecodedImage(ImageEvent event, BufferedImage image);
+}
@@ -1,19 +1,31 @@
 package mjpegslicer;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Date;
 import java.util.EventObject;
 
-import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+
+import mjpegslicer.util.JpegCodecs;
+import mjpegslicer.util.Validator;
 
 
 /**
  * This class describes an image that was sliced from the M-JPEG stream.
+ * <p>
+ * An event may share its image data with a pooled buffer. Such an event is
+ * reference counted: a listener that keeps the event beyond the notification
+ * call, e.g. to process it in another thread, must {@link #retain()} it and
+ * {@link #release()} it when done.
  */
-public class ImageEvent extends EventObject {
+public class ImageEvent extends EventObject implements ReferenceCounted {
 
 	private static final long serialVersionUID = -1L;
 	
@@ -48,23 +60,183 @@ public class ImageEvent extends EventObject {
 		return sequenceNumber;
 	}
 
+	/**
+	 * The value of a timestamp that is not known.
+	 */
+	public static final long UNKNOWN_TIME = Long.MIN_VALUE;
+
+	private long firstByteNanos = UNKNOWN_TIME;
+	private long lastByteNanos = UNKNOWN_TIME;
+	private long cameraMillis = UNKNOWN_TIME;
+	private volatile long dispatchNanos = UNKNOWN_TIME;
+
+	/**
+	 * Records when the image was captured. This is done by the sink before the
+	 * event is published.
+	 * 
+	 * @param firstByteNanos
+	 *            The {@link System#nanoTime()} when the first byte of the
+	 *            image part arrived.
+	 * @param lastByteNanos
+	 *            The {@link System#nanoTime()} when the last byte of the image
+	 *            arrived.
+	 * @param cameraMillis
+	 *            The timestamp the camera supplied as number of milliseconds
+	 *            since 1970/1/1 0:0 UTC, or {@link #UNKNOWN_TIME}.
+	 */
+	public void setCaptureTimes(long firstByteNanos, long lastByteNanos,
+			long cameraMillis) {
+		this.firstByteNanos = firstByteNanos;
+		this.lastByteNanos = lastByteNanos;
+		this.cameraMillis = cameraMillis;
+	}
+
+	/**
+	 * Returns when the first byte of the image part arrived. The value is
+	 * only meaningful relative to other {@link System#nanoTime()} values.
+	 * 
+	 * @return The time in nanoseconds or {@link #UNKNOWN_TIME}.
+	 */
+	public long getFirstByteNanos() {
+		return firstByteNanos;
+	}
+
+	/**
+	 * Returns when the last byte of the image arrived. The value is only
+	 * meaningful relative to other {@link System#nanoTime()} values.
+	 * 
+	 * @return The time in nanoseconds or {@link #UNKNOWN_TIME}.
+	 */
+	public long getLastByteNanos() {
+		return lastByteNanos;
+	}
+
+	/**
+	 * Returns the timestamp the camera supplied; e.g., in an "X-Timestamp"
+	 * part header, a JPEG comment or the EXIF data. The camera clock is not
+	 * necessarily in sync with the local clock.
+	 * 
+	 * @return The timestamp as number of milliseconds since 1970/1/1 0:0 UTC,
+	 *         or {@link #UNKNOWN_TIME}.
+	 */
+	public long getCameraMillis() {
+		return cameraMillis;
+	}
+
+	/**
+	 * Records when the dispatching thread started to notify the listeners.
+	 * 
+	 * @param dispatchNanos
+	 *            The {@link System#nanoTime()} of the dispatch.
+	 */
+	public void setDispatchNanos(long dispatchNanos) {
+		this.dispatchNanos = dispatchNanos;
+	}
+
+	/**
+	 * Returns when the dispatching thread started to notify the listeners. The
+	 * value is only meaningful relative to other {@link System#nanoTime()}
+	 * values.
+	 * 
+	 * @return The time in nanoseconds or {@link #UNKNOWN_TIME}.
+	 */
+	public long getDispatchNanos() {
+		return dispatchNanos;
+	}
+
+	/**
+	 * Returns the time it took the image to arrive; i.e., from its first byte
+	 * until its last byte. This is mostly network delay.
+	 * 
+	 * @return The time in nanoseconds or {@link #UNKNOWN_TIME}.
+	 */
+	public long getTransferNanos() {
+		return firstByteNanos == UNKNOWN_TIME
+				|| lastByteNanos == UNKNOWN_TIME ? UNKNOWN_TIME
+				: lastByteNanos - firstByteNanos;
+	}
+
+	/**
+	 * Returns the time the image waited for the dispatching thread; i.e., from
+	 * its last byte until the dispatch. This is the queueing delay.
+	 * 
+	 * @return The time in nanoseconds or {@link #UNKNOWN_TIME}.
+	 */
+	public long getQueueNanos() {
+		long dispatch = dispatchNanos;
+		return lastByteNanos == UNKNOWN_TIME
+				|| dispatch == UNKNOWN_TIME ? UNKNOWN_TIME
+				: dispatch - lastByteNanos;
+	}
+
 	private final byte[] imageData;
+	private final int imageLength;
+	private final transient ReferenceCounted owner;
 
-	private static byte[] cloneImageData(byte[] original) {
-		int len = original.length;
-		byte[] result = new byte[len];
-		System.arraycopy(original, 0, result, 0, len);
+	private static byte[] cloneImageData(byte[] original, int length) {
+		byte[] result = new byte[length];
+		System.arraycopy(original, 0, result, 0, length);
 		return result;
 	}
 
 	/**
 	 * Returns the image data. Clients should not modify the original contents
-	 * of the event's image data. So the result data are cloned.
+	 * of the event's image data. So the result data are cloned. Clients that
+	 * only forward or store the data should prefer {@link #getImageBuffer()},
+	 * {@link #openImageStream()} or one of the <code>writeTo</code> methods,
+	 * which do not copy.
 	 * 
 	 * @return The cloned image data.
 	 */
 	public byte[] getImageData() {
-		return cloneImageData(imageData);
+		return cloneImageData(imageData, imageLength);
+	}
+
+	/**
+	 * Returns a read-only view of the image data without copying them. Each
+	 * call returns an independent view; i.e., its position starts at zero.
+	 * 
+	 * @return The view.
+	 */
+	public ByteBuffer getImageBuffer() {
+		return ByteBuffer.wrap(imageData, 0, imageLength).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns a stream that reads the image data without copying them.
+	 * 
+	 * @return The stream.
+	 */
+	public InputStream openImageStream() {
+		return new ByteArrayInputStream(imageData, 0, imageLength);
+	}
+
+	/**
+	 * Writes the image data to a stream.
+	 * 
+	 * @param os
+	 *            The stream.
+	 * @throws IOException
+	 *             if the data could not be written.
+	 */
+	public void writeTo(OutputStream os) throws IOException {
+		os.write(imageData, 0, imageLength);
+	}
+
+	/**
+	 * Writes the image data to a channel. The method returns when all data
+	 * are written; a non-blocking channel is written repeatedly.
+	 * 
+	 * @param channel
+	 *            The channel.
+	 * @throws IOException
+	 *             if the data could not be written.
+	 */
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(imageData, 0, imageLength);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
 	}
 
 	/**
@@ -73,11 +245,11 @@ public class ImageEvent extends EventObject {
 	 * @return The number of bytes.
 	 */
 	public int getImageLength() {
-		return imageData.length;
+		return imageLength;
 	}
 
 	/**
-	 * Creates an event instance.
+	 * Creates an event instance. The image data are cloned.
 	 * 
 	 * @param source
 	 *            The event source.
@@ -93,46 +265,197 @@ public class ImageEvent extends EventObject {
 	 */
 	public ImageEvent(Object source, long creationMillis, int sequenceNumber,
 			byte[] imageData) {
+		this(source, creationMillis, sequenceNumber, checkImageData(imageData),
+				imageData.length, null, true);
+	}
+
+	/**
+	 * Creates an event instance that takes ownership of a buffer: the image
+	 * data are not cloned, so the caller must not modify them any more. If an
+	 * owner is specified, the event holds the caller's reference to it;
+	 * {@link #retain()} and {@link #release()} are delegated to the owner.
+	 * 
+	 * @param source
+	 *            The event source.
+	 * @param creationMillis
+	 *            The timestamp as number of milliseconds since 1970/1/1 0:0
+	 *            UTC.
+	 * @param sequenceNumber
+	 *            The image sequence number.
+	 * @param imageData
+	 *            The buffer; it may be larger than the image.
+	 * @param imageLength
+	 *            The image length.
+	 * @param owner
+	 *            The owner of the buffer that is released when the buffer is
+	 *            not needed any more, or <code>null</code> if the buffer is
+	 *            simply garbage collected.
+	 * @throws ImageDataCorruptionException
+	 *             if an invalid byte array or length was specified.
+	 */
+	public ImageEvent(Object source, long creationMillis, int sequenceNumber,
+			byte[] imageData, int imageLength, ReferenceCounted owner) {
+		this(source, creationMillis, sequenceNumber, checkImageData(imageData),
+				imageLength, owner, false);
+	}
+
+	private ImageEvent(Object source, long creationMillis, int sequenceNumber,
+			byte[] imageData, int imageLength, ReferenceCounted owner,
+			boolean clone) {
 		super(source);
-		if (imageData == null) {
+		if (imageLength <= 0) {
 			throw new ImageDataCorruptionException(
-					"Image data byte array reference must not be null.");
+					"Image data byte array length must not be zero.");
 		}
-		if (imageData.length == 0) {
+		if (imageLength > imageData.length) {
 			throw new ImageDataCorruptionException(
-					"Image data byte array length must not be zero.");
+					"Image length exceeds the byte array length.");
 		}
 		this.creationMillis = creationMillis;
 		this.sequenceNumber = sequenceNumber;
-		this.imageData = cloneImageData(imageData);
+		this.imageData = clone ? cloneImageData(imageData, imageLength)
+				: imageData;
+		this.imageLength = imageLength;
+		this.owner = owner;
+	}
+
+	private static byte[] checkImageData(byte[] imageData) {
+		if (imageData == null) {
+			throw new ImageDataCorruptionException(
+					"Image data byte array reference must not be null.");
+		}
+		return imageData;
+	}
+
+	/**
+	 * Returns the number of references held on the image data.
+	 * 
+	 * @return The owner's count, or always <code>1</code> if the event has no
+	 *         owner.
+	 */
+	@Override
+	public int refCount() {
+		return owner == null ? 1 : owner.refCount();
+	}
+
+	/**
+	 * Acquires an additional reference on the image data; e.g., before the
+	 * event is handed to another thread. This does nothing if the event has
+	 * no owner.
+	 * 
+	 * @return This event.
+	 * @throws IllegalStateException
+	 *             if the image data were already released.
+	 */
+	@Override
+	public ImageEvent retain() {
+		if (owner != null) {
+			owner.retain();
+		}
+		return this;
+	}
+
+	/**
+	 * Gives a reference on the image data back. The image data must not be
+	 * accessed after the last reference was released. This does nothing if
+	 * the event has no owner.
+	 * 
+	 * @return <code>true</code> if this was the last reference, otherwise
+	 *         <code>false</code>.
+	 * @throws IllegalStateException
+	 *             if the image data were already released.
+	 */
+	@Override
+	public boolean release() {
+		return owner != null && owner.release();
+	}
+
+	private transient volatile JpegInfo jpegInfo;
+
+	/**
+	 * Returns the header information of the image without decoding it. The
+	 * header is probed on the first call; the result is kept with the event.
+	 * 
+	 * @return The information.
+	 * @throws ImageDataCorruptionException
+	 *             if the image data do not start with a valid JPEG header.
+	 */
+	public JpegInfo getJpegInfo() {
+		JpegInfo result = jpegInfo;
+		if (result == null) {
+			// probing twice in a race is harmless, the result is immutable
+			result = JpegInfo.probe(imageData, imageLength);
+			jpegInfo = result;
+		}
+		return result;
 	}
 
 	/**
 	 * Creates a {@link BufferedImage} instance from the image data byte array.
+	 * The decode reuses the JPEG reader of the calling thread.
 	 * 
 	 * @return The image
 	 * @throws ImageDataCorruptionException
 	 *             if the image data were corrupted.
 	 */
 	public BufferedImage createBufferedImage() {
-		BufferedImage result = null;
-		InputStream bais = new ByteArrayInputStream(imageData);
 		try {
-			result = ImageIO.read(bais);
-			if (result == null) {
-				throw new ImageDataCorruptionException(
-						"Failed to create buffered image from byte array.");
-			}
+			return JpegCodecs.read(imageData, 0, imageLength, null);
+		} catch (IOException ioe) {
+			throw new ImageDataCorruptionException(
+					"Failed to create buffered image from byte array.", ioe);
+		}
+	}
+
+	/**
+	 * Creates a {@link BufferedImage} instance from the image data byte array
+	 * with the given options; e.g., a subsampled preview, a region of interest
+	 * or a decode into an image the caller reuses for each frame.
+	 * 
+	 * @param options
+	 *            The options.
+	 * @return The image; the destination of the options if set.
+	 * @throws IllegalArgumentException
+	 *             if the source region lies outside of the image or if the
+	 *             destination is too small for the decoded image or its
+	 *             number of bands does not match.
+	 * @throws ImageDataCorruptionException
+	 *             if the image data were corrupted.
+	 */
+	public BufferedImage createBufferedImage(DecodeOptions options) {
+		String mn = "createBufferedImage";
+		Validator.argumentMustNotBeNull(mn, "options", options);
+		JpegInfo info = getJpegInfo();
+		Rectangle region = options.getSourceRegion();
+		if (region != null) {
+			Validator.checkArgument(mn, "options", options,
+					region.x < info.getWidth() && region.y < info.getHeight(),
+					"Source region outside of image.");
+		}
+		BufferedImage destination = options.getDestination();
+		if (destination != null) {
+			Validator.checkArgument(mn, "options", options,
+					destination.getWidth() >= options.getDecodedWidth(info)
+							&& destination.getHeight() >= options
+									.getDecodedHeight(info),
+					"Destination too small for decoded image.");
+		}
+		if (destination == null
+				&& options.getDestinationType() != BufferedImage.TYPE_CUSTOM) {
+			// the decoder converts into any destination with matching bands
+			destination = options.createDestination(info);
+		}
+		ImageReadParam param = new ImageReadParam();
+		param.setSourceSubsampling(options.getXSubsampling(),
+				options.getYSubsampling(), 0, 0);
+		param.setSourceRegion(region);
+		param.setDestination(destination);
+		try {
+			return JpegCodecs.read(imageData, 0, imageLength, param);
 		} catch (IOException ioe) {
 			throw new ImageDataCorruptionException(
 					"Failed to create buffered image from byte array.", ioe);
-		} finally {
-			try {
-				bais.close();
-			} catch (IOException ignored) {
-			}
 		}
-		return result;
 	}
 
 	/**
@@ -151,7 +474,7 @@ public class ImageEvent extends EventObject {
 		sb.append(",seqNo=");
 		sb.append(sequenceNumber);
 		sb.append(",image:");
-		sb.append(imageData.length);
+		sb.append(imageLength);
 		sb.append(" bytes]");
 		return sb.toString();
 	}
@@ -0,0 +1,489 @@
+package mjpegslicer;
+
+/**
+ * The header information of a JPEG image; i.e., what the marker segments in
+ * front of the compressed data tell about it. The information is probed
+ * without decoding the image: only the segments up to the first SOS marker
+ * are visited, which takes microseconds instead of the milliseconds of a
+ * decode.
+ * <p>
+ * Instances are immutable; the arrays returned by the getters are copies.
+ */
+public final class JpegInfo {
+
+	/**
+	 * The marker of the JFIF segment.
+	 */
+	public static final int APP0 = 0xe0;
+
+	/**
+	 * The marker of the EXIF segment.
+	 */
+	public static final int APP1 = 0xe1;
+
+	/**
+	 * The marker of a comment segment.
+	 */
+	public static final int COM = 0xfe;
+
+	private static final int SOI = 0xd8;
+	private static final int EOI = 0xd9;
+	private static final int SOS = 0xda;
+	private static final int DQT = 0xdb;
+	private static final int DRI = 0xdd;
+	private static final int DHT = 0xc4;
+	private static final int JPG = 0xc8;
+	private static final int DAC = 0xcc;
+
+	private static final int MAX_TABLES = 4;
+	private static final int TABLE_SIZE = 64;
+
+	/**
+	 * The luminance table of the JPEG standard, Annex K, which is scaled by
+	 * the common encoders.
+	 */
+	private static final int[] STANDARD_LUMINANCE_TABLE = { 16, 11, 10, 16,
+			24, 40, 51, 61, 12, 12, 14, 19, 26, 58, 60, 55, 14, 13, 16, 24, 40,
+			57, 69, 56, 14, 17, 22, 29, 51, 87, 80, 62, 18, 22, 37, 56, 68,
+			109, 103, 77, 24, 35, 55, 64, 81, 104, 113, 92, 49, 64, 78, 87,
+			103, 121, 120, 101, 72, 92, 95, 98, 112, 100, 103, 99 };
+
+	private final int frameMarker;
+	private final int precision;
+	private final int width;
+	private final int height;
+	private final int[] componentIds;
+	private final int[] horizontalSampling;
+	private final int[] verticalSampling;
+	private final int[] tableSelectors;
+	private final int[][] quantizationTables;
+	private final int restartInterval;
+	private final int scanOffset;
+	private final int[] segmentOffsets;
+	private final int[] segmentLengths;
+
+	private JpegInfo(Probe probe) {
+		frameMarker = probe.frameMarker;
+		precision = probe.precision;
+		width = probe.width;
+		height = probe.height;
+		componentIds = probe.componentIds;
+		horizontalSampling = probe.horizontalSampling;
+		verticalSampling = probe.verticalSampling;
+		tableSelectors = probe.tableSelectors;
+		quantizationTables = probe.quantizationTables;
+		restartInterval = probe.restartInterval;
+		scanOffset = probe.scanOffset;
+		segmentOffsets = probe.segmentOffsets;
+		segmentLengths = probe.segmentLengths;
+	}
+
+	/**
+	 * Probes the header of a JPEG image.
+	 *
+	 * @param data
+	 *            The image data.
+	 * @param length
+	 *            The image length.
+	 * @return The header information.
+	 * @throws ImageDataCorruptionException
+	 *             if the data do not start with a valid JPEG header.
+	 */
+	public static JpegInfo probe(byte[] data, int length) {
+		if (data == null || length < 0 || length > data.length) {
+			throw new ImageDataCorruptionException(
+					"Invalid image data byte array or length.");
+		}
+		Probe probe = new Probe(data, length);
+		probe.walk();
+		return new JpegInfo(probe);
+	}
+
+	/**
+	 * The state of probing one image.
+	 */
+	private static class Probe {
+
+		private final byte[] data;
+		private final int length;
+		private int frameMarker = -1;
+		private int precision;
+		private int width;
+		private int height;
+		private int[] componentIds;
+		private int[] horizontalSampling;
+		private int[] verticalSampling;
+		private int[] tableSelectors;
+		private final int[][] quantizationTables = new int[MAX_TABLES][];
+		private int restartInterval = 0;
+		private int scanOffset = -1;
+		private final int[] segmentOffsets = new int[17];
+		private final int[] segmentLengths = new int[17];
+
+		private Probe(byte[] data, int length) {
+			this.data = data;
+			this.length = length;
+			for (int i = 0; i < segmentOffsets.length; i++) {
+				segmentOffsets[i] = -1;
+			}
+		}
+
+		private int readUnsignedByte(int i) {
+			if (i >= length) {
+				throw new ImageDataCorruptionException(
+						"JPEG header is truncated.");
+			}
+			return data[i] & 0xff;
+		}
+
+		private int readUnsignedShort(int i) {
+			return readUnsignedByte(i) << 8 | readUnsignedByte(i + 1);
+		}
+
+		private void walk() {
+			if (readUnsignedByte(0) != 0xff || readUnsignedByte(1) != SOI) {
+				throw new ImageDataCorruptionException(
+						"JPEG data must start with SOI.");
+			}
+			int i = 2;
+			while (scanOffset < 0) {
+				if (readUnsignedByte(i) != 0xff) {
+					throw new ImageDataCorruptionException(
+							"JPEG marker expected at offset " + i + ".");
+				}
+				int marker = readUnsignedByte(i + 1);
+				if (marker == 0xff) {
+					// fill byte
+					i++;
+					continue;
+				}
+				if (marker == EOI) {
+					break;
+				}
+				if (marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7)) {
+					// stand-alone marker
+					i += 2;
+					continue;
+				}
+				int segmentLength = readUnsignedShort(i + 2);
+				int start = i + 4;
+				int end = i + 2 + segmentLength;
+				if (segmentLength < 2 || end > length) {
+					throw new ImageDataCorruptionException(
+							"JPEG segment at offset " + i
+									+ " exceeds the image data.");
+				}
+				if (marker == SOS) {
+					scanOffset = i;
+				} else if (isStartOfFrame(marker)) {
+					startOfFrame(marker, start, end);
+				} else if (marker == DQT) {
+					quantizationTables(start, end);
+				} else if (marker == DRI) {
+					restartInterval = readUnsignedShort(start);
+				} else {
+					int index = segmentIndex(marker);
+					if (index >= 0 && segmentOffsets[index] < 0) {
+						segmentOffsets[index] = i;
+						segmentLengths[index] = segmentLength + 2;
+					}
+				}
+				i = end;
+			}
+			if (frameMarker < 0) {
+				throw new ImageDataCorruptionException(
+						"JPEG header has no start of frame.");
+			}
+		}
+
+		private void startOfFrame(int marker, int start, int end) {
+			if (frameMarker >= 0) {
+				throw new ImageDataCorruptionException(
+						"JPEG header has more than one start of frame.");
+			}
+			frameMarker = marker;
+			precision = readUnsignedByte(start);
+			height = readUnsignedShort(start + 1);
+			width = readUnsignedShort(start + 3);
+			int count = readUnsignedByte(start + 5);
+			if (start + 6 + 3 * count > end) {
+				throw new ImageDataCorruptionException(
+						"JPEG start of frame is truncated.");
+			}
+			componentIds = new int[count];
+			horizontalSampling = new int[count];
+			verticalSampling = new int[count];
+			tableSelectors = new int[count];
+			for (int c = 0; c < count; c++) {
+				int i = start + 6 + 3 * c;
+				componentIds[c] = readUnsignedByte(i);
+				horizontalSampling[c] = readUnsignedByte(i + 1) >> 4;
+				verticalSampling[c] = readUnsignedByte(i + 1) & 0x0f;
+				tableSelectors[c] = readUnsignedByte(i + 2);
+			}
+		}
+
+		private void quantizationTables(int start, int end) {
+			int i = start;
+			while (i < end) {
+				int pqTq = readUnsignedByte(i++);
+				int id = pqTq & 0x0f;
+				boolean sixteenBit = (pqTq >> 4) != 0;
+				if (id >= MAX_TABLES || i + TABLE_SIZE * (sixteenBit ? 2 : 1) > end) {
+					throw new ImageDataCorruptionException(
+							"JPEG quantization table is invalid.");
+				}
+				int[] table = new int[TABLE_SIZE];
+				for (int k = 0; k < TABLE_SIZE; k++) {
+					if (sixteenBit) {
+						table[k] = readUnsignedShort(i);
+						i += 2;
+					} else {
+						table[k] = readUnsignedByte(i++);
+					}
+				}
+				quantizationTables[id] = table;
+			}
+		}
+	}
+
+	private static boolean isStartOfFrame(int marker) {
+		return marker >= 0xc0 && marker <= 0xcf && marker != DHT
+				&& marker != JPG && marker != DAC;
+	}
+
+	/**
+	 * Maps APP0..APP15 to 0..15 and COM to 16.
+	 */
+	private static int segmentIndex(int marker) {
+		if (marker >= APP0 && marker <= APP0 + 15) {
+			return marker - APP0;
+		}
+		return marker == COM ? 16 : -1;
+	}
+
+	/**
+	 * Returns the start of frame marker; e.g., 0xc0 for baseline and 0xc2 for
+	 * progressive images.
+	 *
+	 * @return The marker.
+	 */
+	public int getFrameMarker() {
+		return frameMarker;
+	}
+
+	/**
+	 * Indicates whether the image is progressive.
+	 *
+	 * @return The flag.
+	 */
+	public boolean isProgressive() {
+		return frameMarker == 0xc2 || frameMarker == 0xc6
+				|| frameMarker == 0xca || frameMarker == 0xce;
+	}
+
+	/**
+	 * Returns the sample precision.
+	 *
+	 * @return The number of bits per sample.
+	 */
+	public int getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * Returns the image width.
+	 *
+	 * @return The number of pixels.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the image height.
+	 *
+	 * @return The number of pixels; <code>0</code> if the height is defined
+	 *         by the first scan.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the number of components; e.g., 1 for grey scale and 3 for
+	 * colour images.
+	 *
+	 * @return The count.
+	 */
+	public int getComponentCount() {
+		return componentIds.length;
+	}
+
+	/**
+	 * Returns the component identifiers.
+	 *
+	 * @return The identifiers in frame order.
+	 */
+	public int[] getComponentIds() {
+		return componentIds.clone();
+	}
+
+	/**
+	 * Returns the horizontal sampling factors; e.g., 2, 1, 1 for 4:2:0 or 4:2:2
+	 * chroma subsampling.
+	 *
+	 * @return The factors in frame order.
+	 */
+	public int[] getHorizontalSampling() {
+		return horizontalSampling.clone();
+	}
+
+	/**
+	 * Returns the vertical sampling factors; e.g., 2, 1, 1 for 4:2:0 chroma
+	 * subsampling.
+	 *
+	 * @return The factors in frame order.
+	 */
+	public int[] getVerticalSampling() {
+		return verticalSampling.clone();
+	}
+
+	/**
+	 * Returns the quantization table selectors of the components.
+	 *
+	 * @return The table identifiers in frame order.
+	 */
+	public int[] getQuantizationTableSelectors() {
+		return tableSelectors.clone();
+	}
+
+	/**
+	 * Returns a quantization table.
+	 *
+	 * @param id
+	 *            The table identifier, 0 to 3.
+	 * @return The 64 values in zig-zag order or <code>null</code> if the table
+	 *         is not defined in front of the first scan.
+	 */
+	public int[] getQuantizationTable(int id) {
+		int[] table = id >= 0 && id < MAX_TABLES ? quantizationTables[id]
+				: null;
+		return table == null ? null : table.clone();
+	}
+
+	/**
+	 * Estimates the quality setting the image was encoded with, assuming that
+	 * the luminance table is the scaled table of the JPEG standard, as with
+	 * the IJG library and most cameras.
+	 *
+	 * @return The quality, 1 to 100, or <code>-1</code> if table 0 is not
+	 *         defined.
+	 */
+	public int getEstimatedQuality() {
+		int[] table = quantizationTables[0];
+		if (table == null) {
+			return -1;
+		}
+		long sum = 0L;
+		long standardSum = 0L;
+		for (int k = 0; k < TABLE_SIZE; k++) {
+			sum += table[k];
+			standardSum += STANDARD_LUMINANCE_TABLE[k];
+		}
+		double scale = 100.0 * sum / standardSum;
+		double quality = scale <= 100.0 ? (200.0 - scale) / 2.0
+				: 5000.0 / scale;
+		return (int) Math.max(1L, Math.min(100L, Math.round(quality)));
+	}
+
+	/**
+	 * Returns the restart interval.
+	 *
+	 * @return The number of MCUs between restart markers or <code>0</code> if
+	 *         restart markers are not used.
+	 */
+	public int getRestartInterval() {
+		return restartInterval;
+	}
+
+	/**
+	 * Returns the offset of the first scan; i.e., the size of the header.
+	 *
+	 * @return The offset of the SOS marker or <code>-1</code> if the image has
+	 *         no scan.
+	 */
+	public int getScanOffset() {
+		return scanOffset;
+	}
+
+	/**
+	 * Indicates whether the header contains a segment.
+	 *
+	 * @param marker
+	 *            The marker; {@link #APP0} to <code>APP0 + 15</code> or
+	 *            {@link #COM}.
+	 * @return The flag.
+	 */
+	public boolean hasSegment(int marker) {
+		return getSegmentOffset(marker) >= 0;
+	}
+
+	/**
+	 * Returns the offset of the first segment of a kind.
+	 *
+	 * @param marker
+	 *            The marker; {@link #APP0} to <code>APP0 + 15</code> or
+	 *            {@link #COM}.
+	 * @return The offset of the marker in the image data or <code>-1</code>
+	 *         if the header does not contain such a segment.
+	 */
+	public int getSegmentOffset(int marker) {
+		int index = segmentIndex(marker);
+		return index < 0 ? -1 : segmentOffsets[index];
+	}
+
+	/**
+	 * Returns the length of the first segment of a kind.
+	 *
+	 * @param marker
+	 *            The marker; {@link #APP0} to <code>APP0 + 15</code> or
+	 *            {@link #COM}.
+	 * @return The number of bytes including the marker or <code>0</code> if
+	 *         the header does not contain such a segment.
+	 */
+	public int getSegmentLength(int marker) {
+		int index = segmentIndex(marker);
+		return index < 0 ? 0 : segmentLengths[index];
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("JpegInfo[");
+		sb.append(width);
+		sb.append("x");
+		sb.append(height);
+		sb.append(",SOF=0x");
+		sb.append(Integer.toHexString(frameMarker));
+		sb.append(",sampling=");
+		for (int c = 0; c < componentIds.length; c++) {
+			if (c > 0) {
+				sb.append(",");
+			}
+			sb.append(horizontalSampling[c]);
+			sb.append("x");
+			sb.append(verticalSampling[c]);
+		}
+		sb.append(",restart=");
+		sb.append(restartInterval);
+		sb.append(",scan@");
+		sb.append(scanOffset);
+		sb.append("]");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,35 @@
+package mjpegslicer;
+
+/**
+ * An object with an explicit life cycle: each holder owns a reference and
+ * gives it back by calling {@link #release()}. The object's resources are
+ * recycled when the last reference is released.
+ */
+public interface ReferenceCounted {
+
+	/**
+	 * Returns the number of references held.
+	 * 
+	 * @return The count; <code>0</code> means the object was released.
+	 */
+	public int refCount();
+
+	/**
+	 * Acquires an additional reference.
+	 * 
+	 * @return This object.
+	 * @throws IllegalStateException
+	 *             if the object was already released.
+	 */
+	public ReferenceCounted retain();
+
+	/**
+	 * Gives a reference back.
+	 * 
+	 * @return <code>true</code> if this was the last reference and the object
+	 *         was recycled, otherwise <code>false</code>.
+	 * @throws IllegalStateException
+	 *             if the object was already released.
+	 */
+	public boolean release();
+}
@@ -1,6 +1,7 @@
 package mjpegslicer;
 
 import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
 
 public interface Sink {
 
@@ -27,6 +28,25 @@ public interface Sink {
 	 */
 	public void startStream(InputStream inputStream);
 
+	/**
+	 * Starts the streaming.
+	 * 
+	 * @param channel
+	 *            The {@link ReadableByteChannel} that is used for streaming.
+	 */
+	public void startChannel(ReadableByteChannel channel);
+
+	/**
+	 * Starts the streaming from a source and supervises it: when the
+	 * connection is lost, the source is restarted after a delay, and the
+	 * images continue with the next sequence number.
+	 * 
+	 * @param source
+	 *            The {@link Source} that is started; it is stopped with the
+	 *            streaming.
+	 */
+	public void startSource(Source source);
+
 	/**
 	 * Stops the streaming.
 	 */
@@ -51,7 +71,9 @@ public interface Sink {
 	 * Extracts the next image data chunk from the stream.
 	 * 
 	 * @param contentLength
-	 *            The content length.
+	 *            The content length or
+	 *            {@link HttpHeaders#INVALID_CONTENT_LENGTH} if the image data
+	 *            end at the next multipart boundary.
 	 * @return The data or <code>null</code> if the end of data is reached.
 	 */
 	public byte[] readImageData(int contentLength);
@@ -62,4 +84,21 @@ public interface Sink {
 	 * @return The image count.
 	 */
 	public int getImageCount();
+
+	/**
+	 * Adds an image listener that is notified of each image sliced from the
+	 * stream.
+	 * 
+	 * @param listener
+	 *            The listener that is added.
+	 */
+	public void addImageListener(ImageListener listener);
+
+	/**
+	 * Removes an image listener.
+	 * 
+	 * @param listener
+	 *            The listener that is removed.
+	 */
+	public void removeImageListener(ImageListener listener);
 }
@@ -0,0 +1,275 @@
+package mjpegslicer.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjpegslicer.ImageEvent;
+import mjpegslicer.ImageListener;
+import mjpegslicer.util.ExecutorStrategy;
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.PlatformThreadStrategy;
+import mjpegslicer.util.Validator;
+
+/**
+ * An image listener that decouples a delegate listener from the dispatching
+ * thread: events are put into a bounded queue of its own and delivered by a
+ * thread of its own. When the queue is full, the {@link OverflowPolicy}
+ * decides which image is lost.
+ * <p>
+ * Queued events are retained and released after delivery, so the delegate
+ * sees valid image data even if the dispatcher has moved on.
+ */
+public class AsyncImageListener extends LoggableObject implements
+		ImageListener, Shutdownable {
+
+	private final ImageListener delegate;
+	private final OverflowPolicy overflowPolicy;
+	private final BlockingQueue<ImageEvent> queue;
+	private final ExecutorService executor;
+	private volatile boolean running = true;
+	private final AtomicBoolean warnedDrop = new AtomicBoolean();
+
+	private final AtomicLong deliveredCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong maxLag = new AtomicLong();
+
+	/**
+	 * Creates an instance and starts its delivery thread on a platform
+	 * thread.
+	 *
+	 * @param delegate
+	 *            The listener that is notified.
+	 * @param queueCapacity
+	 *            The maximum number of queued events; ignored for
+	 *            {@link OverflowPolicy#LATEST_ONLY}.
+	 * @param overflowPolicy
+	 *            The policy when the queue is full.
+	 */
+	public AsyncImageListener(ImageListener delegate, int queueCapacity,
+			OverflowPolicy overflowPolicy) {
+		this(delegate, queueCapacity, overflowPolicy,
+				new PlatformThreadStrategy());
+	}
+
+	/**
+	 * Creates an instance and starts its delivery thread.
+	 *
+	 * @param delegate
+	 *            The listener that is notified.
+	 * @param queueCapacity
+	 *            The maximum number of queued events; ignored for
+	 *            {@link OverflowPolicy#LATEST_ONLY}.
+	 * @param overflowPolicy
+	 *            The policy when the queue is full.
+	 * @param executorStrategy
+	 *            The strategy that provides the delivery thread.
+	 */
+	public AsyncImageListener(ImageListener delegate, int queueCapacity,
+			OverflowPolicy overflowPolicy, ExecutorStrategy executorStrategy) {
+		debugEntering(MN_INIT, "delegate: ", delegate, ", capacity: ",
+				queueCapacity, ", policy: ", overflowPolicy, ", strategy: ",
+				executorStrategy);
+		Validator.argumentMustNotBeNull(MN_INIT, "delegate", delegate);
+		Validator.checkArgument(MN_INIT, "queueCapacity", queueCapacity,
+				queueCapacity > 0, "must be positive.");
+		Validator.argumentMustNotBeNull(MN_INIT, "overflowPolicy",
+				overflowPolicy);
+		Validator.argumentMustNotBeNull(MN_INIT, "executorStrategy",
+				executorStrategy);
+		this.delegate = delegate;
+		this.overflowPolicy = overflowPolicy;
+		queue = new ArrayBlockingQueue<ImageEvent>(
+				overflowPolicy == OverflowPolicy.LATEST_ONLY ? 1 : queueCapacity);
+		executor = executorStrategy.newExecutor();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				deliver();
+			}
+		});
+		// the thread ends with the task; shutdown interrupts it
+		executor.shutdown();
+		debugLeaving(MN_INIT);
+	}
+
+	/**
+	 * Returns the listener that is notified.
+	 *
+	 * @return The listener.
+	 */
+	public ImageListener getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * Returns the policy when the queue is full.
+	 *
+	 * @return The policy.
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * Returns the number of events that are queued but not yet delivered.
+	 *
+	 * @return The count.
+	 */
+	public int getLag() {
+		return queue.size();
+	}
+
+	/**
+	 * Returns the highest number of queued events so far.
+	 *
+	 * @return The count.
+	 */
+	public long getMaxLag() {
+		return maxLag.get();
+	}
+
+	/**
+	 * Returns the number of events delivered so far.
+	 *
+	 * @return The count.
+	 */
+	public long getDeliveredCount() {
+		return deliveredCount.get();
+	}
+
+	/**
+	 * Returns the number of events dropped so far.
+	 *
+	 * @return The count.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Queues an event for delivery.
+	 *
+	 * @param event
+	 *            The event.
+	 */
+	@Override
+	public void newImage(ImageEvent event) {
+		String mn = "newImage";
+		if (!running) {
+			// the dispatcher might go on at frame rate, so warn only once
+			if (warnedDrop.compareAndSet(false, true)) {
+				warn(mn, "listener was shut down, events are dropped: ",
+						event);
+			} else {
+				debug(mn, "listener was shut down, event is dropped: ", event);
+			}
+			droppedCount.incrementAndGet();
+			return;
+		}
+		event.retain();
+		switch (overflowPolicy) {
+		case BLOCK:
+			try {
+				queue.put(event);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				drop(event);
+			}
+			break;
+		case DROP_NEWEST:
+			if (!queue.offer(event)) {
+				drop(event);
+			}
+			break;
+		case DROP_OLDEST:
+		case LATEST_ONLY:
+			while (!queue.offer(event)) {
+				ImageEvent oldest = queue.poll();
+				if (oldest != null) {
+					drop(oldest);
+				}
+			}
+			break;
+		}
+		if (!running) {
+			// shut down meanwhile, the queue might have been drained already
+			drain();
+			return;
+		}
+		long lag = queue.size();
+		long max = maxLag.get();
+		while (lag > max && !maxLag.compareAndSet(max, lag)) {
+			max = maxLag.get();
+		}
+	}
+
+	private void drop(ImageEvent event) {
+		event.release();
+		droppedCount.incrementAndGet();
+	}
+
+	private void deliver() {
+		String mn = debugEntering("deliver");
+		while (running) {
+			ImageEvent event = null;
+			try {
+				event = queue.take();
+			} catch (InterruptedException ie) {
+				break;
+			}
+			try {
+				delegate.newImage(event);
+				deliveredCount.incrementAndGet();
+			} catch (RuntimeException re) {
+				error(mn, "listener failed: ", delegate, ", ", re);
+			} finally {
+				event.release();
+			}
+		}
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Stops the delivery thread. Events that are still queued are dropped.
+	 */
+	@Override
+	public void shutdown() {
+		String mn = debugEntering("shutdown");
+		running = false;
+		executor.shutdownNow();
+		drain();
+		debugLeaving(mn);
+	}
+
+	private void drain() {
+		ImageEvent event = queue.poll();
+		while (event != null) {
+			drop(event);
+			event = queue.poll();
+		}
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("AsyncImageListener[policy=");
+		sb.append(overflowPolicy);
+		sb.append(",lag=");
+		sb.append(queue.size());
+		sb.append(",delivered=");
+		sb.append(deliveredCount.get());
+		sb.append(",dropped=");
+		sb.append(droppedCount.get());
+		sb.append(",delegate=");
+		sb.append(delegate);
+		sb.append("]");
+		return sb.toString();
+	}
+}
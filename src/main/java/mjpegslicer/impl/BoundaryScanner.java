@@ -0,0 +1,116 @@
+package mjpegslicer.impl;
+
+import java.nio.ByteBuffer;
+
+import mjpegslicer.util.Validator;
+
+/**
+ * Searches byte buffers for a multipart delimiter. The search is a
+ * Boyer-Moore-Horspool search: the skip table is computed once per delimiter,
+ * so that most of the image data bytes are never looked at.
+ * <p>
+ * The pattern is CR LF followed by the delimiter line; i.e., a match marks the
+ * end of the image data that precede the next part.
+ */
+public class BoundaryScanner {
+
+	private final byte[] pattern;
+	private final int[] skip = new int[256];
+
+	/**
+	 * Creates a scanner for a boundary.
+	 *
+	 * @param boundary
+	 *            The boundary as found in the "Content-Type" header of the
+	 *            response, with or without the leading dashes.
+	 */
+	public BoundaryScanner(String boundary) {
+		Validator.argumentMustNotBeEmpty("BoundaryScanner", "boundary",
+				boundary);
+		String delimiter = boundary.startsWith("--") ? boundary : "--"
+				+ boundary;
+		byte[] delimiterBytes = delimiter.getBytes();
+		pattern = new byte[delimiterBytes.length + 2];
+		pattern[0] = 0x0d;
+		pattern[1] = 0x0a;
+		System.arraycopy(delimiterBytes, 0, pattern, 2, delimiterBytes.length);
+		int last = pattern.length - 1;
+		for (int i = 0; i < skip.length; i++) {
+			skip[i] = pattern.length;
+		}
+		for (int i = 0; i < last; i++) {
+			skip[pattern[i] & 0xff] = last - i;
+		}
+	}
+
+	/**
+	 * Returns the length of the search pattern.
+	 *
+	 * @return The number of bytes.
+	 */
+	public int getPatternLength() {
+		return pattern.length;
+	}
+
+	/**
+	 * Searches a buffer region for the pattern. Neither position nor limit of
+	 * the buffer are changed.
+	 *
+	 * @param buffer
+	 *            The buffer.
+	 * @param from
+	 *            The absolute index where the search starts.
+	 * @param to
+	 *            The absolute index where the search ends (exclusive).
+	 * @return The absolute index of the first match or <code>-1</code> if the
+	 *         region does not contain the pattern.
+	 */
+	public int indexOf(ByteBuffer buffer, int from, int to) {
+		if (buffer.hasArray()) {
+			int offset = buffer.arrayOffset();
+			int result = indexOf(buffer.array(), offset + from, offset + to);
+			return result < 0 ? result : result - offset;
+		}
+		int last = pattern.length - 1;
+		int i = from;
+		while (i + last < to) {
+			int j = last;
+			while (buffer.get(i + j) == pattern[j]) {
+				if (j == 0) {
+					return i;
+				}
+				j--;
+			}
+			i += skip[buffer.get(i + last) & 0xff];
+		}
+		return -1;
+	}
+
+	/**
+	 * Searches an array region for the pattern.
+	 *
+	 * @param data
+	 *            The array.
+	 * @param from
+	 *            The index where the search starts.
+	 * @param to
+	 *            The index where the search ends (exclusive).
+	 * @return The index of the first match or <code>-1</code> if the region
+	 *         does not contain the pattern.
+	 */
+	public int indexOf(byte[] data, int from, int to) {
+		int last = pattern.length - 1;
+		int i = from;
+		while (i + last < to) {
+			int j = last;
+			while (data[i + j] == pattern[j]) {
+				if (j == 0) {
+					return i;
+				}
+				j--;
+			}
+			i += skip[data[i + last] & 0xff];
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,379 @@
+package mjpegslicer.impl;
+
+import java.util.TimeZone;
+
+import mjpegslicer.ImageEvent;
+
+/**
+ * Parses the capture timestamps that cameras put into the stream, without
+ * creating any strings:
+ * <ul>
+ * <li>a decimal number of seconds (or milliseconds) since 1970/1/1 0:0 UTC,
+ * e.g. in an "X-Timestamp" part header or a JPEG comment;</li>
+ * <li>the EXIF "DateTimeOriginal" in a JPEG APP1 segment, refined by
+ * "SubSecTimeOriginal" and "OffsetTimeOriginal" if present.</li>
+ * </ul>
+ * EXIF times without offset are taken as local times of the default time
+ * zone. Timestamps before 2000 or after 2100 are rejected as implausible, so
+ * that e.g. a comment that happens to be a number or the reset clock of a
+ * camera is not taken as capture time.
+ */
+final class CameraTimestamps {
+
+	/**
+	 * A decimal without fraction that has at least this many digits is taken
+	 * as milliseconds; shorter ones as seconds.
+	 */
+	private static final int MIN_MILLIS_DIGITS = 12;
+
+	/**
+	 * The earliest plausible timestamp: 2000/1/1 0:0 UTC.
+	 */
+	private static final long MIN_PLAUSIBLE_MILLIS = 946684800000L;
+
+	/**
+	 * The latest plausible timestamp: 2100/1/1 0:0 UTC.
+	 */
+	private static final long MAX_PLAUSIBLE_MILLIS = 4102444800000L;
+
+	private static final int SOS = 0xda;
+	private static final int EOI = 0xd9;
+	private static final int APP1 = 0xe1;
+	private static final int COM = 0xfe;
+
+	private static final int TAG_DATE_TIME = 0x0132;
+	private static final int TAG_EXIF_IFD = 0x8769;
+	private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+	private static final int TAG_OFFSET_TIME_ORIGINAL = 0x9011;
+	private static final int TAG_SUB_SEC_TIME_ORIGINAL = 0x9291;
+	private static final int TYPE_ASCII = 2;
+	private static final int TYPE_LONG = 4;
+
+	// prevent instantiation
+	private CameraTimestamps() {
+	}
+
+	/**
+	 * Parses a decimal timestamp; blanks around the number are ignored.
+	 *
+	 * @param data
+	 *            The bytes.
+	 * @param from
+	 *            The start index, inclusive.
+	 * @param to
+	 *            The end index, exclusive.
+	 * @return The timestamp as number of milliseconds since 1970/1/1 0:0 UTC or
+	 *         {@link ImageEvent#UNKNOWN_TIME} if the bytes are not a decimal
+	 *         or not a plausible timestamp.
+	 */
+	static long parseDecimal(byte[] data, int from, int to) {
+		while (from < to && isBlank(data[from])) {
+			from++;
+		}
+		while (to > from && isBlank(data[to - 1])) {
+			to--;
+		}
+		long integer = 0L;
+		int digits = 0;
+		int i = from;
+		for (; i < to && data[i] != '.'; i++, digits++) {
+			int digit = data[i] - '0';
+			if (digit < 0 || digit > 9 || digits == 18) {
+				return ImageEvent.UNKNOWN_TIME;
+			}
+			integer = 10L * integer + digit;
+		}
+		if (digits == 0) {
+			return ImageEvent.UNKNOWN_TIME;
+		}
+		if (i == to) {
+			return plausible(digits >= MIN_MILLIS_DIGITS ? integer
+					: 1000L * integer);
+		}
+		long millis = 0L;
+		int scale = 100;
+		for (i++; i < to; i++) {
+			int digit = data[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return ImageEvent.UNKNOWN_TIME;
+			}
+			millis += scale * digit;
+			scale /= 10;
+		}
+		return plausible(1000L * integer + millis);
+	}
+
+	private static long plausible(long millis) {
+		return millis >= MIN_PLAUSIBLE_MILLIS
+				&& millis < MAX_PLAUSIBLE_MILLIS ? millis
+				: ImageEvent.UNKNOWN_TIME;
+	}
+
+	private static boolean isBlank(byte b) {
+		return b == ' ' || b == '\t' || b == 0;
+	}
+
+	/**
+	 * Searches the segments in front of the compressed data of a JPEG image
+	 * for a timestamp. The first comment or EXIF segment that holds a valid
+	 * timestamp wins.
+	 *
+	 * @param data
+	 *            The image data.
+	 * @param length
+	 *            The image length.
+	 * @return The timestamp as number of milliseconds since 1970/1/1 0:0 UTC or
+	 *         {@link ImageEvent#UNKNOWN_TIME} if the image does not have one.
+	 */
+	static long parseJpeg(byte[] data, int length) {
+		if (length < 4 || (data[0] & 0xff) != 0xff
+				|| (data[1] & 0xff) != 0xd8) {
+			return ImageEvent.UNKNOWN_TIME;
+		}
+		int i = 2;
+		while (i + 4 <= length) {
+			if ((data[i] & 0xff) != 0xff) {
+				return ImageEvent.UNKNOWN_TIME;
+			}
+			int marker = data[i + 1] & 0xff;
+			if (marker == 0xff) {
+				// fill byte
+				i++;
+				continue;
+			}
+			if (marker == SOS || marker == EOI) {
+				break;
+			}
+			if (marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7)) {
+				// stand-alone marker
+				i += 2;
+				continue;
+			}
+			int start = i + 4;
+			int end = i + 2 + readUnsignedShort(data, i + 2, true);
+			if (end < start || end > length) {
+				break;
+			}
+			long result = ImageEvent.UNKNOWN_TIME;
+			if (marker == COM) {
+				result = parseDecimal(data, start, end);
+			} else if (marker == APP1) {
+				result = parseExif(data, start, end);
+			}
+			if (result != ImageEvent.UNKNOWN_TIME) {
+				return result;
+			}
+			i = end;
+		}
+		return ImageEvent.UNKNOWN_TIME;
+	}
+
+	private static int readUnsignedShort(byte[] data, int i, boolean bigEndian) {
+		int b0 = data[i] & 0xff;
+		int b1 = data[i + 1] & 0xff;
+		return bigEndian ? b0 << 8 | b1 : b1 << 8 | b0;
+	}
+
+	private static long readUnsignedInt(byte[] data, int i, boolean bigEndian) {
+		long high = readUnsignedShort(data, bigEndian ? i : i + 2, bigEndian);
+		long low = readUnsignedShort(data, bigEndian ? i + 2 : i, bigEndian);
+		return high << 16 | low;
+	}
+
+	/**
+	 * The TIFF structure of an EXIF segment; all offsets are relative to its
+	 * start.
+	 */
+	private static class Tiff {
+
+		private final byte[] data;
+		private final int start;
+		private final int end;
+		private final boolean bigEndian;
+
+		private Tiff(byte[] data, int start, int end, boolean bigEndian) {
+			this.data = data;
+			this.start = start;
+			this.end = end;
+			this.bigEndian = bigEndian;
+		}
+
+		/**
+		 * Finds an entry of an IFD.
+		 *
+		 * @return The absolute index of the entry or <code>-1</code>.
+		 */
+		private int findEntry(long ifdOffset, int tag) {
+			if (ifdOffset < 8 || start + ifdOffset + 2 > end) {
+				return -1;
+			}
+			int ifd = start + (int) ifdOffset;
+			int count = readUnsignedShort(data, ifd, bigEndian);
+			for (int n = 0; n < count; n++) {
+				int entry = ifd + 2 + 12 * n;
+				if (entry + 12 > end) {
+					return -1;
+				}
+				if (readUnsignedShort(data, entry, bigEndian) == tag) {
+					return entry;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns the absolute index of the value of an entry; values of up
+		 * to four bytes are stored in the entry itself.
+		 *
+		 * @return The index or <code>-1</code> if the value does not match.
+		 */
+		private int valueIndex(int entry, int type, int minCount, int maxCount) {
+			if (entry < 0 || readUnsignedShort(data, entry + 2, bigEndian) != type) {
+				return -1;
+			}
+			long count = readUnsignedInt(data, entry + 4, bigEndian);
+			if (count < minCount || count > maxCount) {
+				return -1;
+			}
+			if (count <= 4) {
+				return entry + 8;
+			}
+			long offset = readUnsignedInt(data, entry + 8, bigEndian);
+			return start + offset + count <= end ? start + (int) offset : -1;
+		}
+
+		private long readLong(int entry) {
+			int i = valueIndex(entry, TYPE_LONG, 1, 1);
+			return i < 0 ? -1L : readUnsignedInt(data, i, bigEndian);
+		}
+	}
+
+	/**
+	 * Parses the timestamp of an APP1 segment with EXIF data.
+	 */
+	private static long parseExif(byte[] data, int start, int end) {
+		// "Exif\0\0" followed by the TIFF header
+		if (end - start < 14 || data[start] != 'E' || data[start + 1] != 'x'
+				|| data[start + 2] != 'i' || data[start + 3] != 'f'
+				|| data[start + 4] != 0 || data[start + 5] != 0) {
+			return ImageEvent.UNKNOWN_TIME;
+		}
+		int tiffStart = start + 6;
+		boolean bigEndian;
+		if (data[tiffStart] == 'M' && data[tiffStart + 1] == 'M') {
+			bigEndian = true;
+		} else if (data[tiffStart] == 'I' && data[tiffStart + 1] == 'I') {
+			bigEndian = false;
+		} else {
+			return ImageEvent.UNKNOWN_TIME;
+		}
+		Tiff tiff = new Tiff(data, tiffStart, end, bigEndian);
+		long ifd0 = readUnsignedInt(data, tiffStart + 4, bigEndian);
+		long exifIfd = tiff.readLong(tiff.findEntry(ifd0, TAG_EXIF_IFD));
+		int dateTime = -1;
+		int subSec = -1;
+		int offset = -1;
+		if (exifIfd > 0) {
+			dateTime = tiff.valueIndex(
+					tiff.findEntry(exifIfd, TAG_DATE_TIME_ORIGINAL),
+					TYPE_ASCII, 19, 20);
+			subSec = tiff.valueIndex(
+					tiff.findEntry(exifIfd, TAG_SUB_SEC_TIME_ORIGINAL),
+					TYPE_ASCII, 1, 10);
+			offset = tiff.valueIndex(
+					tiff.findEntry(exifIfd, TAG_OFFSET_TIME_ORIGINAL),
+					TYPE_ASCII, 6, 7);
+		}
+		if (dateTime < 0) {
+			dateTime = tiff.valueIndex(tiff.findEntry(ifd0, TAG_DATE_TIME),
+					TYPE_ASCII, 19, 20);
+			subSec = -1;
+			offset = -1;
+		}
+		return dateTime < 0 ? ImageEvent.UNKNOWN_TIME : toMillis(data,
+				dateTime, subSec, offset);
+	}
+
+	/**
+	 * Converts "YYYY:MM:DD HH:MM:SS", the optional sub-seconds, e.g. "123",
+	 * and the optional offset, e.g. "+01:00".
+	 */
+	private static long toMillis(byte[] data, int dateTime, int subSec,
+			int offset) {
+		int year = digits(data, dateTime, 4);
+		int month = digits(data, dateTime + 5, 2);
+		int day = digits(data, dateTime + 8, 2);
+		int hour = digits(data, dateTime + 11, 2);
+		int minute = digits(data, dateTime + 14, 2);
+		int second = digits(data, dateTime + 17, 2);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+				|| hour < 0 || hour > 23 || minute < 0 || minute > 59
+				|| second < 0 || second > 60) {
+			return ImageEvent.UNKNOWN_TIME;
+		}
+		int offsetMinutes = 0;
+		if (offset >= 0 && (data[offset] == '+' || data[offset] == '-')) {
+			int offsetHours = digits(data, offset + 1, 2);
+			int minutes = digits(data, offset + 4, 2);
+			if (offsetHours >= 0 && minutes >= 0) {
+				offsetMinutes = 60 * offsetHours + minutes;
+				if (data[offset] == '-') {
+					offsetMinutes = -offsetMinutes;
+				}
+			} else {
+				offset = -1;
+			}
+		} else {
+			offset = -1;
+		}
+		long result = 1000L * (86400L * daysSinceEpoch(year, month, day)
+				+ 3600L * hour + 60L * minute + second);
+		if (offset < 0) {
+			// the offset of the local time, looked up near the local time
+			TimeZone zone = TimeZone.getDefault();
+			result -= zone.getOffset(result - zone.getOffset(result));
+		} else {
+			result -= 60000L * offsetMinutes;
+		}
+		if (subSec >= 0) {
+			int scale = 100;
+			for (int i = subSec; i < subSec + 3; i++) {
+				int digit = data[i] - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				result += scale * digit;
+				scale /= 10;
+			}
+		}
+		return plausible(result);
+	}
+
+	/**
+	 * Returns the number of days from 1970/1/1 to a date of the proleptic
+	 * Gregorian calendar; the years are counted from March on, so that the
+	 * leap day is the last day of a year.
+	 */
+	private static long daysSinceEpoch(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yearOfEra = y - 400 * era;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5
+				+ day - 1;
+		long dayOfEra = 365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100
+				+ dayOfYear;
+		return 146097 * era + dayOfEra - 719468;
+	}
+
+	private static int digits(byte[] data, int from, int count) {
+		int result = 0;
+		for (int i = from; i < from + count; i++) {
+			int digit = data[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			result = 10 * result + digit;
+		}
+		return result;
+	}
+}
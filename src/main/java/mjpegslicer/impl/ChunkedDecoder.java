@@ -0,0 +1,203 @@
+package mjpegslicer.impl;
+
+import java.nio.ByteBuffer;
+
+import mjpegslicer.ImageDataCorruptionException;
+
+/**
+ * A decoder for the HTTP/1.1 chunked transfer-encoding that works in place:
+ * the chunk framing is removed from a buffer region and the payload is moved
+ * to close the gaps. Readers that limit each read to the rest of the current
+ * chunk (see {@link #getReadLimit()}) receive the payload at its final index,
+ * so that only the few payload bytes read together with a chunk header have
+ * to be moved.
+ * <p>
+ * After the terminal chunk and its trailer the decoder is complete; further
+ * bytes belong to the next response of a kept-alive connection and are not
+ * payload. Instances are not thread-safe.
+ */
+class ChunkedDecoder {
+
+	/**
+	 * The number of bytes read while a chunk header is expected. Small reads
+	 * keep the payload that has to be moved behind the header small.
+	 */
+	static final int HEADER_READ_SIZE = 16;
+
+	private enum State {
+		SIZE, EXTENSION, SIZE_LF, DATA, DATA_CR, DATA_LF, TRAILER, COMPLETE
+	}
+
+	private State state = State.SIZE;
+	private long chunkRemaining = 0L;
+	private int digitCount = 0;
+	private int trailerLineLength = 0;
+
+	/**
+	 * Indicates whether the terminal chunk and the trailer were decoded.
+	 *
+	 * @return The flag.
+	 */
+	boolean isComplete() {
+		return state == State.COMPLETE;
+	}
+
+	/**
+	 * Returns the maximum number of bytes the next read should request.
+	 *
+	 * @return The rest of the current chunk, or {@link #HEADER_READ_SIZE} if
+	 *         the framing comes next.
+	 */
+	int getReadLimit() {
+		if (state == State.DATA) {
+			return (int) Math.min(chunkRemaining, Integer.MAX_VALUE);
+		}
+		return HEADER_READ_SIZE;
+	}
+
+	/**
+	 * Decodes a buffer region in place. The payload of the region is moved to
+	 * its start; the contents behind the returned index are undefined.
+	 *
+	 * @param buffer
+	 *            The buffer; its position and limit are not changed.
+	 * @param from
+	 *            The index of the first encoded byte.
+	 * @param to
+	 *            The index behind the last encoded byte.
+	 * @return The index behind the last payload byte.
+	 * @throws ImageDataCorruptionException
+	 *             If the chunk framing is invalid.
+	 */
+	int decode(ByteBuffer buffer, int from, int to) {
+		int read = from;
+		int write = from;
+		while (read < to) {
+			if (state == State.DATA) {
+				int length = (int) Math.min(chunkRemaining, to - read);
+				if (write != read) {
+					move(buffer, read, write, length);
+				}
+				read += length;
+				write += length;
+				chunkRemaining -= length;
+				if (chunkRemaining == 0L) {
+					state = State.DATA_CR;
+				}
+			} else if (state == State.COMPLETE) {
+				break;
+			} else {
+				frame(buffer.get(read++));
+			}
+		}
+		return write;
+	}
+
+	private static void move(ByteBuffer buffer, int from, int to, int length) {
+		if (buffer.hasArray()) {
+			int offset = buffer.arrayOffset();
+			System.arraycopy(buffer.array(), offset + from, buffer.array(),
+					offset + to, length);
+		} else {
+			// the target is in front of the source, so a forward copy is safe
+			for (int i = 0; i < length; i++) {
+				buffer.put(to + i, buffer.get(from + i));
+			}
+		}
+	}
+
+	/**
+	 * Processes a byte of the chunk framing.
+	 */
+	private void frame(byte b) {
+		switch (state) {
+		case SIZE:
+			int digit = Character.digit(b, 16);
+			if (digit >= 0) {
+				if (++digitCount > 15) {
+					throw new ImageDataCorruptionException(
+							"Chunk size too large.");
+				}
+				chunkRemaining = 16L * chunkRemaining + digit;
+			} else if (digitCount == 0) {
+				throw new ImageDataCorruptionException(
+						"Chunk size expected, found byte " + (b & 0xff) + ".");
+			} else if (b == ';' || b == ' ' || b == '\t') {
+				state = State.EXTENSION;
+			} else if (b == 0x0d) {
+				state = State.SIZE_LF;
+			} else if (b == 0x0a) {
+				endOfSizeLine();
+			} else {
+				throw new ImageDataCorruptionException(
+						"Invalid chunk size, found byte " + (b & 0xff) + ".");
+			}
+			break;
+		case EXTENSION:
+			// chunk extensions are ignored
+			if (b == 0x0d) {
+				state = State.SIZE_LF;
+			} else if (b == 0x0a) {
+				endOfSizeLine();
+			}
+			break;
+		case SIZE_LF:
+			expect(b, 0x0a);
+			endOfSizeLine();
+			break;
+		case DATA_CR:
+			expect(b, 0x0d);
+			state = State.DATA_LF;
+			break;
+		case DATA_LF:
+			expect(b, 0x0a);
+			state = State.SIZE;
+			break;
+		case TRAILER:
+			if (b == 0x0a) {
+				if (trailerLineLength == 0) {
+					state = State.COMPLETE;
+				}
+				trailerLineLength = 0;
+			} else if (b != 0x0d) {
+				trailerLineLength++;
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void expect(byte b, int expected) {
+		if (b != expected) {
+			throw new ImageDataCorruptionException("Invalid chunk framing, "
+					+ "expected byte " + expected + ", found " + (b & 0xff)
+					+ ".");
+		}
+	}
+
+	private void endOfSizeLine() {
+		digitCount = 0;
+		if (chunkRemaining == 0L) {
+			trailerLineLength = 0;
+			state = State.TRAILER;
+		} else {
+			state = State.DATA;
+		}
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("ChunkedDecoder[state=");
+		sb.append(state);
+		sb.append(",chunkRemaining=");
+		sb.append(chunkRemaining);
+		sb.append("]");
+		return sb.toString();
+	}
+}
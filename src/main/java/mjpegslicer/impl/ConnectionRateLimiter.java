@@ -0,0 +1,92 @@
+package mjpegslicer.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.Validator;
+
+/**
+ * Caps the rate of connection attempts of all sources that share it, so that
+ * many cameras coming back at once do not flood the network. Each attempt is
+ * assigned the next free time slot; callers wait for their slot.
+ */
+public class ConnectionRateLimiter extends LoggableObject {
+
+	private final long intervalNanos;
+	private final AtomicLong nextSlotNanos = new AtomicLong(System.nanoTime());
+	private final AtomicLong throttledCount = new AtomicLong();
+
+	/**
+	 * Creates a limiter.
+	 * 
+	 * @param connectionsPerSecond
+	 *            The maximum number of connection attempts per second.
+	 */
+	public ConnectionRateLimiter(double connectionsPerSecond) {
+		debugEntering(MN_INIT, "connections per second: ",
+				connectionsPerSecond);
+		Validator.checkArgument(MN_INIT, "connectionsPerSecond",
+				connectionsPerSecond, connectionsPerSecond > 0.0,
+				"must be positive.");
+		intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1)
+				/ connectionsPerSecond);
+		debugLeaving(MN_INIT);
+	}
+
+	/**
+	 * Returns the minimum interval between two connection attempts.
+	 * 
+	 * @return The interval in nanoseconds.
+	 */
+	public long getIntervalNanos() {
+		return intervalNanos;
+	}
+
+	/**
+	 * Returns the number of attempts that had to wait for their slot.
+	 * 
+	 * @return The count.
+	 */
+	public long getThrottledCount() {
+		return throttledCount.get();
+	}
+
+	/**
+	 * Waits until a connection attempt is permitted.
+	 * 
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting.
+	 */
+	public void acquire() throws InterruptedException {
+		long now = System.nanoTime();
+		long slot;
+		while (true) {
+			long next = nextSlotNanos.get();
+			slot = next - now > 0 ? next : now;
+			if (nextSlotNanos.compareAndSet(next, slot + intervalNanos)) {
+				break;
+			}
+		}
+		long delay = slot - now;
+		if (delay > 0) {
+			throttledCount.incrementAndGet();
+			TimeUnit.NANOSECONDS.sleep(delay);
+		}
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 * 
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("ConnectionRateLimiter[interval=");
+		sb.append(TimeUnit.NANOSECONDS.toMillis(intervalNanos));
+		sb.append("ms,throttled:");
+		sb.append(throttledCount.get());
+		sb.append("]");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,416 @@
+package mjpegslicer.impl;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjpegslicer.ImageEvent;
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.Validator;
+
+/**
+ * A cache of decoded images that several listeners of the same frames share,
+ * so that each frame is decoded once. Images are keyed by the source and the
+ * sequence number of their event.
+ * <p>
+ * The cache holds at most <code>maxBytes</code> bytes of raster data. It is
+ * split into lock stripes, each an LRU list. Each use of an image is stamped
+ * by a clock that all stripes share; when the budget is exceeded, the image
+ * with the oldest stamp among the heads of the stripes is evicted, so the
+ * images are evicted in the order of their last use, whichever stripe they
+ * are in. Eviction looks at each stripe once per evicted image. When several
+ * threads request the same uncached image at a time, one thread decodes and
+ * the others wait for its result.
+ * <p>
+ * The images are shared by all callers and must not be modified.
+ */
+public class DecodedImageCache extends LoggableObject {
+
+	/**
+	 * The default number of lock stripes.
+	 */
+	public static final int DEFAULT_STRIPE_COUNT = 16;
+
+	private final long maxBytes;
+	private final Stripe[] stripes;
+	private final AtomicLong byteCount = new AtomicLong();
+	private final AtomicLong clock = new AtomicLong();
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * Creates a cache with the default number of lock stripes.
+	 *
+	 * @param maxBytes
+	 *            The budget of raster bytes.
+	 */
+	public DecodedImageCache(long maxBytes) {
+		this(maxBytes, DEFAULT_STRIPE_COUNT);
+	}
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param maxBytes
+	 *            The budget of raster bytes.
+	 * @param stripeCount
+	 *            The number of lock stripes.
+	 */
+	public DecodedImageCache(long maxBytes, int stripeCount) {
+		debugEntering(MN_INIT, "max bytes: ", maxBytes, ", stripes: ",
+				stripeCount);
+		Validator.checkArgument(MN_INIT, "maxBytes", maxBytes, maxBytes > 0,
+				"must be positive.");
+		Validator.checkArgument(MN_INIT, "stripeCount", stripeCount,
+				stripeCount > 0, "must be positive.");
+		this.maxBytes = maxBytes;
+		stripes = new Stripe[stripeCount];
+		for (int i = 0; i < stripeCount; i++) {
+			stripes[i] = new Stripe();
+		}
+		debugLeaving(MN_INIT);
+	}
+
+	/**
+	 * Returns the budget of raster bytes.
+	 *
+	 * @return The number of bytes.
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns the raster bytes of the cached images.
+	 *
+	 * @return The number of bytes.
+	 */
+	public long getByteCount() {
+		return byteCount.get();
+	}
+
+	/**
+	 * Returns the number of cached images, including those being decoded.
+	 *
+	 * @return The count.
+	 */
+	public int getEntryCount() {
+		int result = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				result += stripe.entries.size();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of requests that were served without a decode of
+	 * their own, including those that waited for the decode of another
+	 * thread.
+	 *
+	 * @return The count.
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Returns the number of requests that decoded.
+	 *
+	 * @return The count.
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Returns the number of images evicted to keep the budget.
+	 *
+	 * @return The count.
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * Returns the decoded image of an event; the image is decoded and cached
+	 * unless it is cached already.
+	 *
+	 * @param event
+	 *            The event.
+	 * @return The shared image.
+	 * @throws mjpegslicer.ImageDataCorruptionException
+	 *             if the image data were corrupted.
+	 */
+	public BufferedImage get(final ImageEvent event) {
+		Validator.argumentMustNotBeNull("get", "event", event);
+		Key key = new Key(event.getSource(), event.getSequenceNumber());
+		Stripe stripe = stripeFor(key);
+		Entry entry;
+		boolean loader = false;
+		synchronized (stripe) {
+			entry = stripe.entries.get(key);
+			if (entry == null) {
+				entry = new Entry(new Callable<BufferedImage>() {
+					@Override
+					public BufferedImage call() {
+						return event.createBufferedImage();
+					}
+				});
+				stripe.entries.put(key, entry);
+				loader = true;
+			}
+			entry.stamp = clock.incrementAndGet();
+		}
+		if (!loader) {
+			hitCount.incrementAndGet();
+			return entry.await();
+		}
+		missCount.incrementAndGet();
+		BufferedImage image;
+		boolean loaded = false;
+		try {
+			entry.task.run();
+			image = entry.await();
+			long weight = weigh(image);
+			synchronized (stripe) {
+				entry.weight = weight;
+				byteCount.addAndGet(weight);
+				// the new image is the most recently used one
+				stripe.entries.get(key);
+				entry.stamp = clock.incrementAndGet();
+			}
+			loaded = true;
+		} finally {
+			if (!loaded) {
+				// the waiters see the failure, later requests try again
+				synchronized (stripe) {
+					stripe.entries.remove(key);
+				}
+			}
+		}
+		evict();
+		return image;
+	}
+
+	/**
+	 * Returns the raster bytes of an image.
+	 *
+	 * @param image
+	 *            The image.
+	 * @return The number of bytes.
+	 */
+	static long weigh(BufferedImage image) {
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		return (long) buffer.getSize() * buffer.getNumBanks()
+				* DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+
+	private Stripe stripeFor(Key key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return stripes[(h & 0x7fffffff) % stripes.length];
+	}
+
+	/**
+	 * Evicts the least recently used images of all stripes until the cache
+	 * keeps its budget. The head of each stripe is its least recently used
+	 * image, so the oldest head is the least recently used image of the
+	 * cache.
+	 */
+	private void evict() {
+		while (byteCount.get() > maxBytes) {
+			Stripe oldest = null;
+			long oldestStamp = 0L;
+			for (Stripe stripe : stripes) {
+				synchronized (stripe) {
+					Entry head = stripe.head();
+					if (head != null
+							&& (oldest == null || head.stamp < oldestStamp)) {
+						oldest = stripe;
+						oldestStamp = head.stamp;
+					}
+				}
+			}
+			if (oldest == null) {
+				// only decodes in progress
+				return;
+			}
+			synchronized (oldest) {
+				Iterator<Entry> it = oldest.entries.values().iterator();
+				while (it.hasNext()) {
+					Entry entry = it.next();
+					if (entry.weight > 0L) {
+						// otherwise it was used meanwhile, look again
+						if (entry.stamp == oldestStamp) {
+							it.remove();
+							byteCount.addAndGet(-entry.weight);
+							evictionCount.incrementAndGet();
+						}
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the image of an event, e.g. because the frame was processed by
+	 * all listeners.
+	 *
+	 * @param event
+	 *            The event.
+	 */
+	public void invalidate(ImageEvent event) {
+		Key key = new Key(event.getSource(), event.getSequenceNumber());
+		Stripe stripe = stripeFor(key);
+		synchronized (stripe) {
+			Entry entry = stripe.entries.get(key);
+			if (entry != null && entry.weight > 0L) {
+				stripe.entries.remove(key);
+				byteCount.addAndGet(-entry.weight);
+			}
+		}
+	}
+
+	/**
+	 * Removes all decoded images.
+	 */
+	public void clear() {
+		String mn = debugEntering("clear");
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				Iterator<Entry> it = stripe.entries.values().iterator();
+				while (it.hasNext()) {
+					Entry entry = it.next();
+					if (entry.weight > 0L) {
+						it.remove();
+						byteCount.addAndGet(-entry.weight);
+					}
+				}
+			}
+		}
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("DecodedImageCache[bytes=");
+		sb.append(byteCount.get());
+		sb.append("/");
+		sb.append(maxBytes);
+		sb.append(",hits=");
+		sb.append(hitCount.get());
+		sb.append(",misses=");
+		sb.append(missCount.get());
+		sb.append(",evictions=");
+		sb.append(evictionCount.get());
+		sb.append("]");
+		return sb.toString();
+	}
+
+	/**
+	 * A lock stripe: an LRU list in access order.
+	 */
+	private static class Stripe {
+
+		private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(
+				16, 0.75f, true);
+
+		/**
+		 * Returns the least recently used image that is decoded.
+		 */
+		Entry head() {
+			for (Entry entry : entries.values()) {
+				if (entry.weight > 0L) {
+					return entry;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * A cached image; its weight is zero while it is decoded. The stamp is
+	 * the value of the clock at its last use.
+	 */
+	private static class Entry {
+
+		private final FutureTask<BufferedImage> task;
+		private long weight;
+		private long stamp;
+
+		Entry(Callable<BufferedImage> loader) {
+			task = new FutureTask<BufferedImage>(loader);
+		}
+
+		BufferedImage await() {
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						return task.get();
+					} catch (InterruptedException ie) {
+						interrupted = true;
+					} catch (ExecutionException ee) {
+						Throwable cause = ee.getCause();
+						if (cause instanceof RuntimeException) {
+							throw (RuntimeException) cause;
+						}
+						if (cause instanceof Error) {
+							throw (Error) cause;
+						}
+						throw new IllegalStateException(cause);
+					}
+				}
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The source and the sequence number of an event.
+	 */
+	private static class Key {
+
+		private final Object source;
+		private final int sequenceNumber;
+
+		Key(Object source, int sequenceNumber) {
+			this.source = source;
+			this.sequenceNumber = sequenceNumber;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(source) + sequenceNumber;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return source == other.source
+					&& sequenceNumber == other.sequenceNumber;
+		}
+	}
+}
@@ -0,0 +1,343 @@
+package mjpegslicer.impl;
+
+import java.awt.image.BufferedImage;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjpegslicer.DecodeOptions;
+import mjpegslicer.DecodedImageListener;
+import mjpegslicer.ImageDataCorruptionException;
+import mjpegslicer.ImageEvent;
+import mjpegslicer.ImageListener;
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.Validator;
+
+/**
+ * An image listener that decodes the images of one camera on the threads of
+ * a pool, which might be shared by the listeners of several cameras, and
+ * notifies a delegate listener of the decoded images in the order of their
+ * sequence numbers.
+ * <p>
+ * At most <code>reorderWindow</code> images are decoded or wait for an
+ * earlier image at a time. When decoding falls behind, further images are
+ * dropped undecoded instead of queued, so the latency stays bounded by the
+ * window. The delegate is notified by the pool threads, but never by two
+ * threads at a time.
+ */
+public class DecodingImageListener extends LoggableObject implements
+		ImageListener, Shutdownable {
+
+	/**
+	 * Orders sequence numbers with serial number arithmetic, so that the
+	 * order holds across the wrap-around of the numbers.
+	 */
+	private static final Comparator<Integer> SEQUENCE_ORDER = new Comparator<Integer>() {
+		@Override
+		public int compare(Integer a, Integer b) {
+			int difference = a.intValue() - b.intValue();
+			return difference < 0 ? -1 : (difference == 0 ? 0 : 1);
+		}
+	};
+
+	private final DecodedImageListener delegate;
+	private final Executor executor;
+	private final ExecutorService ownExecutor;
+	private final int reorderWindow;
+	private final DecodeOptions decodeOptions;
+	private volatile boolean running = true;
+	private final AtomicBoolean warnedDrop = new AtomicBoolean();
+
+	private final Object lock = new Object();
+	private final TreeMap<Integer, Frame> frames = new TreeMap<Integer, Frame>(
+			SEQUENCE_ORDER);
+	private boolean delivering;
+
+	private final AtomicLong deliveredCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+
+	/**
+	 * Creates an instance with a pool of its own, one thread per processor.
+	 *
+	 * @param delegate
+	 *            The listener that is notified.
+	 * @param reorderWindow
+	 *            The maximum number of images in progress.
+	 */
+	public DecodingImageListener(DecodedImageListener delegate,
+			int reorderWindow) {
+		this(delegate, reorderWindow, DecodeOptions.DEFAULT, null);
+	}
+
+	/**
+	 * Creates an instance.
+	 *
+	 * @param delegate
+	 *            The listener that is notified.
+	 * @param reorderWindow
+	 *            The maximum number of images in progress; for full use of
+	 *            the pool at least its number of threads.
+	 * @param decodeOptions
+	 *            The options of the decodes; must not have a destination,
+	 *            since images are decoded concurrently.
+	 * @param executor
+	 *            The pool that decodes, e.g. shared by the listeners of all
+	 *            cameras, or <code>null</code> for a pool of its own with one
+	 *            thread per processor.
+	 */
+	public DecodingImageListener(DecodedImageListener delegate,
+			int reorderWindow, DecodeOptions decodeOptions, Executor executor) {
+		debugEntering(MN_INIT, "delegate: ", delegate, ", window: ",
+				reorderWindow, ", options: ", decodeOptions);
+		Validator.argumentMustNotBeNull(MN_INIT, "delegate", delegate);
+		Validator.checkArgument(MN_INIT, "reorderWindow", reorderWindow,
+				reorderWindow > 0, "must be positive.");
+		Validator.argumentMustNotBeNull(MN_INIT, "decodeOptions",
+				decodeOptions);
+		Validator.checkArgument(MN_INIT, "decodeOptions", decodeOptions,
+				decodeOptions.getDestination() == null,
+				"must not have a destination.");
+		this.delegate = delegate;
+		this.reorderWindow = reorderWindow;
+		this.decodeOptions = decodeOptions;
+		if (executor == null) {
+			ownExecutor = Executors.newFixedThreadPool(Runtime.getRuntime()
+					.availableProcessors());
+			this.executor = ownExecutor;
+		} else {
+			ownExecutor = null;
+			this.executor = executor;
+		}
+		debugLeaving(MN_INIT);
+	}
+
+	/**
+	 * Returns the listener that is notified.
+	 *
+	 * @return The listener.
+	 */
+	public DecodedImageListener getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * Returns the maximum number of images in progress.
+	 *
+	 * @return The count.
+	 */
+	public int getReorderWindow() {
+		return reorderWindow;
+	}
+
+	/**
+	 * Returns the number of images that are decoded or wait for an earlier
+	 * image.
+	 *
+	 * @return The count.
+	 */
+	public int getLag() {
+		synchronized (lock) {
+			return frames.size();
+		}
+	}
+
+	/**
+	 * Returns the number of decoded images delivered so far.
+	 *
+	 * @return The count.
+	 */
+	public long getDeliveredCount() {
+		return deliveredCount.get();
+	}
+
+	/**
+	 * Returns the number of images dropped undecoded so far.
+	 *
+	 * @return The count.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Returns the number of images that failed to decode so far.
+	 *
+	 * @return The count.
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * Hands an image over to the pool, unless the reorder window is full.
+	 *
+	 * @param event
+	 *            The event.
+	 */
+	@Override
+	public void newImage(ImageEvent event) {
+		String mn = "newImage";
+		if (!running) {
+			// the dispatcher might go on at frame rate, so warn only once
+			if (warnedDrop.compareAndSet(false, true)) {
+				warn(mn, "listener was shut down, events are dropped: ",
+						event);
+			} else {
+				debug(mn, "listener was shut down, event is dropped: ", event);
+			}
+			droppedCount.incrementAndGet();
+			return;
+		}
+		Frame frame = new Frame(event);
+		synchronized (lock) {
+			if (frames.size() >= reorderWindow
+					|| frames.containsKey(frame.sequenceNumber)) {
+				droppedCount.incrementAndGet();
+				return;
+			}
+			frames.put(frame.sequenceNumber, frame);
+		}
+		event.retain();
+		try {
+			executor.execute(frame);
+		} catch (RejectedExecutionException ree) {
+			warn(mn, "pool rejected the decode: ", ree);
+			droppedCount.incrementAndGet();
+			frame.complete(null);
+		}
+	}
+
+	/**
+	 * Delivers the leading decoded images, unless another thread does.
+	 */
+	private void deliver() {
+		String mn = "deliver";
+		synchronized (lock) {
+			if (delivering) {
+				return;
+			}
+			delivering = true;
+		}
+		boolean idle = false;
+		try {
+			while (true) {
+				Frame frame;
+				synchronized (lock) {
+					Map.Entry<Integer, Frame> first = frames.firstEntry();
+					if (first == null || !first.getValue().done) {
+						delivering = false;
+						idle = true;
+						return;
+					}
+					frame = first.getValue();
+					frames.remove(first.getKey());
+				}
+				try {
+					if (frame.image != null && running) {
+						delegate.newDecodedImage(frame.event, frame.image);
+						deliveredCount.incrementAndGet();
+					}
+				} catch (RuntimeException re) {
+					error(mn, "listener failed: ", delegate, ", ", re);
+				} finally {
+					frame.event.release();
+				}
+			}
+		} finally {
+			if (!idle) {
+				// an error must not stop the delivery for good
+				synchronized (lock) {
+					delivering = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops the delivery; images in progress are not delivered. A pool of
+	 * its own is shut down, a shared pool is not.
+	 */
+	@Override
+	public void shutdown() {
+		String mn = debugEntering("shutdown");
+		running = false;
+		if (ownExecutor != null) {
+			ownExecutor.shutdown();
+		}
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("DecodingImageListener[window=");
+		sb.append(reorderWindow);
+		sb.append(",lag=");
+		sb.append(getLag());
+		sb.append(",delivered=");
+		sb.append(deliveredCount.get());
+		sb.append(",dropped=");
+		sb.append(droppedCount.get());
+		sb.append(",failed=");
+		sb.append(failedCount.get());
+		sb.append(",delegate=");
+		sb.append(delegate);
+		sb.append("]");
+		return sb.toString();
+	}
+
+	/**
+	 * An image in progress; the decode task of the pool.
+	 */
+	private class Frame implements Runnable {
+
+		private final ImageEvent event;
+		private final Integer sequenceNumber;
+		private BufferedImage image;
+		private boolean done;
+
+		Frame(ImageEvent event) {
+			this.event = event;
+			sequenceNumber = Integer.valueOf(event.getSequenceNumber());
+		}
+
+		@Override
+		public void run() {
+			String mn = "run";
+			BufferedImage decoded = null;
+			try {
+				if (running) {
+					decoded = event.createBufferedImage(decodeOptions);
+				}
+			} catch (ImageDataCorruptionException idce) {
+				failedCount.incrementAndGet();
+				warn(mn, "failed to decode: ", event, ", ", idce);
+			} catch (RuntimeException re) {
+				failedCount.incrementAndGet();
+				error(mn, "failed to decode: ", event, ", ", re);
+			} finally {
+				// even an error must not block the reorder window
+				complete(decoded);
+			}
+		}
+
+		void complete(BufferedImage decoded) {
+			synchronized (lock) {
+				image = decoded;
+				done = true;
+			}
+			deliver();
+		}
+	}
+}
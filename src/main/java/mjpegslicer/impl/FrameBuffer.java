@@ -0,0 +1,165 @@
+package mjpegslicer.impl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mjpegslicer.ReferenceCounted;
+import mjpegslicer.util.Validator;
+
+/**
+ * A frame buffer that was leased from a {@link FrameBufferPool}. The backing
+ * array may be larger than the frame; only the first {@link #length()} bytes
+ * are valid. The array goes back to the pool when the last reference is
+ * released; it must not be touched afterwards.
+ */
+public class FrameBuffer implements ReferenceCounted {
+
+	private final FrameBufferPool pool;
+	private final FrameBufferPool.Lease lease;
+	private final AtomicInteger refCount = new AtomicInteger(1);
+	private byte[] data;
+	private int length;
+
+	FrameBuffer(FrameBufferPool pool, byte[] data, int length) {
+		this.pool = pool;
+		this.data = data;
+		this.length = length;
+		lease = pool.track(this);
+	}
+
+	FrameBufferPool.Lease getLease() {
+		return lease;
+	}
+
+	byte[] detachArray() {
+		byte[] result = data;
+		data = null;
+		return result;
+	}
+
+	private byte[] checkedData(String methodName) {
+		byte[] result = data;
+		Validator.checkState(methodName, result != null,
+				"Frame buffer was already released.");
+		return result;
+	}
+
+	/**
+	 * Returns the backing array.
+	 *
+	 * @return The array; its length is the capacity of the buffer.
+	 */
+	public byte[] array() {
+		return checkedData("array");
+	}
+
+	/**
+	 * Returns the capacity.
+	 *
+	 * @return The number of bytes that fit into the buffer.
+	 */
+	public int capacity() {
+		return checkedData("capacity").length;
+	}
+
+	/**
+	 * Returns the number of valid bytes.
+	 *
+	 * @return The frame length.
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Redefines the number of valid bytes.
+	 *
+	 * @param length
+	 *            The new frame length.
+	 */
+	public void setLength(int length) {
+		String mn = "setLength";
+		Validator.checkArgument(mn, "length", length, length >= 0
+				&& length <= checkedData(mn).length, "not in 0..capacity");
+		this.length = length;
+	}
+
+	/**
+	 * Returns a read-only view of the valid bytes. The view shares the backing
+	 * array; it is valid as long as a reference is held.
+	 *
+	 * @return The view.
+	 */
+	public ByteBuffer asReadOnlyBuffer() {
+		return ByteBuffer.wrap(checkedData("asReadOnlyBuffer"), 0, length)
+				.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns the number of references held.
+	 *
+	 * @return The count; <code>0</code> means the buffer was released.
+	 */
+	@Override
+	public int refCount() {
+		return refCount.get();
+	}
+
+	/**
+	 * Acquires an additional reference.
+	 *
+	 * @return This buffer.
+	 * @throws IllegalStateException
+	 *             if the buffer was already released.
+	 */
+	@Override
+	public FrameBuffer retain() {
+		while (true) {
+			int count = refCount.get();
+			Validator.checkState("retain", count > 0,
+					"Frame buffer was already released.");
+			if (refCount.compareAndSet(count, count + 1)) {
+				return this;
+			}
+		}
+	}
+
+	/**
+	 * Gives a reference back. The last release returns the array to the pool.
+	 *
+	 * @return <code>true</code> if this was the last reference, otherwise
+	 *         <code>false</code>.
+	 * @throws IllegalStateException
+	 *             if the buffer was already released.
+	 */
+	@Override
+	public boolean release() {
+		while (true) {
+			int count = refCount.get();
+			Validator.checkState("release", count > 0,
+					"Frame buffer was already released.");
+			if (refCount.compareAndSet(count, count - 1)) {
+				if (count == 1) {
+					pool.recycle(this);
+					return true;
+				}
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("FrameBuffer[length=");
+		sb.append(length);
+		sb.append(",refs=");
+		sb.append(refCount.get());
+		sb.append("]");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,281 @@
+package mjpegslicer.impl;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.Validator;
+
+/**
+ * A pool of frame buffers. The backing arrays are grouped in size classes
+ * (powers of two from {@link #MIN_SIZE_CLASS} to {@link #MAX_SIZE_CLASS}); a
+ * lease is served from the smallest class that fits. Larger frames are
+ * allocated without pooling.
+ * <p>
+ * Leaks are detected when a leased {@link FrameBuffer} is garbage collected
+ * without having been released. The backing array is lost in this case, but
+ * the leak is counted and reported. With leak tracing enabled, the report
+ * includes the stack trace of the lease.
+ */
+public class FrameBufferPool extends LoggableObject {
+
+	/**
+	 * The smallest size class in bytes.
+	 */
+	public static final int MIN_SIZE_CLASS = 1 << 12;
+
+	/**
+	 * The largest size class in bytes.
+	 */
+	public static final int MAX_SIZE_CLASS = 1 << 24;
+
+	/**
+	 * The default number of idle buffers kept per size class.
+	 */
+	public static final int DEFAULT_MAX_IDLE_PER_SIZE_CLASS = 16;
+
+	private static final int MIN_SHIFT = 12;
+	private static final int MAX_SHIFT = 24;
+
+	/**
+	 * The tracking record of a lease.
+	 */
+	static class Lease extends WeakReference<FrameBuffer> {
+		private final int capacity;
+		private final Throwable trace;
+
+		private Lease(FrameBuffer buffer, ReferenceQueue<FrameBuffer> queue,
+				int capacity, Throwable trace) {
+			super(buffer, queue);
+			this.capacity = capacity;
+			this.trace = trace;
+		}
+	}
+
+	private final BlockingQueue<byte[]>[] idle;
+	private final Set<Lease> leases = Collections
+			.newSetFromMap(new ConcurrentHashMap<Lease, Boolean>());
+	private final ReferenceQueue<FrameBuffer> leakQueue = new ReferenceQueue<FrameBuffer>();
+	private volatile boolean leakTracing = false;
+
+	private final AtomicLong leaseCount = new AtomicLong();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicInteger outstandingCount = new AtomicInteger();
+	private final AtomicLong leakCount = new AtomicLong();
+
+	/**
+	 * Creates a pool that keeps {@link #DEFAULT_MAX_IDLE_PER_SIZE_CLASS} idle
+	 * buffers per size class.
+	 */
+	public FrameBufferPool() {
+		this(DEFAULT_MAX_IDLE_PER_SIZE_CLASS);
+	}
+
+	/**
+	 * Creates a pool.
+	 *
+	 * @param maxIdlePerSizeClass
+	 *            The maximum number of idle buffers kept per size class.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public FrameBufferPool(int maxIdlePerSizeClass) {
+		debugEntering(MN_INIT, "max idle per size class: ",
+				maxIdlePerSizeClass);
+		Validator.checkArgument(MN_INIT, "maxIdlePerSizeClass",
+				maxIdlePerSizeClass, maxIdlePerSizeClass > 0,
+				"must be positive.");
+		idle = new BlockingQueue[MAX_SHIFT - MIN_SHIFT + 1];
+		for (int i = 0; i < idle.length; i++) {
+			idle[i] = new ArrayBlockingQueue<byte[]>(maxIdlePerSizeClass);
+		}
+		debugLeaving(MN_INIT);
+	}
+
+	/**
+	 * Indicates whether the stack trace of each lease is recorded for leak
+	 * reports.
+	 *
+	 * @return The flag.
+	 */
+	public boolean isLeakTracing() {
+		return leakTracing;
+	}
+
+	/**
+	 * Enables or disables recording the stack trace of each lease. This is
+	 * expensive and should only be used to find the origin of leaks.
+	 *
+	 * @param leakTracing
+	 *            The new flag.
+	 */
+	public void setLeakTracing(boolean leakTracing) {
+		String mn = debugEntering("setLeakTracing", "value: ", leakTracing);
+		this.leakTracing = leakTracing;
+		debugLeaving(mn);
+	}
+
+	private static int sizeClassIndex(int size) {
+		if (size <= MIN_SIZE_CLASS) {
+			return 0;
+		}
+		int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+		return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+	}
+
+	/**
+	 * Leases a buffer. The buffer's reference count is one.
+	 *
+	 * @param length
+	 *            The frame length.
+	 * @return The buffer; its capacity is at least the frame length.
+	 */
+	public FrameBuffer lease(int length) {
+		Validator.checkArgument("lease", "length", length, length >= 0,
+				"must not be negative.");
+		detectLeaks();
+		leaseCount.incrementAndGet();
+		int index = sizeClassIndex(length);
+		byte[] data = null;
+		if (index >= 0) {
+			data = idle[index].poll();
+			if (data != null) {
+				hitCount.incrementAndGet();
+			} else {
+				data = new byte[MIN_SIZE_CLASS << index];
+			}
+		} else {
+			data = new byte[length];
+		}
+		outstandingCount.incrementAndGet();
+		return new FrameBuffer(this, data, length);
+	}
+
+	Lease track(FrameBuffer buffer) {
+		Lease lease = new Lease(buffer, leakQueue, buffer.capacity(),
+				leakTracing ? new Throwable("lease") : null);
+		leases.add(lease);
+		return lease;
+	}
+
+	void recycle(FrameBuffer buffer) {
+		Lease lease = buffer.getLease();
+		leases.remove(lease);
+		lease.clear();
+		outstandingCount.decrementAndGet();
+		byte[] data = buffer.detachArray();
+		int index = sizeClassIndex(data.length);
+		if (index >= 0 && data.length == MIN_SIZE_CLASS << index) {
+			// a full size class is not an error; the array is dropped
+			idle[index].offer(data);
+		}
+	}
+
+	/**
+	 * Counts and reports leases whose buffers were garbage collected without
+	 * having been released.
+	 *
+	 * @return The number of leaks found.
+	 */
+	public int detectLeaks() {
+		int result = 0;
+		Lease lease = (Lease) leakQueue.poll();
+		while (lease != null) {
+			if (leases.remove(lease)) {
+				result++;
+				outstandingCount.decrementAndGet();
+				leakCount.incrementAndGet();
+				if (lease.trace == null) {
+					warn("detectLeaks", "frame buffer of ", lease.capacity,
+							" bytes was not released.");
+				} else {
+					warn("detectLeaks", "frame buffer of ", lease.capacity,
+							" bytes was not released, leased at: ",
+							stackTrace(lease.trace));
+				}
+			}
+			lease = (Lease) leakQueue.poll();
+		}
+		return result;
+	}
+
+	private static String stackTrace(Throwable trace) {
+		StringBuilder sb = new StringBuilder();
+		for (StackTraceElement element : trace.getStackTrace()) {
+			sb.append("\n\tat ");
+			sb.append(element);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the number of leases so far.
+	 *
+	 * @return The count.
+	 */
+	public long getLeaseCount() {
+		return leaseCount.get();
+	}
+
+	/**
+	 * Returns the number of leases that were served by an idle buffer.
+	 *
+	 * @return The count.
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Returns the ratio of leases that were served by an idle buffer.
+	 *
+	 * @return The ratio in 0..1; <code>0</code> if nothing was leased yet.
+	 */
+	public double getHitRate() {
+		long leases = leaseCount.get();
+		return leases == 0L ? 0.0 : (double) hitCount.get() / leases;
+	}
+
+	/**
+	 * Returns the number of buffers that are leased and not yet released.
+	 *
+	 * @return The count.
+	 */
+	public int getOutstandingCount() {
+		return outstandingCount.get();
+	}
+
+	/**
+	 * Returns the number of leaks detected so far.
+	 *
+	 * @return The count.
+	 */
+	public long getLeakCount() {
+		return leakCount.get();
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("FrameBufferPool[leases=");
+		sb.append(leaseCount.get());
+		sb.append(",hits=");
+		sb.append(hitCount.get());
+		sb.append(",outstanding=");
+		sb.append(outstandingCount.get());
+		sb.append(",leaks=");
+		sb.append(leakCount.get());
+		sb.append("]");
+		return sb.toString();
+	}
+}
@@ -126,6 +126,39 @@ public class HttpHeadersImpl extends LoggableObject implements HttpHeaders {
 		return boundary;
 	}
 
+	/**
+	 * Extracts the "boundary" parameter from the value of a "Content-Type"
+	 * header entry, e.g. "multipart/x-mixed-replace; boundary=myboundary".
+	 *
+	 * @param contentType
+	 *            The header value or <code>null</code>.
+	 * @return The parameter value without quotes or <code>null</code> if no
+	 *         such parameter was found.
+	 */
+	public static String extractBoundaryParameter(String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		String[] parameters = contentType.split(";");
+		for (String parameter : parameters) {
+			int eqPos = parameter.indexOf('=');
+			if (eqPos < 0) {
+				continue;
+			}
+			String name = parameter.substring(0, eqPos).trim();
+			if (!name.equalsIgnoreCase("boundary")) {
+				continue;
+			}
+			String value = parameter.substring(eqPos + 1).trim();
+			if (value.length() > 1 && value.startsWith("\"")
+					&& value.endsWith("\"")) {
+				value = value.substring(1, value.length() - 1);
+			}
+			return value.length() == 0 ? null : value;
+		}
+		return null;
+	}
+
 	public static class Builder extends LoggableObject {
 		private List<String> keys = new ArrayList<String>();
 		private List<String> values = new ArrayList<String>();
@@ -167,7 +200,9 @@ public class HttpHeadersImpl extends LoggableObject implements HttpHeaders {
 			String mn = debugEntering("contentLengthLookUp");
 			if (lastKey.equalsIgnoreCase("Content-Length")) {
 				contentLength = Integer.parseInt(lastValue);
-				debug(mn, "found content length: ", contentLength);
+				if (isTraceEnabled()) {
+					debug(mn, "found content length: ", contentLength);
+				}
 			}
 			debugLeaving(mn);
 		}
@@ -190,7 +225,9 @@ public class HttpHeadersImpl extends LoggableObject implements HttpHeaders {
 			}
 			keys.add(lastKey);
 			values.add(lastValue);
-			debug(mn, "key=", lastKey, ", value=", lastValue);
+			if (isTraceEnabled()) {
+				debug(mn, "key=", lastKey, ", value=", lastValue);
+			}
 			contentTypeLookUp();
 			contentLengthLookUp();
 			boundaryLookUp();
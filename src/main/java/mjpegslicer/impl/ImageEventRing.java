@@ -0,0 +1,416 @@
+package mjpegslicer.impl;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import mjpegslicer.ImageEvent;
+import mjpegslicer.ImageListener;
+import mjpegslicer.metrics.Histogram;
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.Validator;
+
+/**
+ * A preallocated ring of {@link ImageEvent} slots that hands events from a
+ * single producer, e.g. the reading thread of a sink, to any number of
+ * consumers that run on their own threads.
+ * <p>
+ * Each published event gets the next sequence number; the producer claims the
+ * slot of that sequence, stores the event and moves the cursor. Consumers
+ * follow the cursor with their own sequence and never lock. The producer never
+ * waits either: if the slowest consumer is a whole ring behind, the new event
+ * is not published and counted as dropped, so a slow consumer cannot stall
+ * the socket.
+ * <p>
+ * The ring holds a reference on each event until all consumers have passed
+ * it; the producer releases the passed events when it publishes. So pooled
+ * frames are not pinned by the slots, and a listener only has to
+ * {@link ImageEvent#retain()} an event that it keeps beyond the notification
+ * call.
+ * <p>
+ * Each slot also keeps the time the event was read, so that a consumer can
+ * record the latency until it notifies its listener. A consumer stamps each
+ * event with its dispatch time before it notifies its listener.
+ */
+public class ImageEventRing extends LoggableObject {
+
+	/**
+	 * The default number of slots.
+	 */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private final ImageEvent[] slots;
+	private final long[] readNanos;
+	private final int mask;
+	private final WaitStrategy waitStrategy;
+	private final AtomicLong cursor = new AtomicLong(-1L);
+	private final CopyOnWriteArrayList<Consumer> consumers = new CopyOnWriteArrayList<Consumer>();
+	private final AtomicLong publishedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	// producer state
+	private long next = 0L;
+	private long gatingCache = -1L;
+	private long releasedSequence = -1L;
+
+	/**
+	 * Creates a ring with {@link #DEFAULT_CAPACITY} slots whose consumers
+	 * park.
+	 */
+	public ImageEventRing() {
+		this(DEFAULT_CAPACITY, WaitStrategy.PARK);
+	}
+
+	/**
+	 * Creates a ring.
+	 *
+	 * @param capacity
+	 *            The number of slots; a power of two.
+	 * @param waitStrategy
+	 *            The way consumers wait for the next event.
+	 */
+	public ImageEventRing(int capacity, WaitStrategy waitStrategy) {
+		debugEntering(MN_INIT, "capacity: ", capacity, ", wait strategy: ",
+				waitStrategy);
+		Validator.checkArgument(MN_INIT, "capacity", capacity, capacity > 0
+				&& Integer.bitCount(capacity) == 1, "must be a power of two.");
+		Validator.argumentMustNotBeNull(MN_INIT, "waitStrategy", waitStrategy);
+		slots = new ImageEvent[capacity];
+		readNanos = new long[capacity];
+		mask = capacity - 1;
+		this.waitStrategy = waitStrategy;
+		debugLeaving(MN_INIT);
+	}
+
+	/**
+	 * Returns the number of slots.
+	 *
+	 * @return The capacity.
+	 */
+	public int getCapacity() {
+		return slots.length;
+	}
+
+	/**
+	 * Returns the way consumers wait for the next event.
+	 *
+	 * @return The strategy.
+	 */
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * Returns the sequence number of the last published event.
+	 *
+	 * @return The sequence number or <code>-1</code> if nothing was published
+	 *         yet.
+	 */
+	public long getCursor() {
+		return cursor.get();
+	}
+
+	/**
+	 * Returns the number of events published so far.
+	 *
+	 * @return The count.
+	 */
+	public long getPublishedCount() {
+		return publishedCount.get();
+	}
+
+	/**
+	 * Returns the number of events that were dropped because the ring was
+	 * full.
+	 *
+	 * @return The count.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Adds a consumer that notifies a listener. The consumer starts behind the
+	 * last published event; it must be run by a thread of its own.
+	 *
+	 * @param listener
+	 *            The listener.
+	 * @return The consumer.
+	 */
+	public Consumer addConsumer(ImageListener listener) {
+		return addConsumer(listener, null);
+	}
+
+	/**
+	 * Adds a consumer that notifies a listener and records the latency of
+	 * each event from being read until the listener is notified. The consumer
+	 * starts behind the last published event; it must be run by a thread of
+	 * its own.
+	 *
+	 * @param listener
+	 *            The listener.
+	 * @param latencies
+	 *            The histogram of the latencies in nanoseconds or
+	 *            <code>null</code> if they are not recorded.
+	 * @return The consumer.
+	 */
+	public Consumer addConsumer(ImageListener listener, Histogram latencies) {
+		String mn = debugEntering("addConsumer", "listener: ", listener);
+		Validator.argumentMustNotBeNull(mn, "listener", listener);
+		Consumer result = new Consumer(listener, latencies, cursor.get());
+		consumers.add(result);
+		// the producer might have released the events up to the cursor
+		// before it saw the consumer
+		result.sequence.set(cursor.get());
+		debugLeaving(mn, "consumers: ", consumers.size());
+		return result;
+	}
+
+	/**
+	 * Removes a consumer and halts it.
+	 *
+	 * @param consumer
+	 *            The consumer.
+	 */
+	public void removeConsumer(Consumer consumer) {
+		String mn = debugEntering("removeConsumer", "consumer: ", consumer);
+		consumer.halt();
+		consumers.remove(consumer);
+		debugLeaving(mn, "consumers: ", consumers.size());
+	}
+
+	/**
+	 * Publishes an event. This must only be called by the producer thread. On
+	 * success, the ring takes over the caller's reference on the event;
+	 * otherwise, the caller keeps it.
+	 *
+	 * @param event
+	 *            The event.
+	 * @return <code>false</code> if the ring is full and the event was
+	 *         dropped, otherwise <code>true</code>.
+	 */
+	public boolean publish(ImageEvent event) {
+		return publish(event, System.nanoTime());
+	}
+
+	/**
+	 * Publishes an event that was read at a certain time. This must only be
+	 * called by the producer thread. On success, the ring takes over the
+	 * caller's reference on the event; otherwise, the caller keeps it.
+	 *
+	 * @param event
+	 *            The event.
+	 * @param nanos
+	 *            The {@link System#nanoTime()} when the event was read.
+	 * @return <code>false</code> if the ring is full and the event was
+	 *         dropped, otherwise <code>true</code>.
+	 */
+	public boolean publish(ImageEvent event, long nanos) {
+		long sequence = next;
+		long wrapPoint = sequence - slots.length;
+		if (wrapPoint > gatingCache) {
+			gatingCache = minimumSequence(sequence - 1);
+			if (wrapPoint > gatingCache) {
+				droppedCount.incrementAndGet();
+				return false;
+			}
+		}
+		// the event of the slot was passed, unless it is the first round
+		releasePassed(wrapPoint);
+		int index = (int) sequence & mask;
+		slots[index] = event;
+		readNanos[index] = nanos;
+		next = sequence + 1;
+		// the volatile write publishes the slot
+		cursor.set(sequence);
+		publishedCount.incrementAndGet();
+		if (waitStrategy.isSignalled()) {
+			for (Consumer consumer : consumers) {
+				consumer.signal();
+			}
+		}
+		releasePassed(minimumSequence(sequence));
+		return true;
+	}
+
+	/**
+	 * Releases the events that all consumers have passed.
+	 */
+	private void releasePassed(long passed) {
+		for (long s = releasedSequence + 1; s <= passed; s++) {
+			int index = (int) s & mask;
+			if (slots[index] != null) {
+				slots[index].release();
+				slots[index] = null;
+			}
+		}
+		if (passed > releasedSequence) {
+			releasedSequence = passed;
+		}
+	}
+
+	private long minimumSequence(long result) {
+		for (Consumer consumer : consumers) {
+			long sequence = consumer.sequence.get();
+			if (sequence < result) {
+				result = sequence;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Releases the events in all slots. This must only be called after the
+	 * producer and all consumers have stopped.
+	 */
+	public void clear() {
+		String mn = debugEntering("clear");
+		for (int i = 0; i < slots.length; i++) {
+			if (slots[i] != null) {
+				slots[i].release();
+				slots[i] = null;
+			}
+		}
+		debugLeaving(mn);
+	}
+
+	/**
+	 * A consumer of the ring that notifies a listener of each event in
+	 * sequence.
+	 */
+	public class Consumer implements Runnable {
+
+		private final ImageListener listener;
+		private final Histogram latencies;
+		private final AtomicLong sequence;
+		private volatile boolean running = true;
+		private volatile Thread thread = null;
+		private volatile boolean parked = false;
+
+		private Consumer(ImageListener listener, Histogram latencies,
+				long sequence) {
+			this.listener = listener;
+			this.latencies = latencies;
+			this.sequence = new AtomicLong(sequence);
+		}
+
+		/**
+		 * Returns the sequence number of the last event that was processed.
+		 *
+		 * @return The sequence number.
+		 */
+		public long getSequence() {
+			return sequence.get();
+		}
+
+		/**
+		 * Returns the number of published events that were not yet processed.
+		 *
+		 * @return The count.
+		 */
+		public long getLag() {
+			return cursor.get() - sequence.get();
+		}
+
+		/**
+		 * Stops processing after the current event.
+		 */
+		public void halt() {
+			running = false;
+			Thread t = thread;
+			if (t != null) {
+				LockSupport.unpark(t);
+			}
+		}
+
+		void park(long maxNanos) {
+			parked = true;
+			// re-check after announcing, so that no signal gets lost
+			if (running && cursor.get() == sequence.get()) {
+				LockSupport.parkNanos(this, maxNanos);
+			}
+			parked = false;
+		}
+
+		private void signal() {
+			if (parked) {
+				LockSupport.unpark(thread);
+			}
+		}
+
+		/**
+		 * Processes the events until halted.
+		 */
+		@Override
+		public void run() {
+			String mn = debugEntering("run");
+			thread = Thread.currentThread();
+			int idleCount = 0;
+			while (running) {
+				long available = cursor.get();
+				long current = sequence.get();
+				if (available > current) {
+					for (long s = current + 1; s <= available && running; s++) {
+						int index = (int) s & mask;
+						ImageEvent event = slots[index];
+						long now = System.nanoTime();
+						event.setDispatchNanos(now);
+						if (latencies != null) {
+							latencies.record(now - readNanos[index]);
+						}
+						notifyListener(mn, event);
+						sequence.set(s);
+					}
+					idleCount = 0;
+				} else {
+					idleCount = waitStrategy.idle(this, idleCount);
+				}
+			}
+			thread = null;
+			debugLeaving(mn);
+		}
+
+		private void notifyListener(String methodName, ImageEvent event) {
+			try {
+				listener.newImage(event);
+			} catch (Throwable t) {
+				// an error must not stop the consumer and thus the producer
+				error(methodName, "listener failed: ", listener, ", ", t);
+			}
+		}
+
+		/**
+		 * Returns the text representation of this object.
+		 *
+		 * @return The representation
+		 */
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder("Consumer[seqNo=");
+			sb.append(sequence.get());
+			sb.append(",listener=");
+			sb.append(listener);
+			sb.append("]");
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("ImageEventRing[capacity=");
+		sb.append(slots.length);
+		sb.append(",cursor=");
+		sb.append(cursor.get());
+		sb.append(",consumers:");
+		sb.append(consumers.size());
+		sb.append(",dropped:");
+		sb.append(droppedCount.get());
+		sb.append("]");
+		return sb.toString();
+	}
+}
@@ -1,19 +1,26 @@
 package mjpegslicer.impl;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import mjpegslicer.ImageEvent;
 import mjpegslicer.ImageListener;
+import mjpegslicer.util.ExecutorStrategy;
 import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.PlatformThreadStrategy;
 
 /**
  * This is a support class that eases the distribution of {@link ImageEvent}
  * instances to {@link ImageListener} instances.
+ * <p>
+ * The registry is copy-on-write, so listeners may be added and removed while
+ * events are distributed. Listeners are notified on the caller's thread
+ * unless they are added with a queue of their own; see
+ * {@link #addImageListener(ImageListener, int, OverflowPolicy)}. Consumers
+ * that only want the newest image subscribe with {@link #addMailbox()}.
  */
 public class ImageEventSupport extends LoggableObject implements ImageListener {
 
-	private List<ImageListener> listeners = new ArrayList<ImageListener>();
+	private final CopyOnWriteArrayList<ImageListener> listeners = new CopyOnWriteArrayList<ImageListener>();
 
 	/**
 	 * Returns the number of image listeners.
@@ -29,7 +36,11 @@ public class ImageEventSupport extends LoggableObject implements ImageListener {
 	 */
 	public void removeAllJpegListeners() {
 		String mn = debugEntering("removeAllJpegListeners");
+		Object[] removed = listeners.toArray();
 		listeners.clear();
+		for (Object listener : removed) {
+			shutdown((ImageListener) listener);
+		}
 		debugLeaving(mn);
 	}
 
@@ -43,12 +54,103 @@ public class ImageEventSupport extends LoggableObject implements ImageListener {
 		String mn = debugEntering("addJpegListener", "listener: ", listener);
 		if (listener == null) {
 			warn(mn, "Listener reference null is ignored.");
-		} else if (listeners.contains(listener)) {
+		} else if (find(listener) != null || !listeners.addIfAbsent(listener)) {
+			warn(mn, "listener is already registered: ", listener);
+		}
+		debugLeaving(mn, "new listener count: ", listeners.size());
+	}
+
+	/**
+	 * Adds an image listener that is notified by a thread of its own. Events
+	 * are queued for the listener; a slow listener does not delay the others.
+	 * 
+	 * @param listener
+	 *            The listener that is added.
+	 * @param queueCapacity
+	 *            The maximum number of queued events.
+	 * @param overflowPolicy
+	 *            The policy when the queue is full.
+	 * @return The queueing wrapper that provides the lag and drop counters,
+	 *         or <code>null</code> if the listener was not added.
+	 */
+	public AsyncImageListener addImageListener(ImageListener listener,
+			int queueCapacity, OverflowPolicy overflowPolicy) {
+		return addImageListener(listener, queueCapacity, overflowPolicy,
+				new PlatformThreadStrategy());
+	}
+
+	/**
+	 * Adds an image listener that is notified by a thread of its own, which
+	 * is provided by an executor strategy.
+	 * 
+	 * @param listener
+	 *            The listener that is added.
+	 * @param queueCapacity
+	 *            The maximum number of queued events.
+	 * @param overflowPolicy
+	 *            The policy when the queue is full.
+	 * @param executorStrategy
+	 *            The strategy that provides the thread.
+	 * @return The queueing wrapper that provides the lag and drop counters,
+	 *         or <code>null</code> if the listener was not added.
+	 */
+	public AsyncImageListener addImageListener(ImageListener listener,
+			int queueCapacity, OverflowPolicy overflowPolicy,
+			ExecutorStrategy executorStrategy) {
+		String mn = debugEntering("addImageListener", "listener: ", listener,
+				", capacity: ", queueCapacity, ", policy: ", overflowPolicy);
+		AsyncImageListener result = null;
+		if (listener == null) {
+			warn(mn, "Listener reference null is ignored.");
+		} else if (find(listener) != null) {
 			warn(mn, "listener is already registered: ", listener);
 		} else {
-			listeners.add(listener);
+			result = new AsyncImageListener(listener, queueCapacity,
+					overflowPolicy, executorStrategy);
+			listeners.add(result);
 		}
 		debugLeaving(mn, "new listener count: ", listeners.size());
+		return result;
+	}
+
+	/**
+	 * Adds a conflating subscription for consumers that only care about the
+	 * newest image: the subscriber takes the latest event from a single-slot
+	 * mailbox at its own pace, unread events are overwritten. Remove the
+	 * subscription with {@link #removeImageListener(ImageListener)}.
+	 * 
+	 * @return The mailbox.
+	 */
+	public ImageMailbox addMailbox() {
+		String mn = debugEntering("addMailbox");
+		ImageMailbox result = new ImageMailbox();
+		listeners.add(result);
+		debugLeaving(mn, "new listener count: ", listeners.size());
+		return result;
+	}
+
+	/**
+	 * Searches a listener, either registered directly or wrapped in an
+	 * {@link AsyncImageListener}.
+	 * 
+	 * @return The registered instance or <code>null</code> if not found.
+	 */
+	private ImageListener find(ImageListener listener) {
+		for (ImageListener candidate : listeners) {
+			if (candidate.equals(listener)
+					|| (candidate instanceof AsyncImageListener
+							&& ((AsyncImageListener) candidate).getDelegate()
+									.equals(listener))) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	private static void shutdown(ImageListener listener) {
+		if (listener instanceof Shutdownable) {
+			((Shutdownable) listener).shutdown();
+		}
 	}
 
 	/**
@@ -61,17 +163,21 @@ public class ImageEventSupport extends LoggableObject implements ImageListener {
 		String mn = debugEntering("removeJpegListener", "listener: ", listener);
 		if (listener == null) {
 			warn(mn, "Listener reference null is ignored.");
-		} else if (!listeners.contains(listener)) {
-			warn(mn, "listener is not registered: ", listener);
 		} else {
-			listeners.remove(listener);
+			ImageListener registered = find(listener);
+			if (registered == null || !listeners.remove(registered)) {
+				warn(mn, "listener is not registered: ", listener);
+			} else {
+				shutdown(registered);
+			}
 		}
 		debugLeaving(mn, "new listener count: ", listeners.size());
 	}
 
 	/**
 	 * The image listener implementation: distribute events to all registered
-	 * listeners.
+	 * listeners. A failing listener is logged and does not keep the event
+	 * from the others.
 	 * 
 	 * @param event
 	 *            The event that shall be distributed.
@@ -79,7 +185,11 @@ public class ImageEventSupport extends LoggableObject implements ImageListener {
 	@Override
 	public void newImage(ImageEvent event) {
 		for (ImageListener listener : listeners) {
-			listener.newImage(event);
+			try {
+				listener.newImage(event);
+			} catch (RuntimeException re) {
+				error("newImage", "listener failed: ", listener, ", ", re);
+			}
 		}
 	}
 
@@ -0,0 +1,173 @@
+package mjpegslicer.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import mjpegslicer.ImageEvent;
+import mjpegslicer.ImageListener;
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.Validator;
+
+/**
+ * An image listener for consumers that only care about the newest image,
+ * e.g. live viewers: the listener keeps the latest event in a single slot
+ * and a new event overwrites one that was not read yet. The consumer polls
+ * the slot or waits for it at its own pace, so a slow consumer neither
+ * queues events nor sees an image older than the latest one.
+ * <p>
+ * The event in the slot is retained. A consumer that takes an event takes
+ * over that reference and must {@link ImageEvent#release()} the event when
+ * done.
+ */
+public class ImageMailbox extends LoggableObject implements ImageListener,
+		Shutdownable {
+
+	private final AtomicReference<ImageEvent> slot = new AtomicReference<ImageEvent>();
+	private final Object lock = new Object();
+	private volatile int waiterCount;
+	private volatile boolean running = true;
+
+	private final AtomicLong takenCount = new AtomicLong();
+	private final AtomicLong overwrittenCount = new AtomicLong();
+
+	/**
+	 * Returns the number of events taken by the consumer so far.
+	 *
+	 * @return The count.
+	 */
+	public long getTakenCount() {
+		return takenCount.get();
+	}
+
+	/**
+	 * Returns the number of events that were overwritten before the consumer
+	 * took them.
+	 *
+	 * @return The count.
+	 */
+	public long getOverwrittenCount() {
+		return overwrittenCount.get();
+	}
+
+	/**
+	 * Puts an event into the slot and wakes up a waiting consumer.
+	 *
+	 * @param event
+	 *            The event.
+	 */
+	@Override
+	public void newImage(ImageEvent event) {
+		if (!running) {
+			return;
+		}
+		event.retain();
+		release(slot.getAndSet(event), overwrittenCount);
+		if (!running) {
+			// the mailbox was shut down meanwhile
+			release(slot.getAndSet(null), null);
+			return;
+		}
+		// the waiter registers before it checks the slot, see poll
+		if (waiterCount > 0) {
+			synchronized (lock) {
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private static void release(ImageEvent event, AtomicLong counter) {
+		if (event != null) {
+			event.release();
+			if (counter != null) {
+				counter.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Takes the latest event without waiting.
+	 *
+	 * @return The event, which the caller must release, or <code>null</code>
+	 *         if no event arrived since the last take.
+	 */
+	public ImageEvent poll() {
+		ImageEvent result = slot.getAndSet(null);
+		if (result != null) {
+			takenCount.incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * Takes the latest event, waiting for one if no event arrived since the
+	 * last take.
+	 *
+	 * @param timeout
+	 *            The maximum time to wait.
+	 * @param unit
+	 *            The unit of the timeout.
+	 * @return The event, which the caller must release, or <code>null</code>
+	 *         if no event arrived in time or the mailbox was shut down.
+	 * @throws InterruptedException
+	 *             if the waiting thread was interrupted.
+	 */
+	public ImageEvent poll(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		Validator.argumentMustNotBeNull("poll", "unit", unit);
+		ImageEvent result = poll();
+		if (result != null || timeout <= 0L) {
+			return result;
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (lock) {
+			waiterCount++;
+			try {
+				result = poll();
+				while (result == null && running) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0L) {
+						break;
+					}
+					TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+					result = poll();
+				}
+			} finally {
+				waiterCount--;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Stops accepting events, releases the event in the slot and wakes up
+	 * the waiting consumers.
+	 */
+	@Override
+	public void shutdown() {
+		String mn = debugEntering("shutdown");
+		running = false;
+		release(slot.getAndSet(null), null);
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("ImageMailbox[full=");
+		sb.append(slot.get() != null);
+		sb.append(",taken=");
+		sb.append(takenCount.get());
+		sb.append(",overwritten=");
+		sb.append(overwrittenCount.get());
+		sb.append("]");
+		return sb.toString();
+	}
+}
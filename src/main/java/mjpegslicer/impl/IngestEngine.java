@@ -0,0 +1,244 @@
+package mjpegslicer.impl;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import mjpegslicer.util.JpegCodecs;
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.Validator;
+
+/**
+ * An ingest engine for many cameras. The camera connections are multiplexed
+ * on a few NIO selector threads, by default one per processor; each stream is
+ * parsed incrementally by a {@link MultipartParser}. Thus the number of
+ * threads does not grow with the number of cameras.
+ * <p>
+ * A stream whose connection is not established within the connect timeout of
+ * its source, or that delivers no data within the read timeout of the engine,
+ * is closed.
+ */
+public class IngestEngine extends LoggableObject {
+
+	/**
+	 * The default size of the read buffer of each selector thread.
+	 */
+	public static final int DEFAULT_READ_BUFFER_SIZE = 65536;
+
+	/**
+	 * The default read timeout in milliseconds.
+	 */
+	public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+
+	private final int selectorCount;
+	private SelectorLoop[] loops = null;
+	private ExecutorService executor = null;
+	private final List<IngestStream> streams = new CopyOnWriteArrayList<IngestStream>();
+	private FrameBufferPool frameBufferPool = new FrameBufferPool();
+	private volatile int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+	/**
+	 * Creates an engine with one selector thread per processor.
+	 */
+	public IngestEngine() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates an engine.
+	 *
+	 * @param selectorCount
+	 *            The number of selector threads.
+	 */
+	public IngestEngine(int selectorCount) {
+		debugEntering(MN_INIT, "selector count: ", selectorCount);
+		Validator.checkArgument(MN_INIT, "selectorCount", selectorCount,
+				selectorCount > 0, "must be positive.");
+		this.selectorCount = selectorCount;
+		debugLeaving(MN_INIT);
+	}
+
+	/**
+	 * Returns the number of selector threads.
+	 *
+	 * @return The count.
+	 */
+	public int getSelectorCount() {
+		return selectorCount;
+	}
+
+	/**
+	 * Indicates whether the engine was started.
+	 *
+	 * @return The flag.
+	 */
+	public boolean isStarted() {
+		return loops != null;
+	}
+
+	/**
+	 * Returns the pool that provides the frame buffers.
+	 *
+	 * @return The pool.
+	 */
+	public FrameBufferPool getFrameBufferPool() {
+		return frameBufferPool;
+	}
+
+	/**
+	 * Redefines the pool that provides the frame buffers. This affects
+	 * cameras that are added afterwards.
+	 *
+	 * @param frameBufferPool
+	 *            The new pool.
+	 */
+	public void setFrameBufferPool(FrameBufferPool frameBufferPool) {
+		String mn = debugEntering("setFrameBufferPool", "value: ",
+				frameBufferPool);
+		Validator.argumentMustNotBeNull(mn, "frameBufferPool", frameBufferPool);
+		this.frameBufferPool = frameBufferPool;
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Returns the read timeout.
+	 *
+	 * @return The timeout in milliseconds.
+	 */
+	public int getReadTimeoutMillis() {
+		return readTimeoutMillis;
+	}
+
+	/**
+	 * Redefines the time a stream may go without data before it is closed.
+	 * This affects cameras that are added afterwards.
+	 *
+	 * @param readTimeoutMillis
+	 *            The new timeout in milliseconds. A value of zero means no
+	 *            timeout.
+	 */
+	public void setReadTimeoutMillis(int readTimeoutMillis) {
+		String mn = debugEntering("setReadTimeoutMillis", "value: ",
+				readTimeoutMillis);
+		Validator.checkArgument(mn, "readTimeoutMillis", readTimeoutMillis,
+				readTimeoutMillis >= 0, "value must not be negative.");
+		this.readTimeoutMillis = readTimeoutMillis;
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Starts the selector threads.
+	 *
+	 * @throws IOException
+	 *             If a selector could not be opened.
+	 */
+	public synchronized void start() throws IOException {
+		String mn = debugEntering("start");
+		Validator.checkState(mn, loops == null, "Engine is already started.");
+		// load the codecs now rather than with the first frame
+		JpegCodecs.prewarm();
+		SelectorLoop[] created = new SelectorLoop[selectorCount];
+		for (int i = 0; i < selectorCount; i++) {
+			created[i] = new SelectorLoop(DEFAULT_READ_BUFFER_SIZE);
+		}
+		executor = Executors.newFixedThreadPool(selectorCount);
+		for (SelectorLoop loop : created) {
+			executor.execute(loop);
+		}
+		loops = created;
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Stops the selector threads and closes all camera connections.
+	 */
+	public synchronized void shutdown() {
+		String mn = debugEntering("shutdown");
+		Validator.checkState(mn, loops != null, "Engine was not started.");
+		for (SelectorLoop loop : loops) {
+			loop.halt();
+		}
+		executor.shutdown();
+		loops = null;
+		executor = null;
+		streams.clear();
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Adds a camera and starts connecting to it. The camera is assigned to
+	 * the selector thread with the fewest streams. The host name is resolved
+	 * by the calling thread.
+	 *
+	 * @param source
+	 *            The description of the camera: host, port, path and
+	 *            credentials. The source itself is not started.
+	 * @return The logical stream of the camera.
+	 */
+	public IngestStream addCamera(SocketChannelSource source) {
+		String mn = debugEntering("addCamera", "source: ", source);
+		Validator.argumentMustNotBeNull(mn, "source", source);
+		IngestStream result;
+		synchronized (this) {
+			Validator.checkState(mn, loops != null, "Engine was not started.");
+			SelectorLoop selected = loops[0];
+			for (SelectorLoop loop : loops) {
+				if (loop.getStreamCount().get() < selected.getStreamCount()
+						.get()) {
+					selected = loop;
+				}
+			}
+			selected.getStreamCount().incrementAndGet();
+			result = new IngestStream(source, selected, frameBufferPool,
+					readTimeoutMillis);
+			streams.add(result);
+		}
+		// the lookup of the host name is not done while holding the lock
+		result.start();
+		debugLeaving(mn, "result: ", result);
+		return result;
+	}
+
+	/**
+	 * Stops a camera stream and removes it.
+	 *
+	 * @param stream
+	 *            The stream.
+	 */
+	public void removeCamera(IngestStream stream) {
+		String mn = debugEntering("removeCamera", "stream: ", stream);
+		if (streams.remove(stream)) {
+			stream.stop();
+		} else {
+			warn(mn, "stream is not registered: ", stream);
+		}
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Returns the streams of all cameras that were added.
+	 *
+	 * @return The streams.
+	 */
+	public List<IngestStream> getStreams() {
+		return Collections.unmodifiableList(streams);
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("IngestEngine[selectors=");
+		sb.append(selectorCount);
+		sb.append(",streams:");
+		sb.append(streams.size());
+		sb.append("]");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,334 @@
+package mjpegslicer.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mjpegslicer.ImageDataCorruptionException;
+import mjpegslicer.ImageEvent;
+import mjpegslicer.ImageListener;
+import mjpegslicer.util.LoggableObject;
+
+/**
+ * The logical stream of one camera in an {@link IngestEngine}. It provides
+ * the same counters as a {@link mjpegslicer.Sink}; images are distributed to
+ * its listeners.
+ * <p>
+ * Listeners are notified on the selector thread, which serves many cameras.
+ * Listeners that do more than a quick hand-off should therefore be added with
+ * a queue of their own; see
+ * {@link #addImageListener(ImageListener, int, OverflowPolicy)}.
+ * <p>
+ * The host name is resolved by the thread that starts the stream, never by
+ * the selector thread. A connection that is not established within the
+ * connect timeout of the source, or that delivers no data within the read
+ * timeout, is closed.
+ */
+public class IngestStream extends LoggableObject implements
+		MultipartParser.Listener {
+
+	private final SocketChannelSource source;
+	private final SelectorLoop loop;
+	private final FrameBufferPool frameBufferPool;
+	private final int readTimeoutMillis;
+	private final MultipartParser parser = new MultipartParser(this);
+	private final ImageEventSupport imageEventSupport = new ImageEventSupport();
+	private final AtomicInteger sequenceNumber = new AtomicInteger();
+	private volatile boolean started = false;
+
+	// selector thread state
+	private SocketChannel channel = null;
+	private ByteBuffer request = null;
+	private boolean connected = false;
+	private long deadlineNanos = 0L;
+
+	IngestStream(SocketChannelSource source, SelectorLoop loop,
+			FrameBufferPool frameBufferPool, int readTimeoutMillis) {
+		debugEntering(MN_INIT, "source: ", source);
+		this.source = source;
+		this.loop = loop;
+		this.frameBufferPool = frameBufferPool;
+		this.readTimeoutMillis = readTimeoutMillis;
+		debugLeaving(MN_INIT);
+	}
+
+	/**
+	 * Returns the source that describes the camera.
+	 *
+	 * @return The source.
+	 */
+	public SocketChannelSource getSource() {
+		return source;
+	}
+
+	/**
+	 * Indicates whether the stream is connecting or connected.
+	 *
+	 * @return The flag.
+	 */
+	public boolean isStarted() {
+		return started;
+	}
+
+	/**
+	 * Returns the number of bytes transferred so far.
+	 *
+	 * @return The byte count.
+	 */
+	public long getByteCount() {
+		return parser.getByteCount();
+	}
+
+	/**
+	 * Returns the number of HTTP headers read so far.
+	 *
+	 * @return The header count.
+	 */
+	public int getHttpHeaderCount() {
+		return parser.getHttpHeaderCount();
+	}
+
+	/**
+	 * Returns the number of images read so far.
+	 *
+	 * @return The image count.
+	 */
+	public int getImageCount() {
+		return parser.getImageCount();
+	}
+
+	/**
+	 * Adds an image listener.
+	 *
+	 * @param listener
+	 *            The listener that is added.
+	 */
+	public void addImageListener(ImageListener listener) {
+		imageEventSupport.addImageListener(listener);
+	}
+
+	/**
+	 * Adds an image listener that is notified by a thread of its own.
+	 *
+	 * @param listener
+	 *            The listener that is added.
+	 * @param queueCapacity
+	 *            The maximum number of images queued for the listener.
+	 * @param overflowPolicy
+	 *            The policy when the queue is full.
+	 * @return The queueing wrapper or <code>null</code> if the listener was
+	 *         not added.
+	 */
+	public AsyncImageListener addImageListener(ImageListener listener,
+			int queueCapacity, OverflowPolicy overflowPolicy) {
+		return imageEventSupport.addImageListener(listener, queueCapacity,
+				overflowPolicy);
+	}
+
+	/**
+	 * Removes an image listener.
+	 *
+	 * @param listener
+	 *            The listener that is removed.
+	 */
+	public void removeImageListener(ImageListener listener) {
+		imageEventSupport.removeImageListener(listener);
+	}
+
+	/**
+	 * Starts connecting to the camera. The host name is resolved by the
+	 * calling thread, since the lookup blocks.
+	 */
+	void start() {
+		started = true;
+		final InetSocketAddress address = new InetSocketAddress(
+				source.getHostName(), source.getPort());
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				open(address);
+			}
+		});
+	}
+
+	/**
+	 * Stops the stream and closes the connection.
+	 */
+	public void stop() {
+		String mn = debugEntering("stop");
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				close("stopped");
+			}
+		});
+		debugLeaving(mn);
+	}
+
+	private void open(InetSocketAddress address) {
+		String mn = debugEntering("open", "address: ", address);
+		if (!started) {
+			debugLeaving(mn, "stopped before connecting.");
+			return;
+		}
+		try {
+			request = ByteBuffer.wrap(source.prepareRequest(
+					source.getHostName(), source.getPort(), source.getPath(),
+					source.getUserName(), source.getPassword()).getBytes(
+					"US-ASCII"));
+			parser.reset();
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			// an unresolved address fails here without a lookup
+			connected = channel.connect(address);
+			deadlineNanos = deadline(connected ? readTimeoutMillis : source
+					.getConnectTimeoutMillis());
+			channel.register(loop.getSelector(),
+					connected ? SelectionKey.OP_WRITE
+							: SelectionKey.OP_CONNECT, this);
+		} catch (Exception ex) {
+			warn(mn, "failed to connect: ", ex);
+			close("connect failed");
+		}
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Processes the readiness of the channel. The read buffer is shared with
+	 * the other streams of the selector thread.
+	 */
+	void ready(SelectionKey key, ByteBuffer readBuffer) {
+		String mn = "ready";
+		if (channel == null || !key.isValid()) {
+			// closed meanwhile
+			return;
+		}
+		try {
+			if (key.isConnectable() && channel.finishConnect()) {
+				connected = true;
+				deadlineNanos = deadline(readTimeoutMillis);
+				key.interestOps(SelectionKey.OP_WRITE);
+			}
+			if (key.isValid() && key.isWritable()) {
+				channel.write(request);
+				if (!request.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			}
+			if (key.isValid() && key.isReadable()) {
+				readBuffer.clear();
+				if (channel.read(readBuffer) < 0) {
+					close("EOD found");
+					return;
+				}
+				deadlineNanos = deadline(readTimeoutMillis);
+				readBuffer.flip();
+				parser.feed(readBuffer);
+			}
+		} catch (IOException ioe) {
+			warn(mn, "I/O failed: ", ioe);
+			close("I/O failed");
+		} catch (ImageDataCorruptionException idce) {
+			warn(mn, "corrupted stream: ", idce);
+			close("corrupted stream");
+		}
+	}
+
+	/**
+	 * Closes the stream if its connect or read timeout has expired.
+	 *
+	 * @param nowNanos
+	 *            The current value of {@link System#nanoTime()}.
+	 */
+	void checkDeadline(long nowNanos) {
+		if (channel != null && deadlineNanos != 0L
+				&& nowNanos - deadlineNanos >= 0L) {
+			warn("checkDeadline", connected ? "read" : "connect",
+					" timed out: ", this);
+			close(connected ? "read timed out" : "connect timed out");
+		}
+	}
+
+	private static long deadline(int timeoutMillis) {
+		if (timeoutMillis == 0) {
+			return 0L;
+		}
+		long result = System.nanoTime() + timeoutMillis * 1000000L;
+		// zero means no timeout
+		return result == 0L ? 1L : result;
+	}
+
+	void close(String reason) {
+		String mn = debugEntering("close", "reason: ", reason);
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException ignored) {
+			} finally {
+				channel = null;
+				connected = false;
+				deadlineNanos = 0L;
+			}
+		}
+		if (started) {
+			started = false;
+			loop.getStreamCount().decrementAndGet();
+		}
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Part headers are not used.
+	 *
+	 * @param header
+	 *            The header.
+	 */
+	@Override
+	public void httpHeader(PartHeader header) {
+	}
+
+	/**
+	 * Copies the image into a pooled buffer and distributes it.
+	 *
+	 * @param data
+	 *            The image data.
+	 */
+	@Override
+	public void imageData(ByteBuffer data) {
+		int length = data.remaining();
+		if (length == 0) {
+			return;
+		}
+		FrameBuffer frame = frameBufferPool.lease(length);
+		data.get(frame.array(), 0, length);
+		ImageEvent event = new ImageEvent(this, System.currentTimeMillis(),
+				sequenceNumber.getAndIncrement(), frame.array(), length, frame);
+		try {
+			imageEventSupport.newImage(event);
+		} finally {
+			event.release();
+		}
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("IngestStream[camera=");
+		sb.append(source.getHostName());
+		sb.append(':');
+		sb.append(source.getPort());
+		sb.append(",started=");
+		sb.append(started);
+		sb.append(",images:");
+		sb.append(parser.getImageCount());
+		sb.append("]");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,59 @@
+package mjpegslicer.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A channel that reads from an input stream straight into the array of a heap
+ * buffer. Unlike the adapter of {@link java.nio.channels.Channels}, it does
+ * not hold a monitor while blocked in a read, which would pin a virtual
+ * thread to its carrier thread. The channel is read by one thread only.
+ */
+class InputStreamChannel implements ReadableByteChannel {
+
+	private final InputStream inputStream;
+	private volatile boolean open = true;
+	private byte[] transferArray = null;
+
+	InputStreamChannel(InputStream inputStream) {
+		this.inputStream = inputStream;
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		int length = dst.remaining();
+		if (length == 0) {
+			return 0;
+		}
+		if (dst.hasArray()) {
+			int result = inputStream.read(dst.array(), dst.arrayOffset()
+					+ dst.position(), length);
+			if (result > 0) {
+				dst.position(dst.position() + result);
+			}
+			return result;
+		}
+		if (transferArray == null) {
+			transferArray = new byte[SinkTemplate.DEFAULT_READ_BUFFER_SIZE];
+		}
+		int result = inputStream.read(transferArray, 0,
+				Math.min(length, transferArray.length));
+		if (result > 0) {
+			dst.put(transferArray, 0, result);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() throws IOException {
+		open = false;
+		inputStream.close();
+	}
+}
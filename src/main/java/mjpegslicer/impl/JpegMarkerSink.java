@@ -0,0 +1,263 @@
+package mjpegslicer.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjpegslicer.HttpHeaders;
+
+/**
+ * A sink that slices images at their JPEG markers instead of HTTP headers. It
+ * handles raw streams of concatenated JPEG images as well as multipart streams:
+ * all bytes between the end of an image (EOI, FFD9) and the start of the next
+ * one (SOI, FFD8) are skipped.
+ * <p>
+ * The end of an image is found by walking the marker segments: segments with
+ * a length field (e.g. APP1 with an embedded EXIF thumbnail) are skipped as a
+ * whole and the entropy-coded data following SOS are scanned for the next
+ * marker, honouring byte stuffing (FF00) and restart markers. Thus an FFD9
+ * inside a segment does not cut the image short. An image whose EOI is not
+ * found within the maximum frame size fails the stream.
+ */
+public class JpegMarkerSink extends SinkTemplate {
+
+	private static final int MARKER_PREFIX = 0xff;
+	private static final int SOI = 0xd8;
+	private static final int EOI = 0xd9;
+	private static final int SOS = 0xda;
+	private static final int RST0 = 0xd0;
+	private static final int RST7 = 0xd7;
+	private static final int TEM = 0x01;
+	private static final int STUFFING = 0x00;
+
+	private final AtomicLong skippedByteCount = new AtomicLong();
+
+	/**
+	 * Returns the number of bytes that were skipped because they were outside
+	 * of any image.
+	 *
+	 * @return The byte count.
+	 */
+	public long getSkippedByteCount() {
+		return skippedByteCount.get();
+	}
+
+	/**
+	 * A raw stream has no header in front of the first image; anything in
+	 * front of it is skipped while searching for the first SOI marker.
+	 *
+	 * @return Always <code>true</code>.
+	 */
+	@Override
+	protected boolean readStreamStart() {
+		return true;
+	}
+
+	/**
+	 * Slices the next image at its markers.
+	 *
+	 * @return The frame buffer or <code>null</code> if the end of data is
+	 *         reached. The caller owns the buffer and must release it.
+	 */
+	@Override
+	protected FrameBuffer readNextFrame() {
+		return readFrame(HttpHeaders.INVALID_CONTENT_LENGTH);
+	}
+
+	/**
+	 * Determines the length of the next image. Unless a content length is
+	 * given, bytes in front of the next SOI marker are skipped, and the image
+	 * is left in the read buffer up to its EOI marker. Corrupted images are
+	 * skipped.
+	 *
+	 * @param contentLength
+	 *            The content length or
+	 *            {@link HttpHeaders#INVALID_CONTENT_LENGTH} if the image is
+	 *            sliced at its SOI and EOI markers.
+	 * @return The image length or <code>-1</code> if the end of data is
+	 *         reached.
+	 * @throws IOException
+	 *             If the channel could not be read.
+	 */
+	@Override
+	protected int findImageLength(int contentLength) throws IOException {
+		if (contentLength != HttpHeaders.INVALID_CONTENT_LENGTH) {
+			return super.findImageLength(contentLength);
+		}
+		while (skipToStartOfImage()) {
+			int length = findEndOfImage();
+			if (length != 0) {
+				return length;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Makes sure that the byte at an offset from the buffer position is
+	 * buffered.
+	 *
+	 * @return <code>false</code> if the end of data is reached.
+	 */
+	private boolean available(int offset) throws IOException {
+		while (readBuffer.position() + offset >= readBuffer.limit()) {
+			if (!fillReadBuffer()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int at(int offset) {
+		return readBuffer.get(readBuffer.position() + offset) & 0xff;
+	}
+
+	private void skip(int count) {
+		readBuffer.position(readBuffer.position() + count);
+		addToByteCount(count);
+		skippedByteCount.addAndGet(count);
+	}
+
+	/**
+	 * Skips all bytes up to the next SOI marker.
+	 *
+	 * @return <code>false</code> if the end of data is reached.
+	 */
+	private boolean skipToStartOfImage() throws IOException {
+		while (true) {
+			int index = indexOfMarkerPrefix(readBuffer, readBuffer.position(),
+					readBuffer.limit());
+			if (index < 0) {
+				skip(readBuffer.remaining());
+				if (!fillReadBuffer()) {
+					return false;
+				}
+				continue;
+			}
+			skip(index - readBuffer.position());
+			if (!available(1)) {
+				return false;
+			}
+			if (at(1) == SOI) {
+				return true;
+			}
+			skip(1);
+		}
+	}
+
+	/**
+	 * Walks the marker segments of the image at the buffer position. The
+	 * buffer position is not changed.
+	 *
+	 * @return The image length including the EOI marker, <code>0</code> if
+	 *         the image is corrupted and was skipped, or <code>-1</code> if
+	 *         the end of data is reached.
+	 */
+	private int findEndOfImage() throws IOException {
+		String mn = "findEndOfImage";
+		int offset = 2; // behind SOI
+		while (true) {
+			if (!available(offset + 1)) {
+				return -1;
+			}
+			if (at(offset) != MARKER_PREFIX) {
+				warn(mn, "marker expected at image offset ", offset,
+						", skipping corrupted image.");
+				skip(offset);
+				return 0;
+			}
+			int marker = at(offset + 1);
+			if (marker == MARKER_PREFIX) {
+				// fill byte
+				offset++;
+				continue;
+			}
+			offset += 2;
+			if (marker == EOI) {
+				return offset;
+			}
+			if (marker == SOI || marker == STUFFING) {
+				warn(mn, "unexpected marker ", marker, " at image offset ",
+						offset - 2, ", skipping corrupted image.");
+				skip(offset - 2);
+				return 0;
+			}
+			if (marker == TEM || (marker >= RST0 && marker <= RST7)) {
+				continue;
+			}
+			if (!available(offset + 1)) {
+				return -1;
+			}
+			int segmentLength = (at(offset) << 8) | at(offset + 1);
+			if (segmentLength < 2) {
+				warn(mn, "invalid segment length at image offset ", offset,
+						", skipping corrupted image.");
+				skip(offset);
+				return 0;
+			}
+			offset += segmentLength;
+			if (marker == SOS) {
+				offset = skipEntropyCodedData(offset);
+				if (offset < 0) {
+					return -1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Scans the entropy-coded data for the next marker that is neither a
+	 * stuffed byte nor a restart marker.
+	 *
+	 * @param offset
+	 *            The offset where the data start.
+	 * @return The offset of the marker or <code>-1</code> if the end of data
+	 *         is reached.
+	 */
+	private int skipEntropyCodedData(int offset) throws IOException {
+		while (true) {
+			if (!available(offset + 1)) {
+				return -1;
+			}
+			int position = readBuffer.position();
+			int index = indexOfMarkerPrefix(readBuffer, position + offset,
+					readBuffer.limit() - 1);
+			if (index < 0) {
+				// everything up to the last buffered byte is data
+				offset = readBuffer.limit() - 1 - position;
+				if (!available(offset + 1)) {
+					return -1;
+				}
+				continue;
+			}
+			offset = index - position;
+			int next = at(offset + 1);
+			if (next == STUFFING || (next >= RST0 && next <= RST7)) {
+				offset += 2;
+			} else if (next == MARKER_PREFIX) {
+				offset++;
+			} else {
+				return offset;
+			}
+		}
+	}
+
+	private static int indexOfMarkerPrefix(ByteBuffer buffer, int from, int to) {
+		if (buffer.hasArray()) {
+			byte[] data = buffer.array();
+			int offset = buffer.arrayOffset();
+			for (int i = from + offset; i < to + offset; i++) {
+				if (data[i] == (byte) MARKER_PREFIX) {
+					return i - offset;
+				}
+			}
+			return -1;
+		}
+		for (int i = from; i < to; i++) {
+			if (buffer.get(i) == (byte) MARKER_PREFIX) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
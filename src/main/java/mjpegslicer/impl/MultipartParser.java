@@ -0,0 +1,386 @@
+package mjpegslicer.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjpegslicer.ImageDataCorruptionException;
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.Validator;
+
+/**
+ * An incremental (push) parser for M-JPEG streams. In contrast to
+ * {@link SinkTemplate} the parser does not block on a stream: it is fed
+ * arbitrary chunks of the stream and reports each HTTP header and each image as
+ * soon as it is complete. This allows to drive the parser by selectors, files
+ * or in-memory buffers.
+ * <p>
+ * The header syntax follows {@link SinkTemplate#readHttpHeader()}: lines end
+ * with CR LF, leading empty lines are skipped and an empty line terminates the
+ * header. Unless disabled, the first header is taken as the HTTP response
+ * header that carries no image data. Parts without "Content-Length" header are
+ * sliced at the next boundary, provided the response header announced one.
+ * If the response header announces the chunked transfer-encoding, the chunk
+ * framing is removed in place before the parts are parsed; writable chunks are
+ * not copied for that.
+ * <p>
+ * Instances are not thread-safe; the counters may be read by any thread.
+ */
+public class MultipartParser extends LoggableObject {
+
+	/**
+	 * Clients of the parser must implement this interface.
+	 */
+	public interface Listener {
+
+		/**
+		 * Notification method for a complete HTTP header.
+		 *
+		 * @param header
+		 *            The header. The instance is reused for the next header;
+		 *            use {@link PartHeader#toHttpHeaders()} to keep it.
+		 */
+		public void httpHeader(PartHeader header);
+
+		/**
+		 * Notification method for a complete image.
+		 *
+		 * @param data
+		 *            A read-only buffer with the image data. The buffer is
+		 *            only valid during the call; its contents must be copied if
+		 *            they are needed afterwards.
+		 */
+		public void imageData(ByteBuffer data);
+	}
+
+	private enum State {
+		HEADER, IMAGE_DATA, IMAGE_SCAN
+	}
+
+	private final Listener listener;
+	private State state = State.HEADER;
+	private boolean expectResponseHeader = true;
+	private boolean responseHeaderPending = true;
+	private int maxFrameSize = SinkTemplate.DEFAULT_MAX_FRAME_SIZE;
+
+	// header state
+	private final PartHeader header = new PartHeader();
+	private BoundaryScanner boundaryScanner = null;
+	private ChunkedDecoder chunkedDecoder = null;
+	private ByteBuffer decodeBuffer = null;
+
+	// image data state
+	private int contentLength;
+	private byte[] frame = new byte[0];
+	private int framePos;
+
+	/**
+	 * Creates a parser instance.
+	 *
+	 * @param listener
+	 *            The listener that receives headers and images.
+	 */
+	public MultipartParser(Listener listener) {
+		debugEntering(MN_INIT);
+		Validator.argumentMustNotBeNull(MN_INIT, "listener", listener);
+		this.listener = listener;
+		debugLeaving(MN_INIT);
+	}
+
+	/**
+	 * Indicates whether the first header is taken as HTTP response header.
+	 *
+	 * @return The flag.
+	 */
+	public boolean isExpectResponseHeader() {
+		return expectResponseHeader;
+	}
+
+	/**
+	 * Defines whether the first header is taken as HTTP response header. This
+	 * should be disabled if the stream starts with the first part; e.g., when
+	 * the response header was consumed by an {@link java.net.URLConnection}.
+	 *
+	 * @param expectResponseHeader
+	 *            The new flag.
+	 */
+	public void setExpectResponseHeader(boolean expectResponseHeader) {
+		String mn = debugEntering("setExpectResponseHeader", "value: ",
+				expectResponseHeader);
+		this.expectResponseHeader = expectResponseHeader;
+		responseHeaderPending = expectResponseHeader;
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Returns the maximum size of an image.
+	 *
+	 * @return The number of bytes.
+	 */
+	public int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+
+	/**
+	 * Redefines the maximum size of an image. A larger content length, or a
+	 * boundary that is not found within that many bytes, fails the stream, so
+	 * that a corrupted stream or a wrong boundary does not grow the frame
+	 * buffer without limit.
+	 *
+	 * @param maxFrameSize
+	 *            The number of bytes.
+	 */
+	public void setMaxFrameSize(int maxFrameSize) {
+		String mn = debugEntering("setMaxFrameSize", "value: ", maxFrameSize);
+		Validator.checkArgument(mn, "maxFrameSize", maxFrameSize,
+				maxFrameSize > 0, "must be positive.");
+		this.maxFrameSize = maxFrameSize;
+		debugLeaving(mn);
+	}
+
+	private final AtomicLong byteCount = new AtomicLong();
+
+	/**
+	 * Returns the number of bytes fed so far.
+	 *
+	 * @return The byte count.
+	 */
+	public long getByteCount() {
+		return byteCount.get();
+	}
+
+	private final AtomicInteger httpHeaderCount = new AtomicInteger();
+
+	/**
+	 * Returns the number of HTTP headers parsed so far.
+	 *
+	 * @return The header count.
+	 */
+	public int getHttpHeaderCount() {
+		return httpHeaderCount.get();
+	}
+
+	private final AtomicInteger imageCount = new AtomicInteger();
+
+	/**
+	 * Returns the number of images parsed so far.
+	 *
+	 * @return The image count.
+	 */
+	public int getImageCount() {
+		return imageCount.get();
+	}
+
+	/**
+	 * Resets the parser to its initial state, e.g. for a new connection. The
+	 * counters are not reset.
+	 */
+	public void reset() {
+		String mn = debugEntering("reset");
+		state = State.HEADER;
+		responseHeaderPending = expectResponseHeader;
+		header.clear();
+		framePos = 0;
+		chunkedDecoder = null;
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Feeds the next chunk of the stream. All remaining bytes of the buffer
+	 * are consumed; i.e., the position of the buffer is moved to its limit.
+	 * The contents of a writable buffer are undefined afterwards if the stream
+	 * is chunked.
+	 *
+	 * @param chunk
+	 *            The chunk.
+	 * @throws ImageDataCorruptionException
+	 *             if a part header without content length was found and the
+	 *             response header did not announce a boundary, or if an image
+	 *             exceeds the maximum frame size. The parser must be reset
+	 *             before it is fed again.
+	 */
+	public void feed(ByteBuffer chunk) {
+		Validator.argumentMustNotBeNull("feed", "chunk", chunk);
+		byteCount.addAndGet(chunk.remaining());
+		parse(chunk, false);
+	}
+
+	private void parse(ByteBuffer chunk, boolean decoded) {
+		while (chunk.hasRemaining()) {
+			if (!decoded && chunkedDecoder != null) {
+				// the response header announced chunks behind it
+				parse(decode(chunk), true);
+				return;
+			}
+			switch (state) {
+			case HEADER:
+				parseHeader(chunk);
+				break;
+			case IMAGE_DATA:
+				parseImageData(chunk);
+				break;
+			case IMAGE_SCAN:
+				scanImageData(chunk);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Removes the chunk framing from the rest of a chunk. Read-only chunks are
+	 * copied first.
+	 *
+	 * @return The payload.
+	 */
+	private ByteBuffer decode(ByteBuffer chunk) {
+		ByteBuffer encoded = chunk;
+		if (chunk.isReadOnly()) {
+			if (decodeBuffer == null
+					|| decodeBuffer.capacity() < chunk.remaining()) {
+				decodeBuffer = ByteBuffer.allocate(chunk.remaining());
+			}
+			decodeBuffer.clear();
+			decodeBuffer.put(chunk.duplicate());
+			decodeBuffer.flip();
+			encoded = decodeBuffer;
+		}
+		ByteBuffer result = encoded.duplicate();
+		result.limit(chunkedDecoder.decode(encoded, encoded.position(),
+				encoded.limit()));
+		chunk.position(chunk.limit());
+		return result;
+	}
+
+	private void parseHeader(ByteBuffer chunk) {
+		while (chunk.hasRemaining()) {
+			if (header.parse(chunk.get())) {
+				endOfHeader();
+				return;
+			}
+		}
+	}
+
+	private void endOfHeader() {
+		httpHeaderCount.incrementAndGet();
+		listener.httpHeader(header);
+		if (responseHeaderPending) {
+			responseHeaderPending = false;
+			String boundary = HttpHeadersImpl.extractBoundaryParameter(header
+					.getContentType());
+			if (boundary != null) {
+				boundaryScanner = new BoundaryScanner(boundary);
+				header.setBoundaryLookUpString(boundary.startsWith("--") ? boundary
+						: "--" + boundary);
+			}
+			if (header.isChunked()) {
+				chunkedDecoder = new ChunkedDecoder();
+			}
+		} else {
+			contentLength = header.getContentLength();
+			framePos = 0;
+			if (contentLength > maxFrameSize) {
+				throw new ImageDataCorruptionException("Content length "
+						+ contentLength + " exceeds the maximum frame size.");
+			} else if (contentLength > 0) {
+				state = State.IMAGE_DATA;
+			} else if (boundaryScanner != null) {
+				state = State.IMAGE_SCAN;
+			} else {
+				throw new ImageDataCorruptionException(
+						"Part header without valid content length.");
+			}
+		}
+		header.clear();
+	}
+
+	private void parseImageData(ByteBuffer chunk) {
+		int needed = contentLength - framePos;
+		if (framePos == 0 && chunk.remaining() >= needed) {
+			// the whole image is inside the chunk: hand out a view of it
+			ByteBuffer data = chunk.slice();
+			data.limit(needed);
+			chunk.position(chunk.position() + needed);
+			imageComplete(data.asReadOnlyBuffer());
+			return;
+		}
+		if (frame.length < contentLength) {
+			frame = new byte[contentLength];
+		}
+		int actual = Math.min(chunk.remaining(), needed);
+		chunk.get(frame, framePos, actual);
+		framePos += actual;
+		if (framePos == contentLength) {
+			imageComplete(ByteBuffer.wrap(frame, 0, contentLength)
+					.asReadOnlyBuffer());
+		}
+	}
+
+	private void scanImageData(ByteBuffer chunk) {
+		BoundaryScanner scanner = boundaryScanner;
+		int position = chunk.position();
+		int previous = framePos;
+		int remaining = chunk.remaining();
+		int from = Math.max(0, previous - scanner.getPatternLength() + 1);
+		if (previous == 0) {
+			int index = scanner.indexOf(chunk, position, chunk.limit());
+			if (index >= 0) {
+				// the whole image is inside the chunk: hand out a view of it
+				ByteBuffer data = chunk.slice();
+				data.limit(index - position);
+				chunk.position(index);
+				imageComplete(data.asReadOnlyBuffer());
+				return;
+			}
+			from = Math.max(0, remaining - scanner.getPatternLength() + 1);
+		}
+		if (frame.length < previous + remaining) {
+			if ((long) previous + remaining > maxFrameSize) {
+				throw new ImageDataCorruptionException(
+						"No boundary found within " + maxFrameSize + " bytes.");
+			}
+			frame = Arrays.copyOf(frame, (int) Math.min(maxFrameSize,
+					Math.max(2L * frame.length, previous + remaining)));
+		}
+		chunk.get(frame, previous, remaining);
+		framePos = previous + remaining;
+		int index = scanner.indexOf(frame, from, framePos);
+		if (index < 0) {
+			return;
+		}
+		if (index >= previous) {
+			// give the bytes behind the image back to the chunk
+			chunk.position(position + index - previous);
+			imageComplete(ByteBuffer.wrap(frame, 0, index).asReadOnlyBuffer());
+		} else {
+			// the boundary started in an earlier chunk: replay its first bytes
+			chunk.position(position);
+			imageComplete(ByteBuffer.wrap(frame, 0, index).asReadOnlyBuffer());
+			parseHeader(ByteBuffer.wrap(frame, index, previous - index));
+		}
+	}
+
+	private void imageComplete(ByteBuffer data) {
+		state = State.HEADER;
+		framePos = 0;
+		imageCount.incrementAndGet();
+		listener.imageData(data);
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("MultipartParser[state=");
+		sb.append(state);
+		sb.append(",headers:");
+		sb.append(httpHeaderCount.get());
+		sb.append(",images:");
+		sb.append(imageCount.get());
+		sb.append("]");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,30 @@
+package mjpegslicer.impl;
+
+/**
+ * The policies of an {@link AsyncImageListener} when its queue is full.
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * The dispatching thread waits for a free queue slot. No image is lost,
+	 * but a slow listener slows down all others.
+	 */
+	BLOCK,
+
+	/**
+	 * The oldest queued image is dropped in favour of the new one.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * The new image is dropped.
+	 */
+	DROP_NEWEST,
+
+	/**
+	 * Only the latest image is kept: any queued image is dropped in favour of
+	 * the new one, regardless of the queue capacity. This suits listeners that
+	 * only show the current picture.
+	 */
+	LATEST_ONLY
+}
@@ -0,0 +1,399 @@
+package mjpegslicer.impl;
+
+import java.nio.charset.Charset;
+
+import mjpegslicer.HttpHeaders;
+import mjpegslicer.ImageEvent;
+
+/**
+ * A reusable HTTP header that is parsed byte by byte. The raw header lines
+ * are collected in an internal array; "Content-Length", "Content-Type",
+ * "Transfer-Encoding" and "X-Timestamp" are recognised by byte comparison, and
+ * the content length and the timestamp are parsed without creating any
+ * strings. Keys and values are only materialised, as a
+ * {@link HttpHeadersImpl} instance, when a consumer asks for them.
+ * <p>
+ * The line syntax follows {@link SinkTemplate#readHttpHeader()}: a line ends
+ * with CR LF; other CR and LF bytes are dropped. Instances are reused for the
+ * next header, so they are not thread-safe; use {@link #toHttpHeaders()} to
+ * keep a header.
+ */
+public class PartHeader implements HttpHeaders {
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final byte[] CONTENT_LENGTH = toLowerCaseBytes("content-length:");
+	private static final byte[] CONTENT_TYPE = toLowerCaseBytes("content-type:");
+	private static final byte[] TRANSFER_ENCODING = toLowerCaseBytes("transfer-encoding:");
+	private static final byte[] CHUNKED = toLowerCaseBytes("chunked");
+	private static final byte[] TIMESTAMP = toLowerCaseBytes("x-timestamp:");
+
+	private static byte[] toLowerCaseBytes(String s) {
+		return s.toLowerCase().getBytes(ISO_8859_1);
+	}
+
+	private byte[] data = new byte[256];
+	private int dataLength = 0;
+	private int[] lineEnds = new int[16];
+	private int lineCount = 0;
+	private int lineStart = 0;
+	private boolean cr = false;
+
+	private int contentLength = INVALID_CONTENT_LENGTH;
+	private int contentTypeStart = -1;
+	private int contentTypeEnd = -1;
+	private String contentType = null;
+	private boolean chunked = false;
+	private long timestampMillis = ImageEvent.UNKNOWN_TIME;
+
+	private String boundaryLookUpString = null;
+	private HttpHeadersImpl headers = null;
+
+	/**
+	 * Redefines the look-up string for the boundary line.
+	 *
+	 * @param boundaryLookUpString
+	 *            The line that is taken as boundary or <code>null</code>.
+	 * @see HttpHeadersImpl.Builder#Builder(String)
+	 */
+	void setBoundaryLookUpString(String boundaryLookUpString) {
+		this.boundaryLookUpString = boundaryLookUpString;
+	}
+
+	/**
+	 * Prepares this instance for the next header.
+	 */
+	void clear() {
+		dataLength = 0;
+		lineCount = 0;
+		lineStart = 0;
+		cr = false;
+		contentLength = INVALID_CONTENT_LENGTH;
+		contentTypeStart = -1;
+		contentTypeEnd = -1;
+		contentType = null;
+		chunked = false;
+		timestampMillis = ImageEvent.UNKNOWN_TIME;
+		headers = null;
+	}
+
+	/**
+	 * Indicates whether no header bytes were fed since the last clear, apart
+	 * from line ends.
+	 *
+	 * @return The flag.
+	 */
+	boolean isEmpty() {
+		return dataLength == 0;
+	}
+
+	/**
+	 * Feeds the next header byte.
+	 *
+	 * @param b
+	 *            The byte.
+	 * @return <code>true</code> if the header is complete.
+	 */
+	boolean parse(byte b) {
+		switch (b) {
+		case 0x0d:
+			cr = true;
+			return false;
+		case 0x0a:
+			if (cr) {
+				cr = false;
+				return endOfLine();
+			}
+			return false;
+		default:
+			cr = false;
+			if (dataLength == data.length) {
+				byte[] grown = new byte[2 * data.length];
+				System.arraycopy(data, 0, grown, 0, dataLength);
+				data = grown;
+			}
+			data[dataLength++] = b;
+			return false;
+		}
+	}
+
+	/**
+	 * Processes a complete line.
+	 *
+	 * @return <code>true</code> if the header is complete.
+	 */
+	private boolean endOfLine() {
+		if (dataLength == lineStart) {
+			// an empty line terminates the header, heading ones are skipped
+			return lineCount > 0;
+		}
+		if (lineCount == lineEnds.length) {
+			int[] grown = new int[2 * lineEnds.length];
+			System.arraycopy(lineEnds, 0, grown, 0, lineCount);
+			lineEnds = grown;
+		}
+		lineEnds[lineCount++] = dataLength;
+		if (contentLength == INVALID_CONTENT_LENGTH
+				&& startsWith(lineStart, CONTENT_LENGTH)) {
+			contentLength = parseContentLength(lineStart
+					+ CONTENT_LENGTH.length, dataLength);
+		} else if (contentTypeStart < 0 && startsWith(lineStart, CONTENT_TYPE)) {
+			contentTypeStart = skipWhitespace(lineStart + CONTENT_TYPE.length,
+					dataLength);
+			contentTypeEnd = dataLength;
+		} else if (!chunked && startsWith(lineStart, TRANSFER_ENCODING)) {
+			chunked = contains(lineStart + TRANSFER_ENCODING.length, dataLength,
+					CHUNKED);
+		} else if (timestampMillis == ImageEvent.UNKNOWN_TIME
+				&& startsWith(lineStart, TIMESTAMP)) {
+			timestampMillis = CameraTimestamps.parseDecimal(data, lineStart
+					+ TIMESTAMP.length, dataLength);
+		}
+		lineStart = dataLength;
+		return false;
+	}
+
+	private boolean startsWith(int start, byte[] lowerCasePrefix) {
+		if (dataLength - start < lowerCasePrefix.length) {
+			return false;
+		}
+		for (int i = 0; i < lowerCasePrefix.length; i++) {
+			int b = data[start + i];
+			if (b >= 'A' && b <= 'Z') {
+				b += 'a' - 'A';
+			}
+			if (b != lowerCasePrefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean contains(int from, int to, byte[] lowerCaseWord) {
+		for (int start = from; start <= to - lowerCaseWord.length; start++) {
+			if (startsWith(start, lowerCaseWord)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int skipWhitespace(int from, int to) {
+		while (from < to && (data[from] == ' ' || data[from] == '\t')) {
+			from++;
+		}
+		return from;
+	}
+
+	/**
+	 * Parses the value of a "Content-Length" line: at least one blank
+	 * followed by decimal digits only.
+	 *
+	 * @return The value or {@link #INVALID_CONTENT_LENGTH} if the value is
+	 *         not valid.
+	 */
+	private int parseContentLength(int from, int to) {
+		int start = skipWhitespace(from, to);
+		if (start == from || start == to) {
+			return INVALID_CONTENT_LENGTH;
+		}
+		long result = 0L;
+		for (int i = start; i < to; i++) {
+			int digit = data[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return INVALID_CONTENT_LENGTH;
+			}
+			result = 10L * result + digit;
+			if (result > Integer.MAX_VALUE) {
+				return INVALID_CONTENT_LENGTH;
+			}
+		}
+		return (int) result;
+	}
+
+	/**
+	 * Returns the number of header lines.
+	 *
+	 * @return The count.
+	 */
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * Returns the i-th header line.
+	 *
+	 * @param i
+	 *            The index.
+	 * @return The line without the end of line characters.
+	 */
+	public String getLine(int i) {
+		int start = i == 0 ? 0 : lineEnds[i - 1];
+		return new String(data, start, lineEnds[i] - start, ISO_8859_1);
+	}
+
+	/**
+	 * Returns all header lines.
+	 *
+	 * @return The lines without the end of line characters.
+	 */
+	public String[] toLines() {
+		String[] result = new String[lineCount];
+		for (int i = 0; i < lineCount; i++) {
+			result[i] = getLine(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns an immutable copy of this header.
+	 *
+	 * @return The copy.
+	 */
+	public HttpHeadersImpl toHttpHeaders() {
+		if (headers == null) {
+			HttpHeadersImpl.Builder builder = new HttpHeadersImpl.Builder(
+					boundaryLookUpString);
+			for (int i = 0; i < lineCount; i++) {
+				builder.addHeader(getLine(i));
+			}
+			headers = builder.build();
+		}
+		return headers;
+	}
+
+	/**
+	 * Returns the number of HTTP headers in this container.
+	 *
+	 * @return The count.
+	 */
+	@Override
+	public int size() {
+		return lineCount;
+	}
+
+	/**
+	 * Returns the i-th key.
+	 *
+	 * @param i
+	 *            The index.
+	 * @return The key.
+	 */
+	@Override
+	public String getKey(int i) {
+		return toHttpHeaders().getKey(i);
+	}
+
+	/**
+	 * Returns the i-th value.
+	 *
+	 * @param i
+	 *            The index.
+	 * @return The value.
+	 */
+	@Override
+	public String getValue(int i) {
+		return toHttpHeaders().getValue(i);
+	}
+
+	/**
+	 * Indicates whether this container contains a "Content-Length" header
+	 * entry with a valid value.
+	 *
+	 * @return The flag.
+	 */
+	@Override
+	public boolean hasContentLength() {
+		return contentLength != INVALID_CONTENT_LENGTH;
+	}
+
+	/**
+	 * Returns the value of the "Content-Length" header entry.
+	 *
+	 * @return The value or {@link #INVALID_CONTENT_LENGTH} if no matching entry
+	 *         was found.
+	 */
+	@Override
+	public int getContentLength() {
+		return contentLength;
+	}
+
+	/**
+	 * Indicates whether this container contains a "Content-Type" header entry.
+	 *
+	 * @return The flag.
+	 */
+	@Override
+	public boolean hasContentType() {
+		return contentTypeStart >= 0;
+	}
+
+	/**
+	 * Returns the value of the "Content-Type" header entry.
+	 *
+	 * @return The value or <code>null</code> if no matching entry was found.
+	 */
+	@Override
+	public String getContentType() {
+		if (contentType == null && contentTypeStart >= 0) {
+			contentType = new String(data, contentTypeStart, contentTypeEnd
+					- contentTypeStart, ISO_8859_1).trim();
+		}
+		return contentType;
+	}
+
+	/**
+	 * Indicates whether the "Transfer-Encoding" header entry names the chunked
+	 * encoding.
+	 *
+	 * @return The flag.
+	 */
+	public boolean isChunked() {
+		return chunked;
+	}
+
+	/**
+	 * Returns the value of the "X-Timestamp" header entry that some cameras
+	 * send with each part; e.g., "1697640000.123456".
+	 *
+	 * @return The timestamp as number of milliseconds since 1970/1/1 0:0 UTC
+	 *         or {@link ImageEvent#UNKNOWN_TIME} if no valid entry was found.
+	 */
+	public long getTimestampMillis() {
+		return timestampMillis;
+	}
+
+	/**
+	 * Indicates whether this container contains the boundary line.
+	 *
+	 * @return The flag.
+	 */
+	@Override
+	public boolean hasBoundary() {
+		return toHttpHeaders().hasBoundary();
+	}
+
+	/**
+	 * Returns the boundary line.
+	 *
+	 * @return The value or <code>null</code> if no matching entry was found.
+	 */
+	@Override
+	public String getBoundary() {
+		return toHttpHeaders().getBoundary();
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("PartHeader[lines:");
+		sb.append(lineCount);
+		sb.append(",contentLength=");
+		sb.append(contentLength);
+		sb.append("]");
+		return sb.toString();
+	}
+}
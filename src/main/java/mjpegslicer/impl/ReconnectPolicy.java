@@ -0,0 +1,148 @@
+package mjpegslicer.impl;
+
+import java.util.Random;
+
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.Validator;
+
+/**
+ * The delays between the reconnect attempts of a supervised stream. The delay
+ * grows exponentially from the initial delay up to the maximum delay; each
+ * delay is jittered to a random value between half and all of it, so that
+ * cameras that lost their connections at the same time do not reconnect at
+ * the same time.
+ */
+public class ReconnectPolicy extends LoggableObject {
+
+	/**
+	 * The default delay before the first attempt in milliseconds.
+	 */
+	public static final long DEFAULT_INITIAL_DELAY_MILLIS = 500L;
+
+	/**
+	 * The default upper limit of the delay in milliseconds.
+	 */
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 30000L;
+
+	/**
+	 * The default factor by which the delay grows with each failed attempt.
+	 */
+	public static final double DEFAULT_MULTIPLIER = 2.0;
+
+	private final Random random = new Random();
+	private long initialDelayMillis = DEFAULT_INITIAL_DELAY_MILLIS;
+	private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+	private double multiplier = DEFAULT_MULTIPLIER;
+
+	/**
+	 * Returns the delay before the first attempt.
+	 * 
+	 * @return The delay in milliseconds.
+	 */
+	public long getInitialDelayMillis() {
+		return initialDelayMillis;
+	}
+
+	/**
+	 * Redefines the delay before the first attempt.
+	 * 
+	 * @param initialDelayMillis
+	 *            The new delay in milliseconds.
+	 */
+	public void setInitialDelayMillis(long initialDelayMillis) {
+		String mn = debugEntering("setInitialDelayMillis", "value: ",
+				initialDelayMillis);
+		Validator.checkArgument(mn, "initialDelayMillis", initialDelayMillis,
+				initialDelayMillis > 0, "must be positive.");
+		this.initialDelayMillis = initialDelayMillis;
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Returns the upper limit of the delay.
+	 * 
+	 * @return The delay in milliseconds.
+	 */
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+
+	/**
+	 * Redefines the upper limit of the delay.
+	 * 
+	 * @param maxDelayMillis
+	 *            The new delay in milliseconds.
+	 */
+	public void setMaxDelayMillis(long maxDelayMillis) {
+		String mn = debugEntering("setMaxDelayMillis", "value: ",
+				maxDelayMillis);
+		Validator.checkArgument(mn, "maxDelayMillis", maxDelayMillis,
+				maxDelayMillis > 0, "must be positive.");
+		this.maxDelayMillis = maxDelayMillis;
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Returns the factor by which the delay grows with each failed attempt.
+	 * 
+	 * @return The factor.
+	 */
+	public double getMultiplier() {
+		return multiplier;
+	}
+
+	/**
+	 * Redefines the factor by which the delay grows with each failed attempt.
+	 * 
+	 * @param multiplier
+	 *            The new factor; at least 1.
+	 */
+	public void setMultiplier(double multiplier) {
+		String mn = debugEntering("setMultiplier", "value: ", multiplier);
+		Validator.checkArgument(mn, "multiplier", multiplier,
+				multiplier >= 1.0, "must be at least 1.");
+		this.multiplier = multiplier;
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Returns the delay before a reconnect attempt.
+	 * 
+	 * @param attempt
+	 *            The number of the attempt, starting with 0 for the first
+	 *            attempt after the connection was lost.
+	 * @return The jittered delay in milliseconds.
+	 */
+	public long nextDelayMillis(int attempt) {
+		String mn = debugEntering("nextDelayMillis", "attempt: ", attempt);
+		Validator.checkArgument(mn, "attempt", attempt, attempt >= 0,
+				"must not be negative.");
+		double delay = initialDelayMillis * Math.pow(multiplier, attempt);
+		long ceiling = (long) Math.min(delay, maxDelayMillis);
+		long half = ceiling / 2;
+		long result;
+		synchronized (random) {
+			result = half + (long) (random.nextDouble() * (ceiling - half + 1));
+		}
+		result = Math.min(result, ceiling);
+		debugLeaving(mn, "result: ", result);
+		return result;
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 * 
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("ReconnectPolicy[initial=");
+		sb.append(initialDelayMillis);
+		sb.append("ms,max=");
+		sb.append(maxDelayMillis);
+		sb.append("ms,multiplier=");
+		sb.append(multiplier);
+		sb.append("]");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,147 @@
+package mjpegslicer.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mjpegslicer.util.LoggableObject;
+
+/**
+ * The loop of one selector thread of an {@link IngestEngine}. All channel
+ * operations of the streams that are registered with the selector run on this
+ * thread; other threads hand tasks over by {@link #execute(Runnable)}. One
+ * read buffer is shared by all streams of the loop, since the parsers consume
+ * each chunk completely.
+ * <p>
+ * A failing stream or task is logged and does not end the loop; a stream
+ * that fails is closed, the other streams of the loop go on. The timeouts of
+ * the streams are checked whenever the loop wakes up, at least every
+ * {@link #DEADLINE_CHECK_MILLIS} milliseconds.
+ */
+class SelectorLoop extends LoggableObject implements Runnable {
+
+	/**
+	 * The interval of the timeout checks in milliseconds.
+	 */
+	static final long DEADLINE_CHECK_MILLIS = 100L;
+
+	private final Selector selector;
+	private final ByteBuffer readBuffer;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final AtomicInteger streamCount = new AtomicInteger();
+	private volatile boolean running = true;
+
+	SelectorLoop(int readBufferSize) throws IOException {
+		debugEntering(MN_INIT, "read buffer size: ", readBufferSize);
+		selector = Selector.open();
+		readBuffer = ByteBuffer.allocateDirect(readBufferSize);
+		debugLeaving(MN_INIT);
+	}
+
+	Selector getSelector() {
+		return selector;
+	}
+
+	/**
+	 * Returns the number of streams that are assigned to this loop.
+	 */
+	AtomicInteger getStreamCount() {
+		return streamCount;
+	}
+
+	/**
+	 * Runs a task on the selector thread.
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	void halt() {
+		running = false;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		String mn = debugEntering("run");
+		long checkedNanos = System.nanoTime();
+		try {
+			while (running) {
+				selector.select(DEADLINE_CHECK_MILLIS);
+				runTasks();
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					// a task might have closed the stream meanwhile
+					if (key.isValid()) {
+						ready(mn, key);
+					}
+				}
+				long nowNanos = System.nanoTime();
+				if (nowNanos - checkedNanos >= DEADLINE_CHECK_MILLIS
+						* 1000000L) {
+					checkDeadlines(nowNanos);
+					checkedNanos = nowNanos;
+				}
+			}
+		} catch (IOException ioe) {
+			error(mn, "selector failed: ", ioe);
+		} finally {
+			closeAll();
+		}
+		debugLeaving(mn);
+	}
+
+	private void ready(String methodName, SelectionKey key) {
+		IngestStream stream = (IngestStream) key.attachment();
+		try {
+			stream.ready(key, readBuffer);
+		} catch (RuntimeException re) {
+			error(methodName, "stream failed: ", stream, ", ", re);
+			stream.close("stream failed");
+		}
+	}
+
+	private void checkDeadlines(long nowNanos) {
+		for (SelectionKey key : selector.keys()) {
+			// closing cancels the key, the key set is not changed before the
+			// next select
+			if (key.isValid()) {
+				((IngestStream) key.attachment()).checkDeadline(nowNanos);
+			}
+		}
+	}
+
+	private void runTasks() {
+		Runnable task = tasks.poll();
+		while (task != null) {
+			try {
+				task.run();
+			} catch (RuntimeException re) {
+				error("runTasks", "task failed: ", task, ", ", re);
+			}
+			task = tasks.poll();
+		}
+	}
+
+	private void closeAll() {
+		String mn = debugEntering("closeAll");
+		runTasks();
+		for (SelectionKey key : selector.keys()) {
+			((IngestStream) key.attachment()).close("engine shut down");
+		}
+		try {
+			selector.close();
+		} catch (IOException ioe) {
+			warn(mn, "failed to close selector: ", ioe);
+		}
+		debugLeaving(mn);
+	}
+}
@@ -0,0 +1,13 @@
+package mjpegslicer.impl;
+
+/**
+ * A listener that holds resources of its own, e.g. a thread or a queued
+ * event, which {@link ImageEventSupport} frees when the listener is removed.
+ */
+interface Shutdownable {
+
+	/**
+	 * Stops the delivery and frees the resources of the listener.
+	 */
+	public void shutdown();
+}
@@ -1,21 +1,26 @@
 package mjpegslicer.impl;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.LinkedList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import mjpegslicer.ChannelSource;
+import mjpegslicer.HttpHeaders;
 import mjpegslicer.ImageDataCorruptionException;
+import mjpegslicer.ImageEvent;
+import mjpegslicer.ImageListener;
 import mjpegslicer.Sink;
+import mjpegslicer.Source;
+import mjpegslicer.metrics.StreamMetrics;
+import mjpegslicer.util.ExecutorStrategy;
 import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.PlatformThreadStrategy;
 import mjpegslicer.util.Validator;
 
 public class SinkTemplate extends LoggableObject implements Sink {
@@ -32,7 +37,17 @@ public class SinkTemplate extends LoggableObject implements Sink {
 		return started;
 	}
 
-	private AtomicLong byteCount = new AtomicLong();
+	private final StreamMetrics metrics = new StreamMetrics();
+
+	/**
+	 * Returns the metrics of the stream. They outlive a stop, so that a
+	 * registry keeps seeing them after a restart.
+	 * 
+	 * @return The metrics.
+	 */
+	public StreamMetrics getMetrics() {
+		return metrics;
+	}
 
 	/**
 	 * Returns the number of bytes transferred so far.
@@ -40,10 +55,56 @@ public class SinkTemplate extends LoggableObject implements Sink {
 	 * @return The byte count.
 	 */
 	public long getByteCount() {
-		return byteCount.get();
+		return metrics.getByteCount();
+	}
+
+	/**
+	 * The default size of the read buffer.
+	 */
+	public static final int DEFAULT_READ_BUFFER_SIZE = 8192;
+
+	/**
+	 * The default maximum size of an image: 16 MiB.
+	 */
+	public static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+	private volatile ReadableByteChannel channel;
+
+	/**
+	 * The read buffer. Between read operations the buffer is in "get" mode;
+	 * i.e., the bytes between position and limit are buffered but not yet
+	 * consumed.
+	 */
+	protected ByteBuffer readBuffer;
+
+	private volatile int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+	/**
+	 * Returns the maximum size of an image.
+	 * 
+	 * @return The number of bytes.
+	 */
+	public int getMaxFrameSize() {
+		return maxFrameSize;
 	}
 
-	private InputStream inputStream;
+	/**
+	 * Redefines the maximum size of an image. A larger content length, or a
+	 * delimiter that is not found within that many bytes, fails the stream
+	 * with an {@link ImageDataCorruptionException}, so that a corrupted
+	 * stream or a wrong boundary does not grow the read buffer without
+	 * limit.
+	 * 
+	 * @param maxFrameSize
+	 *            The number of bytes.
+	 */
+	public void setMaxFrameSize(int maxFrameSize) {
+		String mn = debugEntering("setMaxFrameSize", "value: ", maxFrameSize);
+		Validator.checkArgument(mn, "maxFrameSize", maxFrameSize,
+				maxFrameSize > 0, "must be positive.");
+		this.maxFrameSize = maxFrameSize;
+		debugLeaving(mn);
+	}
 
 	/**
 	 * Starts the streaming.
@@ -55,120 +116,427 @@ public class SinkTemplate extends LoggableObject implements Sink {
 		String mn = debugEntering("startStream", "value: ", inputStream);
 		Validator.argumentMustNotBeNull(mn, "inputStream", inputStream);
 		Validator.checkState(mn, !started, "Sink is already started.");
+		// the stream reads into a heap array anyway, so a direct buffer would
+		// not save anything here
+		start(new InputStreamChannel(inputStream),
+				ByteBuffer.allocate(DEFAULT_READ_BUFFER_SIZE));
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Starts the streaming. The data are read into a reusable direct buffer
+	 * without any intermediate stream buffering.
+	 * 
+	 * @param channel
+	 *            The {@link ReadableByteChannel} that is used for streaming.
+	 */
+	public void startChannel(ReadableByteChannel channel) {
+		String mn = debugEntering("startChannel", "value: ", channel);
+		Validator.argumentMustNotBeNull(mn, "channel", channel);
+		Validator.checkState(mn, !started, "Sink is already started.");
+		start(channel, ByteBuffer.allocateDirect(DEFAULT_READ_BUFFER_SIZE));
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Starts the streaming from a source and supervises it. When the
+	 * connection is lost or fails, the source is stopped and started again
+	 * after a delay that is defined by the reconnect policy. The images
+	 * continue with the next sequence number.
+	 * <p>
+	 * A {@link ChannelSource} is read by its channel into a direct buffer,
+	 * like {@link #startChannel(ReadableByteChannel)}; other sources are read
+	 * by their stream.
+	 * 
+	 * @param source
+	 *            The {@link Source} that is started; it is stopped with the
+	 *            streaming.
+	 */
+	public void startSource(Source source) {
+		String mn = debugEntering("startSource", "value: ", source);
+		Validator.argumentMustNotBeNull(mn, "source", source);
+		Validator.checkState(mn, !started, "Sink is already started.");
+		this.source = source;
+		start(null, source instanceof ChannelSource ? ByteBuffer
+				.allocateDirect(DEFAULT_READ_BUFFER_SIZE) : ByteBuffer
+				.allocate(DEFAULT_READ_BUFFER_SIZE));
+		debugLeaving(mn);
+	}
+
+	private void start(ReadableByteChannel channel, ByteBuffer readBuffer) {
+		String mn = debugEntering("start");
 		started = true;
-		this.inputStream = new BufferedInputStream(inputStream, 8192);
+		this.channel = channel;
+		this.readBuffer = readBuffer;
+		this.readBuffer.flip();
+		chunkedDecoder = null;
+		ring = new ImageEventRing(ringCapacity, waitStrategy);
+		dispatcher = ring.addConsumer(imageEventSupport,
+				metrics.getDispatchLatencies());
+		dispatchExecutor = executorStrategy.newExecutor();
+		dispatchExecutor.execute(dispatcher);
 		runner = new Runner(this);
 		debug(mn, "runner created: ", runner);
 		debugLeaving(mn);
 	}
 
+	private static final long STOP_TIMEOUT_MILLIS = 1000L;
+
 	/**
 	 * Stops the streaming.
 	 */
 	public void stopStream() {
 		String mn = debugEntering("stopStream");
 		Validator.checkState(mn, started, "Sink was not started.");
-		if (inputStream != null) {
-			try {
-				inputStream.close();
-			} catch (Throwable ignored) {
-			} finally {
-				inputStream = null;
-			}
+		if (runner != null) {
+			// a supervising runner must not reconnect after the channel is
+			// closed
+			runner.halt();
 		}
+		closeChannel();
+		boolean stopped = true;
 		if (runner != null) {
-			runner.shutdown();
+			stopped = runner.shutdown();
 			runner = null;
 		}
+		if (dispatcher != null) {
+			ring.removeConsumer(dispatcher);
+			dispatcher = null;
+		}
+		if (dispatchExecutor != null) {
+			dispatchExecutor.shutdown();
+			try {
+				stopped &= dispatchExecutor.awaitTermination(
+						STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				stopped = false;
+			}
+			dispatchExecutor = null;
+		}
+		if (stopped) {
+			ring.clear();
+		} else {
+			warn(mn, "threads did not stop in time, "
+					+ "images are left to the garbage collector.");
+		}
+		source = null;
 		started = false;
 		debugLeaving(mn);
 	}
 
+	private void closeChannel() {
+		ReadableByteChannel c = channel;
+		if (c != null) {
+			try {
+				c.close();
+			} catch (Throwable ignored) {
+			} finally {
+				channel = null;
+			}
+		}
+	}
+
+	private volatile Source source = null;
+
 	/**
-	 * Extracts the next HTTP header from the stream.
+	 * Returns the source that is supervised.
 	 * 
-	 * @return The header lines without the end of line characters or
-	 *         <code>null</code> if the end of data is reached.
+	 * @return The source or <code>null</code> if the sink was not started by
+	 *         {@link #startSource(Source)}.
 	 */
-	public String[] readHttpHeader() {
-		String mn = debugEntering("stopStream");
-		Validator.checkState(mn, started, "Sink was not started.");
-		List<String> headers = new LinkedList<String>();
-		boolean skipEmpty = true;
-		boolean cont = true;
-		boolean eod = false;
-		while (cont && !eod) {
-			String line = null;
+	public Source getSource() {
+		return source;
+	}
+
+	private ReconnectPolicy reconnectPolicy = new ReconnectPolicy();
+
+	/**
+	 * Returns the policy for the delays between reconnect attempts.
+	 * 
+	 * @return The policy.
+	 */
+	public ReconnectPolicy getReconnectPolicy() {
+		return reconnectPolicy;
+	}
+
+	/**
+	 * Redefines the policy for the delays between reconnect attempts.
+	 * 
+	 * @param reconnectPolicy
+	 *            The new policy.
+	 */
+	public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+		String mn = debugEntering("setReconnectPolicy", "value: ",
+				reconnectPolicy);
+		Validator.argumentMustNotBeNull(mn, "reconnectPolicy",
+				reconnectPolicy);
+		this.reconnectPolicy = reconnectPolicy;
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Returns the number of reconnect attempts so far.
+	 * 
+	 * @return The count.
+	 */
+	public int getReconnectCount() {
+		return (int) metrics.getReconnectCount();
+	}
+
+	/**
+	 * Starts the supervised source and reads from its channel, or from its
+	 * stream if it is not a {@link ChannelSource}. The read buffer starts
+	 * empty, so that no bytes of a lost connection are mixed
+	 * into the new one.
+	 * 
+	 * @return <code>false</code> if the source could not be started.
+	 */
+	private boolean connect() {
+		String mn = debugEntering("connect");
+		boolean result = false;
+		try {
+			ReadableByteChannel c;
+			if (source instanceof ChannelSource) {
+				c = ((ChannelSource) source).startChannel();
+			} else {
+				c = new InputStreamChannel(source.startStream());
+			}
+			readBuffer.clear();
+			readBuffer.flip();
+			chunkedDecoder = null;
+			channel = c;
+			result = true;
+		} catch (RuntimeException re) {
+			warn(mn, "failed to connect: ", re);
+			disconnect();
+		}
+		debugLeaving(mn, "result: ", result);
+		return result;
+	}
+
+	private void disconnect() {
+		String mn = debugEntering("disconnect");
+		closeChannel();
+		if (source.isStarted()) {
 			try {
-				line = readLine();
-			} catch (IOException ioe) {
-				throw new ImageDataCorruptionException(
-						"Failed to read HTTP header line: ", ioe);
+				source.stopStream();
+			} catch (RuntimeException re) {
+				warn(mn, "failed to stop source: ", re);
 			}
-			if (line == null) {
-				warn(mn, "EOD found.");
-				eod = true;
+		}
+		debugLeaving(mn);
+	}
+
+	private ChunkedDecoder chunkedDecoder = null;
+
+	/**
+	 * Indicates whether the stream uses the chunked transfer-encoding.
+	 * 
+	 * @return The flag.
+	 */
+	public boolean isChunked() {
+		return chunkedDecoder != null;
+	}
+
+	/**
+	 * Starts decoding the chunked transfer-encoding. The bytes that are
+	 * already buffered behind the position of the read buffer are decoded in
+	 * place; all bytes read afterwards are decoded by
+	 * {@link #fillReadBuffer()}. The terminal chunk is taken as the end of
+	 * data, so that a kept-alive connection need not be closed.
+	 */
+	protected void startChunkedDecoding() {
+		String mn = debugEntering("startChunkedDecoding");
+		Validator.checkState(mn, chunkedDecoder == null,
+				"Chunked decoding is already started.");
+		chunkedDecoder = new ChunkedDecoder();
+		readBuffer.limit(chunkedDecoder.decode(readBuffer,
+				readBuffer.position(), readBuffer.limit()));
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Reads more data from the channel into the read buffer. Unconsumed bytes
+	 * are kept at their index as long as there is free space behind them; they
+	 * are moved to the front only when the end of the buffer is reached, and
+	 * the buffer is enlarged if it is completely filled with unconsumed bytes.
+	 * Sub-classes that scan the buffer for delimiters use this to keep a whole
+	 * frame in the buffer. The buffer is not enlarged beyond the maximum
+	 * frame size.
+	 * <p>
+	 * A chunked stream is decoded while it is read: each read is limited to
+	 * the rest of the current chunk, so the payload lands at its final index
+	 * and only the chunk headers are removed.
+	 * 
+	 * @return <code>false</code> if the end of data is reached, otherwise
+	 *         <code>true</code>.
+	 * @throws IOException
+	 *             If the channel could not be read.
+	 * @throws ImageDataCorruptionException
+	 *             If the buffer is filled with the maximum frame size of
+	 *             unconsumed bytes.
+	 */
+	protected boolean fillReadBuffer() throws IOException {
+		ByteBuffer buffer = readBuffer;
+		if (!buffer.hasRemaining()) {
+			buffer.clear();
+			buffer.limit(0);
+		} else if (buffer.limit() == buffer.capacity()) {
+			if (buffer.position() == 0) {
+				int capacity = buffer.capacity();
+				if (capacity >= maxFrameSize) {
+					throw new ImageDataCorruptionException(
+							"No end of image found within " + capacity
+									+ " bytes.");
+				}
+				capacity = (int) Math.min(2L * capacity, maxFrameSize);
+				buffer = buffer.isDirect() ? ByteBuffer
+						.allocateDirect(capacity) : ByteBuffer
+						.allocate(capacity);
+				buffer.put(readBuffer);
+				buffer.flip();
+				readBuffer = buffer;
 			} else {
-				if (line.equals("")) {
-					if (skipEmpty) {
-						// nop: continue to skip heading empty lines...
-					} else {
-						cont = false;
-						httpHeaderCount.incrementAndGet();
-					}
-				} else {
-					skipEmpty = false;
-					headers.add(line);
+				buffer.compact();
+				buffer.flip();
+			}
+		}
+		int position = buffer.position();
+		int limit = buffer.limit();
+		ChunkedDecoder decoder = chunkedDecoder;
+		if (decoder != null && decoder.isComplete()) {
+			return false;
+		}
+		int actual;
+		do {
+			buffer.position(limit);
+			buffer.limit(decoder == null ? buffer.capacity() : (int) Math.min(
+					buffer.capacity(), (long) limit + decoder.getReadLimit()));
+			actual = 0;
+			while (actual == 0) {
+				actual = channel.read(buffer);
+			}
+			if (actual > 0 && decoder != null) {
+				// a read of chunk headers only yields no payload
+				actual = decoder.decode(buffer, limit, buffer.position())
+						- limit;
+				if (actual == 0 && decoder.isComplete()) {
+					actual = -1;
 				}
 			}
+		} while (actual == 0);
+		if (actual > 0) {
+			fillNanos = System.nanoTime();
 		}
-		String[] result = eod ? null : headers.toArray(new String[0]);
+		buffer.limit(limit + Math.max(actual, 0));
+		buffer.position(position);
+		return actual > 0;
+	}
+
+	private BoundaryScanner boundaryScanner = null;
+
+	/**
+	 * Returns the boundary that is used for slicing images without content
+	 * length.
+	 * 
+	 * @return The boundary or <code>null</code> if no boundary is known.
+	 */
+	public String getBoundary() {
+		return boundary;
+	}
+
+	private String boundary = null;
+
+	/**
+	 * Redefines the boundary that is used for slicing images without content
+	 * length. The runner takes the boundary from the "Content-Type" header of
+	 * the HTTP response.
+	 * 
+	 * @param boundary
+	 *            The boundary (with or without the leading dashes) or
+	 *            <code>null</code> if no boundary is known.
+	 */
+	public void setBoundary(String boundary) {
+		String mn = debugEntering("setBoundary", "value: ", boundary);
+		this.boundary = boundary;
+		boundaryScanner = boundary == null ? null : new BoundaryScanner(
+				boundary);
+		partHeader.setBoundaryLookUpString(boundary == null
+				|| boundary.startsWith("--") ? boundary : "--" + boundary);
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Extracts the next HTTP header from the stream.
+	 * 
+	 * @return The header lines without the end of line characters or
+	 *         <code>null</code> if the end of data is reached.
+	 */
+	public String[] readHttpHeader() {
+		String mn = debugEntering("readHttpHeader");
+		PartHeader header = readPartHeader();
+		String[] result = header == null ? null : header.toLines();
 		debugLeaving(mn);
 		return result;
 	}
 
+	private final PartHeader partHeader = new PartHeader();
+
 	/**
-	 * Reads the next input line.
+	 * Extracts the next HTTP header from the stream without creating any
+	 * strings. The header is parsed directly from the read buffer.
 	 * 
-	 * @return The line without the end of line characters or <code>null</code>
-	 *         if the end of data is reached.
-	 * @throws IOException
+	 * @return The header or <code>null</code> if the end of data is reached.
+	 *         The instance is reused for the next header.
 	 */
-	protected String readLine() throws IOException {
-		String mn = debugEntering("readLine");
-		StringBuilder sb = new StringBuilder();
-		boolean eol = false;
-		boolean eod = false;
-		boolean searchingEOL = true;
-		while (searchingEOL && !eod) {
-			int ch = inputStream.read();
-			if (ch < 0) {
-				warn(mn, "EOD found after ", byteCount.get(), " bytes.");
-				eod = true;
+	public PartHeader readPartHeader() {
+		String mn = debugEntering("readPartHeader");
+		Validator.checkState(mn, started, "Sink was not started.");
+		PartHeader result = null;
+		try {
+			if (parsePartHeader()) {
+				metrics.headerRead();
+				result = partHeader;
 			} else {
-				byteCount.incrementAndGet();
-				switch (ch) {
-				case 0x0d:
-					eol = true;
-					break;
-				case 0x0a:
-					if (eol) {
-						searchingEOL = false;
-					}
-					break;
-				default:
-					eol = false;
-					sb.append((char) ch);
-					break;
-				}
+				warn(mn, "EOD found after ", metrics.getByteCount(), " bytes.");
 			}
+		} catch (IOException ioe) {
+			throw new ImageDataCorruptionException(
+					"Failed to read HTTP header line: ", ioe);
 		}
-		String result = eod ? null : sb.toString();
 		debugLeaving(mn, "result: ", result);
 		return result;
 	}
 
-	private AtomicInteger httpHeaderCount = new AtomicInteger();
+	private boolean parsePartHeader() throws IOException {
+		PartHeader header = partHeader;
+		header.clear();
+		frameStartNanos = ImageEvent.UNKNOWN_TIME;
+		while (true) {
+			if (!readBuffer.hasRemaining() && !fillReadBuffer()) {
+				return false;
+			}
+			ByteBuffer buffer = readBuffer;
+			int position = buffer.position();
+			int limit = buffer.limit();
+			int i = position;
+			boolean complete = false;
+			while (!complete && i < limit) {
+				complete = header.parse(buffer.get(i++));
+			}
+			buffer.position(i);
+			metrics.bytesRead(i - position);
+			if (frameStartNanos == ImageEvent.UNKNOWN_TIME && !header.isEmpty()) {
+				// the line end of the previous part does not count
+				frameStartNanos = fillNanos;
+			}
+			if (complete) {
+				frameCameraMillis = header.getTimestampMillis();
+				return true;
+			}
+		}
+	}
 
 	/**
 	 * Returns the number of HTTP headers read so far.
@@ -176,50 +544,210 @@ public class SinkTemplate extends LoggableObject implements Sink {
 	 * @return The header count.
 	 */
 	public int getHttpHeaderCount() {
-		return httpHeaderCount.get();
+		return (int) metrics.getHeaderCount();
+	}
+
+	private FrameBufferPool frameBufferPool = new FrameBufferPool();
+
+	/**
+	 * Returns the pool that provides the frame buffers.
+	 * 
+	 * @return The pool.
+	 */
+	public FrameBufferPool getFrameBufferPool() {
+		return frameBufferPool;
+	}
+
+	/**
+	 * Redefines the pool that provides the frame buffers. Sinks may share a
+	 * pool.
+	 * 
+	 * @param frameBufferPool
+	 *            The new pool.
+	 */
+	public void setFrameBufferPool(FrameBufferPool frameBufferPool) {
+		String mn = debugEntering("setFrameBufferPool", "value: ",
+				frameBufferPool);
+		Validator.argumentMustNotBeNull(mn, "frameBufferPool", frameBufferPool);
+		this.frameBufferPool = frameBufferPool;
+		debugLeaving(mn);
 	}
 
 	/**
 	 * Extracts the next image data chunk from the stream.
 	 * 
 	 * @param contentLength
-	 *            The content length.
+	 *            The content length or
+	 *            {@link HttpHeaders#INVALID_CONTENT_LENGTH} if the image data
+	 *            end at the next boundary.
 	 * @return The data or <code>null</code> if the end of data is reached.
 	 */
 	public byte[] readImageData(int contentLength) {
 		String mn = debugEntering("readImageData");
 		Validator.checkState(mn, started, "Sink was not started.");
-		Validator.checkArgument(mn, "contentLength", contentLength,
-				contentLength > 0, "content length must be positive.");
-		byte[] result = new byte[contentLength];
-		int remaining = contentLength;
+		byte[] result = null;
+		int length = findImageLengthOrFail(contentLength);
+		if (length >= 0) {
+			result = new byte[length];
+			if (transfer(result, length)) {
+				frameRead(length);
+			} else {
+				result = null;
+			}
+		}
+		if (result == null) {
+			warn(mn, "EOD found after ", metrics.getByteCount(), " bytes.");
+		}
+		debugLeaving(mn);
+		return result;
+	}
+
+	/**
+	 * Extracts the next image data chunk from the stream into a buffer that
+	 * is leased from the frame buffer pool.
+	 * 
+	 * @param contentLength
+	 *            The content length or
+	 *            {@link HttpHeaders#INVALID_CONTENT_LENGTH} if the image data
+	 *            end at the next boundary.
+	 * @return The buffer or <code>null</code> if the end of data is reached.
+	 *         The caller owns the buffer and must release it.
+	 */
+	public FrameBuffer readFrame(int contentLength) {
+		String mn = debugEntering("readFrame");
+		Validator.checkState(mn, started, "Sink was not started.");
+		FrameBuffer result = null;
+		int length = findImageLengthOrFail(contentLength);
+		if (length >= 0) {
+			result = frameBufferPool.lease(length);
+			boolean complete = false;
+			try {
+				complete = transfer(result.array(), length);
+			} finally {
+				if (complete) {
+					frameRead(length);
+				} else {
+					result.release();
+				}
+			}
+			if (!complete) {
+				result = null;
+			}
+		}
+		if (result == null) {
+			warn(mn, "EOD found after ", metrics.getByteCount(), " bytes.");
+		}
+		debugLeaving(mn);
+		return result;
+	}
+
+	private int findImageLengthOrFail(int contentLength) {
+		int result;
+		try {
+			result = findImageLength(contentLength);
+		} catch (IOException ioe) {
+			throw new ImageDataCorruptionException(
+					"Failed to read image data: ", ioe);
+		}
+		if (result > maxFrameSize) {
+			throw new ImageDataCorruptionException("Image length " + result
+					+ " exceeds the maximum frame size.");
+		}
+		return result;
+	}
+
+	/**
+	 * Template method that determines the length of the next image.
+	 * Implementations that scan for delimiters leave the whole image in the
+	 * read buffer, starting at its position. Sub-classes might want to
+	 * override this method.
+	 * 
+	 * @param contentLength
+	 *            The content length or
+	 *            {@link HttpHeaders#INVALID_CONTENT_LENGTH} if the image data
+	 *            end at the next boundary.
+	 * @return The image length or <code>-1</code> if the end of data is
+	 *         reached.
+	 * @throws IOException
+	 *             If the channel could not be read.
+	 */
+	protected int findImageLength(int contentLength) throws IOException {
+		if (contentLength == HttpHeaders.INVALID_CONTENT_LENGTH
+				&& boundaryScanner != null) {
+			return findBoundary();
+		}
+		Validator.checkArgument("findImageLength", "contentLength",
+				contentLength, contentLength > 0,
+				"content length must be positive.");
+		return contentLength;
+	}
+
+	/**
+	 * Copies the next image from the stream.
+	 * 
+	 * @return <code>false</code> if the end of data is reached, otherwise
+	 *         <code>true</code>.
+	 */
+	private boolean transfer(byte[] target, int length) {
 		int pos = 0;
-		while (remaining > 0) {
+		while (pos < length) {
 			try {
-				int actual = inputStream.read(result, pos, remaining);
-				if (actual < 0) {
-					remaining = 0;
-					result = null;
-					warn(mn, "EOD found after ", byteCount.get(), " bytes.");
-				} else if (actual > 0) {
-					pos += actual;
-					remaining -= actual;
-					byteCount.addAndGet(actual);
+				if (!readBuffer.hasRemaining() && !fillReadBuffer()) {
+					return false;
 				}
 			} catch (IOException ioe) {
 				throw new ImageDataCorruptionException(
-						"Failed to read HTTP header line: ", ioe);
+						"Failed to read image data: ", ioe);
 			}
-
+			int actual = Math.min(readBuffer.remaining(), length - pos);
+			readBuffer.get(target, pos, actual);
+			pos += actual;
+			metrics.bytesRead(actual);
 		}
-		if (result != null) {
-			imageCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Searches the next boundary. The data stay in the read buffer until the
+	 * boundary is found, so they are copied only once. Bytes that were already
+	 * searched are not searched again after more data have been read.
+	 * 
+	 * @return The length of the data in front of the boundary or
+	 *         <code>-1</code> if the end of data is reached.
+	 * @throws IOException
+	 *             If the channel could not be read.
+	 */
+	private int findBoundary() throws IOException {
+		BoundaryScanner scanner = boundaryScanner;
+		int searched = 0;
+		while (true) {
+			int position = readBuffer.position();
+			int index = scanner.indexOf(readBuffer, position + searched,
+					readBuffer.limit());
+			if (index >= 0) {
+				return index - position;
+			}
+			searched = Math.max(0,
+					readBuffer.remaining() - scanner.getPatternLength() + 1);
+			if (!fillReadBuffer()) {
+				return -1;
+			}
 		}
-		debugLeaving(mn);
-		return result;
 	}
 
-	private AtomicInteger imageCount = new AtomicInteger();
+	/**
+	 * The capture times of the current frame; only used by the slicing
+	 * thread. The arrival of a byte is the time of the read that delivered it.
+	 */
+	private long fillNanos = ImageEvent.UNKNOWN_TIME;
+	private long frameStartNanos = ImageEvent.UNKNOWN_TIME;
+	private long frameReadNanos = ImageEvent.UNKNOWN_TIME;
+	private long frameCameraMillis = ImageEvent.UNKNOWN_TIME;
+
+	private void frameRead(int length) {
+		frameReadNanos = fillNanos;
+		metrics.frameRead(length);
+	}
 
 	/**
 	 * Returns the number of images read so far.
@@ -227,50 +755,292 @@ public class SinkTemplate extends LoggableObject implements Sink {
 	 * @return The image count.
 	 */
 	public int getImageCount() {
-		return imageCount.get();
+		return (int) metrics.getFrameCount();
 	}
 
+	/**
+	 * Counts bytes that were consumed by a sub-class without being part of an
+	 * image.
+	 * 
+	 * @param count
+	 *            The number of bytes.
+	 */
+	protected void addToByteCount(int count) {
+		metrics.bytesRead(count);
+	}
+
+	/**
+	 * Template method that reads the data in front of the first image; i.e.,
+	 * the HTTP response header. The boundary is taken from that header, and
+	 * chunked decoding is started if the header announces it. Sub-classes
+	 * might want to override this method.
+	 * 
+	 * @return <code>false</code> if the end of data is reached, otherwise
+	 *         <code>true</code>.
+	 */
+	protected boolean readStreamStart() {
+		String mn = debugEntering("readStreamStart");
+		PartHeader header = readPartHeader();
+		if (header != null) {
+			String boundary = HttpHeadersImpl.extractBoundaryParameter(header
+					.getContentType());
+			if (boundary != null) {
+				setBoundary(boundary);
+			}
+			if (header.isChunked()) {
+				startChunkedDecoding();
+			}
+		}
+		debugLeaving(mn);
+		return header != null;
+	}
+
+	/**
+	 * Template method that slices the next image from the stream; i.e., it
+	 * reads the part header and the image data. Sub-classes might want to
+	 * override this method.
+	 * 
+	 * @return The frame buffer or <code>null</code> if the end of data is
+	 *         reached. The caller owns the buffer and must release it.
+	 */
+	protected FrameBuffer readNextFrame() {
+		String mn = debugEntering("readNextFrame");
+		FrameBuffer result = null;
+		PartHeader header = readPartHeader();
+		if (header != null) {
+			result = readFrame(header.getContentLength());
+		}
+		debugLeaving(mn);
+		return result;
+	}
+
+	private final ImageEventSupport imageEventSupport = new ImageEventSupport();
+
+	/**
+	 * Adds an image listener. Listeners are notified by a dispatching thread
+	 * of their own, not by the thread that reads the stream.
+	 * 
+	 * @param listener
+	 *            The listener that is added.
+	 */
+	public void addImageListener(ImageListener listener) {
+		imageEventSupport.addImageListener(listener);
+	}
+
+	/**
+	 * Adds an image listener that is notified by a thread of its own, so that
+	 * it does not delay the other listeners. The thread is provided by the
+	 * executor strategy of the sink.
+	 * 
+	 * @param listener
+	 *            The listener that is added.
+	 * @param queueCapacity
+	 *            The maximum number of images queued for the listener.
+	 * @param overflowPolicy
+	 *            The policy when the queue is full.
+	 * @return The queueing wrapper that provides the lag and drop counters,
+	 *         or <code>null</code> if the listener was not added.
+	 * @see ImageEventSupport#addImageListener(ImageListener, int,
+	 *      OverflowPolicy)
+	 */
+	public AsyncImageListener addImageListener(ImageListener listener,
+			int queueCapacity, OverflowPolicy overflowPolicy) {
+		return imageEventSupport.addImageListener(listener, queueCapacity,
+				overflowPolicy, executorStrategy);
+	}
+
+	/**
+	 * Removes an image listener.
+	 * 
+	 * @param listener
+	 *            The listener that is removed.
+	 */
+	public void removeImageListener(ImageListener listener) {
+		imageEventSupport.removeImageListener(listener);
+	}
+
+	private int ringCapacity = ImageEventRing.DEFAULT_CAPACITY;
+
+	/**
+	 * Returns the number of slots of the ring that hands the images to the
+	 * dispatching thread.
+	 * 
+	 * @return The capacity.
+	 */
+	public int getRingCapacity() {
+		return ringCapacity;
+	}
+
+	/**
+	 * Redefines the number of slots of the ring that hands the images to the
+	 * dispatching thread. This takes effect with the next start.
+	 * 
+	 * @param ringCapacity
+	 *            The new capacity; a power of two.
+	 */
+	public void setRingCapacity(int ringCapacity) {
+		String mn = debugEntering("setRingCapacity", "value: ", ringCapacity);
+		Validator.checkArgument(mn, "ringCapacity", ringCapacity,
+				ringCapacity > 0 && Integer.bitCount(ringCapacity) == 1,
+				"must be a power of two.");
+		this.ringCapacity = ringCapacity;
+		debugLeaving(mn);
+	}
+
+	private WaitStrategy waitStrategy = WaitStrategy.PARK;
+
+	/**
+	 * Returns the way the dispatching thread waits for the next image.
+	 * 
+	 * @return The strategy.
+	 */
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * Redefines the way the dispatching thread waits for the next image. This
+	 * takes effect with the next start.
+	 * 
+	 * @param waitStrategy
+	 *            The new strategy.
+	 */
+	public void setWaitStrategy(WaitStrategy waitStrategy) {
+		String mn = debugEntering("setWaitStrategy", "value: ", waitStrategy);
+		Validator.argumentMustNotBeNull(mn, "waitStrategy", waitStrategy);
+		this.waitStrategy = waitStrategy;
+		debugLeaving(mn);
+	}
+
+	private ExecutorStrategy executorStrategy = new PlatformThreadStrategy();
+
+	/**
+	 * Returns the strategy that provides the slicing and the dispatching
+	 * thread.
+	 * 
+	 * @return The strategy.
+	 */
+	public ExecutorStrategy getExecutorStrategy() {
+		return executorStrategy;
+	}
+
+	/**
+	 * Redefines the strategy that provides the slicing and the dispatching
+	 * thread. This takes effect with the next start.
+	 * 
+	 * @param executorStrategy
+	 *            The new strategy.
+	 */
+	public void setExecutorStrategy(ExecutorStrategy executorStrategy) {
+		String mn = debugEntering("setExecutorStrategy", "value: ",
+				executorStrategy);
+		Validator.argumentMustNotBeNull(mn, "executorStrategy",
+				executorStrategy);
+		this.executorStrategy = executorStrategy;
+		debugLeaving(mn);
+	}
+
+	private ImageEventRing ring = null;
+	private ImageEventRing.Consumer dispatcher = null;
+	private ExecutorService dispatchExecutor = null;
+	private AtomicInteger sequenceNumber = new AtomicInteger();
+
+	/**
+	 * Returns the number of images that were dropped because the dispatching
+	 * thread was a whole ring behind.
+	 * 
+	 * @return The count.
+	 */
+	public long getDroppedImageCount() {
+		ImageEventRing r = ring;
+		return r == null ? 0L : r.getDroppedCount();
+	}
+
+	/**
+	 * Template method that publishes a sliced image to the image listeners.
+	 * The frame is wrapped in an event that owns it; the event is released
+	 * when it is dropped or overwritten in the ring. The event carries the
+	 * capture times of the frame; the camera timestamp is taken from the part
+	 * header or, failing that, from the JPEG segments. Sub-classes might want
+	 * to override this method.
+	 * 
+	 * @param frame
+	 *            The frame; the caller's reference is taken over.
+	 */
+	protected void publishFrame(FrameBuffer frame) {
+		ImageEvent event = new ImageEvent(this, System.currentTimeMillis(),
+				sequenceNumber.getAndIncrement(), frame.array(),
+				frame.length(), frame);
+		long cameraMillis = frameCameraMillis;
+		if (cameraMillis == ImageEvent.UNKNOWN_TIME) {
+			cameraMillis = CameraTimestamps.parseJpeg(frame.array(),
+					frame.length());
+		}
+		event.setCaptureTimes(frameStartNanos, frameReadNanos, cameraMillis);
+		if (frameStartNanos != ImageEvent.UNKNOWN_TIME) {
+			metrics.frameTransferred(frameReadNanos - frameStartNanos);
+		}
+		if (cameraMillis != ImageEvent.UNKNOWN_TIME) {
+			metrics.frameCaptured(NANOS_PER_MILLI
+					* (event.getCreationMillis() - cameraMillis));
+		}
+		if (!ring.publish(event, frameReadNanos)) {
+			metrics.frameDropped();
+			event.release();
+		}
+	}
+
+	private static final long NANOS_PER_MILLI = 1000000L;
+
 	private Runner runner = null;
 
 	private static class Runner extends LoggableObject implements Runnable {
-		private boolean running = false;
+		private static final int MAX_BACKOFF_EXPONENT = 30;
+		private volatile boolean running = false;
+		private volatile boolean entered = false;
+		private final CountDownLatch done = new CountDownLatch(1);
 		private Future<?> future;
-		private Sink sink;
-		private Pattern pattern;
+		private SinkTemplate sink;
 
-		private Runner(Sink sink) {
+		private Runner(SinkTemplate sink) {
 			debugEntering(MN_INIT);
 			this.sink = sink;
-			pattern = Pattern.compile(REGEX_PATTERN, REGEX_FLAGS);
-			ExecutorService pool = Executors.newSingleThreadExecutor();
+			ExecutorService pool = sink.getExecutorStrategy().newExecutor();
 			running = true;
 			future = pool.submit(this);
+			// the thread ends with the task instead of idling forever
+			pool.shutdown();
 			debugLeaving(MN_INIT);
 		}
 
-		private void shutdown() {
+		/**
+		 * Stops the runner without waiting; the channel can be closed
+		 * afterwards.
+		 */
+		private void halt() {
+			running = false;
+		}
+
+		/**
+		 * Stops the runner and waits for its thread to finish.
+		 * 
+		 * @return <code>false</code> if the thread did not finish in time.
+		 */
+		private boolean shutdown() {
 			String mn = debugEntering("shutdown");
+			running = false;
 			if (future != null) {
 				future.cancel(true);
 				future = null;
 			}
-			running = false;
-			debugLeaving(mn);
-		}
-
-		private static final String REGEX_PATTERN = "content-length:\\s+(\\d+)";
-		private static final int REGEX_FLAGS = Pattern.CASE_INSENSITIVE;
-
-		private int extractContentLength(String[] headers) {
-			String mn = debugEntering("extractContentLength");
-			int result = -1;
-			for (String header : headers) {
-				if (result != -1) {
-					break;
-				}
-				Matcher m = pattern.matcher(header);
-				if (m.matches()) {
-					result = Integer.parseInt(m.group(1));
+			boolean result = true;
+			if (entered) {
+				try {
+					result = done.await(STOP_TIMEOUT_MILLIS,
+							TimeUnit.MILLISECONDS);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					result = false;
 				}
 			}
 			debugLeaving(mn, "result: ", result);
@@ -278,22 +1048,82 @@ public class SinkTemplate extends LoggableObject implements Sink {
 		}
 
 		public void run() {
-			String mn = debugEntering("run");
-			debug(mn, "reading first HTTP header...");
-			String[] headers = sink.readHttpHeader();
+			entered = true;
+			try {
+				if (sink.source == null) {
+					slice();
+				} else {
+					supervise();
+				}
+			} finally {
+				done.countDown();
+			}
+		}
+
+		/**
+		 * Slices images until the end of data is reached or the runner is
+		 * stopped.
+		 */
+		private void slice() {
+			String mn = debugEntering("slice");
+			debug(mn, "reading stream start...");
+			if (!sink.readStreamStart()) {
+				warn(mn, "found EOD.");
+				debugLeaving(mn);
+				return;
+			}
 			while (running) {
-				headers = sink.readHttpHeader();
-				if (headers == null) {
+				FrameBuffer frame = sink.readNextFrame();
+				if (frame == null) {
 					warn(mn, "found EOD.");
-					running = false;
+					break;
 				} else {
-					int contentLength = extractContentLength(headers);
-					byte[] imageData = sink.readImageData(contentLength);
-					if (imageData == null) {
-						warn(mn, "found EOD.");
-						running = false;
+					sink.publishFrame(frame);
+				}
+			}
+			debugLeaving(mn);
+		}
+
+		/**
+		 * Slices images from the source and reconnects whenever the stream
+		 * ends or fails. The backoff starts over once a connection has
+		 * delivered an image.
+		 */
+		private void supervise() {
+			String mn = debugEntering("supervise");
+			int attempt = 0;
+			try {
+				while (running) {
+					if (sink.connect()) {
+						int before = sink.getImageCount();
+						// the sink must not reconnect after being stopped
+						if (running) {
+							try {
+								slice();
+							} catch (ImageDataCorruptionException idce) {
+								warn(mn, "stream failed: ", idce);
+							}
+						}
+						sink.disconnect();
+						if (sink.getImageCount() > before) {
+							attempt = 0;
+						}
+					}
+					if (running) {
+						long delay = sink.reconnectPolicy
+								.nextDelayMillis(attempt);
+						attempt = Math.min(attempt + 1, MAX_BACKOFF_EXPONENT);
+						warn(mn, "reconnecting in ", delay, " ms...");
+						try {
+							Thread.sleep(delay);
+							sink.metrics.reconnected();
+						} catch (InterruptedException ie) {
+							running = false;
+						}
 					}
 				}
+			} finally {
+				sink.disconnect();
 			}
 			debugLeaving(mn);
 		}
@@ -0,0 +1,184 @@
+package mjpegslicer.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+
+import mjpegslicer.ChannelSource;
+import mjpegslicer.util.Validator;
+
+/**
+ * A {@link ChannelSource} that talks HTTP to the camera over a plain
+ * {@link SocketChannel}. Neither a {@link java.net.URLConnection} nor any
+ * stream buffering is involved; the channel is handed to the sink as it is,
+ * starting with the HTTP response header.
+ */
+public class SocketChannelSource extends SourceTemplate implements
+		ChannelSource {
+
+	/**
+	 * The default connect timeout in milliseconds.
+	 */
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+
+	private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+	/**
+	 * Returns the connect timeout.
+	 *
+	 * @return The timeout in milliseconds.
+	 */
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	/**
+	 * Redefines the connect timeout.
+	 *
+	 * @param connectTimeoutMillis
+	 *            The new timeout in milliseconds. A value of zero means no
+	 *            timeout.
+	 */
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		String mn = debugEntering("setConnectTimeoutMillis", "value: ",
+				connectTimeoutMillis);
+		Validator.checkArgument(mn, "connectTimeoutMillis",
+				connectTimeoutMillis, connectTimeoutMillis >= 0,
+				"value must not be negative.");
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		debugLeaving(mn);
+	}
+
+	private SocketChannel socketChannel = null;
+
+	/**
+	 * Starts the streaming.
+	 *
+	 * @return The {@link ReadableByteChannel} that is used for streaming. The
+	 *         data start with the HTTP response header.
+	 */
+	@Override
+	public ReadableByteChannel startChannel() {
+		String mn = debugEntering("startChannel");
+		startStream();
+		ReadableByteChannel result = socketChannel;
+		debugLeaving(mn, "result: ", result);
+		return result;
+	}
+
+	/**
+	 * Opens the socket channel and sends the HTTP request. The returned stream
+	 * is an unbuffered view of the channel.
+	 *
+	 * @param hostName
+	 * @param port
+	 * @param path
+	 * @param userName
+	 * @param password
+	 * @return The stream.
+	 * @throws Exception
+	 *             If any error occured.
+	 */
+	@Override
+	protected InputStream openInputStream(String hostName, int port,
+			String path, String userName, String password) throws Exception {
+		String mn = debugEntering("openInputStream");
+		socketChannel = openSocketChannel(hostName, port);
+		String request = prepareRequest(hostName, port, path, userName,
+				password);
+		writeRequest(socketChannel, request);
+		InputStream result = Channels.newInputStream(socketChannel);
+		debugLeaving(mn, "stream: ", result);
+		return result;
+	}
+
+	/**
+	 * Template method that opens the connection to the camera. Sub-classes
+	 * might want to override this method.
+	 *
+	 * @param hostName
+	 * @param port
+	 * @return The connected channel in blocking mode.
+	 * @throws IOException
+	 *             If the connection could not be established.
+	 */
+	protected SocketChannel openSocketChannel(String hostName, int port)
+			throws IOException {
+		String mn = debugEntering("openSocketChannel");
+		SocketChannel result = SocketChannel.open();
+		try {
+			result.socket().connect(new InetSocketAddress(hostName, port),
+					connectTimeoutMillis);
+		} catch (IOException ioe) {
+			result.close();
+			throw ioe;
+		}
+		debugLeaving(mn, "result: ", result);
+		return result;
+	}
+
+	/**
+	 * Template method that builds the HTTP request. Sub-classes might want to
+	 * override this method.
+	 *
+	 * @param hostName
+	 * @param port
+	 * @param path
+	 * @param userName
+	 * @param password
+	 * @return The request including the terminating empty line.
+	 * @throws Exception
+	 *             If any error occured.
+	 */
+	protected String prepareRequest(String hostName, int port, String path,
+			String userName, String password) throws Exception {
+		String mn = debugEntering("prepareRequest");
+		StringBuilder sb = new StringBuilder();
+		// the slicers decode chunked bodies, so HTTP/1.1 is fine
+		sb.append("GET ").append(path).append(" HTTP/1.1\r\n");
+		sb.append("Host: ").append(hostName).append(':').append(port)
+				.append("\r\n");
+		if (usesAuthentication(userName, password)) {
+			sb.append("Authorization: Basic ")
+					.append(encodeCredentials(userName, password))
+					.append("\r\n");
+		}
+		sb.append("\r\n");
+		String result = sb.toString();
+		// the request is not logged, it holds the credentials
+		debugLeaving(mn, "length: ", result.length());
+		return result;
+	}
+
+	private void writeRequest(SocketChannel channel, String request)
+			throws IOException {
+		String mn = debugEntering("writeRequest");
+		ByteBuffer buffer = ByteBuffer.wrap(request.getBytes("US-ASCII"));
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Closes the stream and the underlying channel.
+	 */
+	@Override
+	protected void cleanUp() {
+		String mn = debugEntering("cleanUp");
+		super.cleanUp();
+		if (socketChannel != null) {
+			try {
+				socketChannel.close();
+			} catch (Throwable ignored) {
+			} finally {
+				socketChannel = null;
+			}
+		}
+		debugLeaving(mn);
+	}
+}
@@ -10,7 +10,7 @@ import mjpegslicer.Source;
 import mjpegslicer.util.LoggableObject;
 import mjpegslicer.util.Validator;
 
-import sun.misc.BASE64Encoder;
+import javax.xml.bind.DatatypeConverter;
 
 public class SourceTemplate extends LoggableObject implements Source {
 
@@ -169,6 +169,34 @@ public class SourceTemplate extends LoggableObject implements Source {
 		return byteCount.get();
 	}
 
+	private ConnectionRateLimiter connectionRateLimiter = null;
+
+	/**
+	 * Returns the limiter of the connection attempts.
+	 * 
+	 * @return The limiter or <code>null</code> if the attempts are not
+	 *         limited.
+	 */
+	public ConnectionRateLimiter getConnectionRateLimiter() {
+		return connectionRateLimiter;
+	}
+
+	/**
+	 * Redefines the limiter of the connection attempts. Sources that share a
+	 * limiter share its rate.
+	 * 
+	 * @param connectionRateLimiter
+	 *            The new limiter or <code>null</code> if the attempts are not
+	 *            limited.
+	 */
+	public void setConnectionRateLimiter(
+			ConnectionRateLimiter connectionRateLimiter) {
+		String mn = debugEntering("setConnectionRateLimiter", "value: ",
+				connectionRateLimiter);
+		this.connectionRateLimiter = connectionRateLimiter;
+		debugLeaving(mn);
+	}
+
 	protected InputStream inputStream = null;
 
 	/**
@@ -183,9 +211,16 @@ public class SourceTemplate extends LoggableObject implements Source {
 		inputStream = null;
 		byteCount.set(0);
 		try {
+			if (connectionRateLimiter != null) {
+				connectionRateLimiter.acquire();
+			}
 			inputStream = openInputStream(hostName, port, path, userName,
 					password);
 			started = true;
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting to connect.",
+					ie);
 		} catch (Exception ex) {
 			cleanUp();
 			started = false;
@@ -278,10 +313,7 @@ public class SourceTemplate extends LoggableObject implements Source {
 		String mn = debugEntering("openAuthenticatedConnection");
 		URLConnection uc = url.openConnection();
 		debug(mn, "url con: ", uc);
-		BASE64Encoder encoder = new BASE64Encoder();
-		byte[] credentials = (userName + ':' + password).getBytes();
-		String encoded = encoder.encode(credentials);
-		debug(mn, "encoded credentials: ", encoded);
+		String encoded = encodeCredentials(userName, password);
 		uc.setRequestProperty("Authorization", "Basic " + encoded);
 		debug(mn, "url con: ", uc);
 		InputStream result = uc.getInputStream();
@@ -289,6 +321,24 @@ public class SourceTemplate extends LoggableObject implements Source {
 		return result;
 	}
 
+	/**
+	 * Template method that encodes the credentials for basic authentication.
+	 * The encoding has no line breaks, so that it fits into a header line.
+	 * Sub-classes might want to override this method.
+	 * 
+	 * @param userName
+	 * @param password
+	 * @return The encoded credentials.
+	 */
+	protected String encodeCredentials(String userName, String password) {
+		String mn = debugEntering("encodeCredentials");
+		byte[] credentials = (userName + ':' + password).getBytes();
+		String result = DatatypeConverter.printBase64Binary(credentials);
+		// the result is not logged, it reveals the password
+		debugLeaving(mn);
+		return result;
+	}
+
 	/**
 	 * Template method that opens a connection without authentication.
 	 * Sub-classes might want to override this method.
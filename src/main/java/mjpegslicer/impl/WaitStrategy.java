@@ -0,0 +1,77 @@
+package mjpegslicer.impl;
+
+/**
+ * The strategies of a {@link ImageEventRing.Consumer} waiting for the next
+ * event. They trade CPU usage for hand-off latency.
+ */
+public enum WaitStrategy {
+
+	/**
+	 * Spins on the cursor. Lowest latency, but burns a whole core per
+	 * consumer; only sensible with dedicated cores.
+	 */
+	BUSY_SPIN {
+		@Override
+		int idle(ImageEventRing.Consumer consumer, int count) {
+			return count + 1;
+		}
+	},
+
+	/**
+	 * Spins for a while, then yields the processor between checks.
+	 */
+	YIELD {
+		@Override
+		int idle(ImageEventRing.Consumer consumer, int count) {
+			if (count >= SPIN_TRIES) {
+				Thread.yield();
+			}
+			return count + 1;
+		}
+	},
+
+	/**
+	 * Spins for a while, then parks the thread until the producer publishes
+	 * the next event. This is the default: cheap for the many idle periods of
+	 * a camera stream. The producer unparks the consumer, so an idle
+	 * consumer only wakes up once a second as a safeguard.
+	 */
+	PARK {
+		@Override
+		int idle(ImageEventRing.Consumer consumer, int count) {
+			if (count < SPIN_TRIES) {
+				return count + 1;
+			}
+			consumer.park(SAFETY_PARK_NANOS);
+			return count;
+		}
+
+		@Override
+		boolean isSignalled() {
+			return true;
+		}
+	};
+
+	private static final int SPIN_TRIES = 100;
+	private static final long SAFETY_PARK_NANOS = 1000000000L;
+
+	/**
+	 * Waits once.
+	 *
+	 * @param consumer
+	 *            The waiting consumer.
+	 * @param count
+	 *            The number of times the consumer has waited in a row.
+	 * @return The new count.
+	 */
+	abstract int idle(ImageEventRing.Consumer consumer, int count);
+
+	/**
+	 * Indicates whether the producer must wake up waiting consumers.
+	 *
+	 * @return The flag.
+	 */
+	boolean isSignalled() {
+		return false;
+	}
+}
@@ -0,0 +1,143 @@
+package mjpegslicer.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import mjpegslicer.util.Validator;
+
+/**
+ * A histogram of non-negative long values with a fixed memory footprint. The
+ * buckets are log-linear: each power of two is divided into
+ * 2<sup>subBucketBits</sup> buckets of equal width, so the relative error of
+ * a recorded value is at most 2<sup>-subBucketBits</sup> over the whole
+ * range of long values. Values below 2<sup>subBucketBits</sup> are recorded
+ * exactly.
+ * <p>
+ * Recording is thread-safe and does not allocate; negative values are
+ * recorded as zero. Use {@link #snapshot()} to evaluate the histogram.
+ */
+public class Histogram {
+
+	/**
+	 * The default number of sub-bucket bits; i.e., a relative error of 1/16.
+	 */
+	public static final int DEFAULT_SUB_BUCKET_BITS = 4;
+
+	/**
+	 * The maximum number of sub-bucket bits.
+	 */
+	public static final int MAX_SUB_BUCKET_BITS = 10;
+
+	private final int subBucketBits;
+	private final AtomicLongArray counts;
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Creates a histogram with {@link #DEFAULT_SUB_BUCKET_BITS}.
+	 */
+	public Histogram() {
+		this(DEFAULT_SUB_BUCKET_BITS);
+	}
+
+	/**
+	 * Creates a histogram.
+	 *
+	 * @param subBucketBits
+	 *            The number of bits that define the buckets per power of two.
+	 */
+	public Histogram(int subBucketBits) {
+		Validator.checkArgument("Histogram", "subBucketBits", subBucketBits,
+				subBucketBits >= 1 && subBucketBits <= MAX_SUB_BUCKET_BITS,
+				"not in range 1..", MAX_SUB_BUCKET_BITS);
+		this.subBucketBits = subBucketBits;
+		counts = new AtomicLongArray(bucketCount(subBucketBits));
+	}
+
+	static int bucketCount(int subBucketBits) {
+		// a linear range plus one range per power of two up to 2^62
+		return (64 - subBucketBits) << subBucketBits;
+	}
+
+	/**
+	 * Returns the number of sub-bucket bits.
+	 *
+	 * @return The number.
+	 */
+	public int getSubBucketBits() {
+		return subBucketBits;
+	}
+
+	/**
+	 * Records a value.
+	 *
+	 * @param value
+	 *            The value.
+	 */
+	public void record(long value) {
+		if (value < 0L) {
+			value = 0L;
+		}
+		counts.incrementAndGet(bucketIndex(value, subBucketBits));
+		sum.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	static int bucketIndex(long value, int subBucketBits) {
+		long subBucketCount = 1L << subBucketBits;
+		if (value < subBucketCount) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - subBucketBits;
+		return (int) (((shift + 1L) << subBucketBits) + (value >>> shift) - subBucketCount);
+	}
+
+	static long lowerBound(int index, int subBucketBits) {
+		int subBucketCount = 1 << subBucketBits;
+		if (index < subBucketCount) {
+			return index;
+		}
+		int shift = (index >>> subBucketBits) - 1;
+		return (long) (subBucketCount + (index & (subBucketCount - 1))) << shift;
+	}
+
+	static long upperBound(int index, int subBucketBits) {
+		int shift = Math.max(0, (index >>> subBucketBits) - 1);
+		return lowerBound(index, subBucketBits) + (1L << shift) - 1L;
+	}
+
+	/**
+	 * Copies the current state. The count of the copy is the sum of the
+	 * copied buckets; values that are recorded concurrently might show up in
+	 * the sum or the maximum only.
+	 *
+	 * @return The copy.
+	 */
+	public HistogramSnapshot snapshot() {
+		long[] copy = new long[counts.length()];
+		for (int i = 0; i < copy.length; i++) {
+			copy[i] = counts.get(i);
+		}
+		return new HistogramSnapshot(subBucketBits, copy, sum.get(), max.get());
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Histogram[subBucketBits=");
+		sb.append(subBucketBits);
+		sb.append(",sum=");
+		sb.append(sum.get());
+		sb.append(",max=");
+		sb.append(max.get());
+		sb.append("]");
+		return sb.toString();
+	}
+}
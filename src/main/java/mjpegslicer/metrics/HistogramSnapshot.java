@@ -0,0 +1,126 @@
+package mjpegslicer.metrics;
+
+import mjpegslicer.util.Validator;
+
+/**
+ * An immutable copy of a {@link Histogram}.
+ */
+public class HistogramSnapshot {
+
+	private final int subBucketBits;
+	private final long[] counts;
+	private final long count;
+	private final long sum;
+	private final long max;
+
+	HistogramSnapshot(int subBucketBits, long[] counts, long sum, long max) {
+		this.subBucketBits = subBucketBits;
+		this.counts = counts;
+		long total = 0L;
+		for (long c : counts) {
+			total += c;
+		}
+		count = total;
+		this.sum = sum;
+		this.max = max;
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 *
+	 * @return The count.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the sum of the recorded values.
+	 *
+	 * @return The sum.
+	 */
+	public long getSum() {
+		return sum;
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 *
+	 * @return The value or <code>0</code> if no value was recorded.
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the smallest recorded value.
+	 *
+	 * @return The lower bound of the first non-empty bucket or <code>0</code>
+	 *         if no value was recorded.
+	 */
+	public long getMin() {
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] != 0L) {
+				return Histogram.lowerBound(i, subBucketBits);
+			}
+		}
+		return 0L;
+	}
+
+	/**
+	 * Returns the mean of the recorded values.
+	 *
+	 * @return The mean or <code>0</code> if no value was recorded.
+	 */
+	public double getMean() {
+		return count == 0L ? 0.0 : (double) sum / count;
+	}
+
+	/**
+	 * Returns the value below or at which a percentage of the recorded values
+	 * lie.
+	 *
+	 * @param percentile
+	 *            The percentage; e.g., <code>99.9</code>.
+	 * @return The upper bound of the bucket that holds the percentile, but at
+	 *         most the maximum, or <code>0</code> if no value was recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		Validator.checkArgument("getValueAtPercentile", "percentile",
+				percentile, percentile >= 0.0 && percentile <= 100.0,
+				"not in range 0..100");
+		if (count == 0L) {
+			return 0L;
+		}
+		long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+		long seen = 0L;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(Histogram.upperBound(i, subBucketBits), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("HistogramSnapshot[count=");
+		sb.append(count);
+		sb.append(",mean=");
+		sb.append(Math.round(getMean()));
+		sb.append(",p50=");
+		sb.append(getValueAtPercentile(50.0));
+		sb.append(",p99=");
+		sb.append(getValueAtPercentile(99.0));
+		sb.append(",max=");
+		sb.append(max);
+		sb.append("]");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,93 @@
+package mjpegslicer.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.Validator;
+
+/**
+ * A registry of the metrics of many camera streams, e.g. those of a
+ * monitoring application. Each stream is registered under a unique name.
+ */
+public class MetricsRegistry extends LoggableObject {
+
+	private final ConcurrentMap<String, StreamMetrics> streams = new ConcurrentHashMap<String, StreamMetrics>();
+
+	/**
+	 * Registers the metrics of a stream.
+	 *
+	 * @param name
+	 *            The unique name of the stream.
+	 * @param metrics
+	 *            The metrics; e.g., those of a sink.
+	 * @throws IllegalStateException
+	 *             if another stream is registered under the name.
+	 */
+	public void register(String name, StreamMetrics metrics) {
+		String mn = debugEntering("register", "name: ", name);
+		Validator.argumentMustNotBeEmpty(mn, "name", name);
+		Validator.argumentMustNotBeNull(mn, "metrics", metrics);
+		StreamMetrics previous = streams.putIfAbsent(name, metrics);
+		Validator.checkState(mn, previous == null || previous == metrics,
+				"Another stream is registered as ", name, ".");
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Removes the metrics of a stream.
+	 *
+	 * @param name
+	 *            The name of the stream.
+	 * @return The metrics or <code>null</code> if no stream was registered
+	 *         under the name.
+	 */
+	public StreamMetrics unregister(String name) {
+		String mn = debugEntering("unregister", "name: ", name);
+		StreamMetrics result = streams.remove(name);
+		debugLeaving(mn, "result: ", result);
+		return result;
+	}
+
+	/**
+	 * Returns the metrics of a stream.
+	 *
+	 * @param name
+	 *            The name of the stream.
+	 * @return The metrics or <code>null</code> if no stream was registered
+	 *         under the name.
+	 */
+	public StreamMetrics get(String name) {
+		return streams.get(name);
+	}
+
+	/**
+	 * Copies the metrics of all registered streams.
+	 *
+	 * @return The snapshots, sorted by stream name.
+	 */
+	public SortedMap<String, MetricsSnapshot> snapshot() {
+		SortedMap<String, MetricsSnapshot> result = new TreeMap<String, MetricsSnapshot>();
+		for (Map.Entry<String, StreamMetrics> entry : streams.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		return Collections.unmodifiableSortedMap(result);
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("MetricsRegistry[streams:");
+		sb.append(streams.size());
+		sb.append("]");
+		return sb.toString();
+	}
+}
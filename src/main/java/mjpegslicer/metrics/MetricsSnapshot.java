@@ -0,0 +1,206 @@
+package mjpegslicer.metrics;
+
+/**
+ * An immutable copy of the {@link StreamMetrics} of one camera stream. Rates
+ * are derived either over the whole lifetime of the metrics or over the
+ * interval since an earlier snapshot.
+ */
+public class MetricsSnapshot {
+
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	private final long elapsedNanos;
+	private final long byteCount;
+	private final long headerCount;
+	private final long droppedCount;
+	private final long reconnectCount;
+	private final HistogramSnapshot frameSizes;
+	private final HistogramSnapshot dispatchLatencies;
+	private final HistogramSnapshot transferLatencies;
+	private final HistogramSnapshot captureLatencies;
+
+	MetricsSnapshot(long elapsedNanos, long byteCount, long headerCount,
+			long droppedCount, long reconnectCount,
+			HistogramSnapshot frameSizes, HistogramSnapshot dispatchLatencies,
+			HistogramSnapshot transferLatencies,
+			HistogramSnapshot captureLatencies) {
+		this.elapsedNanos = elapsedNanos;
+		this.byteCount = byteCount;
+		this.headerCount = headerCount;
+		this.droppedCount = droppedCount;
+		this.reconnectCount = reconnectCount;
+		this.frameSizes = frameSizes;
+		this.dispatchLatencies = dispatchLatencies;
+		this.transferLatencies = transferLatencies;
+		this.captureLatencies = captureLatencies;
+	}
+
+	/**
+	 * Returns the time from creating the metrics until taking the snapshot.
+	 *
+	 * @return The time in nanoseconds.
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Returns the number of bytes read.
+	 *
+	 * @return The count.
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	/**
+	 * Returns the number of headers read.
+	 *
+	 * @return The count.
+	 */
+	public long getHeaderCount() {
+		return headerCount;
+	}
+
+	/**
+	 * Returns the number of frames read.
+	 *
+	 * @return The count.
+	 */
+	public long getFrameCount() {
+		return frameSizes.getCount();
+	}
+
+	/**
+	 * Returns the number of frames that were dropped instead of being
+	 * dispatched.
+	 *
+	 * @return The count.
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * Returns the number of reconnect attempts.
+	 *
+	 * @return The count.
+	 */
+	public long getReconnectCount() {
+		return reconnectCount;
+	}
+
+	/**
+	 * Returns the distribution of the frame sizes in bytes.
+	 *
+	 * @return The histogram.
+	 */
+	public HistogramSnapshot getFrameSizes() {
+		return frameSizes;
+	}
+
+	/**
+	 * Returns the distribution of the latencies from reading a frame until
+	 * its listeners are notified, in nanoseconds.
+	 *
+	 * @return The histogram.
+	 */
+	public HistogramSnapshot getDispatchLatencies() {
+		return dispatchLatencies;
+	}
+
+	/**
+	 * Returns the distribution of the times from the first until the last
+	 * byte of a frame, in nanoseconds.
+	 *
+	 * @return The histogram.
+	 */
+	public HistogramSnapshot getTransferLatencies() {
+		return transferLatencies;
+	}
+
+	/**
+	 * Returns the distribution of the times from the camera timestamp of a
+	 * frame until it was read, in nanoseconds.
+	 *
+	 * @return The histogram.
+	 */
+	public HistogramSnapshot getCaptureLatencies() {
+		return captureLatencies;
+	}
+
+	private static double rate(long count, long nanos) {
+		return nanos <= 0L ? 0.0 : count * NANOS_PER_SECOND / nanos;
+	}
+
+	/**
+	 * Returns the mean frame rate since the metrics were created.
+	 *
+	 * @return The rate in frames per second.
+	 */
+	public double getFrameRate() {
+		return rate(getFrameCount(), elapsedNanos);
+	}
+
+	/**
+	 * Returns the mean frame rate since an earlier snapshot.
+	 *
+	 * @param earlier
+	 *            The earlier snapshot of the same metrics.
+	 * @return The rate in frames per second.
+	 */
+	public double getFrameRate(MetricsSnapshot earlier) {
+		return rate(getFrameCount() - earlier.getFrameCount(), elapsedNanos
+				- earlier.elapsedNanos);
+	}
+
+	/**
+	 * Returns the mean byte rate since the metrics were created.
+	 *
+	 * @return The rate in bytes per second.
+	 */
+	public double getByteRate() {
+		return rate(byteCount, elapsedNanos);
+	}
+
+	/**
+	 * Returns the mean byte rate since an earlier snapshot.
+	 *
+	 * @param earlier
+	 *            The earlier snapshot of the same metrics.
+	 * @return The rate in bytes per second.
+	 */
+	public double getByteRate(MetricsSnapshot earlier) {
+		return rate(byteCount - earlier.byteCount, elapsedNanos
+				- earlier.elapsedNanos);
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("MetricsSnapshot[frames=");
+		sb.append(getFrameCount());
+		sb.append(",bytes=");
+		sb.append(byteCount);
+		sb.append(",dropped=");
+		sb.append(droppedCount);
+		sb.append(",reconnects=");
+		sb.append(reconnectCount);
+		sb.append(",fps=");
+		sb.append(Math.round(getFrameRate() * 10.0) / 10.0);
+		sb.append(",sizes=");
+		sb.append(frameSizes);
+		sb.append(",latencies=");
+		sb.append(dispatchLatencies);
+		sb.append(",transfer=");
+		sb.append(transferLatencies);
+		sb.append(",capture=");
+		sb.append(captureLatencies);
+		sb.append("]");
+		return sb.toString();
+	}
+}
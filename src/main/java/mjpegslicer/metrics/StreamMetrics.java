@@ -0,0 +1,212 @@
+package mjpegslicer.metrics;
+
+/**
+ * The metrics of one camera stream; i.e., of a source and the sink that
+ * slices it. The recording methods are called on the hot path of the sink;
+ * they neither lock nor allocate.
+ */
+public class StreamMetrics {
+
+	private final long startNanos = System.nanoTime();
+	private final StripedCounter byteCount = new StripedCounter();
+	private final StripedCounter headerCount = new StripedCounter();
+	private final StripedCounter frameCount = new StripedCounter();
+	private final StripedCounter droppedCount = new StripedCounter();
+	private final StripedCounter reconnectCount = new StripedCounter();
+	private final Histogram frameSizes = new Histogram();
+	private final Histogram dispatchLatencies = new Histogram();
+	private final Histogram transferLatencies = new Histogram();
+	private final Histogram captureLatencies = new Histogram();
+
+	/**
+	 * Records bytes that were read from the stream.
+	 *
+	 * @param count
+	 *            The number of bytes.
+	 */
+	public void bytesRead(long count) {
+		byteCount.add(count);
+	}
+
+	/**
+	 * Records a header that was read from the stream.
+	 */
+	public void headerRead() {
+		headerCount.increment();
+	}
+
+	/**
+	 * Records a frame that was sliced from the stream.
+	 *
+	 * @param length
+	 *            The frame length in bytes.
+	 */
+	public void frameRead(int length) {
+		frameCount.increment();
+		frameSizes.record(length);
+	}
+
+	/**
+	 * Records a frame that was dropped instead of being dispatched.
+	 */
+	public void frameDropped() {
+		droppedCount.increment();
+	}
+
+	/**
+	 * Records a reconnect attempt.
+	 */
+	public void reconnected() {
+		reconnectCount.increment();
+	}
+
+	/**
+	 * Records the time from reading a frame until its listeners are notified.
+	 *
+	 * @param nanos
+	 *            The latency in nanoseconds.
+	 */
+	public void frameDispatched(long nanos) {
+		dispatchLatencies.record(nanos);
+	}
+
+	/**
+	 * Records the time from the first until the last byte of a frame.
+	 *
+	 * @param nanos
+	 *            The latency in nanoseconds.
+	 */
+	public void frameTransferred(long nanos) {
+		transferLatencies.record(nanos);
+	}
+
+	/**
+	 * Records the time from the camera timestamp of a frame until it was
+	 * read. Camera and local clock might differ, so this includes their
+	 * offset; negative values are recorded as zero.
+	 *
+	 * @param nanos
+	 *            The latency in nanoseconds.
+	 */
+	public void frameCaptured(long nanos) {
+		captureLatencies.record(nanos);
+	}
+
+	/**
+	 * Returns the number of bytes read so far.
+	 *
+	 * @return The count.
+	 */
+	public long getByteCount() {
+		return byteCount.sum();
+	}
+
+	/**
+	 * Returns the number of headers read so far.
+	 *
+	 * @return The count.
+	 */
+	public long getHeaderCount() {
+		return headerCount.sum();
+	}
+
+	/**
+	 * Returns the number of frames read so far.
+	 *
+	 * @return The count.
+	 */
+	public long getFrameCount() {
+		return frameCount.sum();
+	}
+
+	/**
+	 * Returns the number of frames dropped so far.
+	 *
+	 * @return The count.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.sum();
+	}
+
+	/**
+	 * Returns the number of reconnect attempts so far.
+	 *
+	 * @return The count.
+	 */
+	public long getReconnectCount() {
+		return reconnectCount.sum();
+	}
+
+	/**
+	 * Returns the histogram of the frame sizes in bytes.
+	 *
+	 * @return The histogram.
+	 */
+	public Histogram getFrameSizes() {
+		return frameSizes;
+	}
+
+	/**
+	 * Returns the histogram of the latencies from reading a frame until its
+	 * listeners are notified, in nanoseconds.
+	 *
+	 * @return The histogram.
+	 */
+	public Histogram getDispatchLatencies() {
+		return dispatchLatencies;
+	}
+
+	/**
+	 * Returns the histogram of the times from the first until the last byte of
+	 * a frame, in nanoseconds.
+	 *
+	 * @return The histogram.
+	 */
+	public Histogram getTransferLatencies() {
+		return transferLatencies;
+	}
+
+	/**
+	 * Returns the histogram of the times from the camera timestamp of a frame
+	 * until it was read, in nanoseconds. Only frames with a camera timestamp
+	 * are recorded.
+	 *
+	 * @return The histogram.
+	 */
+	public Histogram getCaptureLatencies() {
+		return captureLatencies;
+	}
+
+	/**
+	 * Copies the current state. The frame count of the copy is taken from the
+	 * copied frame size histogram, so that both agree; frames that are
+	 * recorded while the copy is taken might be missing from the other values.
+	 *
+	 * @return The copy.
+	 */
+	public MetricsSnapshot snapshot() {
+		HistogramSnapshot sizes = frameSizes.snapshot();
+		HistogramSnapshot latencies = dispatchLatencies.snapshot();
+		return new MetricsSnapshot(System.nanoTime() - startNanos,
+				byteCount.sum(), headerCount.sum(), droppedCount.sum(),
+				reconnectCount.sum(), sizes, latencies,
+				transferLatencies.snapshot(), captureLatencies.snapshot());
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("StreamMetrics[bytes=");
+		sb.append(byteCount.sum());
+		sb.append(",headers=");
+		sb.append(headerCount.sum());
+		sb.append(",frames=");
+		sb.append(frameCount.sum());
+		sb.append("]");
+		return sb.toString();
+	}
+}
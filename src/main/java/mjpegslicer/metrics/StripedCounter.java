@@ -0,0 +1,106 @@
+package mjpegslicer.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that is updated by many threads without contending on a single
+ * variable. Each thread adds to one of several cells, selected by its thread
+ * id; the cells are padded to separate cache lines. The value is only summed
+ * up when it is read, so reads are more expensive than updates.
+ */
+public class StripedCounter {
+
+	/**
+	 * The distance between two cells in longs; i.e., one cache line.
+	 */
+	private static final int PADDING = 8;
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	/**
+	 * Creates a counter with a cell per processor.
+	 */
+	public StripedCounter() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a counter.
+	 *
+	 * @param stripes
+	 *            The minimum number of cells; it is rounded up to a power of
+	 *            two.
+	 */
+	public StripedCounter(int stripes) {
+		int count = Integer.highestOneBit(Math.max(1, stripes));
+		if (count < stripes) {
+			count <<= 1;
+		}
+		mask = count - 1;
+		// the first cell is padded, too
+		cells = new AtomicLongArray((count + 1) * PADDING);
+	}
+
+	private int cellIndex() {
+		long id = Thread.currentThread().getId();
+		// spread consecutive thread ids over the cells
+		int hash = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+		return ((hash >>> 16) & mask) * PADDING + PADDING;
+	}
+
+	/**
+	 * Adds a value.
+	 *
+	 * @param value
+	 *            The value; it may be negative.
+	 */
+	public void add(long value) {
+		cells.addAndGet(cellIndex(), value);
+	}
+
+	/**
+	 * Adds one.
+	 */
+	public void increment() {
+		cells.incrementAndGet(cellIndex());
+	}
+
+	/**
+	 * Returns the sum of all cells. Updates that happen concurrently may or
+	 * may not be included.
+	 *
+	 * @return The sum.
+	 */
+	public long sum() {
+		long result = 0L;
+		for (int i = PADDING; i < cells.length(); i += PADDING) {
+			result += cells.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of cells.
+	 *
+	 * @return The count.
+	 */
+	public int getStripeCount() {
+		return mask + 1;
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("StripedCounter[stripes=");
+		sb.append(mask + 1);
+		sb.append(",sum=");
+		sb.append(sum());
+		sb.append("]");
+		return sb.toString();
+	}
+}
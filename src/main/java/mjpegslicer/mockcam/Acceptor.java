@@ -3,8 +3,9 @@ package mjpegslicer.mockcam;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import mjpegslicer.util.LoggableObject;
@@ -14,6 +15,7 @@ public class Acceptor extends LoggableObject implements Runnable {
 	private boolean running;
 	private ServerSocket serverSocket;
 	private Future<?> future;
+	private final List<Handler> handlers = new CopyOnWriteArrayList<Handler>();
 
 	/**
 	 * Creates an acceptor instance.
@@ -26,9 +28,11 @@ public class Acceptor extends LoggableObject implements Runnable {
 		this.camera = camera;
 		serverSocket = new ServerSocket(camera.getPort());
 		debug(MN_INIT, "server socket: ", serverSocket);
-		ExecutorService pool = Executors.newSingleThreadExecutor();
+		ExecutorService pool = camera.getExecutorStrategy().newExecutor();
 		debug(MN_INIT, "starting the acceptor runner...");
 		future = pool.submit(this);
+		// the thread ends with the task instead of idling forever
+		pool.shutdown();
 		debug(MN_INIT, "runner started, future: ", future);
 		debugLeaving(MN_INIT);
 	}
@@ -47,6 +51,10 @@ public class Acceptor extends LoggableObject implements Runnable {
 			}
 		}
 		serverSocket = null;
+		for (Handler handler : handlers) {
+			handler.shutdown();
+		}
+		handlers.clear();
 		debugLeaving(mn);
 	}
 
@@ -63,6 +71,7 @@ public class Acceptor extends LoggableObject implements Runnable {
 				Socket socket = serverSocket.accept();
 				debug(mn, "connection request: ", socket);
 				Handler handler = new Handler(camera, socket);
+				handlers.add(handler);
 				debug(mn, "handler created: ", handler);
 			}
 		} catch (IOException ioe) {
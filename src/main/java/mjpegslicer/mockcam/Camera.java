@@ -2,7 +2,9 @@ package mjpegslicer.mockcam;
 
 import java.io.IOException;
 
+import mjpegslicer.util.ExecutorStrategy;
 import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.PlatformThreadStrategy;
 import mjpegslicer.util.Validator;
 
 public class Camera extends LoggableObject {
@@ -31,6 +33,34 @@ public class Camera extends LoggableObject {
 		debugLeaving(mn);
 	}
 
+	private ExecutorStrategy executorStrategy = new PlatformThreadStrategy();
+
+	/**
+	 * Returns the strategy that provides the threads of the acceptor and of
+	 * the feeds.
+	 * 
+	 * @return The strategy.
+	 */
+	public ExecutorStrategy getExecutorStrategy() {
+		return executorStrategy;
+	}
+
+	/**
+	 * Redefines the strategy that provides the threads of the acceptor and of
+	 * the feeds. It is handed to each feeder when a connection is accepted.
+	 * 
+	 * @param executorStrategy
+	 *            The new strategy.
+	 */
+	public void setExecutorStrategy(ExecutorStrategy executorStrategy) {
+		String mn = debugEntering("setExecutorStrategy", "value: ",
+				executorStrategy);
+		Validator.argumentMustNotBeNull(mn, "executorStrategy",
+				executorStrategy);
+		this.executorStrategy = executorStrategy;
+		debugLeaving(mn);
+	}
+
 	/**
 	 * The default port.
 	 */
@@ -79,8 +109,8 @@ public class Camera extends LoggableObject {
 
 	public void start() throws IOException {
 		String mn = debugEntering("start");
-		started = true;
 		acceptor = new Acceptor(this);
+		started = true;
 		debugLeaving(mn);
 	}
 
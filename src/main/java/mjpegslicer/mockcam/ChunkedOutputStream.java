@@ -0,0 +1,85 @@
+package mjpegslicer.mockcam;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that writes the HTTP/1.1 chunked transfer-encoding. The
+ * data are collected up to the chunk size; a chunk is also written when the
+ * stream is flushed. The underlying stream is not closed by
+ * {@link #finish()}, so a kept-alive connection stays usable.
+ */
+class ChunkedOutputStream extends FilterOutputStream {
+
+	private static final byte[] CRLF = { 0x0d, 0x0a };
+	private static final byte[] TERMINAL_CHUNK = { '0', 0x0d, 0x0a, 0x0d, 0x0a };
+
+	private final byte[] chunk;
+	private int count = 0;
+
+	/**
+	 * Creates a stream instance.
+	 *
+	 * @param out
+	 *            The underlying stream.
+	 * @param chunkSize
+	 *            The maximum number of bytes per chunk.
+	 */
+	ChunkedOutputStream(OutputStream out, int chunkSize) {
+		super(out);
+		chunk = new byte[chunkSize];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		chunk[count++] = (byte) b;
+		if (count == chunk.length) {
+			writeChunk();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int actual = Math.min(len, chunk.length - count);
+			System.arraycopy(b, off, chunk, count, actual);
+			count += actual;
+			off += actual;
+			len -= actual;
+			if (count == chunk.length) {
+				writeChunk();
+			}
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writeChunk();
+		out.flush();
+	}
+
+	/**
+	 * Writes the pending data and the terminal chunk.
+	 *
+	 * @throws IOException
+	 *             If the underlying stream could not be written.
+	 */
+	public void finish() throws IOException {
+		writeChunk();
+		out.write(TERMINAL_CHUNK);
+		out.flush();
+	}
+
+	private void writeChunk() throws IOException {
+		if (count == 0) {
+			// an empty chunk would terminate the body
+			return;
+		}
+		out.write(Integer.toHexString(count).getBytes("US-ASCII"));
+		out.write(CRLF);
+		out.write(chunk, 0, count);
+		out.write(CRLF);
+		count = 0;
+	}
+}
@@ -3,6 +3,8 @@ package mjpegslicer.mockcam;
 import java.awt.image.BufferedImage;
 import java.io.OutputStream;
 
+import mjpegslicer.util.ExecutorStrategy;
+
 public interface Feeder {
 
 	/**
@@ -112,6 +114,29 @@ public interface Feeder {
 	 */
 	public void setHeight(int height);
 
+	/**
+	 * Indicates a stream without chunked transfer-encoding.
+	 */
+	public static final int NOT_CHUNKED = 0;
+
+	/**
+	 * Returns the chunk size.
+	 * 
+	 * @return The maximum number of bytes per chunk or {@link #NOT_CHUNKED}.
+	 */
+	public int getChunkSize();
+
+	/**
+	 * Redefines the chunk size. A positive size makes the feed use the
+	 * chunked transfer-encoding and end with the terminal chunk, without
+	 * closing the connection. This takes effect with the next start.
+	 * 
+	 * @param chunkSize
+	 *            The new maximum number of bytes per chunk. A value of
+	 *            {@link #NOT_CHUNKED} means no chunked transfer-encoding.
+	 */
+	public void setChunkSize(int chunkSize);
+
 	/**
 	 * Creates an empty image that may receive content by a content provider.
 	 * 
@@ -183,4 +208,20 @@ public interface Feeder {
 	 * Flushes the frame to the output stream.
 	 */
 	public void flushFrame();
-}
\ No newline at end of file
+
+	/**
+	 * Returns the strategy that provides the thread of the feed.
+	 * 
+	 * @return The strategy.
+	 */
+	public ExecutorStrategy getExecutorStrategy();
+
+	/**
+	 * Redefines the strategy that provides the thread of the feed. This takes
+	 * effect with the next start.
+	 * 
+	 * @param executorStrategy
+	 *            The new strategy.
+	 */
+	public void setExecutorStrategy(ExecutorStrategy executorStrategy);
+}
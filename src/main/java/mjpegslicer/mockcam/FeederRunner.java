@@ -52,6 +52,7 @@ public class FeederRunner extends LoggableObject implements Runnable {
 			debug(mn, "interrupted: ", ie);
 			shutdown();
 		}
+		feeder.flushEndOfStream();
 		debugLeaving(mn);
 	}
 }
\ No newline at end of file
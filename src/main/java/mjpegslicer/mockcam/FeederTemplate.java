@@ -3,18 +3,17 @@ package mjpegslicer.mockcam;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.imageio.ImageIO;
-
 import mjpegslicer.ImageDataCorruptionException;
+import mjpegslicer.util.ExecutorStrategy;
+import mjpegslicer.util.JpegCodecs;
 import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.PlatformThreadStrategy;
 import mjpegslicer.util.Validator;
 
 public class FeederTemplate extends LoggableObject implements Feeder {
@@ -68,19 +67,27 @@ public class FeederTemplate extends LoggableObject implements Feeder {
 		String mn = debugEntering("setOutputStream");
 		Validator.argumentMustNotBeNull(mn, "outputStream", outputStream);
 		this.outputStream = outputStream;
+		// frames may be flushed without starting the feed
+		bodyStream = outputStream;
 		debugLeaving(mn);
 	}
 
+	/**
+	 * The stream the frames are written to; it adds the chunk framing to the
+	 * output stream, if requested.
+	 */
+	private OutputStream bodyStream;
+
 	private void writeToOutputStream(String data) throws IOException {
-		outputStream.write(data.getBytes());
+		bodyStream.write(data.getBytes());
 	}
 
 	private void writeToOutputStream(byte[] data) throws IOException {
-		outputStream.write(data);
+		bodyStream.write(data);
 	}
 
 	private void writeToOutputStream(int ord) throws IOException {
-		outputStream.write(ord);
+		bodyStream.write(ord);
 	}
 
 	private void lineToOutputStream(String line) throws IOException {
@@ -191,6 +198,36 @@ public class FeederTemplate extends LoggableObject implements Feeder {
 		debugLeaving(mn);
 	}
 
+	private int chunkSize = NOT_CHUNKED;
+
+	/**
+	 * Returns the chunk size.
+	 * 
+	 * @return The maximum number of bytes per chunk or {@link #NOT_CHUNKED}.
+	 */
+	@Override
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Redefines the chunk size. A positive size makes the feed use the
+	 * chunked transfer-encoding and end with the terminal chunk, without
+	 * closing the connection. This takes effect with the next start.
+	 * 
+	 * @param chunkSize
+	 *            The new maximum number of bytes per chunk. A value of
+	 *            {@link #NOT_CHUNKED} means no chunked transfer-encoding.
+	 */
+	@Override
+	public void setChunkSize(int chunkSize) {
+		String mn = debugEntering("setChunkSize", "value: ", chunkSize);
+		Validator.checkArgument(mn, "chunkSize", chunkSize, chunkSize >= 0,
+				"value must not be negative.");
+		this.chunkSize = chunkSize;
+		debugLeaving(mn);
+	}
+
 	/**
 	 * Creates an empty image that may receive content by a content provider.
 	 * 
@@ -257,7 +294,9 @@ public class FeederTemplate extends LoggableObject implements Feeder {
 	public void incrFrameSequenceNumber() {
 		String mn = debugEntering("incrFrameSequenceNumber");
 		int seqNo = frameSequenceNumber.incrementAndGet();
-		debug(mn, "new frame sequence number: ", seqNo);
+		if (isTraceEnabled()) {
+			debug(mn, "new frame sequence number: ", seqNo);
+		}
 		if (maxFrameSequenceNumber != UNLIMITED_MAX_FRAME_SEQUENCE_NUMBER
 				&& seqNo > maxFrameSequenceNumber) {
 			stop();
@@ -277,7 +316,35 @@ public class FeederTemplate extends LoggableObject implements Feeder {
 		return started;
 	}
 
-	private final ExecutorService pool = Executors.newSingleThreadExecutor();
+	private ExecutorStrategy executorStrategy = new PlatformThreadStrategy();
+
+	/**
+	 * Returns the strategy that provides the thread of the feed.
+	 * 
+	 * @return The strategy.
+	 */
+	@Override
+	public ExecutorStrategy getExecutorStrategy() {
+		return executorStrategy;
+	}
+
+	/**
+	 * Redefines the strategy that provides the thread of the feed. This takes
+	 * effect with the next start.
+	 * 
+	 * @param executorStrategy
+	 *            The new strategy.
+	 */
+	@Override
+	public void setExecutorStrategy(ExecutorStrategy executorStrategy) {
+		String mn = debugEntering("setExecutorStrategy", "value: ",
+				executorStrategy);
+		Validator.argumentMustNotBeNull(mn, "executorStrategy",
+				executorStrategy);
+		this.executorStrategy = executorStrategy;
+		debugLeaving(mn);
+	}
+
 	private Future<?> future;
 	private FeederRunner feederRunner;
 
@@ -289,11 +356,19 @@ public class FeederTemplate extends LoggableObject implements Feeder {
 		String mn = debugEntering("start");
 		Validator.checkState(mn, outputStream != null,
 				"Output stream was not defined.");
+		JpegCodecs.prewarm();
 		frameSequenceNumber.set(0);
 		started = true;
+		bodyStream = outputStream;
 		flushHttpHeader();
+		if (chunkSize != NOT_CHUNKED) {
+			bodyStream = new ChunkedOutputStream(outputStream, chunkSize);
+		}
 		feederRunner = new FeederRunner(this);
+		ExecutorService pool = executorStrategy.newExecutor();
 		future = pool.submit(feederRunner);
+		// the thread ends with the feed instead of idling forever
+		pool.shutdown();
 		debugLeaving(mn);
 	}
 
@@ -319,11 +394,8 @@ public class FeederTemplate extends LoggableObject implements Feeder {
 		if (contentProvider != null) {
 			contentProvider.traverse(image);
 		}
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		try {
-			ImageIO.write(image, "JPG", baos);
-			jpegData = baos.toByteArray();
-			baos.close();
+			jpegData = JpegCodecs.write(image);
 		} catch (Exception ex) {
 			throw new ImageDataCorruptionException(
 					"Failed to create JPG image: ", ex);
@@ -332,8 +404,8 @@ public class FeederTemplate extends LoggableObject implements Feeder {
 	}
 
 	private byte[] jpegData;
-	private static final int CR = 0x0a;
-	private static final int LF = 0x0d;
+	private static final int CR = 0x0d;
+	private static final int LF = 0x0a;
 
 	/**
 	 * Flushes the frame to the output stream.
@@ -348,13 +420,30 @@ public class FeederTemplate extends LoggableObject implements Feeder {
 			lineToOutputStream();
 			writeToOutputStream(jpegData);
 			lineToOutputStream();
-			outputStream.flush();
+			bodyStream.flush();
 		} catch (IOException ioe) {
 			error(mn, "Oops: ", ioe);
 		}
 		debugLeaving(mn);
 	}
 
+	/**
+	 * Flushes the end of the stream; i.e., the terminal chunk if the stream is
+	 * chunked. The connection is not closed.
+	 */
+	public void flushEndOfStream() {
+		String mn = debugEntering("flushEndOfStream");
+		if (bodyStream instanceof ChunkedOutputStream) {
+			try {
+				((ChunkedOutputStream) bodyStream).finish();
+			} catch (IOException ioe) {
+				// the connection might have been closed by a shutdown
+				debug(mn, "failed: ", ioe);
+			}
+		}
+		debugLeaving(mn);
+	}
+
 	private void flushHttpHeader() {
 		String mn = debugEntering("flushHttpHeader");
 		try {
@@ -363,6 +452,9 @@ public class FeederTemplate extends LoggableObject implements Feeder {
 			lineToOutputStream("Pragma: no-cache");
 			lineToOutputStream("Cache-Control: no-cache");
 			lineToOutputStream("Content-Type: multipart/x-mixed-replace;boundary=myboundary");
+			if (chunkSize != NOT_CHUNKED) {
+				lineToOutputStream("Transfer-Encoding: chunked");
+			}
 			lineToOutputStream();
 			outputStream.flush();
 		} catch (IOException ioe) {
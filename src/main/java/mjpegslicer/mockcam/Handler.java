@@ -1,8 +1,8 @@
 package mjpegslicer.mockcam;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.LineNumberReader;
 import java.io.OutputStream;
 import java.net.Socket;
 
@@ -11,7 +11,7 @@ import mjpegslicer.util.LoggableObject;
 public class Handler extends LoggableObject {
 	private Feeder feeder;
 	private Socket socket;
-	private LineNumberReader reader;
+	private BufferedReader reader;
 	private OutputStream outputStream;
 
 	/**
@@ -26,6 +26,7 @@ public class Handler extends LoggableObject {
 		debugEntering(MN_INIT);
 		FeederFactory feederFactory = camera.getFeederFactory();
 		feeder = feederFactory.newFeeder();
+		feeder.setExecutorStrategy(camera.getExecutorStrategy());
 		wireStreams(socket);
 		readHttpRequestHeader();
 		feeder.start();
@@ -35,7 +36,9 @@ public class Handler extends LoggableObject {
 	private void wireStreams(Socket socket) throws IOException {
 		String mn = debugEntering("wireStreams");
 		this.socket = socket;
-		reader = new LineNumberReader(new InputStreamReader(
+		// unlike its sub-classes, a plain reader does not pin a virtual thread
+		// while blocked
+		reader = new BufferedReader(new InputStreamReader(
 				socket.getInputStream()));
 		outputStream = socket.getOutputStream();
 		feeder.setOutputStream(outputStream);
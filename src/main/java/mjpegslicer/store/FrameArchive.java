@@ -0,0 +1,298 @@
+package mjpegslicer.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.Validator;
+
+/**
+ * Finds the records in the segments of a {@link FrameRecorder} directory by
+ * receive time or sequence number. The segment files and their
+ * {@link SegmentIndex} files are memory-mapped when the archive is opened;
+ * a search is a binary search over the first receive times of the segments
+ * followed by one over the index of a segment, so a seek does not read
+ * records and its cost hardly grows with the size of the archive. The image
+ * data of the records found are views of the mappings and not copied.
+ * <p>
+ * The archive is a snapshot of the directory when it was opened: a segment
+ * without an index file, e.g. the one being recorded, is indexed on the fly
+ * up to its last intact record, and records appended later are not seen.
+ * The searches by time use the receive times by the local clock, not the
+ * timestamps of the camera. A segment that starts earlier than the one
+ * before, because the local clock was set back, is searched as if it
+ * started with the one before; see {@link SegmentIndex}.
+ * <p>
+ * Java cannot unmap a file explicitly: a mapping is released by the garbage
+ * collector once neither the archive nor a {@link FrameSlice} of the segment
+ * is referenced any more. {@link #close()} drops the references of the
+ * archive, so that only the slices still in use keep their segments mapped.
+ */
+public class FrameArchive extends LoggableObject {
+
+	private final File directory;
+	private final File[] segments;
+	private final SegmentIndex[] indexes;
+	private final ByteBuffer[] mappings;
+	private final long[] firstMillis;
+	private final long frameCount;
+	private volatile boolean closed;
+
+	/**
+	 * Opens the segments of a directory.
+	 *
+	 * @param directory
+	 *            The directory of the segment files.
+	 * @throws IOException
+	 *             if a segment or an index could not be mapped.
+	 */
+	public FrameArchive(File directory) throws IOException {
+		debugEntering(MN_INIT, "directory: ", directory);
+		Validator.argumentMustNotBeNull(MN_INIT, "directory", directory);
+		this.directory = directory;
+		File[] files = FrameRecorder.listSegments(directory);
+		SegmentIndex[] allIndexes = new SegmentIndex[files.length];
+		int count = 0;
+		long frames = 0L;
+		for (int i = 0; i < files.length; i++) {
+			SegmentIndex index = openIndex(files[i]);
+			if (index.getCount() > 0) {
+				files[count] = files[i];
+				allIndexes[count++] = index;
+				frames += index.getCount();
+			}
+		}
+		segments = new File[count];
+		indexes = new SegmentIndex[count];
+		mappings = new ByteBuffer[count];
+		firstMillis = new long[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = files[i];
+			indexes[i] = allIndexes[i];
+			mappings[i] = map(files[i]);
+			firstMillis[i] = indexes[i].getReceivedMillis(0);
+			if (i > 0 && firstMillis[i] < firstMillis[i - 1]) {
+				// a segment indexed on its own may start earlier
+				firstMillis[i] = firstMillis[i - 1];
+			}
+		}
+		frameCount = frames;
+		debugLeaving(MN_INIT, "segments: ", count, ", frames: ", frames);
+	}
+
+	private SegmentIndex openIndex(File segment) throws IOException {
+		String mn = "openIndex";
+		File file = SegmentIndex.indexFileOf(segment);
+		if (file.isFile()) {
+			try {
+				return SegmentIndex.open(file);
+			} catch (IOException ioe) {
+				warn(mn, "Failed to open index ", file, ": ", ioe);
+			}
+		}
+		debug(mn, "indexing segment: ", segment);
+		return SegmentIndex.build(segment);
+	}
+
+	private static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Segment too large to map: " + file);
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the directory of the segment files.
+	 *
+	 * @return The directory.
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Returns the number of segments with records.
+	 *
+	 * @return The count.
+	 */
+	public int getSegmentCount() {
+		return segments.length;
+	}
+
+	/**
+	 * Returns the number of records in all segments.
+	 *
+	 * @return The count.
+	 */
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Returns the number of the last segment whose first record was received
+	 * at or before a time, or <code>-1</code> if there is none.
+	 */
+	private int floorSegment(long millis) {
+		int low = 0;
+		int high = firstMillis.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (firstMillis[mid] <= millis) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return high;
+	}
+
+	private FrameSlice slice(int segment, int entry) {
+		SegmentIndex index = indexes[segment];
+		long offset = index.getOffset(entry);
+		ByteBuffer data = mappings[segment].duplicate();
+		int start = (int) offset + RecordFormat.HEADER_SIZE;
+		data.limit(start + data.getInt((int) offset + 24));
+		data.position(start);
+		// the receive time as recorded, not as indexed
+		return new FrameSlice(segments[segment], offset,
+				index.getSequenceNumber(entry), data.getLong((int) offset + 8),
+				data.getLong((int) offset + 16), data.slice());
+	}
+
+	/**
+	 * Finds the record that was received last at or before a time, i.e. the
+	 * image that was current then.
+	 *
+	 * @param millis
+	 *            The time as number of milliseconds since 1970/1/1 0:0 UTC.
+	 * @return The record or <code>null</code> if all records were received
+	 *         later.
+	 */
+	public FrameSlice findByTime(long millis) {
+		Validator.checkState("findByTime", !closed, "archive was closed.");
+		int segment = floorSegment(millis);
+		if (segment < 0) {
+			return null;
+		}
+		return slice(segment, indexes[segment].floorOfTime(millis));
+	}
+
+	/**
+	 * Finds the record with a sequence number. The sequence numbers start
+	 * over when a camera reconnects, so the segments are searched from the
+	 * newest to the oldest and the newest record with the number is found.
+	 *
+	 * @param sequenceNumber
+	 *            The sequence number.
+	 * @return The record or <code>null</code> if not found.
+	 */
+	public FrameSlice findBySequenceNumber(int sequenceNumber) {
+		Validator.checkState("findBySequenceNumber", !closed,
+				"archive was closed.");
+		for (int segment = segments.length - 1; segment >= 0; segment--) {
+			SegmentIndex index = indexes[segment];
+			int first = index.getSequenceNumber(0);
+			int last = index.getSequenceNumber(index.getCount() - 1);
+			int key = sequenceNumber - first;
+			// compared relative to the first record to hold across wrap-around
+			if (key >= 0 && key <= last - first) {
+				int entry = index.indexOfSequenceNumber(sequenceNumber);
+				if (entry >= 0) {
+					return slice(segment, entry);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Iterates over the records received in a time range, in the order of
+	 * the segments. The records are found when the iteration advances.
+	 *
+	 * @param fromMillis
+	 *            The start of the range, inclusive.
+	 * @param toMillis
+	 *            The end of the range, exclusive.
+	 * @return The iterator.
+	 */
+	public Iterator<FrameSlice> range(long fromMillis, final long toMillis) {
+		Validator.checkState("range", !closed, "archive was closed.");
+		final int firstSegment = Math.max(0, floorSegment(fromMillis));
+		final int firstEntry = segments.length == 0 ? 0 : indexes[firstSegment]
+				.ceilingOfTime(fromMillis);
+		return new Iterator<FrameSlice>() {
+
+			private int segment = firstSegment;
+			private int entry = firstEntry;
+
+			@Override
+			public boolean hasNext() {
+				Validator.checkState("hasNext", !closed, "archive was closed.");
+				while (segment < segments.length
+						&& entry >= indexes[segment].getCount()) {
+					segment++;
+					entry = 0;
+				}
+				return segment < segments.length
+						&& indexes[segment].getReceivedMillis(entry)
+								< toMillis;
+			}
+
+			@Override
+			public FrameSlice next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return slice(segment, entry++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Drops the references of the archive to the mapped segments and
+	 * indexes; the slices found before stay valid. The archive cannot be
+	 * searched any more.
+	 */
+	public void close() {
+		String mn = debugEntering("close");
+		closed = true;
+		Arrays.fill(mappings, null);
+		Arrays.fill(indexes, null);
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("FrameArchive[directory=");
+		sb.append(directory);
+		sb.append(",segments=");
+		sb.append(segments.length);
+		sb.append(",frames=");
+		sb.append(frameCount);
+		sb.append("]");
+		return sb.toString();
+	}
+}
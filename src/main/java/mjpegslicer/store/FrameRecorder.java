@@ -0,0 +1,667 @@
+package mjpegslicer.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import mjpegslicer.ImageEvent;
+import mjpegslicer.ImageListener;
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.Validator;
+
+/**
+ * An image listener that archives the images of a camera: each image is
+ * appended as a record to a segment file in a directory of its own. A record
+ * is a header with the sequence number, the receive time, the timestamp of
+ * the camera, the length and a CRC-32, followed by the image data. A segment is rolled over to the next
+ * when it reaches a size or an age; {@link SegmentReader} reads it back.
+ * <p>
+ * Records are gathered in a direct buffer and written with few large
+ * writes. They are made durable by group commit: a commit thread forces all
+ * records appended since the last commit with one <code>force</code> call
+ * every commit interval, so the appending thread never waits for the disk
+ * to sync. Call {@link #commit()} to make the records durable right away.
+ * <p>
+ * When a segment is completed, its {@link SegmentIndex} is written next to
+ * it, so that {@link FrameArchive} finds records by time or sequence number
+ * without scanning it. The index is keyed by the receive time of the local
+ * clock, since the clock of a camera might be off or jump; the timestamp of
+ * the camera is only kept in the record. The binary searches need keys that
+ * do not decrease, so a segment is rolled over when the sequence numbers
+ * start over, e.g. after the camera reconnected, and a receive time that
+ * went back within a segment is indexed as the one before.
+ * <p>
+ * On {@link #start()}, the last segment is verified and a torn last record
+ * of a crash is cut off. If a write fails while the recorder runs, the
+ * records that did not reach the file completely are dropped and counted as
+ * failed, and the segment is cut back to its last complete record; a segment
+ * that cannot be cut back is abandoned for the next one.
+ * <p>
+ * The recorder writes on the notifying thread; to decouple it from the
+ * dispatcher, add it with a queue of its own, see
+ * {@link mjpegslicer.impl.ImageEventSupport#addImageListener(ImageListener, int, mjpegslicer.impl.OverflowPolicy)}.
+ */
+public class FrameRecorder extends LoggableObject implements ImageListener {
+
+	/**
+	 * The default segment size: 256 MiB.
+	 */
+	public static final long DEFAULT_MAX_SEGMENT_BYTES = 256L * 1024 * 1024;
+
+	/**
+	 * The default segment age: 10 minutes.
+	 */
+	public static final long DEFAULT_MAX_SEGMENT_MILLIS = 10L * 60 * 1000;
+
+	/**
+	 * The default commit interval: 1 second.
+	 */
+	public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 1000L;
+
+	/**
+	 * The default size of the write buffer: 1 MiB.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	private final File directory;
+	private long maxSegmentBytes = DEFAULT_MAX_SEGMENT_BYTES;
+	private long maxSegmentMillis = DEFAULT_MAX_SEGMENT_MILLIS;
+	private long commitIntervalMillis = DEFAULT_COMMIT_INTERVAL_MILLIS;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+	private volatile boolean started;
+	private ScheduledExecutorService committer;
+	private ByteBuffer buffer;
+	private final CRC32 crc = new CRC32();
+	private final RecordFormat.ChecksumStream checksumStream = new RecordFormat.ChecksumStream(
+			crc);
+
+	private long segmentIndex;
+	private RandomAccessFile segmentFile;
+	private FileChannel segment;
+	private long segmentBytes;
+	private long writtenBytes;
+	private long segmentStartMillis;
+	private boolean dirty;
+	private int lastSequenceNumber;
+	private final SegmentIndex.Builder indexBuilder = new SegmentIndex.Builder();
+
+	private final AtomicLong recordCount = new AtomicLong();
+	private final AtomicLong byteCount = new AtomicLong();
+	private final AtomicLong commitCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private long recoveredBytes;
+
+	/**
+	 * Creates a recorder.
+	 *
+	 * @param directory
+	 *            The directory of the segment files; created if missing.
+	 */
+	public FrameRecorder(File directory) {
+		debugEntering(MN_INIT, "directory: ", directory);
+		Validator.argumentMustNotBeNull(MN_INIT, "directory", directory);
+		this.directory = directory;
+		debugLeaving(MN_INIT);
+	}
+
+	/**
+	 * Returns the directory of the segment files.
+	 *
+	 * @return The directory.
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Returns the size at which a segment is rolled over.
+	 *
+	 * @return The number of bytes.
+	 */
+	public long getMaxSegmentBytes() {
+		return maxSegmentBytes;
+	}
+
+	/**
+	 * Redefines the size at which a segment is rolled over. A segment holds
+	 * at least one record, so it can be larger for a large image. The size
+	 * is limited to <code>Integer.MAX_VALUE</code>, the largest file that
+	 * {@link FrameArchive} can map.
+	 *
+	 * @param maxSegmentBytes
+	 *            The number of bytes.
+	 */
+	public void setMaxSegmentBytes(long maxSegmentBytes) {
+		String mn = debugEntering("setMaxSegmentBytes", "value: ",
+				maxSegmentBytes);
+		Validator.checkState(mn, !started, "recorder was already started.");
+		Validator.checkArgument(mn, "maxSegmentBytes", maxSegmentBytes,
+				maxSegmentBytes > 0, "must be positive.");
+		Validator.checkArgument(mn, "maxSegmentBytes", maxSegmentBytes,
+				maxSegmentBytes <= Integer.MAX_VALUE, "too large to be mapped.");
+		this.maxSegmentBytes = maxSegmentBytes;
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Returns the age at which a segment is rolled over.
+	 *
+	 * @return The number of milliseconds.
+	 */
+	public long getMaxSegmentMillis() {
+		return maxSegmentMillis;
+	}
+
+	/**
+	 * Redefines the age at which a segment is rolled over.
+	 *
+	 * @param maxSegmentMillis
+	 *            The number of milliseconds.
+	 */
+	public void setMaxSegmentMillis(long maxSegmentMillis) {
+		String mn = debugEntering("setMaxSegmentMillis", "value: ",
+				maxSegmentMillis);
+		Validator.checkState(mn, !started, "recorder was already started.");
+		Validator.checkArgument(mn, "maxSegmentMillis", maxSegmentMillis,
+				maxSegmentMillis > 0, "must be positive.");
+		this.maxSegmentMillis = maxSegmentMillis;
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Returns the interval of the group commits.
+	 *
+	 * @return The number of milliseconds.
+	 */
+	public long getCommitIntervalMillis() {
+		return commitIntervalMillis;
+	}
+
+	/**
+	 * Redefines the interval of the group commits; i.e., the maximum time a
+	 * record is not durable.
+	 *
+	 * @param commitIntervalMillis
+	 *            The number of milliseconds.
+	 */
+	public void setCommitIntervalMillis(long commitIntervalMillis) {
+		String mn = debugEntering("setCommitIntervalMillis", "value: ",
+				commitIntervalMillis);
+		Validator.checkState(mn, !started, "recorder was already started.");
+		Validator.checkArgument(mn, "commitIntervalMillis",
+				commitIntervalMillis, commitIntervalMillis > 0,
+				"must be positive.");
+		this.commitIntervalMillis = commitIntervalMillis;
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Returns the size of the write buffer.
+	 *
+	 * @return The number of bytes.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Redefines the size of the write buffer. Larger images are written
+	 * directly.
+	 *
+	 * @param bufferSize
+	 *            The number of bytes.
+	 */
+	public void setBufferSize(int bufferSize) {
+		String mn = debugEntering("setBufferSize", "value: ", bufferSize);
+		Validator.checkState(mn, !started, "recorder was already started.");
+		Validator.checkArgument(mn, "bufferSize", bufferSize,
+				bufferSize >= RecordFormat.HEADER_SIZE, "too small.");
+		this.bufferSize = bufferSize;
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Returns the number of records appended so far.
+	 *
+	 * @return The count.
+	 */
+	public long getRecordCount() {
+		return recordCount.get();
+	}
+
+	/**
+	 * Returns the number of bytes appended so far, including the headers.
+	 *
+	 * @return The count.
+	 */
+	public long getByteCount() {
+		return byteCount.get();
+	}
+
+	/**
+	 * Returns the number of commits that forced records to disk so far.
+	 *
+	 * @return The count.
+	 */
+	public long getCommitCount() {
+		return commitCount.get();
+	}
+
+	/**
+	 * Returns the number of images that could not be appended so far.
+	 *
+	 * @return The count.
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * Returns the number of bytes of a torn last record that were cut off
+	 * when the recorder was started.
+	 *
+	 * @return The count.
+	 */
+	public synchronized long getRecoveredBytes() {
+		return recoveredBytes;
+	}
+
+	/**
+	 * Returns the index of the segment that is appended to.
+	 *
+	 * @return The index.
+	 */
+	public synchronized long getSegmentIndex() {
+		return segmentIndex;
+	}
+
+	/**
+	 * Returns the segment files of a directory in the order of their
+	 * indexes.
+	 *
+	 * @param directory
+	 *            The directory.
+	 * @return The files; empty if there are none.
+	 */
+	public static File[] listSegments(File directory) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return new File[0];
+		}
+		int count = 0;
+		for (File file : files) {
+			if (file.isFile() && RecordFormat.segmentIndex(file.getName()) >= 0) {
+				files[count++] = file;
+			}
+		}
+		File[] result = new File[count];
+		System.arraycopy(files, 0, result, 0, count);
+		// the zero-padded names sort like the indexes
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Recovers the last segment, opens a segment for appending and starts
+	 * the commit thread.
+	 *
+	 * @throws IOException
+	 *             if the directory or a segment could not be opened.
+	 */
+	public synchronized void start() throws IOException {
+		String mn = debugEntering("start");
+		Validator.checkState(mn, !started, "recorder was already started.");
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Failed to create directory " + directory);
+		}
+		buffer = ByteBuffer.allocateDirect(bufferSize);
+		File[] segments = listSegments(directory);
+		if (segments.length == 0) {
+			openSegment(0L);
+		} else {
+			File last = segments[segments.length - 1];
+			long lastIndex = RecordFormat.segmentIndex(last.getName());
+			recover(last);
+			// a recovered segment is not appended to, its age is unknown
+			openSegment(last.length() == 0L ? lastIndex : lastIndex + 1);
+		}
+		committer = Executors.newSingleThreadScheduledExecutor();
+		committer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					commit();
+				} catch (IOException ioe) {
+					error("commit", "Failed to commit: ", ioe);
+				}
+			}
+		}, commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+		started = true;
+		debugLeaving(mn, "segment: ", segmentIndex);
+	}
+
+	/**
+	 * Cuts off a torn last record of a segment and indexes it.
+	 */
+	private void recover(File file) throws IOException {
+		String mn = debugEntering("recover", "file: ", file);
+		SegmentReader reader = new SegmentReader(file);
+		indexBuilder.clear();
+		try {
+			// verifies the records up to the first torn one
+			while (reader.next()) {
+				indexBuilder.add(reader.getReceivedMillis(),
+						reader.getSequenceNumber(), reader.getRecordOffset());
+			}
+		} finally {
+			reader.close();
+		}
+		long validLength = reader.getValidLength();
+		long length = file.length();
+		if (validLength < length) {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.getChannel().truncate(validLength);
+				raf.getChannel().force(true);
+			} finally {
+				raf.close();
+			}
+			recoveredBytes = length - validLength;
+			warn(mn, "cut off torn bytes: ", recoveredBytes);
+		}
+		if (validLength > 0L) {
+			// the segment might have lost its index in the crash
+			writeIndex(file);
+		}
+		debugLeaving(mn);
+	}
+
+	private void openSegment(long index) throws IOException {
+		String mn = debugEntering("openSegment", "index: ", index);
+		File file = new File(directory, RecordFormat.segmentName(index));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		segmentIndex = index;
+		segmentFile = raf;
+		segment = segmentFile.getChannel();
+		segmentBytes = segment.size();
+		writtenBytes = segmentBytes;
+		segment.position(segmentBytes);
+		segmentStartMillis = System.currentTimeMillis();
+		indexBuilder.clear();
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Template method that is called after a segment was completed and
+	 * closed; e.g., to build an index or to ship the segment. Sub-classes
+	 * might want to override this method.
+	 *
+	 * @param file
+	 *            The completed segment file.
+	 */
+	protected void segmentCompleted(File file) {
+		debug("segmentCompleted", "file: ", file);
+	}
+
+	private File closeSegment() throws IOException {
+		flushBuffer();
+		segment.force(false);
+		commitCount.incrementAndGet();
+		dirty = false;
+		segmentFile.close();
+		File file = new File(directory, RecordFormat.segmentName(segmentIndex));
+		if (segmentBytes == 0L && file.delete()) {
+			return null;
+		}
+		writeIndex(file);
+		return file;
+	}
+
+	private void writeIndex(File file) {
+		try {
+			SegmentIndex.write(file, indexBuilder.encode());
+		} catch (IOException ioe) {
+			// the segment is intact, a reader indexes it on the fly
+			error("writeIndex", "Failed to write index of ", file, ": ", ioe);
+		}
+	}
+
+	/**
+	 * Appends an image to the current segment.
+	 *
+	 * @param event
+	 *            The event.
+	 */
+	@Override
+	public void newImage(ImageEvent event) {
+		String mn = "newImage";
+		try {
+			append(event);
+		} catch (IOException ioe) {
+			failedCount.incrementAndGet();
+			error(mn, "Failed to append image: ", ioe);
+		}
+	}
+
+	private synchronized void append(ImageEvent event) throws IOException {
+		if (!started) {
+			throw new IOException("Recorder is not started.");
+		}
+		try {
+			appendRecord(event);
+		} catch (IOException ioe) {
+			discardUnwritten("append");
+			throw ioe;
+		}
+	}
+
+	private void appendRecord(ImageEvent event) throws IOException {
+		int length = event.getImageLength();
+		long recordBytes = RecordFormat.HEADER_SIZE + (long) length;
+		int sequenceNumber = event.getSequenceNumber();
+		long age = System.currentTimeMillis() - segmentStartMillis;
+		if (segmentBytes > 0L
+				&& (segmentBytes + recordBytes > maxSegmentBytes
+						|| age >= maxSegmentMillis
+						|| restartsSequence(sequenceNumber))) {
+			File completed = closeSegment();
+			openSegment(segmentIndex + 1);
+			if (completed != null) {
+				segmentCompleted(completed);
+			}
+		}
+		long receivedMillis = event.getCreationMillis();
+		if (buffer.remaining() < RecordFormat.HEADER_SIZE) {
+			flushBuffer();
+		}
+		int headerPosition = buffer.position();
+		RecordFormat.putHeader(buffer, sequenceNumber, receivedMillis,
+				event.getCameraMillis(), length);
+		crc.reset();
+		RecordFormat.checksumHeader(buffer, headerPosition, crc);
+		event.writeTo(checksumStream);
+		buffer.putInt(headerPosition + RecordFormat.HEADER_SIZE - 4,
+				(int) crc.getValue());
+		ByteBuffer data = event.getImageBuffer();
+		if (data.remaining() <= buffer.remaining()) {
+			buffer.put(data);
+		} else {
+			// images larger than the buffer space go directly
+			flushBuffer();
+			if (data.remaining() <= buffer.remaining()) {
+				buffer.put(data);
+			} else {
+				writeFully(data);
+				writtenBytes = segmentBytes + recordBytes;
+			}
+		}
+		indexBuilder.add(receivedMillis, sequenceNumber, segmentBytes);
+		lastSequenceNumber = sequenceNumber;
+		segmentBytes += recordBytes;
+		dirty = true;
+		recordCount.incrementAndGet();
+		byteCount.addAndGet(recordBytes);
+	}
+
+	/**
+	 * Tells whether a sequence number does not follow the last one of the
+	 * segment; compared by difference to hold across the wrap-around.
+	 */
+	private boolean restartsSequence(int sequenceNumber) {
+		return indexBuilder.getCount() > 0
+				&& sequenceNumber - lastSequenceNumber <= 0;
+	}
+
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		writeFully(buffer);
+		buffer.clear();
+		// the records appended so far are complete in the file
+		writtenBytes = segmentBytes;
+	}
+
+	/**
+	 * Drops the records that did not reach the segment file completely after
+	 * a failed write and cuts their bytes off the file, so that the segment
+	 * ends with a complete record and appending can go on. A segment that
+	 * cannot be cut back is closed, and the next one is opened.
+	 */
+	private void discardUnwritten(String mn) {
+		buffer.clear();
+		int dropped = indexBuilder.removeFrom(writtenBytes);
+		if (dropped > 0) {
+			recordCount.addAndGet(-dropped);
+			byteCount.addAndGet(writtenBytes - segmentBytes);
+			failedCount.addAndGet(dropped);
+			warn(mn, "dropped unwritten records: ", dropped);
+		}
+		segmentBytes = writtenBytes;
+		try {
+			segment.truncate(writtenBytes);
+			segment.position(writtenBytes);
+			return;
+		} catch (IOException ioe) {
+			error(mn, "Failed to cut back segment ", segmentIndex, ": ", ioe);
+		}
+		try {
+			segmentFile.close();
+		} catch (IOException ioe) {
+			debug(mn, "Failed to close segment: ", ioe);
+		}
+		if (segmentBytes > 0L) {
+			// a reader stops at the torn record the index ends before
+			writeIndex(new File(directory, RecordFormat
+					.segmentName(segmentIndex)));
+		}
+		try {
+			openSegment(segmentIndex + 1);
+		} catch (IOException ioe) {
+			// the next append tries again
+			error(mn, "Failed to open next segment: ", ioe);
+		}
+	}
+
+	private void writeFully(ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			segment.write(data);
+		}
+	}
+
+	/**
+	 * Makes all records appended so far durable with a single force of the
+	 * segment file.
+	 *
+	 * @throws IOException
+	 *             if the records could not be written.
+	 */
+	public void commit() throws IOException {
+		FileChannel channel;
+		synchronized (this) {
+			if (!started || !dirty) {
+				return;
+			}
+			try {
+				flushBuffer();
+			} catch (IOException ioe) {
+				discardUnwritten("commit");
+				throw ioe;
+			}
+			dirty = false;
+			channel = segment;
+		}
+		// appending goes on while the disk syncs
+		try {
+			channel.force(false);
+			commitCount.incrementAndGet();
+		} catch (IOException ioe) {
+			if (channel.isOpen()) {
+				throw ioe;
+			}
+			// the segment was rolled over and forced meanwhile
+		}
+	}
+
+	/**
+	 * Stops the commit thread, commits and closes the current segment.
+	 *
+	 * @throws IOException
+	 *             if the records could not be written.
+	 */
+	public void close() throws IOException {
+		String mn = debugEntering("close");
+		ScheduledExecutorService stopped;
+		synchronized (this) {
+			if (!started) {
+				debugLeaving(mn);
+				return;
+			}
+			started = false;
+			stopped = committer;
+		}
+		stopped.shutdown();
+		File completed;
+		synchronized (this) {
+			try {
+				completed = closeSegment();
+			} catch (IOException ioe) {
+				// the next start cuts off a torn last record
+				segmentFile.close();
+				throw ioe;
+			}
+		}
+		if (completed != null) {
+			segmentCompleted(completed);
+		}
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("FrameRecorder[directory=");
+		sb.append(directory);
+		sb.append(",records=");
+		sb.append(recordCount.get());
+		sb.append(",bytes=");
+		sb.append(byteCount.get());
+		sb.append(",commits=");
+		sb.append(commitCount.get());
+		sb.append(",failed=");
+		sb.append(failedCount.get());
+		sb.append("]");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,126 @@
+package mjpegslicer.store;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * A record of an archive as found by {@link FrameArchive}: its receive time,
+ * the timestamp of the camera, its sequence number and its image data as a
+ * view of the mapped segment file, which is not copied.
+ */
+public final class FrameSlice {
+
+	private final File segment;
+	private final long offset;
+	private final int sequenceNumber;
+	private final long receivedMillis;
+	private final long cameraMillis;
+	private final ByteBuffer imageBuffer;
+
+	FrameSlice(File segment, long offset, int sequenceNumber,
+			long receivedMillis, long cameraMillis, ByteBuffer imageBuffer) {
+		this.segment = segment;
+		this.offset = offset;
+		this.sequenceNumber = sequenceNumber;
+		this.receivedMillis = receivedMillis;
+		this.cameraMillis = cameraMillis;
+		this.imageBuffer = imageBuffer;
+	}
+
+	/**
+	 * Returns the segment file of the record.
+	 *
+	 * @return The file.
+	 */
+	public File getSegment() {
+		return segment;
+	}
+
+	/**
+	 * Returns the offset of the record in the segment file.
+	 *
+	 * @return The offset of its header.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the sequence number of the record.
+	 *
+	 * @return The number.
+	 */
+	public int getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	/**
+	 * Returns the time the record was received, by the local clock.
+	 *
+	 * @return The timestamp as number of milliseconds since 1970/1/1 0:0 UTC.
+	 */
+	public long getReceivedMillis() {
+		return receivedMillis;
+	}
+
+	/**
+	 * Returns the timestamp the camera supplied for the record. The camera
+	 * clock is not necessarily in sync with the local clock.
+	 *
+	 * @return The timestamp as number of milliseconds since 1970/1/1 0:0 UTC,
+	 *         or {@link mjpegslicer.ImageEvent#UNKNOWN_TIME}.
+	 */
+	public long getCameraMillis() {
+		return cameraMillis;
+	}
+
+	/**
+	 * Returns the length of the image data.
+	 *
+	 * @return The number of bytes.
+	 */
+	public int getLength() {
+		return imageBuffer.remaining();
+	}
+
+	/**
+	 * Returns the image data without copying them.
+	 *
+	 * @return A read-only view of the mapped segment file.
+	 */
+	public ByteBuffer getImageBuffer() {
+		return imageBuffer.duplicate();
+	}
+
+	/**
+	 * Returns a copy of the image data.
+	 *
+	 * @return The image data.
+	 */
+	public byte[] getImageData() {
+		byte[] result = new byte[imageBuffer.remaining()];
+		imageBuffer.duplicate().get(result);
+		return result;
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("FrameSlice[segment=");
+		sb.append(segment.getName());
+		sb.append(",offset=");
+		sb.append(offset);
+		sb.append(",seqNo=");
+		sb.append(sequenceNumber);
+		sb.append(",millis=");
+		sb.append(receivedMillis);
+		sb.append(",length=");
+		sb.append(imageBuffer.remaining());
+		sb.append("]");
+		return sb.toString();
+	}
+}
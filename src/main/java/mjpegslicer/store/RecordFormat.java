@@ -0,0 +1,123 @@
+package mjpegslicer.store;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * The layout of the segment files. A segment is a sequence of records, each
+ * a fixed-size header followed by the image data:
+ * 
+ * <pre>
+ * offset  size  field
+ *      0     4  magic number 0x4d4a5246 ("MJRF")
+ *      4     4  sequence number
+ *      8     8  receive time by the local clock, milliseconds since
+ *               1970/1/1 0:0 UTC
+ *     16     8  camera time, milliseconds since 1970/1/1 0:0 UTC, or
+ *               Long.MIN_VALUE if the camera did not supply one
+ *     24     4  length of the image data
+ *     28     4  CRC-32 of the bytes 4 to 27 and the image data
+ *     32     n  image data
+ * </pre>
+ * 
+ * All numbers are big-endian. Segments are named by their zero-padded
+ * index, so that the names sort like the indexes.
+ */
+final class RecordFormat {
+
+	static final int MAGIC = 0x4d4a5246;
+
+	static final int HEADER_SIZE = 32;
+
+	static final String SEGMENT_SUFFIX = ".mjseg";
+
+	private static final int INDEX_DIGITS = 16;
+
+	private RecordFormat() {
+	}
+
+	/**
+	 * Returns the file name of a segment.
+	 */
+	static String segmentName(long index) {
+		StringBuilder sb = new StringBuilder(INDEX_DIGITS
+				+ SEGMENT_SUFFIX.length());
+		String digits = Long.toString(index);
+		for (int i = digits.length(); i < INDEX_DIGITS; i++) {
+			sb.append('0');
+		}
+		sb.append(digits);
+		sb.append(SEGMENT_SUFFIX);
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the index of a segment file name or <code>-1</code> if the
+	 * name is not one of a segment.
+	 */
+	static long segmentIndex(String name) {
+		if (name.length() != INDEX_DIGITS + SEGMENT_SUFFIX.length()
+				|| !name.endsWith(SEGMENT_SUFFIX)) {
+			return -1L;
+		}
+		long result = 0L;
+		for (int i = 0; i < INDEX_DIGITS; i++) {
+			char c = name.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1L;
+			}
+			result = 10L * result + (c - '0');
+		}
+		return result;
+	}
+
+	/**
+	 * Puts a header into a buffer; the checksum is computed by
+	 * {@link #checksumHeader(ByteBuffer, int, CRC32)} and the
+	 * image data afterwards.
+	 */
+	static void putHeader(ByteBuffer buffer, int sequenceNumber,
+			long receivedMillis, long cameraMillis, int length) {
+		buffer.putInt(MAGIC);
+		buffer.putInt(sequenceNumber);
+		buffer.putLong(receivedMillis);
+		buffer.putLong(cameraMillis);
+		buffer.putInt(length);
+		buffer.putInt(0);
+	}
+
+	/**
+	 * Feeds the checksummed header fields of the header at a position into a
+	 * checksum.
+	 */
+	static void checksumHeader(ByteBuffer buffer, int headerPosition,
+			CRC32 crc) {
+		for (int i = 4; i < HEADER_SIZE - 4; i++) {
+			crc.update(buffer.get(headerPosition + i));
+		}
+	}
+
+	/**
+	 * An output stream that only feeds a checksum, so that data can be
+	 * checksummed without copying them.
+	 */
+	static class ChecksumStream extends OutputStream {
+
+		private final CRC32 crc;
+
+		ChecksumStream(CRC32 crc) {
+			this.crc = crc;
+		}
+
+		@Override
+		public void write(int b) {
+			crc.update(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			crc.update(b, off, len);
+		}
+	}
+}
@@ -0,0 +1,410 @@
+package mjpegslicer.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.Validator;
+
+/**
+ * The index of a segment: the receive time, the sequence number and the file
+ * offset of each record, so that a record can be found by binary search
+ * instead of a scan of the segment.
+ * <p>
+ * The entries are delta-encoded in blocks of 64: a block starts with the
+ * absolute values of its first entry, and each entry holds the differences
+ * to the start of its block as three primitive <code>int</code> arrays.
+ * That halves the size of absolute values and keeps the random access that
+ * the binary search needs:
+ *
+ * <pre>
+ * offset  size        field
+ *      0     4        magic number 0x4d4a4958 ("MJIX")
+ *      4     4        number of entries n
+ *      8  20 * b      per block: time (8), sequence number (4), offset (8)
+ *      .   4 * n      per entry: time difference
+ *      .   4 * n      per entry: sequence number difference
+ *      .   4 * n      per entry: offset difference
+ * </pre>
+ *
+ * An index file is memory-mapped and read in place. The times are those of
+ * the local clock, not of the camera. The binary searches need keys that do
+ * not decrease, so if the local clock was set back within the segment, a
+ * time earlier than the one indexed before is indexed as that one; the
+ * record itself keeps its time. The sequence numbers are expected to increase within a segment, which
+ * {@link FrameRecorder} ensures by rolling over when they start over.
+ */
+public class SegmentIndex extends LoggableObject {
+
+	static final int MAGIC = 0x4d4a4958;
+
+	static final String INDEX_SUFFIX = ".mjidx";
+
+	private static final int BLOCK_SHIFT = 6;
+	private static final int HEADER_SIZE = 8;
+	private static final int BLOCK_SIZE = 20;
+
+	private final ByteBuffer buffer;
+	private final int count;
+	private final int timeDeltas;
+	private final int sequenceDeltas;
+	private final int offsetDeltas;
+
+	/**
+	 * Creates an index that reads the encoded entries of a buffer.
+	 *
+	 * @param buffer
+	 *            The buffer, e.g. a mapped index file.
+	 * @throws IOException
+	 *             if the buffer does not contain an index.
+	 */
+	public SegmentIndex(ByteBuffer buffer) throws IOException {
+		Validator.argumentMustNotBeNull(MN_INIT, "buffer", buffer);
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a segment index.");
+		}
+		count = buffer.getInt(4);
+		int blockCount = (count + (1 << BLOCK_SHIFT) - 1) >> BLOCK_SHIFT;
+		timeDeltas = HEADER_SIZE + BLOCK_SIZE * blockCount;
+		sequenceDeltas = timeDeltas + 4 * count;
+		offsetDeltas = sequenceDeltas + 4 * count;
+		if (count < 0 || offsetDeltas + 4L * count != buffer.capacity()) {
+			throw new IOException("Corrupted segment index.");
+		}
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Maps an index file.
+	 *
+	 * @param file
+	 *            The file.
+	 * @return The index.
+	 * @throws IOException
+	 *             if the file could not be mapped or is not an index.
+	 */
+	public static SegmentIndex open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// the mapping stays valid after the file is closed
+			return new SegmentIndex(channel.map(FileChannel.MapMode.READ_ONLY,
+					0L, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Indexes the records of a segment file by reading it.
+	 *
+	 * @param segment
+	 *            The segment file.
+	 * @return The index, not written to disk.
+	 * @throws IOException
+	 *             if the segment could not be read.
+	 */
+	public static SegmentIndex build(File segment) throws IOException {
+		Builder builder = new Builder();
+		SegmentReader reader = new SegmentReader(segment);
+		try {
+			while (reader.next()) {
+				builder.add(reader.getReceivedMillis(),
+						reader.getSequenceNumber(), reader.getRecordOffset());
+			}
+		} finally {
+			reader.close();
+		}
+		return new SegmentIndex(builder.encode());
+	}
+
+	/**
+	 * Returns the index file of a segment file.
+	 *
+	 * @param segment
+	 *            The segment file.
+	 * @return The index file, which might not exist.
+	 */
+	public static File indexFileOf(File segment) {
+		String name = segment.getName();
+		if (name.endsWith(RecordFormat.SEGMENT_SUFFIX)) {
+			name = name.substring(0, name.length()
+					- RecordFormat.SEGMENT_SUFFIX.length());
+		}
+		return new File(segment.getParentFile(), name + INDEX_SUFFIX);
+	}
+
+	/**
+	 * Returns the number of indexed records.
+	 *
+	 * @return The count.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	private int blockPosition(int i) {
+		return HEADER_SIZE + BLOCK_SIZE * (i >> BLOCK_SHIFT);
+	}
+
+	/**
+	 * Returns the indexed receive time of a record; i.e., its receive time,
+	 * but not earlier than the one of the record before.
+	 *
+	 * @param i
+	 *            The number of the record in the segment.
+	 * @return The timestamp as number of milliseconds since 1970/1/1 0:0 UTC.
+	 */
+	public long getReceivedMillis(int i) {
+		return buffer.getLong(blockPosition(i))
+				+ buffer.getInt(timeDeltas + 4 * i);
+	}
+
+	/**
+	 * Returns the sequence number of a record.
+	 *
+	 * @param i
+	 *            The number of the record in the segment.
+	 * @return The sequence number.
+	 */
+	public int getSequenceNumber(int i) {
+		return buffer.getInt(blockPosition(i) + 8)
+				+ buffer.getInt(sequenceDeltas + 4 * i);
+	}
+
+	/**
+	 * Returns the file offset of a record.
+	 *
+	 * @param i
+	 *            The number of the record in the segment.
+	 * @return The offset of its header.
+	 */
+	public long getOffset(int i) {
+		return buffer.getLong(blockPosition(i) + 12)
+				+ (buffer.getInt(offsetDeltas + 4 * i) & 0xffffffffL);
+	}
+
+	/**
+	 * Searches the last record received at or before a time.
+	 *
+	 * @param millis
+	 *            The time.
+	 * @return The number of the record or <code>-1</code> if all records
+	 *         were received later.
+	 */
+	public int floorOfTime(long millis) {
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (getReceivedMillis(mid) <= millis) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return high;
+	}
+
+	/**
+	 * Searches the first record received at or after a time.
+	 *
+	 * @param millis
+	 *            The time.
+	 * @return The number of the record or the number of records if all
+	 *         records were received earlier.
+	 */
+	public int ceilingOfTime(long millis) {
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (getReceivedMillis(mid) < millis) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Searches the record with a sequence number. The sequence numbers are
+	 * compared relative to the first record, so that the search holds across
+	 * their wrap-around.
+	 *
+	 * @param sequenceNumber
+	 *            The sequence number.
+	 * @return The number of the record or <code>-1</code> if not found.
+	 */
+	public int indexOfSequenceNumber(int sequenceNumber) {
+		if (count == 0) {
+			return -1;
+		}
+		int first = getSequenceNumber(0);
+		int key = sequenceNumber - first;
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int value = getSequenceNumber(mid) - first;
+			if (value < key) {
+				low = mid + 1;
+			} else if (value > key) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Writes the index of a segment file next to it.
+	 *
+	 * @param segment
+	 *            The segment file.
+	 * @param encoded
+	 *            The encoded index.
+	 * @return The index file.
+	 * @throws IOException
+	 *             if the file could not be written.
+	 */
+	static File write(File segment, ByteBuffer encoded) throws IOException {
+		File file = indexFileOf(segment);
+		File temporary = new File(file.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(temporary, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			channel.truncate(0L);
+			ByteBuffer data = encoded.duplicate();
+			data.clear();
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+			channel.force(false);
+		} finally {
+			raf.close();
+		}
+		// a reader sees the complete index or none
+		if (!temporary.renameTo(file)) {
+			file.delete();
+			if (!temporary.renameTo(file)) {
+				throw new IOException("Failed to rename " + temporary);
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("SegmentIndex[count=");
+		sb.append(count);
+		if (count > 0) {
+			sb.append(",millis=");
+			sb.append(getReceivedMillis(0));
+			sb.append("..");
+			sb.append(getReceivedMillis(count - 1));
+			sb.append(",seqNo=");
+			sb.append(getSequenceNumber(0));
+			sb.append("..");
+			sb.append(getSequenceNumber(count - 1));
+		}
+		sb.append("]");
+		return sb.toString();
+	}
+
+	/**
+	 * Collects the entries of the index of one segment while its records are
+	 * appended. A time earlier than the one added before is added as that
+	 * one.
+	 */
+	static class Builder {
+
+		private long[] times = new long[256];
+		private int[] sequenceNumbers = new int[256];
+		private long[] offsets = new long[256];
+		private int count;
+
+		void add(long receivedMillis, int sequenceNumber, long offset) {
+			if (count > 0 && receivedMillis < times[count - 1]) {
+				receivedMillis = times[count - 1];
+			}
+			if (count == times.length) {
+				times = Arrays.copyOf(times, 2 * count);
+				sequenceNumbers = Arrays.copyOf(sequenceNumbers, 2 * count);
+				offsets = Arrays.copyOf(offsets, 2 * count);
+			}
+			times[count] = receivedMillis;
+			sequenceNumbers[count] = sequenceNumber;
+			offsets[count] = offset;
+			count++;
+		}
+
+		int getCount() {
+			return count;
+		}
+
+		void clear() {
+			count = 0;
+		}
+
+		/**
+		 * Removes the entries of the records at or behind an offset.
+		 *
+		 * @return The number of removed entries.
+		 */
+		int removeFrom(long offset) {
+			int removed = 0;
+			while (count > 0 && offsets[count - 1] >= offset) {
+				count--;
+				removed++;
+			}
+			return removed;
+		}
+
+		ByteBuffer encode() throws IOException {
+			int blockCount = (count + (1 << BLOCK_SHIFT) - 1) >> BLOCK_SHIFT;
+			ByteBuffer result = ByteBuffer.allocate(HEADER_SIZE + BLOCK_SIZE
+					* blockCount + 12 * count);
+			result.putInt(MAGIC);
+			result.putInt(count);
+			for (int b = 0; b < blockCount; b++) {
+				int first = b << BLOCK_SHIFT;
+				result.putLong(times[first]);
+				result.putInt(sequenceNumbers[first]);
+				result.putLong(offsets[first]);
+			}
+			for (int i = 0; i < count; i++) {
+				long delta = times[i] - times[i & -(1 << BLOCK_SHIFT)];
+				if (delta < Integer.MIN_VALUE || delta > Integer.MAX_VALUE) {
+					throw new IOException("Receive time leap too large: "
+							+ delta);
+				}
+				result.putInt((int) delta);
+			}
+			for (int i = 0; i < count; i++) {
+				result.putInt(sequenceNumbers[i]
+						- sequenceNumbers[i & -(1 << BLOCK_SHIFT)]);
+			}
+			for (int i = 0; i < count; i++) {
+				long delta = offsets[i] - offsets[i & -(1 << BLOCK_SHIFT)];
+				if (delta > 0xffffffffL) {
+					throw new IOException("Records too large to index.");
+				}
+				result.putInt((int) delta);
+			}
+			result.flip();
+			return result;
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package mjpegslicer.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import mjpegslicer.util.LoggableObject;
+import mjpegslicer.util.Validator;
+
+/**
+ * Reads the records of a segment file one after the other and verifies
+ * them. The reading stops at the end of the file or at the first record
+ * that is incomplete or corrupted, e.g. the torn last record of a crashed
+ * recorder; {@link #getValidLength()} is the length of the intact part then.
+ */
+public class SegmentReader extends LoggableObject implements Closeable {
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final long size;
+	private final ByteBuffer header = ByteBuffer.allocate(RecordFormat.HEADER_SIZE);
+	private final CRC32 crc = new CRC32();
+	private byte[] data = new byte[64 * 1024];
+
+	private long position;
+	private long recordOffset = -1L;
+	private int sequenceNumber;
+	private long receivedMillis;
+	private long cameraMillis;
+	private int length;
+	private boolean torn;
+
+	/**
+	 * Opens a segment file.
+	 *
+	 * @param file
+	 *            The file.
+	 * @throws IOException
+	 *             if the file could not be opened.
+	 */
+	public SegmentReader(File file) throws IOException {
+		debugEntering(MN_INIT, "file: ", file);
+		Validator.argumentMustNotBeNull(MN_INIT, "file", file);
+		this.file = file;
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		size = channel.size();
+		debugLeaving(MN_INIT, "size: ", size);
+	}
+
+	/**
+	 * Returns the segment file.
+	 *
+	 * @return The file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Advances to the next record.
+	 *
+	 * @return <code>true</code> if the next record is intact,
+	 *         <code>false</code> at the end of the file or at a torn record.
+	 * @throws IOException
+	 *             if the file could not be read.
+	 */
+	public boolean next() throws IOException {
+		String mn = "next";
+		if (torn || position >= size) {
+			return false;
+		}
+		if (size - position < RecordFormat.HEADER_SIZE) {
+			return tear(mn, "incomplete header");
+		}
+		header.clear();
+		readFully(header, position);
+		int recordLength = header.getInt(24);
+		if (header.getInt(0) != RecordFormat.MAGIC) {
+			return tear(mn, "bad magic number");
+		}
+		if (recordLength < 0
+				|| recordLength > size - position - RecordFormat.HEADER_SIZE) {
+			return tear(mn, "incomplete image data");
+		}
+		if (data.length < recordLength) {
+			data = new byte[Math.max(recordLength, 2 * data.length)];
+		}
+		readFully(ByteBuffer.wrap(data, 0, recordLength), position
+				+ RecordFormat.HEADER_SIZE);
+		crc.reset();
+		RecordFormat.checksumHeader(header, 0, crc);
+		crc.update(data, 0, recordLength);
+		if ((int) crc.getValue() != header.getInt(28)) {
+			return tear(mn, "checksum mismatch");
+		}
+		recordOffset = position;
+		sequenceNumber = header.getInt(4);
+		receivedMillis = header.getLong(8);
+		cameraMillis = header.getLong(16);
+		length = recordLength;
+		position += RecordFormat.HEADER_SIZE + recordLength;
+		return true;
+	}
+
+	private boolean tear(String mn, String reason) {
+		warn(mn, "torn record at offset ", position, " of ", file, ": ",
+				reason);
+		torn = true;
+		return false;
+	}
+
+	private void readFully(ByteBuffer buffer, long offset) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, offset);
+			if (n < 0) {
+				throw new IOException("Unexpected end of " + file);
+			}
+			offset += n;
+		}
+	}
+
+	/**
+	 * Returns the offset of the current record in the file.
+	 *
+	 * @return The offset of its header.
+	 */
+	public long getRecordOffset() {
+		return recordOffset;
+	}
+
+	/**
+	 * Returns the sequence number of the current record.
+	 *
+	 * @return The number.
+	 */
+	public int getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	/**
+	 * Returns the time the current record was received, by the local clock.
+	 *
+	 * @return The timestamp as number of milliseconds since 1970/1/1 0:0 UTC.
+	 */
+	public long getReceivedMillis() {
+		return receivedMillis;
+	}
+
+	/**
+	 * Returns the timestamp the camera supplied for the current record.
+	 *
+	 * @return The timestamp as number of milliseconds since 1970/1/1 0:0 UTC,
+	 *         or {@link mjpegslicer.ImageEvent#UNKNOWN_TIME}.
+	 */
+	public long getCameraMillis() {
+		return cameraMillis;
+	}
+
+	/**
+	 * Returns the length of the image data of the current record.
+	 *
+	 * @return The number of bytes.
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the image data of the current record without copying them. The
+	 * view is valid until the next call of {@link #next()}.
+	 *
+	 * @return A read-only view.
+	 */
+	public ByteBuffer getImageBuffer() {
+		return ByteBuffer.wrap(data, 0, length).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns a copy of the image data of the current record.
+	 *
+	 * @return The image data.
+	 */
+	public byte[] getImageData() {
+		byte[] result = new byte[length];
+		System.arraycopy(data, 0, result, 0, length);
+		return result;
+	}
+
+	/**
+	 * Returns the length of the intact part of the file read so far.
+	 *
+	 * @return The offset behind the last intact record.
+	 */
+	public long getValidLength() {
+		return position;
+	}
+
+	/**
+	 * Returns whether the reading stopped at a torn record.
+	 *
+	 * @return <code>true</code> if the file has bytes behind the intact part.
+	 */
+	public boolean isTorn() {
+		return torn;
+	}
+
+	/**
+	 * Closes the file.
+	 *
+	 * @throws IOException
+	 *             if the file could not be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		raf.close();
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("SegmentReader[file=");
+		sb.append(file);
+		sb.append(",position=");
+		sb.append(position);
+		sb.append(",size=");
+		sb.append(size);
+		sb.append(",torn=");
+		sb.append(torn);
+		sb.append("]");
+		return sb.toString();
+	}
+}
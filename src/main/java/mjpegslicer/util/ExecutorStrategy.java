@@ -0,0 +1,22 @@
+package mjpegslicer.util;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The strategy of a component for providing the threads of its long-running
+ * tasks, e.g. the blocking read loop of a sink or the feed of a mock camera
+ * connection. Each executor is used for a single task; the component shuts it
+ * down after submitting the task.
+ * 
+ * @see PlatformThreadStrategy
+ * @see VirtualThreadStrategy
+ */
+public interface ExecutorStrategy {
+
+	/**
+	 * Creates an executor for one task.
+	 * 
+	 * @return The newly created executor.
+	 */
+	public ExecutorService newExecutor();
+}
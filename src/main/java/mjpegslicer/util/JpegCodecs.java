@@ -0,0 +1,314 @@
+package mjpegslicer.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStreamImpl;
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+/**
+ * Provides static JPEG decode and encode methods that reuse the codec
+ * instances of the calling thread. Unlike <code>ImageIO.read</code> and
+ * <code>ImageIO.write</code> they neither query the plugin registry nor
+ * create a reader, a writer and their streams per image.
+ * <p>
+ * Each thread keeps one reader, one writer and their in-memory streams; a
+ * thread of a pool that no longer decodes might want to call
+ * {@link #dispose()}.
+ */
+public final class JpegCodecs {
+
+	private static final ThreadLocal<JpegCodecs> CODECS = new ThreadLocal<JpegCodecs>();
+
+	private static final Object PREWARM_LOCK = new Object();
+
+	private static volatile boolean prewarmed;
+
+	private JpegCodecs() {
+		reader = createReader();
+		writer = createWriter();
+	}
+
+	private final ImageReader reader;
+	private final ImageWriter writer;
+	private final ByteArrayImageInputStream input = new ByteArrayImageInputStream();
+	private final ByteArrayImageOutputStream output = new ByteArrayImageOutputStream();
+	private boolean busy;
+
+	private static ImageReader createReader() {
+		Iterator<ImageReader> readers = ImageIO
+				.getImageReadersByFormatName("jpeg");
+		if (!readers.hasNext()) {
+			throw new IllegalStateException("No JPEG image reader available.");
+		}
+		return readers.next();
+	}
+
+	private static ImageWriter createWriter() {
+		Iterator<ImageWriter> writers = ImageIO
+				.getImageWritersByFormatName("jpeg");
+		if (!writers.hasNext()) {
+			throw new IllegalStateException("No JPEG image writer available.");
+		}
+		return writers.next();
+	}
+
+	private static JpegCodecs acquire() {
+		JpegCodecs codecs = CODECS.get();
+		if (codecs == null) {
+			codecs = new JpegCodecs();
+			CODECS.set(codecs);
+		} else if (codecs.busy) {
+			// a nested call, e.g. from a listener of the reader
+			codecs = new JpegCodecs();
+		}
+		codecs.busy = true;
+		return codecs;
+	}
+
+	private void release() {
+		reader.setInput(null);
+		writer.setOutput(null);
+		input.setData(null, 0, 0);
+		busy = false;
+		if (CODECS.get() != this) {
+			reader.dispose();
+			writer.dispose();
+		}
+	}
+
+	/**
+	 * Loads the ImageIO plugins and the native JPEG codec and creates the
+	 * codecs of the calling thread, so that the first frame does not pay for
+	 * it. Only the first successful call has an effect; concurrent callers
+	 * wait until it is done, and a failed warm-up is tried again by the next
+	 * call.
+	 */
+	public static void prewarm() {
+		if (prewarmed) {
+			return;
+		}
+		synchronized (PREWARM_LOCK) {
+			if (prewarmed) {
+				return;
+			}
+			ImageIO.scanForPlugins();
+			try {
+				byte[] data = write(new BufferedImage(8, 8,
+						BufferedImage.TYPE_3BYTE_BGR));
+				read(data, 0, data.length, null);
+			} catch (IOException ioe) {
+				throw new IllegalStateException(
+						"Failed to prewarm JPEG codecs.", ioe);
+			}
+			prewarmed = true;
+		}
+	}
+
+	/**
+	 * Decodes a JPEG image.
+	 *
+	 * @param data
+	 *            The array that contains the image data.
+	 * @param offset
+	 *            The offset of the image data.
+	 * @param length
+	 *            The number of bytes of the image data.
+	 * @param param
+	 *            The parameters of the decode or <code>null</code> for the
+	 *            defaults.
+	 * @return The image.
+	 * @throws IOException
+	 *             if the image data are corrupted.
+	 */
+	public static BufferedImage read(byte[] data, int offset, int length,
+			ImageReadParam param) throws IOException {
+		String mn = "read";
+		Validator.argumentMustNotBeNull(mn, "data", data);
+		Validator.checkArgument(mn, "length", length, offset >= 0
+				&& length >= 0 && offset + length <= data.length,
+				"Range outside of array.");
+		JpegCodecs codecs = acquire();
+		try {
+			codecs.input.setData(data, offset, length);
+			codecs.reader.setInput(codecs.input, true, true);
+			return codecs.reader.read(0, param);
+		} finally {
+			codecs.release();
+		}
+	}
+
+	/**
+	 * Encodes an image with the default parameters of the JPEG writer.
+	 *
+	 * @param image
+	 *            The image.
+	 * @return The image data.
+	 * @throws IOException
+	 *             if the image could not be encoded.
+	 */
+	public static byte[] write(RenderedImage image) throws IOException {
+		Validator.argumentMustNotBeNull("write", "image", image);
+		JpegCodecs codecs = acquire();
+		try {
+			codecs.output.clear();
+			codecs.writer.setOutput(codecs.output);
+			codecs.writer.write(image);
+			return codecs.output.toByteArray();
+		} finally {
+			codecs.release();
+		}
+	}
+
+	/**
+	 * Disposes the codecs of the calling thread. The next decode or encode
+	 * of the thread creates new ones.
+	 */
+	public static void dispose() {
+		JpegCodecs codecs = CODECS.get();
+		if (codecs != null) {
+			CODECS.remove();
+			codecs.reader.dispose();
+			codecs.writer.dispose();
+		}
+	}
+
+	/**
+	 * An input stream over a byte array that can be pointed at other data.
+	 */
+	private static class ByteArrayImageInputStream extends
+			ImageInputStreamImpl {
+
+		private byte[] data;
+		private int offset;
+		private int length;
+
+		void setData(byte[] data, int offset, int length) {
+			this.data = data;
+			this.offset = offset;
+			this.length = length;
+			streamPos = 0;
+			flushedPos = 0;
+			bitOffset = 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			bitOffset = 0;
+			if (streamPos >= length) {
+				return -1;
+			}
+			return data[offset + (int) streamPos++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (off < 0 || len < 0 || off + len > b.length) {
+				throw new IndexOutOfBoundsException();
+			}
+			bitOffset = 0;
+			if (len == 0) {
+				return 0;
+			}
+			if (streamPos >= length) {
+				return -1;
+			}
+			int count = (int) Math.min(len, length - streamPos);
+			System.arraycopy(data, offset + (int) streamPos, b, off, count);
+			streamPos += count;
+			return count;
+		}
+
+		@Override
+		public long length() {
+			return length;
+		}
+	}
+
+	/**
+	 * An output stream into a growing byte array that can be cleared.
+	 */
+	private static class ByteArrayImageOutputStream extends
+			ImageOutputStreamImpl {
+
+		private byte[] buffer = new byte[8192];
+		private int count;
+
+		void clear() {
+			count = 0;
+			streamPos = 0;
+			flushedPos = 0;
+			bitOffset = 0;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, count);
+		}
+
+		private void ensureCapacity(long capacity) {
+			if (capacity > buffer.length) {
+				buffer = Arrays.copyOf(buffer,
+						(int) Math.max(capacity, 2L * buffer.length));
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			flushBits();
+			ensureCapacity(streamPos + 1);
+			buffer[(int) streamPos++] = (byte) b;
+			count = (int) Math.max(count, streamPos);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (off < 0 || len < 0 || off + len > b.length) {
+				throw new IndexOutOfBoundsException();
+			}
+			flushBits();
+			ensureCapacity(streamPos + len);
+			System.arraycopy(b, off, buffer, (int) streamPos, len);
+			streamPos += len;
+			count = (int) Math.max(count, streamPos);
+		}
+
+		@Override
+		public int read() throws IOException {
+			bitOffset = 0;
+			if (streamPos >= count) {
+				return -1;
+			}
+			return buffer[(int) streamPos++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (off < 0 || len < 0 || off + len > b.length) {
+				throw new IndexOutOfBoundsException();
+			}
+			bitOffset = 0;
+			if (len == 0) {
+				return 0;
+			}
+			if (streamPos >= count) {
+				return -1;
+			}
+			int n = (int) Math.min(len, count - streamPos);
+			System.arraycopy(buffer, (int) streamPos, b, off, n);
+			streamPos += n;
+			return n;
+		}
+
+		@Override
+		public long length() {
+			return count;
+		}
+	}
+}
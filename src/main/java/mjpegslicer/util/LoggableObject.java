@@ -1,13 +1,12 @@
 package mjpegslicer.util;
 
-import java.util.StringTokenizer;
-
 import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * A base class that provides logging methods. The logger is derived from the
- * fully-qualified class name of the object.
+ * fully-qualified class name of the object. The debug methods are guarded by
+ * the {@link TraceSwitch} of the class; the overloads with up to two message
+ * parts do not allocate anything while the switch is off.
  */
 public class LoggableObject {
 
@@ -20,7 +19,7 @@ public class LoggableObject {
 		ERROR, WARN, INFO, DEBUG
 	}
 
-	private transient Logger logger;
+	private final transient TraceSwitch traceSwitch;
 
 	private final String fullyQualifiedClassName;
 
@@ -50,21 +49,22 @@ public class LoggableObject {
 	 */
 	public LoggableObject() {
 		fullyQualifiedClassName = getClass().getName();
-		String s = fullyQualifiedClassName;
-		StringTokenizer st = new StringTokenizer(s, ".");
-		while (st.hasMoreTokens()) {
-			s = st.nextToken();
-		}
-		simpleClassName = s;
+		traceSwitch = TraceSwitch.forClass(getClass());
+		simpleClassName = traceSwitch.getSimpleClassName();
 	}
 
-	private void accessLogger() {
-		if (logger == null) {
-			logger = LoggerFactory.getLogger(fullyQualifiedClassName);
-		}
+	/**
+	 * Returns whether the debug tracing of the class of this object is on.
+	 * Callers may check this before they assemble expensive message parts,
+	 * e.g. boxed primitives on a hot path.
+	 * 
+	 * @return <code>true</code> if tracing is on.
+	 */
+	public boolean isTraceEnabled() {
+		return traceSwitch.isEnabled();
 	}
 
-	private boolean isLevelEnabled(Level level) {
+	private boolean isLevelEnabled(Logger logger, Level level) {
 		switch (level) {
 		case ERROR:
 			return logger.isErrorEnabled();
@@ -94,10 +94,10 @@ public class LoggableObject {
 		return sb.toString();
 	}
 
-	private void publishMessage(String message, Level level) {
+	private void publishMessage(Logger logger, String message, Level level) {
 		switch (level) {
 		case ERROR:
-			logger.debug(message);
+			logger.error(message);
 			break;
 		case WARN:
 			logger.warn(message);
@@ -113,11 +113,51 @@ public class LoggableObject {
 
 	private void processMessageParts(String methodName, String methodDetails,
 			Level level, Object[] messageParts) {
-		accessLogger();
-		if (isLevelEnabled(level)) {
+		Logger logger = traceSwitch.getLogger();
+		if (isLevelEnabled(logger, level)) {
 			String message = assembleMessage(methodName, methodDetails,
 					messageParts);
-			publishMessage(message, level);
+			publishMessage(logger, message, level);
+		}
+	}
+
+	private void trace(String methodName, String methodDetails,
+			Object[] messageParts) {
+		if (traceSwitch.isEnabled()) {
+			processMessageParts(methodName, methodDetails, Level.DEBUG,
+					messageParts);
+		}
+	}
+
+	private static final Object[] NO_MESSAGE_PARTS = new Object[0];
+
+	/**
+	 * General-purpose logging method for Level=DEBUG without any message
+	 * parts.
+	 * 
+	 * @param methodName
+	 *            The name of the method that sends the message.
+	 */
+	public void debug(String methodName) {
+		if (traceSwitch.isEnabled()) {
+			trace(methodName, null, NO_MESSAGE_PARTS);
+		}
+	}
+
+	/**
+	 * General-purpose logging method for Level=DEBUG with two message parts,
+	 * typically a label and a value.
+	 * 
+	 * @param methodName
+	 *            The name of the method that sends the message.
+	 * @param part1
+	 *            The first part of the message.
+	 * @param part2
+	 *            The second part of the message.
+	 */
+	public void debug(String methodName, Object part1, Object part2) {
+		if (traceSwitch.isEnabled()) {
+			trace(methodName, null, new Object[] { part1, part2 });
 		}
 	}
 
@@ -130,7 +170,41 @@ public class LoggableObject {
 	 *            The parts of the message.
 	 */
 	public void debug(String methodName, Object... messageParts) {
-		processMessageParts(methodName, null, Level.DEBUG, messageParts);
+		trace(methodName, null, messageParts);
+	}
+
+	/**
+	 * Logging method for Level=DEBUG that is called at the beginning of a
+	 * method without any message parts.
+	 * 
+	 * @param methodName
+	 *            The name of the method that sends the message.
+	 * @return The name of the method.
+	 */
+	public String debugEntering(String methodName) {
+		if (traceSwitch.isEnabled()) {
+			trace(methodName, "Entering", NO_MESSAGE_PARTS);
+		}
+		return methodName;
+	}
+
+	/**
+	 * Logging method for Level=DEBUG that is called at the beginning of a
+	 * method with two message parts, typically a label and a value.
+	 * 
+	 * @param methodName
+	 *            The name of the method that sends the message.
+	 * @param part1
+	 *            The first part of the message.
+	 * @param part2
+	 *            The second part of the message.
+	 * @return The name of the method.
+	 */
+	public String debugEntering(String methodName, Object part1, Object part2) {
+		if (traceSwitch.isEnabled()) {
+			trace(methodName, "Entering", new Object[] { part1, part2 });
+		}
+		return methodName;
 	}
 
 	/**
@@ -144,10 +218,40 @@ public class LoggableObject {
 	 * @return The name of the method.
 	 */
 	public String debugEntering(String methodName, Object... messageParts) {
-		processMessageParts(methodName, "Entering", Level.DEBUG, messageParts);
+		trace(methodName, "Entering", messageParts);
 		return methodName;
 	}
 
+	/**
+	 * Logging method for Level=DEBUG that is called at the end of a method
+	 * without any message parts.
+	 * 
+	 * @param methodName
+	 *            The name of the method that sends the message.
+	 */
+	public void debugLeaving(String methodName) {
+		if (traceSwitch.isEnabled()) {
+			trace(methodName, "Leaving", NO_MESSAGE_PARTS);
+		}
+	}
+
+	/**
+	 * Logging method for Level=DEBUG that is called at the end of a method
+	 * with two message parts, typically a label and a value.
+	 * 
+	 * @param methodName
+	 *            The name of the method that sends the message.
+	 * @param part1
+	 *            The first part of the message.
+	 * @param part2
+	 *            The second part of the message.
+	 */
+	public void debugLeaving(String methodName, Object part1, Object part2) {
+		if (traceSwitch.isEnabled()) {
+			trace(methodName, "Leaving", new Object[] { part1, part2 });
+		}
+	}
+
 	/**
 	 * Logging method for Level=DEBUG that is called at the end of a method.
 	 * 
@@ -158,7 +262,7 @@ public class LoggableObject {
 	 * @return The name of the method.
 	 */
 	public void debugLeaving(String methodName, Object... messageParts) {
-		processMessageParts(methodName, "Leaving", Level.DEBUG, messageParts);
+		trace(methodName, "Leaving", messageParts);
 	}
 
 	/**
@@ -0,0 +1,31 @@
+package mjpegslicer.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The default executor strategy: each task gets a dedicated platform thread.
+ */
+public class PlatformThreadStrategy extends LoggableObject implements
+		ExecutorStrategy {
+
+	/**
+	 * Creates a single-thread executor.
+	 * 
+	 * @return The newly created executor.
+	 */
+	@Override
+	public ExecutorService newExecutor() {
+		return Executors.newSingleThreadExecutor();
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 * 
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		return "PlatformThreadStrategy[]";
+	}
+}
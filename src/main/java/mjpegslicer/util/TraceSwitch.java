@@ -0,0 +1,110 @@
+package mjpegslicer.util;
+
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The per-class switch of the debug tracing of {@link LoggableObject}. All
+ * instances of a class share the switch and the logger. While the switch is
+ * off, the debug methods return after a single field check, so tracing costs
+ * nothing on the hot paths. Initially the switch follows the debug level of
+ * the class logger; it can be turned on and off at runtime.
+ */
+public final class TraceSwitch {
+
+	private static final ConcurrentMap<Class<?>, TraceSwitch> switches = new ConcurrentHashMap<Class<?>, TraceSwitch>();
+
+	/**
+	 * Returns the switch of a class.
+	 *
+	 * @param type
+	 *            The class.
+	 * @return The switch; it is created on first access.
+	 */
+	public static TraceSwitch forClass(Class<?> type) {
+		TraceSwitch result = switches.get(type);
+		if (result == null) {
+			TraceSwitch created = new TraceSwitch(type);
+			result = switches.putIfAbsent(type, created);
+			if (result == null) {
+				result = created;
+			}
+		}
+		return result;
+	}
+
+	private final Logger logger;
+
+	private final String simpleClassName;
+
+	private volatile boolean enabled;
+
+	private TraceSwitch(Class<?> type) {
+		logger = LoggerFactory.getLogger(type.getName());
+		String s = type.getName();
+		StringTokenizer st = new StringTokenizer(s, ".");
+		while (st.hasMoreTokens()) {
+			s = st.nextToken();
+		}
+		simpleClassName = s;
+		enabled = logger.isDebugEnabled();
+	}
+
+	/**
+	 * Returns the logger of the class.
+	 *
+	 * @return The logger.
+	 */
+	Logger getLogger() {
+		return logger;
+	}
+
+	/**
+	 * Returns the class name without the package name.
+	 *
+	 * @return The name.
+	 */
+	String getSimpleClassName() {
+		return simpleClassName;
+	}
+
+	/**
+	 * Returns whether the debug tracing of the class is on. Even then,
+	 * messages are only published if the logger is at debug level.
+	 *
+	 * @return <code>true</code> if tracing is on.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Turns the debug tracing of the class on or off. This takes effect
+	 * immediately for all instances.
+	 *
+	 * @param enabled
+	 *            <code>true</code> to turn tracing on.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 *
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("TraceSwitch[");
+		sb.append(simpleClassName);
+		sb.append(", enabled:");
+		sb.append(enabled);
+		sb.append("]");
+		return sb.toString();
+	}
+}
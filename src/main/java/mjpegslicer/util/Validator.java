@@ -132,6 +132,56 @@ public class Validator {
 		}
 	}
 
+	/**
+	 * Check an argument. Unlike the variable-arity variant, this does not
+	 * allocate anything if the condition is met.
+	 * 
+	 * @param methodName
+	 *            The name of the method that performs this check.
+	 * @param argumentName
+	 *            The name of the argument that is checked.
+	 * @param arg
+	 *            The argument value.
+	 * @param condition
+	 *            The condition that is checked.
+	 * @param message
+	 *            The message if the condition is not met.
+	 * @throws IllegalArgumentException
+	 *             if the condition is not met.
+	 */
+	public static void checkArgument(String methodName, String argumentName,
+			Object arg, boolean condition, Object message) {
+		if (!condition) {
+			throw new IllegalArgumentException(assembleMAV(methodName,
+					argumentName, arg, message));
+		}
+	}
+
+	/**
+	 * Check a numeric argument. The value is only boxed if the condition is
+	 * not met.
+	 * 
+	 * @param methodName
+	 *            The name of the method that performs this check.
+	 * @param argumentName
+	 *            The name of the argument that is checked.
+	 * @param arg
+	 *            The argument value.
+	 * @param condition
+	 *            The condition that is checked.
+	 * @param message
+	 *            The message if the condition is not met.
+	 * @throws IllegalArgumentException
+	 *             if the condition is not met.
+	 */
+	public static void checkArgument(String methodName, String argumentName,
+			long arg, boolean condition, Object message) {
+		if (!condition) {
+			throw new IllegalArgumentException(assembleMAV(methodName,
+					argumentName, arg, message));
+		}
+	}
+
 	/**
 	 * Check the state.
 	 * 
@@ -148,4 +198,24 @@ public class Validator {
 			throw new IllegalStateException(assembleM(methodName, objects));
 		}
 	}
+
+	/**
+	 * Check the state. Unlike the variable-arity variant, this does not
+	 * allocate anything if the condition is met.
+	 * 
+	 * @param methodName
+	 *            The name of the method that performs this check.
+	 * @param arg
+	 *            The condition that is checked.
+	 * @param message
+	 *            The message if the condition is not met.
+	 * @throws IllegalStateException
+	 *             if the condition is not met.
+	 */
+	public static void checkState(String methodName, boolean arg,
+			Object message) {
+		if (!arg) {
+			throw new IllegalStateException(assembleM(methodName, message));
+		}
+	}
 }
@@ -0,0 +1,78 @@
+package mjpegslicer.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An executor strategy that runs each task on a virtual thread, so that
+ * thousands of blocking stream reads share a few carrier threads.
+ * <p>
+ * Virtual threads need a Java 21 runtime. The library is still compiled for
+ * older runtimes, so the executor is looked up reflectively; on a runtime
+ * without virtual threads the strategy falls back to platform threads.
+ */
+public class VirtualThreadStrategy extends LoggableObject implements
+		ExecutorStrategy {
+
+	private static final Method FACTORY_METHOD = lookUpFactoryMethod();
+
+	private static Method lookUpFactoryMethod() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException nsme) {
+			return null;
+		}
+	}
+
+	/**
+	 * Indicates whether the runtime provides virtual threads.
+	 * 
+	 * @return The flag.
+	 */
+	public static boolean isSupported() {
+		return FACTORY_METHOD != null;
+	}
+
+	private final AtomicBoolean fallbackReported = new AtomicBoolean();
+
+	/**
+	 * Creates an executor that starts a virtual thread per task, or a
+	 * single-thread executor if the runtime does not support virtual threads.
+	 * 
+	 * @return The newly created executor.
+	 */
+	@Override
+	public ExecutorService newExecutor() {
+		String mn = "newExecutor";
+		if (FACTORY_METHOD != null) {
+			try {
+				return (ExecutorService) FACTORY_METHOD.invoke(null);
+			} catch (Exception ex) {
+				// e.g. a preview runtime without --enable-preview
+				if (!fallbackReported.getAndSet(true)) {
+					warn(mn, "virtual threads are not available, "
+							+ "falling back to platform threads: ", ex);
+				}
+			}
+		} else if (!fallbackReported.getAndSet(true)) {
+			warn(mn, "virtual threads need Java 21, "
+					+ "falling back to platform threads.");
+		}
+		return Executors.newSingleThreadExecutor();
+	}
+
+	/**
+	 * Returns the text representation of this object.
+	 * 
+	 * @return The representation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("VirtualThreadStrategy[supported=");
+		sb.append(isSupported());
+		sb.append("]");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,111 @@
+package mjpegslicer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class TestDecodeOptions extends AbstractTestCase {
+
+	@Test
+	public void testDefault() {
+		String mn = debugEntering("testDefault");
+		DecodeOptions options = DecodeOptions.DEFAULT;
+		debug(mn, "options: ", options);
+		assertEquals(1, options.getXSubsampling());
+		assertEquals(1, options.getYSubsampling());
+		assertNull(options.getSourceRegion());
+		assertEquals(BufferedImage.TYPE_CUSTOM, options.getDestinationType());
+		assertNull(options.getDestination());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testBuilder() {
+		String mn = debugEntering("testBuilder");
+		Rectangle region = new Rectangle(10, 20, 30, 40);
+		BufferedImage destination = new BufferedImage(8, 8,
+				BufferedImage.TYPE_INT_RGB);
+		DecodeOptions options = new DecodeOptions.Builder()
+				.setSourceSubsampling(2, 3).setSourceRegion(region)
+				.setDestinationType(BufferedImage.TYPE_BYTE_GRAY)
+				.setDestination(destination).build();
+		// the region is copied on the way in and out
+		region.x = 0;
+		options.getSourceRegion().y = 0;
+		assertEquals(new Rectangle(10, 20, 30, 40), options.getSourceRegion());
+		assertEquals(2, options.getXSubsampling());
+		assertEquals(3, options.getYSubsampling());
+		assertEquals(BufferedImage.TYPE_BYTE_GRAY, options.getDestinationType());
+		assertSame(destination, options.getDestination());
+		DecodeOptions copy = new DecodeOptions.Builder(options).setDestination(
+				null).build();
+		assertEquals(options.getSourceRegion(), copy.getSourceRegion());
+		assertNull(copy.getDestination());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testInvalidArguments() {
+		String mn = debugEntering("testInvalidArguments");
+		DecodeOptions.Builder builder = new DecodeOptions.Builder();
+		try {
+			builder.setSourceSubsampling(0, 1);
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		try {
+			builder.setSourceRegion(new Rectangle(-1, 0, 10, 10));
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		try {
+			builder.setSourceRegion(new Rectangle(0, 0, 0, 10));
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		try {
+			builder.setDestinationType(-1);
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testDecodedSize() throws Exception {
+		String mn = debugEntering("testDecodedSize");
+		JpegInfo info = new ImageEvent(this, 0L, 1, createJpeg(101, 50))
+				.getJpegInfo();
+		DecodeOptions options = new DecodeOptions.Builder()
+				.setSourceSubsampling(2, 4).build();
+		assertEquals(51, options.getDecodedWidth(info));
+		assertEquals(13, options.getDecodedHeight(info));
+		options = new DecodeOptions.Builder(options).setSourceRegion(
+				new Rectangle(90, 40, 100, 100)).build();
+		assertEquals(6, options.getDecodedWidth(info));
+		assertEquals(3, options.getDecodedHeight(info));
+		BufferedImage destination = options.createDestination(info);
+		assertEquals(6, destination.getWidth());
+		assertEquals(BufferedImage.TYPE_3BYTE_BGR, destination.getType());
+		debugLeaving(mn);
+	}
+
+	private static byte[] createJpeg(int width, int height) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB), "jpg", baos);
+		return baos.toByteArray();
+	}
+}
@@ -1,17 +1,26 @@
 package mjpegslicer;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertSame;
 import static mjpegslicer.AssertImageEvent.assertImageEvent;
 
 import mjpegslicer.ImageDataCorruptionException;
 import mjpegslicer.ImageEvent;
+import mjpegslicer.impl.FrameBuffer;
+import mjpegslicer.impl.FrameBufferPool;
 
 public class TestImageEvent extends AbstractTestCase {
 
@@ -110,4 +119,188 @@ public class TestImageEvent extends AbstractTestCase {
 		}
 		debugLeaving(mn);
 	}
+
+	@Test
+	public void testImageBuffer() {
+		String mn = debugEntering("testImageBuffer");
+		ByteBuffer buffer = setUpEvent.getImageBuffer();
+		assertTrue(buffer.isReadOnly());
+		assertEquals(setUpImageData.length, buffer.remaining());
+		byte[] actual = new byte[buffer.remaining()];
+		buffer.get(actual);
+		assertArrayEquals(setUpImageData, actual);
+		// each view starts at zero
+		assertEquals(0, setUpEvent.getImageBuffer().position());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testImageStream() throws Exception {
+		String mn = debugEntering("testImageStream");
+		InputStream is = setUpEvent.openImageStream();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] chunk = new byte[1000];
+		int actual = is.read(chunk);
+		while (actual >= 0) {
+			baos.write(chunk, 0, actual);
+			actual = is.read(chunk);
+		}
+		is.close();
+		assertArrayEquals(setUpImageData, baos.toByteArray());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testWriteTo() throws Exception {
+		String mn = debugEntering("testWriteTo");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		setUpEvent.writeTo(baos);
+		assertArrayEquals(setUpImageData, baos.toByteArray());
+		baos.reset();
+		setUpEvent.writeTo(Channels.newChannel(baos));
+		assertArrayEquals(setUpImageData, baos.toByteArray());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testOwnership() {
+		String mn = debugEntering("testOwnership");
+		FrameBufferPool pool = new FrameBufferPool();
+		FrameBuffer frame = pool.lease(setUpImageData.length);
+		System.arraycopy(setUpImageData, 0, frame.array(), 0,
+				setUpImageData.length);
+		setUpEvent = new ImageEvent(setUpSource, setUpCreationMillis,
+				setUpSequenceNumber, frame.array(), frame.length(), frame);
+		assertImageEvent(setUpSource, setUpCreationMillis, setUpSequenceNumber,
+				setUpImageData, setUpEvent);
+		// the data are shared, not cloned
+		frame.array()[0] = 0;
+		assertEquals(0, setUpEvent.getImageBuffer().get(0));
+		assertEquals(1, setUpEvent.refCount());
+		assertTrue(setUpEvent == setUpEvent.retain());
+		assertEquals(2, frame.refCount());
+		assertFalse(setUpEvent.release());
+		assertTrue(setUpEvent.release());
+		assertEquals(0, pool.getOutstandingCount());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testOwnershipWithInvalidLength() {
+		String mn = debugEntering("testOwnershipWithInvalidLength");
+		try {
+			setUpEvent = new ImageEvent(setUpSource, setUpCreationMillis,
+					setUpSequenceNumber, setUpImageData,
+					setUpImageData.length + 1, null);
+			failedToThrowExpectedException(mn);
+		} catch (ImageDataCorruptionException idce) {
+			foundExpectedException(mn, idce);
+		}
+		try {
+			setUpEvent = new ImageEvent(setUpSource, setUpCreationMillis,
+					setUpSequenceNumber, setUpImageData, 0, null);
+			failedToThrowExpectedException(mn);
+		} catch (ImageDataCorruptionException idce) {
+			foundExpectedException(mn, idce);
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testCaptureTimes() {
+		String mn = debugEntering("testCaptureTimes");
+		assertEquals(ImageEvent.UNKNOWN_TIME, setUpEvent.getFirstByteNanos());
+		assertEquals(ImageEvent.UNKNOWN_TIME, setUpEvent.getLastByteNanos());
+		assertEquals(ImageEvent.UNKNOWN_TIME, setUpEvent.getDispatchNanos());
+		assertEquals(ImageEvent.UNKNOWN_TIME, setUpEvent.getCameraMillis());
+		assertEquals(ImageEvent.UNKNOWN_TIME, setUpEvent.getTransferNanos());
+		assertEquals(ImageEvent.UNKNOWN_TIME, setUpEvent.getQueueNanos());
+		setUpEvent.setCaptureTimes(-1000L, 4000L, setUpCreationMillis - 50L);
+		assertEquals(5000L, setUpEvent.getTransferNanos());
+		assertEquals(ImageEvent.UNKNOWN_TIME, setUpEvent.getQueueNanos());
+		assertEquals(setUpCreationMillis - 50L, setUpEvent.getCameraMillis());
+		setUpEvent.setDispatchNanos(4500L);
+		assertEquals(500L, setUpEvent.getQueueNanos());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testJpegInfo() {
+		String mn = debugEntering("testJpegInfo");
+		JpegInfo info = setUpEvent.getJpegInfo();
+		BufferedImage image = setUpEvent.createBufferedImage();
+		assertEquals(image.getWidth(), info.getWidth());
+		assertEquals(image.getHeight(), info.getHeight());
+		assertSame(info, setUpEvent.getJpegInfo());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testDecodeOptions() {
+		String mn = debugEntering("testDecodeOptions");
+		BufferedImage full = setUpEvent.createBufferedImage();
+		BufferedImage image = setUpEvent
+				.createBufferedImage(DecodeOptions.DEFAULT);
+		assertEquals(full.getWidth(), image.getWidth());
+		assertEquals(full.getHeight(), image.getHeight());
+		image = setUpEvent.createBufferedImage(new DecodeOptions.Builder()
+				.setSourceSubsampling(2, 3).build());
+		assertEquals(320, image.getWidth());
+		assertEquals(160, image.getHeight());
+		image = setUpEvent.createBufferedImage(new DecodeOptions.Builder()
+				.setSourceRegion(new Rectangle(600, 100, 100, 20)).build());
+		assertEquals(40, image.getWidth());
+		assertEquals(20, image.getHeight());
+		for (int y = 0; y < 20; y++) {
+			for (int x = 0; x < 40; x++) {
+				assertEquals(full.getRGB(600 + x, 100 + y), image.getRGB(x, y));
+			}
+		}
+		image = setUpEvent.createBufferedImage(new DecodeOptions.Builder()
+				.setDestinationType(BufferedImage.TYPE_INT_RGB).build());
+		assertEquals(BufferedImage.TYPE_INT_RGB, image.getType());
+		assertEquals(full.getRGB(320, 240), image.getRGB(320, 240));
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testDecodeOptionsWithDestination() {
+		String mn = debugEntering("testDecodeOptionsWithDestination");
+		DecodeOptions options = new DecodeOptions.Builder()
+				.setSourceSubsampling(4, 4).build();
+		BufferedImage destination = options.createDestination(setUpEvent
+				.getJpegInfo());
+		assertEquals(160, destination.getWidth());
+		assertEquals(120, destination.getHeight());
+		options = new DecodeOptions.Builder(options).setDestination(
+				destination).build();
+		BufferedImage expected = setUpEvent.createBufferedImage(
+				new DecodeOptions.Builder().setSourceSubsampling(4, 4).build());
+		assertSame(destination, setUpEvent.createBufferedImage(options));
+		assertSame(destination, setUpEvent.createBufferedImage(options));
+		assertEquals(expected.getRGB(80, 60), destination.getRGB(80, 60));
+		try {
+			setUpEvent.createBufferedImage(new DecodeOptions.Builder()
+					.setDestination(destination).build());
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		try {
+			setUpEvent.createBufferedImage(new DecodeOptions.Builder()
+					.setDestinationType(BufferedImage.TYPE_INT_ARGB)
+					.build());
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		try {
+			setUpEvent.createBufferedImage(new DecodeOptions.Builder()
+					.setSourceRegion(new Rectangle(640, 0, 10, 10)).build());
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		debugLeaving(mn);
+	}
 }
@@ -0,0 +1,153 @@
+package mjpegslicer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Test;
+
+public class TestJpegInfo extends AbstractTestCase {
+
+	private static byte[] createJpeg(int width, int height, int type,
+			float quality, boolean progressive) throws Exception {
+		BufferedImage image = new BufferedImage(width, height, type);
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg")
+				.next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		param.setCompressionQuality(quality);
+		if (progressive) {
+			param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ImageOutputStream ios = ImageIO.createImageOutputStream(baos);
+		writer.setOutput(ios);
+		writer.write(null, new IIOImage(image, null, null), param);
+		ios.close();
+		writer.dispose();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Inserts a segment behind the SOI marker.
+	 */
+	private static byte[] insertSegment(byte[] jpeg, int marker, byte[] payload) {
+		ByteBuffer result = ByteBuffer.allocate(jpeg.length + 4
+				+ payload.length);
+		result.put(jpeg, 0, 2);
+		result.put((byte) 0xff);
+		result.put((byte) marker);
+		result.putShort((short) (payload.length + 2));
+		result.put(payload);
+		result.put(jpeg, 2, jpeg.length - 2);
+		return result.array();
+	}
+
+	@Test
+	public void testColourImage() throws Exception {
+		String mn = debugEntering("testColourImage");
+		byte[] jpeg = createJpeg(64, 48, BufferedImage.TYPE_INT_RGB, 0.75f,
+				false);
+		JpegInfo info = JpegInfo.probe(jpeg, jpeg.length);
+		debug(mn, "info: ", info);
+		assertEquals(64, info.getWidth());
+		assertEquals(48, info.getHeight());
+		assertEquals(8, info.getPrecision());
+		assertEquals(0xc0, info.getFrameMarker());
+		assertFalse(info.isProgressive());
+		assertEquals(3, info.getComponentCount());
+		assertArrayEquals(new int[] { 2, 1, 1 }, info.getHorizontalSampling());
+		assertArrayEquals(new int[] { 2, 1, 1 }, info.getVerticalSampling());
+		assertArrayEquals(new int[] { 0, 1, 1 },
+				info.getQuantizationTableSelectors());
+		assertEquals(64, info.getQuantizationTable(0).length);
+		assertNull(info.getQuantizationTable(2));
+		assertEquals(75, info.getEstimatedQuality());
+		assertEquals(0, info.getRestartInterval());
+		assertTrue(info.hasSegment(JpegInfo.APP0));
+		assertEquals(2, info.getSegmentOffset(JpegInfo.APP0));
+		assertFalse(info.hasSegment(JpegInfo.APP1));
+		assertEquals(0, info.getSegmentLength(JpegInfo.COM));
+		assertEquals(0xff, jpeg[info.getScanOffset()] & 0xff);
+		assertEquals(0xda, jpeg[info.getScanOffset() + 1] & 0xff);
+		// the copies do not expose the internal state
+		info.getHorizontalSampling()[0] = 4;
+		assertEquals(2, info.getHorizontalSampling()[0]);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testGreyProgressiveImage() throws Exception {
+		String mn = debugEntering("testGreyProgressiveImage");
+		byte[] jpeg = createJpeg(33, 17, BufferedImage.TYPE_BYTE_GRAY, 0.9f,
+				true);
+		JpegInfo info = JpegInfo.probe(jpeg, jpeg.length);
+		assertEquals(33, info.getWidth());
+		assertEquals(17, info.getHeight());
+		assertTrue(info.isProgressive());
+		assertEquals(1, info.getComponentCount());
+		assertEquals(90, info.getEstimatedQuality());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testSegments() throws Exception {
+		String mn = debugEntering("testSegments");
+		byte[] jpeg = createJpeg(16, 16, BufferedImage.TYPE_INT_RGB, 0.5f,
+				false);
+		jpeg = insertSegment(jpeg, 0xdd, new byte[] { 0, 4 });
+		jpeg = insertSegment(jpeg, JpegInfo.COM, "hello".getBytes());
+		jpeg = insertSegment(jpeg, JpegInfo.APP1, "Exif\0\0".getBytes());
+		JpegInfo info = JpegInfo.probe(jpeg, jpeg.length);
+		assertEquals(4, info.getRestartInterval());
+		assertEquals(2, info.getSegmentOffset(JpegInfo.APP1));
+		assertEquals(10, info.getSegmentLength(JpegInfo.APP1));
+		assertEquals(12, info.getSegmentOffset(JpegInfo.COM));
+		assertEquals(9, info.getSegmentLength(JpegInfo.COM));
+		assertTrue(info.getSegmentOffset(JpegInfo.APP0) > 12);
+		assertEquals(50, info.getEstimatedQuality());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testCorruptData() throws Exception {
+		String mn = debugEntering("testCorruptData");
+		byte[] jpeg = createJpeg(16, 16, BufferedImage.TYPE_INT_RGB, 0.5f,
+				false);
+		JpegInfo info = JpegInfo.probe(jpeg, jpeg.length);
+		// every truncation of the header must fail gracefully
+		for (int length = 0; length <= info.getScanOffset(); length++) {
+			try {
+				JpegInfo.probe(jpeg, length);
+				failedToThrowExpectedException(mn);
+			} catch (ImageDataCorruptionException idce) {
+				// expected
+			}
+		}
+		try {
+			JpegInfo.probe("0123456789".getBytes(), 10);
+			failedToThrowExpectedException(mn);
+		} catch (ImageDataCorruptionException idce) {
+			foundExpectedException(mn, idce);
+		}
+		try {
+			JpegInfo.probe(jpeg, jpeg.length + 1);
+			failedToThrowExpectedException(mn);
+		} catch (ImageDataCorruptionException idce) {
+			foundExpectedException(mn, idce);
+		}
+		debugLeaving(mn);
+	}
+}
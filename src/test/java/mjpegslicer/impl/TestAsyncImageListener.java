@@ -0,0 +1,281 @@
+package mjpegslicer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+import mjpegslicer.ImageEvent;
+import mjpegslicer.ImageListener;
+import mjpegslicer.util.ExecutorStrategy;
+import mjpegslicer.util.Sleep;
+
+public class TestAsyncImageListener extends AbstractTestCase {
+
+	private FrameBufferPool pool;
+	private ImageEventSupport support;
+	private BlockingListener listener;
+
+	@Before
+	public void setUp() {
+		String mn = debugEntering("setUp");
+		pool = new FrameBufferPool();
+		support = new ImageEventSupport();
+		listener = new BlockingListener();
+		debugLeaving(mn);
+	}
+
+	@After
+	public void tearDown() {
+		String mn = debugEntering("tearDown");
+		listener.gate.countDown();
+		support.removeAllJpegListeners();
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Distributes an event and gives the reference of the caller back, like
+	 * the ring does when all consumers have passed the event.
+	 */
+	private void distribute(int sequenceNumber) {
+		FrameBuffer frame = pool.lease(1);
+		ImageEvent event = new ImageEvent(this, 0L, sequenceNumber,
+				frame.array(), 1, frame);
+		support.newImage(event);
+		event.release();
+	}
+
+	/**
+	 * Distributes the first event and waits until the listener blocks on it;
+	 * afterwards, events can only be queued.
+	 */
+	private void distributeFirst() throws Exception {
+		distribute(0);
+		assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+	}
+
+	private void assertDelivered(AsyncImageListener async, Integer... expected)
+			throws Exception {
+		listener.gate.countDown();
+		for (int i = 0; i < 50 && async.getLag() > 0; i++) {
+			Sleep.sleepMillis(20);
+		}
+		// the last delivery might still be in progress
+		Sleep.sleepMillis(50);
+		assertEquals(0, async.getLag());
+		assertEquals(expected.length, listener.received.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], listener.received.get(i));
+		}
+		assertEquals(expected.length, async.getDeliveredCount());
+		assertEquals(0, pool.getOutstandingCount());
+	}
+
+	@Test
+	public void testDropNewest() throws Exception {
+		String mn = debugEntering("testDropNewest");
+		AsyncImageListener async = support.addImageListener(listener, 2,
+				OverflowPolicy.DROP_NEWEST);
+		distributeFirst();
+		for (int i = 1; i <= 4; i++) {
+			distribute(i);
+		}
+		assertEquals(2, async.getLag());
+		assertEquals(2L, async.getDroppedCount());
+		assertDelivered(async, 0, 1, 2);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testDropOldest() throws Exception {
+		String mn = debugEntering("testDropOldest");
+		AsyncImageListener async = support.addImageListener(listener, 2,
+				OverflowPolicy.DROP_OLDEST);
+		distributeFirst();
+		for (int i = 1; i <= 4; i++) {
+			distribute(i);
+		}
+		assertEquals(2, async.getLag());
+		assertEquals(2L, async.getMaxLag());
+		assertEquals(2L, async.getDroppedCount());
+		assertDelivered(async, 0, 3, 4);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testLatestOnly() throws Exception {
+		String mn = debugEntering("testLatestOnly");
+		AsyncImageListener async = support.addImageListener(listener, 10,
+				OverflowPolicy.LATEST_ONLY);
+		distributeFirst();
+		for (int i = 1; i <= 4; i++) {
+			distribute(i);
+		}
+		assertEquals(1, async.getLag());
+		assertEquals(3L, async.getDroppedCount());
+		assertDelivered(async, 0, 4);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testBlock() throws Exception {
+		String mn = debugEntering("testBlock");
+		final AsyncImageListener async = support.addImageListener(listener, 1,
+				OverflowPolicy.BLOCK);
+		distributeFirst();
+		distribute(1);
+		Thread releaser = new Thread() {
+			@Override
+			public void run() {
+				Sleep.sleepMillis(200);
+				listener.gate.countDown();
+			}
+		};
+		releaser.start();
+		// blocks until the listener is released
+		distribute(2);
+		assertEquals(0L, async.getDroppedCount());
+		assertDelivered(async, 0, 1, 2);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testSlowListenerDoesNotDelayOthers() throws Exception {
+		String mn = debugEntering("testSlowListenerDoesNotDelayOthers");
+		support.addImageListener(listener, 1, OverflowPolicy.DROP_NEWEST);
+		final List<Integer> fast = new CopyOnWriteArrayList<Integer>();
+		support.addImageListener(new ImageListener() {
+			@Override
+			public void newImage(ImageEvent event) {
+				fast.add(event.getSequenceNumber());
+			}
+		});
+		for (int i = 0; i < 10; i++) {
+			distribute(i);
+		}
+		assertEquals(10, fast.size());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testRegistry() throws Exception {
+		String mn = debugEntering("testRegistry");
+		assertNotNull(support.addImageListener(listener, 1,
+				OverflowPolicy.DROP_NEWEST));
+		assertNull(support.addImageListener(listener, 1,
+				OverflowPolicy.DROP_NEWEST));
+		support.addImageListener(listener);
+		assertEquals(1, support.countImageListeners());
+		support.removeImageListener(listener);
+		assertEquals(0, support.countImageListeners());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testAddWhileDistributing() throws Exception {
+		String mn = debugEntering("testAddWhileDistributing");
+		final ImageListener added = new ImageListener() {
+			@Override
+			public void newImage(ImageEvent event) {
+			}
+		};
+		support.addImageListener(new ImageListener() {
+			@Override
+			public void newImage(ImageEvent event) {
+				support.addImageListener(added);
+				support.removeImageListener(added);
+			}
+		});
+		for (int i = 0; i < 10; i++) {
+			distribute(i);
+		}
+		assertEquals(1, support.countImageListeners());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testExecutorStrategy() throws Exception {
+		String mn = debugEntering("testExecutorStrategy");
+		final AtomicInteger executors = new AtomicInteger();
+		AsyncImageListener async = support.addImageListener(listener, 2,
+				OverflowPolicy.DROP_NEWEST, new ExecutorStrategy() {
+					@Override
+					public ExecutorService newExecutor() {
+						executors.incrementAndGet();
+						return Executors.newSingleThreadExecutor();
+					}
+				});
+		assertEquals(1, executors.get());
+		distributeFirst();
+		distribute(1);
+		assertDelivered(async, 0, 1);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testShutdownWhileQueueing() throws Exception {
+		String mn = debugEntering("testShutdownWhileQueueing");
+		for (int i = 0; i < 20; i++) {
+			final AsyncImageListener async = new AsyncImageListener(
+					new ImageListener() {
+						@Override
+						public void newImage(ImageEvent event) {
+						}
+					}, 4, OverflowPolicy.DROP_OLDEST);
+			Thread producer = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 2000; j++) {
+						FrameBuffer frame = pool.lease(1);
+						ImageEvent event = new ImageEvent(this, 0L, j, frame
+								.array(), 1, frame);
+						async.newImage(event);
+						event.release();
+					}
+				}
+			};
+			producer.start();
+			async.shutdown();
+			producer.join();
+			// no event is left retained in the queue
+			assertEquals(0, async.getLag());
+			Sleep.sleepMillis(10);
+			assertEquals(0, pool.getOutstandingCount());
+		}
+		debugLeaving(mn);
+	}
+
+	/**
+	 * A listener that blocks on its first event until the gate is opened.
+	 */
+	private static class BlockingListener implements ImageListener {
+
+		private final List<Integer> received = new CopyOnWriteArrayList<Integer>();
+		private final CountDownLatch entered = new CountDownLatch(1);
+		private final CountDownLatch gate = new CountDownLatch(1);
+
+		@Override
+		public void newImage(ImageEvent event) {
+			entered.countDown();
+			try {
+				gate.await();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			received.add(event.getSequenceNumber());
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package mjpegslicer.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+import mjpegslicer.ImageEvent;
+
+public class TestCameraTimestamps extends AbstractTestCase {
+
+	private static long parseDecimal(String s) {
+		byte[] bytes = s.getBytes();
+		return CameraTimestamps.parseDecimal(bytes, 0, bytes.length);
+	}
+
+	@Test
+	public void testParseDecimal() {
+		String mn = debugEntering("testParseDecimal");
+		assertEquals(1697640000000L, parseDecimal("1697640000"));
+		assertEquals(1697640000123L, parseDecimal(" 1697640000.123456 "));
+		assertEquals(1697640000500L, parseDecimal("1697640000.5"));
+		assertEquals(1697640000000L, parseDecimal("1697640000."));
+		assertEquals(1697640000123L, parseDecimal("1697640000123"));
+		assertEquals(ImageEvent.UNKNOWN_TIME, parseDecimal(""));
+		assertEquals(ImageEvent.UNKNOWN_TIME, parseDecimal(".5"));
+		assertEquals(ImageEvent.UNKNOWN_TIME, parseDecimal("-1"));
+		assertEquals(ImageEvent.UNKNOWN_TIME, parseDecimal("12:00"));
+		assertEquals(ImageEvent.UNKNOWN_TIME,
+				parseDecimal("12345678901234567890"));
+		// implausible timestamps
+		assertEquals(ImageEvent.UNKNOWN_TIME, parseDecimal("20231018"));
+		assertEquals(ImageEvent.UNKNOWN_TIME, parseDecimal("0.5"));
+		assertEquals(ImageEvent.UNKNOWN_TIME, parseDecimal("4102444800"));
+		assertEquals(946684800000L, parseDecimal("946684800"));
+		debugLeaving(mn);
+	}
+
+	private static byte[] createJpeg() throws Exception {
+		BufferedImage image = new BufferedImage(8, 8,
+				BufferedImage.TYPE_INT_RGB);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", baos);
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Inserts a segment behind the SOI marker.
+	 */
+	private static byte[] insertSegment(byte[] jpeg, int marker, byte[] payload) {
+		ByteBuffer result = ByteBuffer.allocate(jpeg.length + 4
+				+ payload.length);
+		result.put(jpeg, 0, 2);
+		result.put((byte) 0xff);
+		result.put((byte) marker);
+		result.putShort((short) (payload.length + 2));
+		result.put(payload);
+		result.put(jpeg, 2, jpeg.length - 2);
+		return result.array();
+	}
+
+	private static byte[] ascii(String s, int length) {
+		byte[] result = new byte[length];
+		byte[] bytes = s.getBytes();
+		System.arraycopy(bytes, 0, result, 0, bytes.length);
+		return result;
+	}
+
+	/**
+	 * Creates an APP1 payload with an IFD0 that points to an EXIF IFD.
+	 */
+	private static byte[] createExif(ByteOrder order, String dateTime,
+			String subSec, String offset) {
+		ByteBuffer tiff = ByteBuffer.allocate(200).order(order);
+		tiff.put(order == ByteOrder.BIG_ENDIAN ? (byte) 'M' : (byte) 'I');
+		tiff.put(tiff.get(0));
+		tiff.putShort((short) 42);
+		tiff.putInt(8);
+		// IFD0 at 8 with the EXIF IFD pointer
+		tiff.putShort((short) 1);
+		tiff.putShort((short) 0x8769).putShort((short) 4).putInt(1).putInt(26);
+		tiff.putInt(0);
+		// EXIF IFD at 26, values from 80 on
+		int count = offset == null ? 2 : 3;
+		tiff.putShort((short) count);
+		tiff.putShort((short) 0x9003).putShort((short) 2).putInt(20)
+				.putInt(80);
+		if (offset != null) {
+			tiff.putShort((short) 0x9011).putShort((short) 2).putInt(7)
+					.putInt(100);
+		}
+		tiff.putShort((short) 0x9291).putShort((short) 2).putInt(4);
+		tiff.put(ascii(subSec, 4));
+		tiff.putInt(0);
+		tiff.position(80);
+		tiff.put(ascii(dateTime, 20));
+		if (offset != null) {
+			tiff.put(ascii(offset, 7));
+		}
+		ByteBuffer result = ByteBuffer.allocate(6 + tiff.position());
+		result.put("Exif".getBytes()).put((byte) 0).put((byte) 0);
+		result.put(tiff.array(), 0, tiff.position());
+		return result.array();
+	}
+
+	private static long parseJpeg(byte[] jpeg) {
+		return CameraTimestamps.parseJpeg(jpeg, jpeg.length);
+	}
+
+	@Test
+	public void testComment() throws Exception {
+		String mn = debugEntering("testComment");
+		byte[] jpeg = createJpeg();
+		assertEquals(ImageEvent.UNKNOWN_TIME, parseJpeg(jpeg));
+		assertEquals(1697640000250L, parseJpeg(insertSegment(jpeg, 0xfe,
+				"1697640000.25".getBytes())));
+		assertEquals(ImageEvent.UNKNOWN_TIME, parseJpeg(insertSegment(jpeg,
+				0xfe, "Made by a camera".getBytes())));
+		assertEquals(ImageEvent.UNKNOWN_TIME, parseJpeg(insertSegment(jpeg,
+				0xfe, "100".getBytes())));
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testExif() throws Exception {
+		String mn = debugEntering("testExif");
+		byte[] jpeg = createJpeg();
+		Calendar local = Calendar.getInstance();
+		local.clear();
+		local.set(2023, Calendar.OCTOBER, 18, 14, 30, 15);
+		assertEquals(local.getTimeInMillis() + 120L,
+				parseJpeg(insertSegment(jpeg, 0xe1, createExif(
+						ByteOrder.BIG_ENDIAN, "2023:10:18 14:30:15", "12",
+						null))));
+		Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		utc.clear();
+		utc.set(2023, Calendar.OCTOBER, 18, 12, 30, 15);
+		assertEquals(utc.getTimeInMillis() + 7L,
+				parseJpeg(insertSegment(jpeg, 0xe1, createExif(
+						ByteOrder.LITTLE_ENDIAN, "2023:10:18 14:30:15",
+						"007", "+02:00"))));
+		assertEquals(ImageEvent.UNKNOWN_TIME, parseJpeg(insertSegment(jpeg,
+				0xe1, createExif(ByteOrder.BIG_ENDIAN, "unknown", "0", null))));
+		assertEquals(ImageEvent.UNKNOWN_TIME, parseJpeg(insertSegment(jpeg,
+				0xe1, createExif(ByteOrder.BIG_ENDIAN, "1970:01:01 00:00:00",
+						"0", "+00:00"))));
+		assertEquals(ImageEvent.UNKNOWN_TIME, parseJpeg(insertSegment(jpeg,
+				0xe1, createExif(ByteOrder.BIG_ENDIAN, "2023:13:18 14:30:15",
+						"0", "+00:00"))));
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testExifCalendar() throws Exception {
+		String mn = debugEntering("testExifCalendar");
+		byte[] jpeg = createJpeg();
+		Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		// leap days, ends of months and years
+		String[] dates = { "2000:02:29 00:00:00", "2024:02:29 23:59:59",
+				"2023:03:01 12:00:00", "2099:12:31 23:59:59",
+				"2100:01:01 00:00:00" };
+		for (String date : dates) {
+			utc.clear();
+			utc.set(Integer.parseInt(date.substring(0, 4)),
+					Integer.parseInt(date.substring(5, 7)) - 1,
+					Integer.parseInt(date.substring(8, 10)),
+					Integer.parseInt(date.substring(11, 13)),
+					Integer.parseInt(date.substring(14, 16)),
+					Integer.parseInt(date.substring(17, 19)));
+			long expected = utc.getTimeInMillis() + 3600000L;
+			if (expected >= 4102444800000L) {
+				expected = ImageEvent.UNKNOWN_TIME;
+			}
+			assertEquals(date, expected, parseJpeg(insertSegment(jpeg, 0xe1,
+					createExif(ByteOrder.BIG_ENDIAN, date, "0", "-01:00"))));
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testCorruptData() throws Exception {
+		String mn = debugEntering("testCorruptData");
+		byte[] exif = insertSegment(createJpeg(), 0xe1,
+				createExif(ByteOrder.BIG_ENDIAN, "2023:10:18 14:30:15", "1",
+						null));
+		// every truncation must fail gracefully
+		for (int length = 0; length < 200; length++) {
+			CameraTimestamps.parseJpeg(exif, length);
+		}
+		// pointers that lead out of the segment
+		for (int i = 6; i < 60; i++) {
+			byte[] corrupt = exif.clone();
+			corrupt[i] = (byte) 0xff;
+			CameraTimestamps.parseJpeg(corrupt, corrupt.length);
+		}
+		assertEquals(ImageEvent.UNKNOWN_TIME,
+				parseJpeg("0123456789".getBytes()));
+		debugLeaving(mn);
+	}
+}
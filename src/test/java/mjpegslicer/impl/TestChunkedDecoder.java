@@ -0,0 +1,149 @@
+package mjpegslicer.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+import mjpegslicer.ImageDataCorruptionException;
+
+public class TestChunkedDecoder extends AbstractTestCase {
+
+	private ChunkedDecoder decoder;
+	private Random random;
+
+	@Before
+	public void setUp() throws Exception {
+		String mn = debugEntering("setUp");
+		decoder = new ChunkedDecoder();
+		random = new Random(4711L);
+		debugLeaving(mn);
+	}
+
+	private static void ascii(ByteArrayOutputStream baos, String s)
+			throws Exception {
+		baos.write(s.getBytes("US-ASCII"));
+	}
+
+	/**
+	 * Encodes the payload in chunks of random size, some of them with
+	 * extensions, followed by a trailer.
+	 */
+	private byte[] encode(byte[] payload) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		int pos = 0;
+		while (pos < payload.length) {
+			int size = Math.min(1 + random.nextInt(300), payload.length - pos);
+			ascii(baos, Integer.toHexString(size));
+			if (random.nextInt(4) == 0) {
+				ascii(baos, ";name=value");
+			}
+			ascii(baos, "\r\n");
+			baos.write(payload, pos, size);
+			ascii(baos, "\r\n");
+			pos += size;
+		}
+		ascii(baos, "0\r\nX-Trailer: yes\r\n\r\n");
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Decodes the encoded bytes in pieces of random size, as read by a sink.
+	 */
+	private byte[] decode(byte[] encoded, boolean direct) {
+		ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(encoded.length)
+				: ByteBuffer.allocate(encoded.length);
+		int read = 0;
+		int end = 0;
+		while (read < encoded.length && !decoder.isComplete()) {
+			int length = Math.min(
+					Math.min(decoder.getReadLimit(), 1 + random.nextInt(500)),
+					encoded.length - read);
+			buffer.position(end);
+			buffer.put(encoded, read, length);
+			read += length;
+			end = decoder.decode(buffer, end, end + length);
+		}
+		byte[] result = new byte[end];
+		buffer.position(0);
+		buffer.get(result);
+		return result;
+	}
+
+	@Test
+	public void testHeapBuffer() throws Exception {
+		String mn = debugEntering("testHeapBuffer");
+		byte[] payload = new byte[20000];
+		random.nextBytes(payload);
+		assertArrayEquals(payload, decode(encode(payload), false));
+		assertTrue(decoder.isComplete());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testDirectBuffer() throws Exception {
+		String mn = debugEntering("testDirectBuffer");
+		byte[] payload = new byte[20000];
+		random.nextBytes(payload);
+		assertArrayEquals(payload, decode(encode(payload), true));
+		assertTrue(decoder.isComplete());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testReadLimit() throws Exception {
+		String mn = debugEntering("testReadLimit");
+		assertEquals(ChunkedDecoder.HEADER_READ_SIZE, decoder.getReadLimit());
+		ByteBuffer buffer = ByteBuffer.wrap("1A\r\nabc".getBytes("US-ASCII"));
+		assertEquals(3, decoder.decode(buffer, 0, buffer.limit()));
+		assertEquals(0x1a - 3, decoder.getReadLimit());
+		assertEquals('a', buffer.get(0));
+		assertFalse(decoder.isComplete());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testBytesBehindTerminalChunk() throws Exception {
+		String mn = debugEntering("testBytesBehindTerminalChunk");
+		ByteBuffer buffer = ByteBuffer.wrap("3\r\nabc\r\n0\r\n\r\nHTTP/1.1"
+				.getBytes("US-ASCII"));
+		assertEquals(3, decoder.decode(buffer, 0, buffer.limit()));
+		assertTrue(decoder.isComplete());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testInvalidChunkSize() throws Exception {
+		String mn = debugEntering("testInvalidChunkSize");
+		ByteBuffer buffer = ByteBuffer.wrap("--myboundary\r\n"
+				.getBytes("US-ASCII"));
+		try {
+			decoder.decode(buffer, 0, buffer.limit());
+			failedToThrowExpectedException(mn);
+		} catch (ImageDataCorruptionException idce) {
+			foundExpectedException(mn, idce);
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testMissingChunkEnd() throws Exception {
+		String mn = debugEntering("testMissingChunkEnd");
+		ByteBuffer buffer = ByteBuffer.wrap("3\r\nabcd\r\n".getBytes("US-ASCII"));
+		try {
+			decoder.decode(buffer, 0, buffer.limit());
+			failedToThrowExpectedException(mn);
+		} catch (ImageDataCorruptionException idce) {
+			foundExpectedException(mn, idce);
+		}
+		debugLeaving(mn);
+	}
+}
@@ -0,0 +1,68 @@
+package mjpegslicer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+
+public class TestConnectionRateLimiter extends AbstractTestCase {
+
+	@Test
+	public void testRate() throws Exception {
+		String mn = debugEntering("testRate");
+		ConnectionRateLimiter limiter = new ConnectionRateLimiter(20.0);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(50),
+				limiter.getIntervalNanos());
+		long start = System.nanoTime();
+		for (int i = 0; i < 5; i++) {
+			limiter.acquire();
+		}
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		debug(mn, "elapsed: ", millis, " ms, limiter: ", limiter);
+		// the first attempt is not delayed
+		assertTrue("too fast: " + millis, millis >= 190L);
+		assertEquals(4L, limiter.getThrottledCount());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testSharedBySeveralThreads() throws Exception {
+		String mn = debugEntering("testSharedBySeveralThreads");
+		final ConnectionRateLimiter limiter = new ConnectionRateLimiter(50.0);
+		final CountDownLatch done = new CountDownLatch(10);
+		long start = System.nanoTime();
+		for (int i = 0; i < 10; i++) {
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						limiter.acquire();
+					} catch (InterruptedException ignored) {
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("too fast: " + millis, millis >= 170L);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testInvalidRate() {
+		String mn = debugEntering("testInvalidRate");
+		try {
+			new ConnectionRateLimiter(0.0);
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		debugLeaving(mn);
+	}
+}
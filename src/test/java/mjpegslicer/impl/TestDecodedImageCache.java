@@ -0,0 +1,238 @@
+package mjpegslicer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+import mjpegslicer.ImageDataCorruptionException;
+import mjpegslicer.ImageEvent;
+import mjpegslicer.util.Sleep;
+
+public class TestDecodedImageCache extends AbstractTestCase {
+
+	/**
+	 * The raster bytes of a 16x16 BGR image.
+	 */
+	private static final long WEIGHT = 16 * 16 * 3;
+
+	private byte[] imageData;
+
+	@Before
+	public void setUp() throws Exception {
+		String mn = debugEntering("setUp");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_3BYTE_BGR),
+				"jpg", baos);
+		imageData = baos.toByteArray();
+		debugLeaving(mn);
+	}
+
+	/**
+	 * An event that counts its decodes and takes its time for them.
+	 */
+	private static class CountingEvent extends ImageEvent {
+
+		private static final long serialVersionUID = 1L;
+
+		private final AtomicInteger decodeCount = new AtomicInteger();
+		private volatile long decodeMillis;
+		private volatile Error error;
+
+		CountingEvent(Object source, int sequenceNumber, byte[] imageData) {
+			super(source, 0L, sequenceNumber, imageData);
+		}
+
+		@Override
+		public BufferedImage createBufferedImage() {
+			decodeCount.incrementAndGet();
+			Sleep.sleepMillis(decodeMillis);
+			if (error != null) {
+				throw error;
+			}
+			return super.createBufferedImage();
+		}
+	}
+
+	@Test
+	public void testHitAndMiss() throws Exception {
+		String mn = debugEntering("testHitAndMiss");
+		DecodedImageCache cache = new DecodedImageCache(1000000L);
+		CountingEvent event = new CountingEvent(this, 1, imageData);
+		BufferedImage image = cache.get(event);
+		assertSame(image, cache.get(event));
+		// another event of the same frame
+		assertSame(image, cache.get(new CountingEvent(this, 1, imageData)));
+		assertEquals(1, event.decodeCount.get());
+		assertEquals(1L, cache.getMissCount());
+		assertEquals(2L, cache.getHitCount());
+		assertEquals(WEIGHT, cache.getByteCount());
+		// other sources and sequence numbers are other frames
+		assertNotSame(image, cache.get(new CountingEvent(this, 2, imageData)));
+		assertNotSame(image,
+				cache.get(new CountingEvent(new Object(), 1, imageData)));
+		assertEquals(3, cache.getEntryCount());
+		assertEquals(3 * WEIGHT, cache.getByteCount());
+		debug(mn, "cache: ", cache);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		String mn = debugEntering("testEviction");
+		DecodedImageCache cache = new DecodedImageCache(2 * WEIGHT, 1);
+		CountingEvent a = new CountingEvent(this, 1, imageData);
+		CountingEvent b = new CountingEvent(this, 2, imageData);
+		CountingEvent c = new CountingEvent(this, 3, imageData);
+		cache.get(a);
+		cache.get(b);
+		// a is used more recently than b
+		cache.get(a);
+		cache.get(c);
+		assertEquals(1L, cache.getEvictionCount());
+		assertEquals(2 * WEIGHT, cache.getByteCount());
+		cache.get(a);
+		cache.get(c);
+		assertEquals(1, a.decodeCount.get());
+		cache.get(b);
+		assertEquals(2, b.decodeCount.get());
+		assertEquals(2L, cache.getEvictionCount());
+		// images beyond the budget are not kept
+		DecodedImageCache tiny = new DecodedImageCache(WEIGHT - 1);
+		tiny.get(a);
+		assertEquals(0, tiny.getEntryCount());
+		assertEquals(0L, tiny.getByteCount());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testEvictionAcrossStripes() throws Exception {
+		String mn = debugEntering("testEvictionAcrossStripes");
+		// fewer images fit than there are stripes
+		DecodedImageCache cache = new DecodedImageCache(4 * WEIGHT);
+		CountingEvent[] events = new CountingEvent[40];
+		for (int i = 0; i < events.length; i++) {
+			events[i] = new CountingEvent(this, i, imageData);
+			cache.get(events[i]);
+			// a new image is never the victim
+			cache.get(events[i]);
+			assertEquals(1, events[i].decodeCount.get());
+		}
+		assertEquals(events.length - 4L, cache.getEvictionCount());
+		assertEquals(4 * WEIGHT, cache.getByteCount());
+		// 36 to 39 are left; the least recently used one is evicted,
+		// whatever its stripe
+		cache.get(events[36]);
+		cache.get(events[35]);
+		assertEquals(1, events[36].decodeCount.get());
+		assertEquals(2, events[35].decodeCount.get());
+		cache.get(events[39]);
+		cache.get(events[36]);
+		cache.get(events[37]);
+		assertEquals(1, events[39].decodeCount.get());
+		assertEquals(2, events[37].decodeCount.get());
+		// 38 was evicted for 37, 35 for 38
+		cache.get(events[38]);
+		cache.get(events[36]);
+		cache.get(events[39]);
+		assertEquals(2, events[38].decodeCount.get());
+		assertEquals(1, events[36].decodeCount.get());
+		assertEquals(1, events[39].decodeCount.get());
+		cache.get(events[35]);
+		assertEquals(3, events[35].decodeCount.get());
+		assertEquals(4, cache.getEntryCount());
+		debug(mn, "cache: ", cache);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		String mn = debugEntering("testSingleFlight");
+		final DecodedImageCache cache = new DecodedImageCache(1000000L);
+		final CountingEvent event = new CountingEvent(this, 1, imageData);
+		event.decodeMillis = 200L;
+		final BufferedImage[] images = new BufferedImage[4];
+		final CountDownLatch done = new CountDownLatch(images.length);
+		for (int i = 0; i < images.length; i++) {
+			final int index = i;
+			new Thread() {
+				@Override
+				public void run() {
+					images[index] = cache.get(event);
+					done.countDown();
+				}
+			}.start();
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(1, event.decodeCount.get());
+		for (BufferedImage image : images) {
+			assertSame(images[0], image);
+		}
+		assertEquals(1L, cache.getMissCount());
+		assertEquals(3L, cache.getHitCount());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testCorruptImage() throws Exception {
+		String mn = debugEntering("testCorruptImage");
+		DecodedImageCache cache = new DecodedImageCache(1000000L);
+		CountingEvent event = new CountingEvent(this, 1, "corrupt".getBytes());
+		for (int i = 0; i < 2; i++) {
+			try {
+				cache.get(event);
+				failedToThrowExpectedException(mn);
+			} catch (ImageDataCorruptionException idce) {
+				foundExpectedException(mn, idce);
+			}
+		}
+		// failures are not cached
+		assertEquals(2, event.decodeCount.get());
+		assertEquals(0, cache.getEntryCount());
+		CountingEvent failing = new CountingEvent(this, 2, imageData);
+		failing.error = new InternalError("decoder failed");
+		try {
+			cache.get(failing);
+			failedToThrowExpectedException(mn);
+		} catch (InternalError ie) {
+			foundExpectedException(mn, ie);
+		}
+		assertEquals(0, cache.getEntryCount());
+		failing.error = null;
+		cache.get(failing);
+		assertEquals(2, failing.decodeCount.get());
+		assertEquals(WEIGHT, cache.getByteCount());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testInvalidateAndClear() throws Exception {
+		String mn = debugEntering("testInvalidateAndClear");
+		DecodedImageCache cache = new DecodedImageCache(1000000L);
+		CountingEvent a = new CountingEvent(this, 1, imageData);
+		CountingEvent b = new CountingEvent(this, 2, imageData);
+		cache.get(a);
+		cache.get(b);
+		cache.invalidate(a);
+		assertEquals(1, cache.getEntryCount());
+		assertEquals(WEIGHT, cache.getByteCount());
+		cache.clear();
+		assertEquals(0, cache.getEntryCount());
+		assertEquals(0L, cache.getByteCount());
+		cache.get(b);
+		assertEquals(2, b.decodeCount.get());
+		debugLeaving(mn);
+	}
+}
@@ -0,0 +1,210 @@
+package mjpegslicer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+import mjpegslicer.DecodeOptions;
+import mjpegslicer.DecodedImageListener;
+import mjpegslicer.ImageEvent;
+
+public class TestDecodingImageListener extends AbstractTestCase {
+
+	private byte[] imageData;
+	private RecordingListener listener;
+
+	@Before
+	public void setUp() throws Exception {
+		String mn = debugEntering("setUp");
+		InputStream is = getResourceLeafAsStream(".jpg");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int n = is.read(buffer); n >= 0; n = is.read(buffer)) {
+			baos.write(buffer, 0, n);
+		}
+		is.close();
+		imageData = baos.toByteArray();
+		listener = new RecordingListener();
+		debugLeaving(mn);
+	}
+
+	private static class RecordingListener implements DecodedImageListener {
+
+		private final List<Integer> received = new CopyOnWriteArrayList<Integer>();
+
+		@Override
+		public void newDecodedImage(ImageEvent event, BufferedImage image) {
+			received.add(event.getSequenceNumber());
+		}
+	}
+
+	/**
+	 * Collects the decode tasks, so that the test decides when and in which
+	 * order they run.
+	 */
+	private static class ManualExecutor implements Executor {
+
+		private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		@Override
+		public void execute(Runnable task) {
+			tasks.add(task);
+		}
+	}
+
+	@Test
+	public void testReorder() throws Exception {
+		String mn = debugEntering("testReorder");
+		ManualExecutor executor = new ManualExecutor();
+		DecodingImageListener decoding = new DecodingImageListener(listener,
+				3, new DecodeOptions.Builder().setSourceSubsampling(8, 8)
+						.build(), executor);
+		for (int i = 0; i < 3; i++) {
+			decoding.newImage(new ImageEvent(this, 0L, 10 + i, imageData));
+		}
+		assertEquals(3, decoding.getLag());
+		executor.tasks.get(2).run();
+		executor.tasks.get(1).run();
+		// both wait for the first image
+		assertEquals(0, listener.received.size());
+		assertEquals(3, decoding.getLag());
+		executor.tasks.get(0).run();
+		assertEquals(3, listener.received.size());
+		assertEquals(Integer.valueOf(10), listener.received.get(0));
+		assertEquals(Integer.valueOf(11), listener.received.get(1));
+		assertEquals(Integer.valueOf(12), listener.received.get(2));
+		assertEquals(0, decoding.getLag());
+		assertEquals(3L, decoding.getDeliveredCount());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testDropWhenBehind() throws Exception {
+		String mn = debugEntering("testDropWhenBehind");
+		ManualExecutor executor = new ManualExecutor();
+		DecodingImageListener decoding = new DecodingImageListener(listener,
+				2, DecodeOptions.DEFAULT, executor);
+		for (int i = 0; i < 5; i++) {
+			decoding.newImage(new ImageEvent(this, 0L, i, imageData));
+		}
+		assertEquals(2, executor.tasks.size());
+		assertEquals(3L, decoding.getDroppedCount());
+		executor.tasks.get(0).run();
+		// the window has room again
+		decoding.newImage(new ImageEvent(this, 0L, 5, imageData));
+		assertEquals(3, executor.tasks.size());
+		executor.tasks.get(2).run();
+		executor.tasks.get(1).run();
+		assertEquals(3, listener.received.size());
+		assertEquals(Integer.valueOf(5), listener.received.get(2));
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testCorruptImage() throws Exception {
+		String mn = debugEntering("testCorruptImage");
+		ManualExecutor executor = new ManualExecutor();
+		DecodingImageListener decoding = new DecodingImageListener(listener,
+				4, DecodeOptions.DEFAULT, executor);
+		decoding.newImage(new ImageEvent(this, 0L, 0, "corrupt".getBytes()));
+		decoding.newImage(new ImageEvent(this, 0L, 1, imageData));
+		executor.tasks.get(1).run();
+		executor.tasks.get(0).run();
+		assertEquals(1L, decoding.getFailedCount());
+		assertEquals(1, listener.received.size());
+		assertEquals(Integer.valueOf(1), listener.received.get(0));
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testListenerError() throws Exception {
+		String mn = debugEntering("testListenerError");
+		ManualExecutor executor = new ManualExecutor();
+		DecodingImageListener decoding = new DecodingImageListener(
+				new DecodedImageListener() {
+					@Override
+					public void newDecodedImage(ImageEvent event,
+							BufferedImage image) {
+						if (event.getSequenceNumber() == 0) {
+							throw new InternalError("listener failed");
+						}
+						listener.newDecodedImage(event, image);
+					}
+				}, 4, new DecodeOptions.Builder().setSourceSubsampling(8, 8)
+						.build(), executor);
+		decoding.newImage(new ImageEvent(this, 0L, 0, imageData));
+		decoding.newImage(new ImageEvent(this, 0L, 1, imageData));
+		try {
+			executor.tasks.get(0).run();
+			failedToThrowExpectedException(mn);
+		} catch (InternalError ie) {
+			foundExpectedException(mn, ie);
+		}
+		// the delivery goes on with the next image
+		executor.tasks.get(1).run();
+		assertEquals(1, listener.received.size());
+		assertEquals(Integer.valueOf(1), listener.received.get(0));
+		assertEquals(0, decoding.getLag());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testPool() throws Exception {
+		String mn = debugEntering("testPool");
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			DecodingImageListener decoding = new DecodingImageListener(
+					listener, 100, new DecodeOptions.Builder()
+							.setSourceSubsampling(4, 4).build(), pool);
+			for (int i = 0; i < 40; i++) {
+				decoding.newImage(new ImageEvent(this, 0L, i, imageData));
+			}
+			pool.shutdown();
+			assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+			debug(mn, "listener: ", decoding);
+			assertEquals(40, listener.received.size());
+			for (int i = 0; i < 40; i++) {
+				assertEquals(Integer.valueOf(i), listener.received.get(i));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testInvalidArguments() throws Exception {
+		String mn = debugEntering("testInvalidArguments");
+		try {
+			new DecodingImageListener(listener, 0);
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		try {
+			new DecodingImageListener(listener, 1, new DecodeOptions.Builder()
+					.setDestination(
+							new BufferedImage(1, 1,
+									BufferedImage.TYPE_3BYTE_BGR)).build(),
+					new ManualExecutor());
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		debugLeaving(mn);
+	}
+}
@@ -0,0 +1,144 @@
+package mjpegslicer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+import mjpegslicer.util.Sleep;
+
+public class TestFrameBufferPool extends AbstractTestCase {
+
+	private FrameBufferPool pool;
+
+	@Before
+	public void setUp() {
+		String mn = debugEntering("setUp");
+		pool = new FrameBufferPool(2);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testSizeClasses() {
+		String mn = debugEntering("testSizeClasses");
+		assertCapacity(FrameBufferPool.MIN_SIZE_CLASS, 0);
+		assertCapacity(FrameBufferPool.MIN_SIZE_CLASS, 1);
+		assertCapacity(FrameBufferPool.MIN_SIZE_CLASS,
+				FrameBufferPool.MIN_SIZE_CLASS);
+		assertCapacity(2 * FrameBufferPool.MIN_SIZE_CLASS,
+				FrameBufferPool.MIN_SIZE_CLASS + 1);
+		assertCapacity(1 << 20, 1000000);
+		// too large for pooling
+		assertCapacity(FrameBufferPool.MAX_SIZE_CLASS + 1,
+				FrameBufferPool.MAX_SIZE_CLASS + 1);
+		assertEquals(0, pool.getOutstandingCount());
+		debugLeaving(mn);
+	}
+
+	private void assertCapacity(int expected, int length) {
+		FrameBuffer buffer = pool.lease(length);
+		assertEquals(length, buffer.length());
+		assertEquals(expected, buffer.capacity());
+		assertTrue(buffer.release());
+	}
+
+	@Test
+	public void testReuse() {
+		String mn = debugEntering("testReuse");
+		FrameBuffer buffer = pool.lease(5000);
+		byte[] array = buffer.array();
+		assertEquals(1, pool.getOutstandingCount());
+		buffer.release();
+		assertEquals(0, pool.getOutstandingCount());
+		buffer = pool.lease(6000);
+		assertSame(array, buffer.array());
+		FrameBuffer other = pool.lease(6000);
+		assertNotSame(array, other.array());
+		assertEquals(2, pool.getOutstandingCount());
+		buffer.release();
+		other.release();
+		assertEquals(3L, pool.getLeaseCount());
+		assertEquals(1L, pool.getHitCount());
+		assertEquals(1.0 / 3.0, pool.getHitRate(), 0.0001);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testReferenceCount() {
+		String mn = debugEntering("testReferenceCount");
+		FrameBuffer buffer = pool.lease(100);
+		assertEquals(1, buffer.refCount());
+		assertSame(buffer, buffer.retain());
+		assertEquals(2, buffer.refCount());
+		assertFalse(buffer.release());
+		assertEquals(1, pool.getOutstandingCount());
+		assertTrue(buffer.release());
+		assertEquals(0, buffer.refCount());
+		assertEquals(0, pool.getOutstandingCount());
+		try {
+			buffer.release();
+			failedToThrowExpectedException(mn);
+		} catch (IllegalStateException ise) {
+			foundExpectedException(mn, ise);
+		}
+		try {
+			buffer.retain();
+			failedToThrowExpectedException(mn);
+		} catch (IllegalStateException ise) {
+			foundExpectedException(mn, ise);
+		}
+		try {
+			buffer.array();
+			failedToThrowExpectedException(mn);
+		} catch (IllegalStateException ise) {
+			foundExpectedException(mn, ise);
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testReadOnlyBuffer() {
+		String mn = debugEntering("testReadOnlyBuffer");
+		FrameBuffer buffer = pool.lease(3);
+		buffer.array()[0] = 1;
+		buffer.array()[1] = 2;
+		buffer.array()[2] = 3;
+		ByteBuffer view = buffer.asReadOnlyBuffer();
+		assertTrue(view.isReadOnly());
+		assertEquals(3, view.remaining());
+		assertEquals(3, view.get(2));
+		buffer.setLength(2);
+		assertEquals(2, buffer.asReadOnlyBuffer().remaining());
+		try {
+			buffer.setLength(buffer.capacity() + 1);
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		buffer.release();
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testLeakDetection() {
+		String mn = debugEntering("testLeakDetection");
+		pool.setLeakTracing(true);
+		pool.lease(100);
+		assertEquals(1, pool.getOutstandingCount());
+		for (int i = 0; i < 50 && pool.getLeakCount() == 0L; i++) {
+			System.gc();
+			Sleep.sleepMillis(20);
+			pool.detectLeaks();
+		}
+		assertEquals(1L, pool.getLeakCount());
+		assertEquals(0, pool.getOutstandingCount());
+		debugLeaving(mn);
+	}
+}
@@ -90,4 +90,18 @@ public class TestHttpHeadersImpl extends AbstractTestCase {
 				"text/html", impl);
 		debugLeaving(mn);
 	}
+
+	@Test
+	public void testExtractBoundaryParameter() {
+		String mn = debugEntering("testExtractBoundaryParameter");
+		assertEquals("myboundary", HttpHeadersImpl
+				.extractBoundaryParameter("multipart/x-mixed-replace; boundary=myboundary"));
+		assertEquals("--myboundary", HttpHeadersImpl
+				.extractBoundaryParameter("multipart/x-mixed-replace;boundary=--myboundary"));
+		assertEquals("my boundary", HttpHeadersImpl
+				.extractBoundaryParameter("multipart/x-mixed-replace; BOUNDARY=\"my boundary\""));
+		assertNull(HttpHeadersImpl.extractBoundaryParameter("image/jpeg"));
+		assertNull(HttpHeadersImpl.extractBoundaryParameter(null));
+		debugLeaving(mn);
+	}
 }
@@ -0,0 +1,211 @@
+package mjpegslicer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+import mjpegslicer.ImageEvent;
+import mjpegslicer.ImageListener;
+
+public class TestImageEventRing extends AbstractTestCase {
+
+	private static final int EVENTS = 10000;
+
+	private FrameBufferPool pool;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		String mn = debugEntering("setUp");
+		pool = new FrameBufferPool();
+		executor = Executors.newCachedThreadPool();
+		debugLeaving(mn);
+	}
+
+	@After
+	public void tearDown() {
+		String mn = debugEntering("tearDown");
+		executor.shutdownNow();
+		debugLeaving(mn);
+	}
+
+	private ImageEvent newEvent(int sequenceNumber) {
+		FrameBuffer frame = pool.lease(1);
+		frame.array()[0] = (byte) sequenceNumber;
+		return new ImageEvent(this, 0L, sequenceNumber, frame.array(), 1,
+				frame);
+	}
+
+	@Test
+	public void testInvalidCapacity() {
+		String mn = debugEntering("testInvalidCapacity");
+		try {
+			new ImageEventRing(100, WaitStrategy.PARK);
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testBusySpin() throws Exception {
+		String mn = debugEntering("testBusySpin");
+		assertInOrder(WaitStrategy.BUSY_SPIN);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testYield() throws Exception {
+		String mn = debugEntering("testYield");
+		assertInOrder(WaitStrategy.YIELD);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testPark() throws Exception {
+		String mn = debugEntering("testPark");
+		assertInOrder(WaitStrategy.PARK);
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Publishes many events to two consumers; the producer retries when the
+	 * ring is full.
+	 */
+	private void assertInOrder(WaitStrategy waitStrategy) throws Exception {
+		ImageEventRing ring = new ImageEventRing(16, waitStrategy);
+		MyListener first = new MyListener(EVENTS);
+		MyListener second = new MyListener(EVENTS);
+		ImageEventRing.Consumer c1 = ring.addConsumer(first);
+		ImageEventRing.Consumer c2 = ring.addConsumer(second);
+		executor.execute(c1);
+		executor.execute(c2);
+		for (int i = 0; i < EVENTS; i++) {
+			ImageEvent event = newEvent(i);
+			while (!ring.publish(event)) {
+				Thread.yield();
+			}
+		}
+		assertTrue(first.latch.await(10, TimeUnit.SECONDS));
+		assertTrue(second.latch.await(10, TimeUnit.SECONDS));
+		first.assertInOrder();
+		second.assertInOrder();
+		assertEquals(EVENTS, ring.getPublishedCount());
+		// the sequence moves after the listener was notified
+		for (int i = 0; i < 100 && c1.getLag() != 0L; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0L, c1.getLag());
+		ring.removeConsumer(c1);
+		ring.removeConsumer(c2);
+		// without consumers, a publish releases all events passed
+		assertTrue(ring.publish(newEvent(EVENTS)));
+		assertEquals(0, pool.getOutstandingCount());
+		ring.clear();
+		assertEquals(0, pool.getOutstandingCount());
+	}
+
+	@Test
+	public void testReleasePassed() throws Exception {
+		String mn = debugEntering("testReleasePassed");
+		ImageEventRing ring = new ImageEventRing(16, WaitStrategy.PARK);
+		MyListener listener = new MyListener(2);
+		ImageEventRing.Consumer consumer = ring.addConsumer(listener);
+		assertTrue(ring.publish(newEvent(0)));
+		assertTrue(ring.publish(newEvent(1)));
+		// the consumer has not passed the events yet
+		assertEquals(2, pool.getOutstandingCount());
+		executor.execute(consumer);
+		assertTrue(listener.latch.await(10, TimeUnit.SECONDS));
+		for (int i = 0; i < 100 && consumer.getLag() != 0L; i++) {
+			Thread.sleep(10);
+		}
+		// only the new event is held, not a whole ring of frames
+		assertTrue(ring.publish(newEvent(2)));
+		assertEquals(1, pool.getOutstandingCount());
+		ring.removeConsumer(consumer);
+		ring.clear();
+		assertEquals(0, pool.getOutstandingCount());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testListenerError() throws Exception {
+		String mn = debugEntering("testListenerError");
+		ImageEventRing ring = new ImageEventRing(16, WaitStrategy.PARK);
+		final CountDownLatch latch = new CountDownLatch(3);
+		ImageEventRing.Consumer consumer = ring.addConsumer(
+				new ImageListener() {
+					@Override
+					public void newImage(ImageEvent event) {
+						latch.countDown();
+						throw new AssertionError("listener failed");
+					}
+				});
+		executor.execute(consumer);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(ring.publish(newEvent(i)));
+		}
+		// the consumer goes on after an error
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		ring.removeConsumer(consumer);
+		ring.clear();
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testSlowConsumer() throws Exception {
+		String mn = debugEntering("testSlowConsumer");
+		ImageEventRing ring = new ImageEventRing(4, WaitStrategy.PARK);
+		// the consumer is not running: the producer must not wait for it
+		ImageEventRing.Consumer consumer = ring.addConsumer(new MyListener(0));
+		for (int i = 0; i < 4; i++) {
+			assertTrue(ring.publish(newEvent(i)));
+		}
+		ImageEvent event = newEvent(4);
+		assertFalse(ring.publish(event));
+		event.release();
+		assertEquals(1L, ring.getDroppedCount());
+		assertEquals(4L, consumer.getLag());
+		ring.clear();
+		assertEquals(0, pool.getOutstandingCount());
+		debugLeaving(mn);
+	}
+
+	private static class MyListener implements ImageListener {
+
+		private final List<Integer> received = new ArrayList<Integer>();
+		private final CountDownLatch latch;
+
+		private MyListener(int expected) {
+			latch = new CountDownLatch(expected);
+		}
+
+		@Override
+		public void newImage(ImageEvent event) {
+			received.add(event.getSequenceNumber());
+			assertEquals((byte) event.getSequenceNumber(), event
+					.getImageBuffer().get(0));
+			latch.countDown();
+		}
+
+		private void assertInOrder() {
+			for (int i = 0; i < received.size(); i++) {
+				assertEquals(i, received.get(i).intValue());
+			}
+		}
+	}
+}
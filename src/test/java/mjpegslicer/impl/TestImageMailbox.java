@@ -0,0 +1,123 @@
+package mjpegslicer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+import mjpegslicer.ImageEvent;
+import mjpegslicer.util.Sleep;
+
+public class TestImageMailbox extends AbstractTestCase {
+
+	private FrameBufferPool pool;
+	private ImageEventSupport support;
+	private ImageMailbox mailbox;
+
+	@Before
+	public void setUp() {
+		String mn = debugEntering("setUp");
+		pool = new FrameBufferPool();
+		support = new ImageEventSupport();
+		mailbox = support.addMailbox();
+		debugLeaving(mn);
+	}
+
+	@After
+	public void tearDown() {
+		String mn = debugEntering("tearDown");
+		support.removeAllJpegListeners();
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Distributes an event and gives the reference of the caller back, like
+	 * the ring does when all consumers have passed the event.
+	 */
+	private void distribute(int sequenceNumber) {
+		FrameBuffer frame = pool.lease(1);
+		ImageEvent event = new ImageEvent(this, 0L, sequenceNumber,
+				frame.array(), 1, frame);
+		support.newImage(event);
+		event.release();
+	}
+
+	@Test
+	public void testConflation() throws Exception {
+		String mn = debugEntering("testConflation");
+		assertNull(mailbox.poll());
+		for (int i = 0; i < 5; i++) {
+			distribute(i);
+		}
+		// only the newest event holds a buffer
+		assertEquals(1, pool.getOutstandingCount());
+		ImageEvent event = mailbox.poll();
+		assertEquals(4, event.getSequenceNumber());
+		assertNull(mailbox.poll());
+		event.release();
+		assertEquals(0, pool.getOutstandingCount());
+		assertEquals(1L, mailbox.getTakenCount());
+		assertEquals(4L, mailbox.getOverwrittenCount());
+		debug(mn, "mailbox: ", mailbox);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testPollWithTimeout() throws Exception {
+		String mn = debugEntering("testPollWithTimeout");
+		long start = System.nanoTime();
+		assertNull(mailbox.poll(100, TimeUnit.MILLISECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS
+				.toNanos(100));
+		Thread publisher = new Thread() {
+			@Override
+			public void run() {
+				Sleep.sleepMillis(100);
+				distribute(7);
+			}
+		};
+		publisher.start();
+		ImageEvent event = mailbox.poll(5, TimeUnit.SECONDS);
+		assertEquals(7, event.getSequenceNumber());
+		event.release();
+		publisher.join();
+		assertEquals(0, pool.getOutstandingCount());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testShutdown() throws Exception {
+		String mn = debugEntering("testShutdown");
+		distribute(1);
+		final ImageEvent[] polled = new ImageEvent[1];
+		Thread consumer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					polled[0] = mailbox.poll(10, TimeUnit.SECONDS);
+				} catch (InterruptedException ie) {
+					// ends the thread
+				}
+			}
+		};
+		mailbox.poll().release();
+		consumer.start();
+		Sleep.sleepMillis(100);
+		// the removal wakes up the consumer
+		long start = System.nanoTime();
+		support.removeImageListener(mailbox);
+		consumer.join(5000);
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		assertNull(polled[0]);
+		distribute(2);
+		assertNull(mailbox.poll());
+		assertEquals(0, pool.getOutstandingCount());
+		debugLeaving(mn);
+	}
+}
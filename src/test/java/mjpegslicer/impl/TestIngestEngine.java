@@ -0,0 +1,200 @@
+package mjpegslicer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+import mjpegslicer.ImageEvent;
+import mjpegslicer.ImageListener;
+import mjpegslicer.mockcam.Camera;
+import mjpegslicer.mockcam.DefaultFeederFactory;
+import mjpegslicer.util.Sleep;
+
+public class TestIngestEngine extends AbstractTestCase {
+
+	private static final int CAMERAS = 20;
+
+	private IngestEngine engine;
+	private Camera camera;
+
+	@Before
+	public void setUp() throws Exception {
+		String mn = debugEntering("setUp");
+		engine = new IngestEngine(2);
+		camera = new Camera();
+		camera.setFeederFactory(new DefaultFeederFactory());
+		debugLeaving(mn, "created: ", engine);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		String mn = debugEntering("tearDown");
+		if (engine.isStarted()) {
+			engine.shutdown();
+		}
+		if (camera.isStarted()) {
+			camera.stop();
+		}
+		debugLeaving(mn);
+	}
+
+	private SocketChannelSource newSource() {
+		SocketChannelSource result = new SocketChannelSource();
+		result.setPort(Camera.DEFAULT_PORT);
+		return result;
+	}
+
+	@Test
+	public void testNotStarted() {
+		String mn = debugEntering("testNotStarted");
+		try {
+			engine.addCamera(newSource());
+			failedToThrowExpectedException(mn);
+		} catch (IllegalStateException ise) {
+			foundExpectedException(mn, ise);
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testWithoutCamera() throws Exception {
+		String mn = debugEntering("testWithoutCamera");
+		engine.start();
+		IngestStream stream = engine.addCamera(newSource());
+		for (int i = 0; i < 50 && stream.isStarted(); i++) {
+			Sleep.sleepMillis(20);
+		}
+		assertFalse("connection should have been refused.", stream.isStarted());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testReadTimeout() throws Exception {
+		String mn = debugEntering("testReadTimeout");
+		// a camera that accepts the connection but never answers
+		ServerSocket server = new ServerSocket(0);
+		try {
+			engine.setReadTimeoutMillis(300);
+			engine.start();
+			SocketChannelSource source = newSource();
+			source.setPort(server.getLocalPort());
+			IngestStream stream = engine.addCamera(source);
+			Socket accepted = server.accept();
+			try {
+				Sleep.sleepMillis(100);
+				assertTrue(stream.isStarted());
+				for (int i = 0; i < 50 && stream.isStarted(); i++) {
+					Sleep.sleepMillis(20);
+				}
+				assertFalse("stream should have timed out.",
+						stream.isStarted());
+				// the request is followed by the end of the stream
+				accepted.setSoTimeout(2000);
+				InputStream in = accepted.getInputStream();
+				while (in.read() >= 0) {
+				}
+			} finally {
+				accepted.close();
+			}
+		} finally {
+			server.close();
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testManyCameras() throws Exception {
+		String mn = debugEntering("testManyCameras");
+		camera.start();
+		engine.start();
+		final AtomicInteger events = new AtomicInteger();
+		ImageListener listener = new ImageListener() {
+			@Override
+			public void newImage(ImageEvent event) {
+				events.incrementAndGet();
+			}
+		};
+		for (int i = 0; i < CAMERAS; i++) {
+			engine.addCamera(newSource()).addImageListener(listener);
+		}
+		assertEquals(CAMERAS, engine.getStreams().size());
+		Sleep.sleepMillis(2000);
+		int images = 0;
+		for (IngestStream stream : engine.getStreams()) {
+			debug(mn, "stream: ", stream);
+			assertTrue("images should have been sliced.",
+					stream.getImageCount() > 0);
+			assertTrue(stream.getHttpHeaderCount() > stream.getImageCount());
+			assertTrue(stream.getByteCount() > 0);
+		}
+		// the feeds might still be running; an image is counted before its
+		// listeners are notified
+		for (int i = 0; i < 50 && images != events.get(); i++) {
+			Sleep.sleepMillis(100);
+			images = 0;
+			for (IngestStream stream : engine.getStreams()) {
+				images += stream.getImageCount();
+			}
+		}
+		assertEquals(images, events.get());
+		assertEquals(0, engine.getFrameBufferPool().getOutstandingCount());
+		IngestStream first = engine.getStreams().get(0);
+		engine.removeCamera(first);
+		assertEquals(CAMERAS - 1, engine.getStreams().size());
+		for (int i = 0; i < 50 && first.isStarted(); i++) {
+			Sleep.sleepMillis(20);
+		}
+		assertFalse(first.isStarted());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testFailures() throws Exception {
+		String mn = debugEntering("testFailures");
+		camera.start();
+		engine.start();
+		final AtomicInteger events = new AtomicInteger();
+		IngestStream failing = engine.addCamera(newSource());
+		failing.addImageListener(new ImageListener() {
+			@Override
+			public void newImage(ImageEvent event) {
+				throw new IllegalStateException("listener failed");
+			}
+		});
+		failing.addImageListener(new ImageListener() {
+			@Override
+			public void newImage(ImageEvent event) {
+				events.incrementAndGet();
+			}
+		});
+		for (int i = 0; i < 4; i++) {
+			engine.addCamera(newSource());
+		}
+		Sleep.sleepMillis(300);
+		// streams stopped while their keys are selected
+		for (int i = 0; i < 2; i++) {
+			engine.removeCamera(engine.getStreams().get(1));
+		}
+		// the feeds of the mock camera end after a few images
+		Sleep.sleepMillis(2500);
+		int images = failing.getImageCount();
+		assertTrue("images should have been sliced.", images > 0);
+		assertEquals(images, events.get());
+		for (IngestStream stream : engine.getStreams()) {
+			debug(mn, "stream: ", stream);
+			assertEquals("the selector threads should go on.", images,
+					stream.getImageCount());
+		}
+		debugLeaving(mn);
+	}
+}
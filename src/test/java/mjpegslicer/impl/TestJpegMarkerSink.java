@@ -0,0 +1,185 @@
+package mjpegslicer.impl;
+
+import static mjpegslicer.AssertSink.assertSink;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+import mjpegslicer.util.Sleep;
+
+public class TestJpegMarkerSink extends AbstractTestCase {
+
+	private MySink sink;
+	private List<byte[]> images;
+
+	private byte[] createJpeg(Color color) throws Exception {
+		return createJpeg(color, 64, 48);
+	}
+
+	private byte[] createJpeg(Color color, int width, int height)
+			throws Exception {
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g2d = image.createGraphics();
+		g2d.setPaint(color);
+		g2d.fillRect(0, 0, width / 2, height);
+		// noise makes the image larger than the read buffer
+		Random random = new Random(width);
+		for (int y = 0; y < height; y++) {
+			image.setRGB(random.nextInt(width), y, random.nextInt());
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ImageIO.write(image, "JPG", baos);
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Inserts an APP1 segment with an embedded "thumbnail" behind SOI.
+	 */
+	private byte[] withThumbnail(byte[] jpeg, byte[] thumbnail)
+			throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		baos.write(jpeg, 0, 2);
+		int length = 2 + 6 + thumbnail.length;
+		baos.write(new byte[] { (byte) 0xff, (byte) 0xe1,
+				(byte) (length >> 8), (byte) length });
+		baos.write("Exif".getBytes());
+		baos.write(new byte[] { 0, 0 });
+		baos.write(thumbnail);
+		baos.write(jpeg, 2, jpeg.length - 2);
+		return baos.toByteArray();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		String mn = debugEntering("setUp");
+		sink = new MySink();
+		images = new ArrayList<byte[]>();
+		images.add(createJpeg(Color.RED));
+		images.add(withThumbnail(createJpeg(Color.GREEN),
+				createJpeg(Color.BLUE)));
+		images.add(createJpeg(Color.WHITE, 640, 480));
+		debugLeaving(mn);
+	}
+
+	@After
+	public void tearDown() {
+		String mn = debugEntering("tearDown");
+		if (sink.isStarted()) {
+			sink.stopStream();
+		}
+		debugLeaving(mn);
+	}
+
+	private void slice(byte[] stream) {
+		sink.startStream(new ByteArrayInputStream(stream));
+		for (int i = 0; i < 50 && sink.sliced.size() < images.size(); i++) {
+			Sleep.sleepMillis(100);
+		}
+	}
+
+	private void assertSliced() throws Exception {
+		assertEquals(images.size(), sink.sliced.size());
+		for (int i = 0; i < images.size(); i++) {
+			assertArrayEquals("image #" + i, images.get(i), sink.sliced.get(i));
+			assertNotNull(ImageIO.read(new ByteArrayInputStream(sink.sliced
+					.get(i))));
+		}
+	}
+
+	@Test
+	public void testSetUp() {
+		String mn = debugEntering("testSetUp");
+		assertSink(false, 0, 0, 0, sink);
+		assertEquals(0, sink.getSkippedByteCount());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testConcatenatedImages() throws Exception {
+		String mn = debugEntering("testConcatenatedImages");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		for (byte[] image : images) {
+			baos.write(image);
+		}
+		byte[] stream = baos.toByteArray();
+		slice(stream);
+		assertSliced();
+		assertSink(true, stream.length, 0, images.size(), sink);
+		assertEquals(0, sink.getSkippedByteCount());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testMultipartStream() throws Exception {
+		String mn = debugEntering("testMultipartStream");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		baos.write("HTTP/1.1 200 OK\r\n\r\n".getBytes());
+		for (byte[] image : images) {
+			baos.write("--myboundary\r\nContent-Type: image/jpeg\r\n\r\n"
+					.getBytes());
+			baos.write(image);
+			baos.write("\r\n".getBytes());
+		}
+		// a truncated image at the end of data is not sliced
+		baos.write(images.get(0), 0, 100);
+		byte[] stream = baos.toByteArray();
+		slice(stream);
+		Sleep.sleepMillis(200);
+		assertSliced();
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testMaxFrameSize() throws Exception {
+		String mn = debugEntering("testMaxFrameSize");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		baos.write(images.get(0));
+		// an image whose EOI never comes
+		baos.write(new byte[] { (byte) 0xff, (byte) 0xd8, (byte) 0xff,
+				(byte) 0xda, 0, 2 });
+		baos.write(new byte[64 * 1024]);
+		baos.write(images.get(0));
+		sink.setMaxFrameSize(32 * 1024);
+		sink.startStream(new ByteArrayInputStream(baos.toByteArray()));
+		Sleep.sleepMillis(500);
+		// the stream failed instead of skipping the corrupted image
+		assertEquals(1, sink.sliced.size());
+		assertArrayEquals(images.get(0), sink.sliced.get(0));
+		debugLeaving(mn);
+	}
+
+	private static class MySink extends JpegMarkerSink {
+
+		private List<byte[]> sliced = Collections
+				.synchronizedList(new ArrayList<byte[]>());
+
+		@Override
+		protected FrameBuffer readNextFrame() {
+			FrameBuffer result = super.readNextFrame();
+			if (result != null) {
+				byte[] data = new byte[result.length()];
+				result.asReadOnlyBuffer().get(data);
+				sliced.add(data);
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package mjpegslicer.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+import mjpegslicer.ImageDataCorruptionException;
+
+public class TestMultipartParser extends AbstractTestCase {
+
+	private static final int IMAGES = 5;
+
+	private MultipartParser parser;
+	private MyListener listener;
+	private List<byte[]> images;
+	private byte[] stream;
+
+	private void line(ByteArrayOutputStream baos, String line)
+			throws Exception {
+		baos.write(line.getBytes());
+		baos.write(0x0d);
+		baos.write(0x0a);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		String mn = debugEntering("setUp");
+		listener = new MyListener();
+		parser = new MultipartParser(listener);
+		images = new ArrayList<byte[]>();
+		Random random = new Random(4711L);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		line(baos, "HTTP/1.1 200 OK");
+		line(baos, "Content-Type: multipart/x-mixed-replace; boundary=myboundary");
+		line(baos, "");
+		for (int i = 0; i < IMAGES; i++) {
+			// binary data including CR and LF bytes
+			byte[] image = new byte[1000 + random.nextInt(5000)];
+			random.nextBytes(image);
+			images.add(image);
+			line(baos, "--myboundary");
+			line(baos, "Content-Type: image/jpeg");
+			line(baos, "Content-Length: " + image.length);
+			line(baos, "");
+			baos.write(image);
+			line(baos, "");
+		}
+		stream = baos.toByteArray();
+		debugLeaving(mn, "stream length: ", stream.length);
+	}
+
+	private void feed(int chunkSize, boolean direct) {
+		for (int pos = 0; pos < stream.length; pos += chunkSize) {
+			int len = Math.min(chunkSize, stream.length - pos);
+			ByteBuffer chunk = direct ? ByteBuffer.allocateDirect(len)
+					: ByteBuffer.allocate(len);
+			chunk.put(stream, pos, len);
+			chunk.flip();
+			parser.feed(chunk);
+			assertEquals("chunk must be consumed.", 0, chunk.remaining());
+		}
+	}
+
+	private void assertParsed() {
+		assertEquals(IMAGES + 1, listener.headers.size());
+		assertEquals(2, listener.headers.get(0).length);
+		assertEquals("HTTP/1.1 200 OK", listener.headers.get(0)[0]);
+		assertEquals("--myboundary", listener.headers.get(1)[0]);
+		assertEquals(IMAGES, listener.images.size());
+		for (int i = 0; i < IMAGES; i++) {
+			assertArrayEquals("image #" + i, images.get(i),
+					listener.images.get(i));
+		}
+		assertEquals(IMAGES + 1, parser.getHttpHeaderCount());
+		assertEquals(IMAGES, parser.getImageCount());
+		assertEquals(stream.length, parser.getByteCount());
+	}
+
+	@Test
+	public void testWholeStream() {
+		String mn = debugEntering("testWholeStream");
+		feed(stream.length, false);
+		assertParsed();
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testSingleBytes() {
+		String mn = debugEntering("testSingleBytes");
+		feed(1, false);
+		assertParsed();
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testOddChunks() {
+		String mn = debugEntering("testOddChunks");
+		feed(777, true);
+		assertParsed();
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testWithoutResponseHeader() {
+		String mn = debugEntering("testWithoutResponseHeader");
+		parser.setExpectResponseHeader(false);
+		int start = new String(stream).indexOf("--myboundary");
+		parser.feed(ByteBuffer.wrap(stream, start, stream.length - start));
+		assertEquals(IMAGES, listener.headers.size());
+		assertEquals(IMAGES, listener.images.size());
+		debugLeaving(mn);
+	}
+
+	private byte[] streamWithoutContentLength() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		line(baos, "HTTP/1.1 200 OK");
+		line(baos, "Content-Type: multipart/x-mixed-replace; boundary=\"myboundary\"");
+		line(baos, "");
+		for (byte[] image : images) {
+			line(baos, "--myboundary");
+			line(baos, "Content-Type: image/jpeg");
+			line(baos, "");
+			baos.write(image);
+			line(baos, "");
+		}
+		line(baos, "--myboundary--");
+		return baos.toByteArray();
+	}
+
+	@Test
+	public void testBoundaryScanning() throws Exception {
+		String mn = debugEntering("testBoundaryScanning");
+		stream = streamWithoutContentLength();
+		int[] chunkSizes = { stream.length, 1, 5, 777 };
+		for (int chunkSize : chunkSizes) {
+			listener = new MyListener();
+			parser = new MultipartParser(listener);
+			feed(chunkSize, chunkSize == 5);
+			assertEquals(IMAGES, listener.images.size());
+			for (int i = 0; i < IMAGES; i++) {
+				assertArrayEquals("chunk size " + chunkSize + ", image #" + i,
+						images.get(i), listener.images.get(i));
+			}
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testMaxFrameSize() throws Exception {
+		String mn = debugEntering("testMaxFrameSize");
+		byte[][] streams = { stream, streamWithoutContentLength() };
+		for (byte[] s : streams) {
+			stream = s;
+			listener = new MyListener();
+			parser = new MultipartParser(listener);
+			parser.setMaxFrameSize(999);
+			try {
+				feed(100, false);
+				failedToThrowExpectedException(mn);
+			} catch (ImageDataCorruptionException idce) {
+				foundExpectedException(mn, idce);
+			}
+			assertTrue(listener.images.isEmpty());
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testMissingContentLength() throws Exception {
+		String mn = debugEntering("testMissingContentLength");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		line(baos, "HTTP/1.1 200 OK");
+		line(baos, "");
+		line(baos, "--myboundary");
+		line(baos, "Content-Type: image/jpeg");
+		line(baos, "");
+		try {
+			parser.feed(ByteBuffer.wrap(baos.toByteArray()));
+			failedToThrowExpectedException(mn);
+		} catch (ImageDataCorruptionException idce) {
+			foundExpectedException(mn, idce);
+		}
+		assertTrue(listener.images.isEmpty());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testChunked() throws Exception {
+		String mn = debugEntering("testChunked");
+		int start = new String(stream, "ISO-8859-1").indexOf("--myboundary");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		line(baos, "HTTP/1.1 200 OK");
+		line(baos, "Content-Type: multipart/x-mixed-replace; boundary=myboundary");
+		line(baos, "Transfer-Encoding: chunked");
+		line(baos, "");
+		// the chunks do not respect the part boundaries
+		for (int pos = start; pos < stream.length; pos += 1000) {
+			int size = Math.min(1000, stream.length - pos);
+			line(baos, Integer.toHexString(size));
+			baos.write(stream, pos, size);
+			line(baos, "");
+		}
+		line(baos, "0");
+		line(baos, "");
+		stream = baos.toByteArray();
+		int[] chunkSizes = { stream.length, 1, 5, 777 };
+		for (int chunkSize : chunkSizes) {
+			listener = new MyListener();
+			parser = new MultipartParser(listener);
+			feed(chunkSize, chunkSize == 5);
+			assertEquals(IMAGES + 1, listener.headers.size());
+			assertEquals(IMAGES, listener.images.size());
+			for (int i = 0; i < IMAGES; i++) {
+				assertArrayEquals("chunk size " + chunkSize + ", image #" + i,
+						images.get(i), listener.images.get(i));
+			}
+		}
+		// read-only chunks are decoded in a buffer of the parser
+		listener = new MyListener();
+		parser = new MultipartParser(listener);
+		parser.feed(ByteBuffer.wrap(stream).asReadOnlyBuffer());
+		assertEquals(IMAGES, listener.images.size());
+		assertEquals(stream.length, parser.getByteCount());
+		debugLeaving(mn);
+	}
+
+	private class MyListener implements MultipartParser.Listener {
+
+		private List<String[]> headers = new ArrayList<String[]>();
+		private List<byte[]> images = new ArrayList<byte[]>();
+
+		@Override
+		public void httpHeader(PartHeader header) {
+			headers.add(header.toLines());
+		}
+
+		@Override
+		public void imageData(ByteBuffer data) {
+			byte[] image = new byte[data.remaining()];
+			data.get(image);
+			images.add(image);
+		}
+	}
+}
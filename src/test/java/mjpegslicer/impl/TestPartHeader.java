@@ -0,0 +1,166 @@
+package mjpegslicer.impl;
+
+import static mjpegslicer.AssertHttpHeaders.assertHttpHeaders;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+import mjpegslicer.HttpHeaders;
+import mjpegslicer.ImageEvent;
+
+public class TestPartHeader extends AbstractTestCase {
+
+	private PartHeader header;
+
+	@Before
+	public void setUp() {
+		String mn = debugEntering("setUp");
+		header = new PartHeader();
+		header.setBoundaryLookUpString("--myboundary");
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Feeds the lines of a header and checks that the header is complete
+	 * exactly after the last byte.
+	 */
+	private void parse(String... lines) {
+		StringBuilder sb = new StringBuilder();
+		for (String line : lines) {
+			sb.append(line);
+			sb.append("\r\n");
+		}
+		byte[] bytes = sb.toString().getBytes();
+		for (int i = 0; i < bytes.length; i++) {
+			assertEquals("byte #" + i, i == bytes.length - 1,
+					header.parse(bytes[i]));
+		}
+	}
+
+	@Test
+	public void testPartHeader() {
+		String mn = debugEntering("testPartHeader");
+		parse("", "--myboundary", "Content-Type: image/jpeg",
+				"Content-Length: 12345", "");
+		assertEquals(3, header.getLineCount());
+		assertArrayEquals(new String[] { "--myboundary",
+				"Content-Type: image/jpeg", "Content-Length: 12345" },
+				header.toLines());
+		assertHttpHeaders(3, true, "--myboundary", true, 12345, true,
+				"image/jpeg", header);
+		assertEquals("Content-Length", header.getKey(2));
+		assertEquals("12345", header.getValue(2));
+		assertSame(header.toHttpHeaders(), header.toHttpHeaders());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testContentLength() {
+		String mn = debugEntering("testContentLength");
+		assertContentLength(10, "content-length: 10");
+		assertContentLength(10, "CONTENT-LENGTH:\t 10");
+		assertContentLength(Integer.MAX_VALUE, "Content-Length: 2147483647");
+		assertContentLength(HttpHeaders.INVALID_CONTENT_LENGTH,
+				"Content-Length:10");
+		assertContentLength(HttpHeaders.INVALID_CONTENT_LENGTH,
+				"Content-Length: 2147483648");
+		assertContentLength(HttpHeaders.INVALID_CONTENT_LENGTH,
+				"Content-Length: 10 bytes");
+		assertContentLength(HttpHeaders.INVALID_CONTENT_LENGTH,
+				"Content-Length: ");
+		assertContentLength(HttpHeaders.INVALID_CONTENT_LENGTH,
+				"X-Content-Length: 10");
+		debugLeaving(mn);
+	}
+
+	private void assertContentLength(int expected, String line) {
+		header.clear();
+		parse(line, "");
+		assertEquals(line, expected, header.getContentLength());
+		assertEquals(line, expected != HttpHeaders.INVALID_CONTENT_LENGTH,
+				header.hasContentLength());
+	}
+
+	@Test
+	public void testContentType() {
+		String mn = debugEntering("testContentType");
+		parse("HTTP/1.1 200 OK",
+				"content-type:multipart/x-mixed-replace; boundary=myboundary",
+				"");
+		assertTrue(header.hasContentType());
+		assertEquals("multipart/x-mixed-replace; boundary=myboundary",
+				header.getContentType());
+		assertFalse(header.hasContentLength());
+		assertFalse(header.hasBoundary());
+		header.clear();
+		parse("--myboundary", "");
+		assertFalse(header.hasContentType());
+		assertNull(header.getContentType());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testTransferEncoding() {
+		String mn = debugEntering("testTransferEncoding");
+		parse("HTTP/1.1 200 OK", "transfer-encoding: gzip, Chunked", "");
+		assertTrue(header.isChunked());
+		header.clear();
+		assertFalse(header.isChunked());
+		parse("HTTP/1.1 200 OK", "Transfer-Encoding: identity", "");
+		assertFalse(header.isChunked());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testTimestamp() {
+		String mn = debugEntering("testTimestamp");
+		parse("--myboundary", "X-Timestamp: 1697640000.123456", "");
+		assertEquals(1697640000123L, header.getTimestampMillis());
+		header.clear();
+		assertEquals(ImageEvent.UNKNOWN_TIME, header.getTimestampMillis());
+		parse("--myboundary", "x-timestamp: 1697640000123", "");
+		assertEquals(1697640000123L, header.getTimestampMillis());
+		header.clear();
+		parse("--myboundary", "X-Timestamp: yesterday", "");
+		assertEquals(ImageEvent.UNKNOWN_TIME, header.getTimestampMillis());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testLineEnds() {
+		String mn = debugEntering("testLineEnds");
+		// single CR and LF bytes are dropped, as in SinkTemplate
+		byte[] bytes = "a\rb\nc\r\n\r\n".getBytes();
+		for (int i = 0; i < bytes.length - 1; i++) {
+			assertFalse(header.parse(bytes[i]));
+		}
+		assertTrue(header.parse(bytes[bytes.length - 1]));
+		assertArrayEquals(new String[] { "abc" }, header.toLines());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testLongHeader() {
+		String mn = debugEntering("testLongHeader");
+		String[] lines = new String[101];
+		StringBuilder sb = new StringBuilder("X-Padding: ");
+		for (int i = 0; i < 100; i++) {
+			sb.append("0123456789");
+		}
+		for (int i = 0; i < 100; i++) {
+			lines[i] = sb.toString() + i;
+		}
+		lines[100] = "";
+		parse(lines);
+		assertEquals(100, header.getLineCount());
+		assertEquals(lines[99], header.getLine(99));
+		debugLeaving(mn);
+	}
+}
@@ -0,0 +1,82 @@
+package mjpegslicer.impl;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+
+public class TestReconnectPolicy extends AbstractTestCase {
+
+	private ReconnectPolicy policy;
+
+	@Before
+	public void setUp() {
+		String mn = debugEntering("setUp");
+		policy = new ReconnectPolicy();
+		policy.setInitialDelayMillis(100L);
+		policy.setMaxDelayMillis(1000L);
+		debugLeaving(mn);
+	}
+
+	private void assertDelay(long expectedCeiling, int attempt) {
+		for (int i = 0; i < 100; i++) {
+			long delay = policy.nextDelayMillis(attempt);
+			assertTrue("delay too short: " + delay,
+					delay >= expectedCeiling / 2);
+			assertTrue("delay too long: " + delay, delay <= expectedCeiling);
+		}
+	}
+
+	@Test
+	public void testBackoff() {
+		String mn = debugEntering("testBackoff");
+		assertDelay(100L, 0);
+		assertDelay(200L, 1);
+		assertDelay(400L, 2);
+		assertDelay(800L, 3);
+		assertDelay(1000L, 4);
+		assertDelay(1000L, 1000);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testJitter() {
+		String mn = debugEntering("testJitter");
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (int i = 0; i < 100; i++) {
+			long delay = policy.nextDelayMillis(3);
+			min = Math.min(min, delay);
+			max = Math.max(max, delay);
+		}
+		assertTrue("delays should be spread: " + min + ".." + max,
+				max - min > 100L);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testInvalidArguments() {
+		String mn = debugEntering("testInvalidArguments");
+		try {
+			policy.nextDelayMillis(-1);
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		try {
+			policy.setMultiplier(0.5);
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		try {
+			policy.setInitialDelayMillis(0L);
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		debugLeaving(mn);
+	}
+}
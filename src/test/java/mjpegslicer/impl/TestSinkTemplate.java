@@ -1,25 +1,49 @@
 package mjpegslicer.impl;
 
 import static mjpegslicer.AssertSink.assertSink;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import mjpegslicer.AbstractTestCase;
+import mjpegslicer.HttpHeaders;
+import mjpegslicer.ImageDataCorruptionException;
+import mjpegslicer.ImageEvent;
+import mjpegslicer.ImageListener;
 import mjpegslicer.Sink;
 import mjpegslicer.impl.SinkTemplate;
+import mjpegslicer.metrics.MetricsSnapshot;
+import mjpegslicer.mockcam.BackgroundContentProvider;
+import mjpegslicer.mockcam.Camera;
+import mjpegslicer.mockcam.DefaultFeederFactory;
+import mjpegslicer.mockcam.Feeder;
+import mjpegslicer.mockcam.FeederFactory;
+import mjpegslicer.mockcam.FeederTemplate;
 import mjpegslicer.util.Sleep;
+import mjpegslicer.util.VirtualThreadStrategy;
 
 public class TestSinkTemplate extends AbstractTestCase {
 
 	private SinkTemplate template;
 	private PipedInputStream pis;
-	private PipedOutputStream pos;
+	private OutputStream pos;
 
 	private void posLine(String line) throws Exception {
 		pos.write(line.getBytes());
@@ -28,6 +52,11 @@ public class TestSinkTemplate extends AbstractTestCase {
 		pos.flush();
 	}
 
+	private void posChunk(String data, String extension) throws Exception {
+		posLine(Integer.toHexString(data.length()) + extension);
+		posLine(data);
+	}
+
 	private void posInitialHttpHeader() throws Exception {
 		posLine("HTTP/1.1 200 OK");
 		posLine("Server: testFirstHttpHeader");
@@ -47,6 +76,14 @@ public class TestSinkTemplate extends AbstractTestCase {
 		Sleep.sleepMillis(500);
 	}
 
+	private void posImageWithoutContentLength() throws Exception {
+		posLine("--myboundary");
+		posLine("Content-Type: image/jpeg");
+		posLine("");
+		posLine("0123456789"); // 10 bytes pseudo-JPEG data and CRLF
+		Sleep.sleepMillis(500);
+	}
+
 	@Before
 	public void setUp() throws Exception {
 		String mn = debugEntering("setUp");
@@ -174,4 +211,344 @@ public class TestSinkTemplate extends AbstractTestCase {
 		assertSink(true, bc, 3, 2, template);
 		debugLeaving(mn);
 	}
+
+	@Test
+	public void testImagesWithoutContentLength() throws Exception {
+		String mn = debugEntering("testImagesWithoutContentLength");
+		template.startStream(pis);
+		posInitialHttpHeader();
+		assertSink(true, template.getByteCount(), 1, 0, template);
+		assertEquals("myboundary", template.getBoundary());
+		posImageWithoutContentLength();
+		// the image ends at the next boundary only
+		assertSink(true, template.getByteCount(), 2, 0, template);
+		posImageWithoutContentLength();
+		assertSink(true, template.getByteCount(), 3, 1, template);
+		posImageWithoutContentLength();
+		assertSink(true, template.getByteCount(), 4, 2, template);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testMaxFrameSize() throws Exception {
+		String mn = debugEntering("testMaxFrameSize");
+		// the test thread slices, the runner leaves the stream alone
+		SinkTemplate sink = new SinkTemplate() {
+			@Override
+			protected boolean readStreamStart() {
+				return false;
+			}
+		};
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		baos.write("--myboundary\r\nContent-Type: image/jpeg\r\n\r\n"
+				.getBytes("US-ASCII"));
+		// a boundary that never comes
+		baos.write(new byte[64 * 1024]);
+		sink.setMaxFrameSize(16 * 1024);
+		sink.startStream(new ByteArrayInputStream(baos.toByteArray()));
+		try {
+			sink.setBoundary("myboundary");
+			assertNotNull(sink.readPartHeader());
+			sink.readImageData(HttpHeaders.INVALID_CONTENT_LENGTH);
+			failedToThrowExpectedException(mn);
+		} catch (ImageDataCorruptionException idce) {
+			foundExpectedException(mn, idce);
+		} finally {
+			sink.stopStream();
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testImageListener() throws Exception {
+		String mn = debugEntering("testImageListener");
+		final List<ImageEvent> events = new CopyOnWriteArrayList<ImageEvent>();
+		template.addImageListener(new ImageListener() {
+			@Override
+			public void newImage(ImageEvent event) {
+				events.add(event.retain());
+			}
+		});
+		template.startStream(pis);
+		posInitialHttpHeader();
+		posImage();
+		posImage();
+		assertSink(true, template.getByteCount(), 3, 2, template);
+		assertEquals(2, events.size());
+		for (int i = 0; i < events.size(); i++) {
+			ImageEvent event = events.get(i);
+			assertSame(template, event.getSource());
+			assertEquals(i, event.getSequenceNumber());
+			assertEquals("0123456789", new String(event.getImageData()));
+			event.release();
+		}
+		template.stopStream();
+		assertEquals(0, template.getFrameBufferPool().getOutstandingCount());
+		assertEquals(0L, template.getDroppedImageCount());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		String mn = debugEntering("testMetrics");
+		template.startStream(pis);
+		posInitialHttpHeader();
+		posImage();
+		posImage();
+		MetricsSnapshot snapshot = template.getMetrics().snapshot();
+		debug(mn, "snapshot: ", snapshot);
+		assertEquals(2L, snapshot.getFrameCount());
+		assertEquals(template.getByteCount(), snapshot.getByteCount());
+		assertEquals(3L, snapshot.getHeaderCount());
+		assertEquals(10L, snapshot.getFrameSizes().getMax());
+		assertEquals(2L, snapshot.getDispatchLatencies().getCount());
+		assertTrue(snapshot.getDispatchLatencies().getMax() < 500000000L);
+		assertTrue(snapshot.getFrameRate() > 0.0);
+		template.stopStream();
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testCaptureTimes() throws Exception {
+		String mn = debugEntering("testCaptureTimes");
+		final List<ImageEvent> events = new CopyOnWriteArrayList<ImageEvent>();
+		template.addImageListener(new ImageListener() {
+			@Override
+			public void newImage(ImageEvent event) {
+				events.add(event.retain());
+			}
+		});
+		template.startStream(pis);
+		posInitialHttpHeader();
+		posLine("--myboundary");
+		posLine("Content-Type: image/jpeg");
+		posLine("X-Timestamp: 1697640000.250");
+		posLine("Content-Length: 10");
+		posLine("");
+		pos.write("01234".getBytes());
+		pos.flush();
+		Sleep.sleepMillis(200);
+		posLine("56789");
+		Sleep.sleepMillis(500);
+		posImage();
+		assertEquals(2, events.size());
+		ImageEvent first = events.get(0);
+		ImageEvent second = events.get(1);
+		assertEquals(1697640000250L, first.getCameraMillis());
+		assertEquals(ImageEvent.UNKNOWN_TIME, second.getCameraMillis());
+		assertTrue(first.getTransferNanos() >= 150000000L);
+		assertTrue(second.getTransferNanos() >= 0L);
+		for (ImageEvent event : events) {
+			assertTrue(event.getFirstByteNanos() <= event.getLastByteNanos());
+			assertTrue(event.getQueueNanos() >= 0L);
+			assertTrue(event.getQueueNanos() < 500000000L);
+			event.release();
+		}
+		assertTrue(first.getLastByteNanos() < second.getFirstByteNanos());
+		MetricsSnapshot snapshot = template.getMetrics().snapshot();
+		assertEquals(2L, snapshot.getTransferLatencies().getCount());
+		assertTrue(snapshot.getTransferLatencies().getMax() >= 150000000L);
+		assertEquals(1L, snapshot.getCaptureLatencies().getCount());
+		template.stopStream();
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testWithMockCameraOnVirtualThreads() throws Exception {
+		String mn = debugEntering("testWithMockCameraOnVirtualThreads");
+		Camera camera = new Camera();
+		camera.setFeederFactory(new DefaultFeederFactory());
+		camera.setExecutorStrategy(new VirtualThreadStrategy());
+		SourceTemplate source = new SourceTemplate();
+		source.setPort(Camera.DEFAULT_PORT);
+		template.setExecutorStrategy(new VirtualThreadStrategy());
+		final AtomicInteger events = new AtomicInteger();
+		template.addImageListener(new ImageListener() {
+			@Override
+			public void newImage(ImageEvent event) {
+				events.incrementAndGet();
+			}
+		});
+		try {
+			camera.start();
+			template.startStream(source.startStream());
+			Sleep.sleepMillis(1500);
+			assertTrue("images should have been sliced.",
+					template.getImageCount() > 0);
+			template.stopStream();
+			source.stopStream();
+		} finally {
+			camera.stop();
+		}
+		assertEquals(template.getImageCount(), events.get());
+		assertEquals(0, template.getFrameBufferPool().getOutstandingCount());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testChunked() throws Exception {
+		String mn = debugEntering("testChunked");
+		// the reading thread ends with the terminal chunk, so the whole
+		// stream is prepared in advance instead of being piped
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		pos = stream;
+		posLine("HTTP/1.1 200 OK");
+		posLine("Content-Type: multipart/x-mixed-replace; boundary=myboundary");
+		posLine("Transfer-Encoding: chunked");
+		posLine("");
+		// the chunks split the part header and the image data
+		posChunk("--myboundary\r\nContent-Type: image", ";ext=1");
+		posChunk("/jpeg\r\nContent-Length: 10\r\n\r\n012", "");
+		posChunk("3456789\r\n", "");
+		// the terminal chunk ends the stream, the connection stays open
+		posLine("0");
+		posLine("");
+		posImage();
+		template.startStream(new ByteArrayInputStream(stream.toByteArray()));
+		Sleep.sleepMillis(500);
+		assertTrue(template.isChunked());
+		assertSink(true, 183, 2, 1, template);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testChunkedWithMockCamera() throws Exception {
+		String mn = debugEntering("testChunkedWithMockCamera");
+		Camera camera = new Camera();
+		camera.setFeederFactory(new FeederFactory() {
+			@Override
+			public Feeder newFeeder() {
+				Feeder result = new FeederTemplate();
+				result.setContentProvider(new BackgroundContentProvider());
+				result.setChunkSize(1000);
+				result.setMaxFrameSequenceNumber(3);
+				return result;
+			}
+		});
+		SocketChannelSource source = new SocketChannelSource();
+		source.setPort(Camera.DEFAULT_PORT);
+		template.setReconnectPolicy(newFastReconnectPolicy());
+		final List<ImageEvent> events = new CopyOnWriteArrayList<ImageEvent>();
+		template.addImageListener(new ImageListener() {
+			@Override
+			public void newImage(ImageEvent event) {
+				event.retain();
+				events.add(event);
+			}
+		});
+		try {
+			camera.start();
+			template.startSource(source);
+			assertTrue("a channel source is read into a direct buffer.",
+					template.readBuffer.isDirect());
+			Sleep.sleepMillis(2500);
+			template.stopStream();
+		} finally {
+			camera.stop();
+		}
+		// the feeds keep their connections open, so only the terminal chunks
+		// make the sink reconnect
+		debug(mn, "reconnects: ", template.getReconnectCount(), ", images: ",
+				events.size());
+		assertTrue("should have reconnected: " + template.getReconnectCount(),
+				template.getReconnectCount() >= 1);
+		assertTrue(events.size() > 3);
+		for (int i = 0; i < events.size(); i++) {
+			ImageEvent event = events.get(i);
+			assertEquals(i, event.getSequenceNumber());
+			assertNotNull("image #" + i, event.createBufferedImage());
+			event.release();
+		}
+		assertEquals(0, template.getFrameBufferPool().getOutstandingCount());
+		debugLeaving(mn);
+	}
+
+	/**
+	 * A feeder that hangs up after a few frames.
+	 */
+	private static class HangingUpFeeder extends FeederTemplate {
+
+		@Override
+		public void stop() {
+			super.stop();
+			try {
+				getOutputStream().close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	private ReconnectPolicy newFastReconnectPolicy() {
+		ReconnectPolicy result = new ReconnectPolicy();
+		result.setInitialDelayMillis(50L);
+		result.setMaxDelayMillis(100L);
+		return result;
+	}
+
+	@Test
+	public void testReconnect() throws Exception {
+		String mn = debugEntering("testReconnect");
+		Camera camera = new Camera();
+		camera.setFeederFactory(new FeederFactory() {
+			@Override
+			public Feeder newFeeder() {
+				Feeder result = new HangingUpFeeder();
+				result.setMaxFrameSequenceNumber(4);
+				return result;
+			}
+		});
+		SourceTemplate source = new SourceTemplate();
+		source.setPort(Camera.DEFAULT_PORT);
+		template.setReconnectPolicy(newFastReconnectPolicy());
+		final List<Integer> sequenceNumbers = new CopyOnWriteArrayList<Integer>();
+		template.addImageListener(new ImageListener() {
+			@Override
+			public void newImage(ImageEvent event) {
+				sequenceNumbers.add(event.getSequenceNumber());
+			}
+		});
+		try {
+			camera.start();
+			template.startSource(source);
+			assertSame(source, template.getSource());
+			assertFalse(template.readBuffer.isDirect());
+			Sleep.sleepMillis(2500);
+			template.stopStream();
+		} finally {
+			camera.stop();
+		}
+		debug(mn, "reconnects: ", template.getReconnectCount(), ", images: ",
+				sequenceNumbers);
+		assertTrue("should have reconnected: " + template.getReconnectCount(),
+				template.getReconnectCount() >= 2);
+		assertTrue(sequenceNumbers.size() > 4);
+		for (int i = 0; i < sequenceNumbers.size(); i++) {
+			assertEquals(Integer.valueOf(i), sequenceNumbers.get(i));
+		}
+		assertFalse(source.isStarted());
+		assertNull(template.getSource());
+		assertEquals(0, template.getFrameBufferPool().getOutstandingCount());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testStopWhileReconnecting() throws Exception {
+		String mn = debugEntering("testStopWhileReconnecting");
+		SourceTemplate source = new SourceTemplate();
+		source.setPort(Camera.DEFAULT_PORT);
+		ConnectionRateLimiter limiter = new ConnectionRateLimiter(100.0);
+		source.setConnectionRateLimiter(limiter);
+		template.setReconnectPolicy(newFastReconnectPolicy());
+		// no camera: each attempt is refused
+		template.startSource(source);
+		Sleep.sleepMillis(500);
+		assertTrue(template.getReconnectCount() > 0);
+		long start = System.currentTimeMillis();
+		template.stopStream();
+		assertTrue(System.currentTimeMillis() - start < 500L);
+		assertFalse(template.isStarted());
+		assertFalse(source.isStarted());
+		assertSink(false, 0, 0, 0, template);
+		debugLeaving(mn);
+	}
 }
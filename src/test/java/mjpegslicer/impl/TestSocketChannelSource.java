@@ -0,0 +1,115 @@
+package mjpegslicer.impl;
+
+import static mjpegslicer.AssertSource.assertSource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.channels.ReadableByteChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+import mjpegslicer.Source;
+import mjpegslicer.mockcam.Camera;
+import mjpegslicer.mockcam.DefaultFeederFactory;
+import mjpegslicer.util.Sleep;
+
+public class TestSocketChannelSource extends AbstractTestCase {
+
+	private SocketChannelSource source;
+	private SinkTemplate sink;
+	private Camera camera;
+
+	@Before
+	public void setUp() throws Exception {
+		String mn = debugEntering("setUp");
+		source = new SocketChannelSource();
+		source.setPort(Camera.DEFAULT_PORT);
+		sink = new SinkTemplate();
+		camera = new Camera();
+		camera.setFeederFactory(new DefaultFeederFactory());
+		debugLeaving(mn, "created: ", source);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		String mn = debugEntering("tearDown");
+		if (sink.isStarted()) {
+			sink.stopStream();
+		}
+		if (source.isStarted()) {
+			source.stopStream();
+		}
+		if (camera.isStarted()) {
+			camera.stop();
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testSetUp() {
+		String mn = debugEntering("testSetUp");
+		assertSource(Source.DEFAULT_HOST_NAME, Camera.DEFAULT_PORT,
+				Source.DEFAULT_PATH, Source.DEFAULT_USER_NAME,
+				Source.DEFAULT_PASSWORD, false, 0, source);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testStartWithoutCamera() {
+		String mn = debugEntering("testStartWithoutCamera");
+		try {
+			source.startChannel();
+			failedToThrowExpectedException(mn);
+		} catch (RuntimeException re) {
+			foundExpectedException(mn, re);
+		}
+		assertSource(Source.DEFAULT_HOST_NAME, Camera.DEFAULT_PORT,
+				Source.DEFAULT_PATH, Source.DEFAULT_USER_NAME,
+				Source.DEFAULT_PASSWORD, false, 0, source);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testLongCredentials() throws Exception {
+		String mn = debugEntering("testLongCredentials");
+		// more than 57 bytes, where line-wrapping encoders break the line
+		String userName = "a-rather-long-user-name-of-a-camera-account";
+		String password = "and-an-even-longer-password-to-go-with-it";
+		String request = source.prepareRequest("camera", 80, "/video",
+				userName, password);
+		debug(mn, "length: ", request.length());
+		String expected = "Authorization: Basic "
+				+ source.encodeCredentials(userName, password) + "\r\n";
+		assertTrue(request.contains(expected));
+		assertEquals(5, request.split("\r\n", -1).length);
+		assertFalse(request.replace("\r\n", "").contains("\n"));
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testWithMockCamera() throws Exception {
+		String mn = debugEntering("testWithMockCamera");
+		camera.start();
+		ReadableByteChannel channel = source.startChannel();
+		assertNotNull(channel);
+		try {
+			source.startChannel();
+			failedToThrowExpectedException(mn);
+		} catch (IllegalStateException ise) {
+			foundExpectedException(mn, ise);
+		}
+		sink.startChannel(channel);
+		Sleep.sleepMillis(2000);
+		debug(mn, "images: ", sink.getImageCount());
+		assertTrue("images should have been sliced.", sink.getImageCount() > 0);
+		assertTrue("byte count should be positive.", sink.getByteCount() > 0);
+		sink.stopStream();
+		source.stopStream();
+		debugLeaving(mn);
+	}
+}
@@ -0,0 +1,123 @@
+package mjpegslicer.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+
+public class TestHistogram extends AbstractTestCase {
+
+	@Test
+	public void testBuckets() {
+		String mn = debugEntering("testBuckets");
+		int bits = Histogram.DEFAULT_SUB_BUCKET_BITS;
+		int count = Histogram.bucketCount(bits);
+		assertEquals(count - 1, Histogram.bucketIndex(Long.MAX_VALUE, bits));
+		assertEquals(Long.MAX_VALUE, Histogram.upperBound(count - 1, bits));
+		for (int i = 0; i < count; i++) {
+			long lower = Histogram.lowerBound(i, bits);
+			long upper = Histogram.upperBound(i, bits);
+			assertEquals("lower bound of #" + i, i,
+					Histogram.bucketIndex(lower, bits));
+			assertEquals("upper bound of #" + i, i,
+					Histogram.bucketIndex(upper, bits));
+			if (i > 0) {
+				assertEquals(Histogram.upperBound(i - 1, bits) + 1L, lower);
+			}
+			// the relative error is bounded
+			assertTrue(upper - lower <= lower >> bits);
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testSnapshot() {
+		String mn = debugEntering("testSnapshot");
+		Histogram histogram = new Histogram();
+		HistogramSnapshot empty = histogram.snapshot();
+		assertEquals(0L, empty.getCount());
+		assertEquals(0L, empty.getValueAtPercentile(99.0));
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+		histogram.record(-5L);
+		HistogramSnapshot snapshot = histogram.snapshot();
+		debug(mn, "snapshot: ", snapshot);
+		assertEquals(1001L, snapshot.getCount());
+		assertEquals(500500L, snapshot.getSum());
+		assertEquals(1000L, snapshot.getMax());
+		assertEquals(0L, snapshot.getMin());
+		assertEquals(500.0, snapshot.getMean(), 0.5);
+		assertPercentile(500L, snapshot.getValueAtPercentile(50.0));
+		assertPercentile(990L, snapshot.getValueAtPercentile(99.0));
+		assertEquals(1000L, snapshot.getValueAtPercentile(100.0));
+		debugLeaving(mn);
+	}
+
+	private void assertPercentile(long expected, long actual) {
+		assertTrue(actual + " should be about " + expected, actual >= expected
+				&& actual <= expected + (expected >> 4));
+	}
+
+	@Test
+	public void testConcurrentRecording() throws Exception {
+		String mn = debugEntering("testConcurrentRecording");
+		final Histogram histogram = new Histogram();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						histogram.record(j);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		HistogramSnapshot snapshot = histogram.snapshot();
+		assertEquals(40000L, snapshot.getCount());
+		assertEquals(4L * 49995000L, snapshot.getSum());
+		assertEquals(9999L, snapshot.getMax());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testNoAllocation() {
+		String mn = debugEntering("testNoAllocation");
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+			debugLeaving(mn, "allocation counter not available.");
+			return;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		Histogram histogram = new Histogram();
+		StripedCounter counter = new StripedCounter();
+		Random random = new Random(4711L);
+		long[] values = new long[1000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextLong();
+		}
+		// the first rounds warm up the counting itself
+		long allocated = 0L;
+		for (int round = 0; round < 3; round++) {
+			long before = threads.getThreadAllocatedBytes(id);
+			for (long value : values) {
+				histogram.record(value);
+				counter.add(value);
+			}
+			allocated = threads.getThreadAllocatedBytes(id) - before;
+		}
+		assertEquals(0L, allocated);
+		debugLeaving(mn);
+	}
+}
@@ -0,0 +1,78 @@
+package mjpegslicer.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.SortedMap;
+
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+import mjpegslicer.util.Sleep;
+
+public class TestMetricsRegistry extends AbstractTestCase {
+
+	@Test
+	public void testRegister() {
+		String mn = debugEntering("testRegister");
+		MetricsRegistry registry = new MetricsRegistry();
+		StreamMetrics metrics = new StreamMetrics();
+		registry.register("cam1", metrics);
+		registry.register("cam1", metrics);
+		assertSame(metrics, registry.get("cam1"));
+		try {
+			registry.register("cam1", new StreamMetrics());
+			failedToThrowExpectedException(mn);
+		} catch (IllegalStateException ise) {
+			foundExpectedException(mn, ise);
+		}
+		assertSame(metrics, registry.unregister("cam1"));
+		assertNull(registry.get("cam1"));
+		assertNull(registry.unregister("cam1"));
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testSnapshot() {
+		String mn = debugEntering("testSnapshot");
+		MetricsRegistry registry = new MetricsRegistry();
+		StreamMetrics cam2 = new StreamMetrics();
+		StreamMetrics cam1 = new StreamMetrics();
+		registry.register("cam2", cam2);
+		registry.register("cam1", cam1);
+		MetricsSnapshot before = cam1.snapshot();
+		Sleep.sleepMillis(100);
+		for (int i = 0; i < 10; i++) {
+			cam1.headerRead();
+			cam1.bytesRead(1100);
+			cam1.frameRead(1000);
+			cam1.frameDispatched(5000000L);
+		}
+		cam1.frameDropped();
+		cam1.reconnected();
+		SortedMap<String, MetricsSnapshot> snapshots = registry.snapshot();
+		assertEquals("cam1", snapshots.firstKey());
+		assertEquals(2, snapshots.size());
+		MetricsSnapshot snapshot = snapshots.get("cam1");
+		debug(mn, "snapshot: ", snapshot);
+		assertEquals(10L, snapshot.getFrameCount());
+		assertEquals(11000L, snapshot.getByteCount());
+		assertEquals(10L, snapshot.getHeaderCount());
+		assertEquals(1L, snapshot.getDroppedCount());
+		assertEquals(1L, snapshot.getReconnectCount());
+		assertEquals(1000L, snapshot.getFrameSizes().getMax());
+		assertEquals(10L, snapshot.getDispatchLatencies().getCount());
+		assertTrue(snapshot.getElapsedNanos() >= before.getElapsedNanos()
+				+ 100000000L);
+		// 10 frames within at least 100 ms
+		assertTrue(snapshot.getFrameRate(before) <= 100.0);
+		assertTrue(snapshot.getFrameRate(before) > 0.0);
+		assertEquals(1100.0 * snapshot.getFrameRate(before),
+				snapshot.getByteRate(before), 0.001);
+		assertEquals(0L, snapshots.get("cam2").getFrameCount());
+		assertEquals(0.0, snapshots.get("cam2").getByteRate(), 0.0);
+		debugLeaving(mn);
+	}
+}
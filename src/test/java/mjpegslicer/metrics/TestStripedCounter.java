@@ -0,0 +1,46 @@
+package mjpegslicer.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+
+public class TestStripedCounter extends AbstractTestCase {
+
+	@Test
+	public void testStripeCount() {
+		String mn = debugEntering("testStripeCount");
+		assertEquals(1, new StripedCounter(0).getStripeCount());
+		assertEquals(1, new StripedCounter(1).getStripeCount());
+		assertEquals(4, new StripedCounter(3).getStripeCount());
+		assertEquals(8, new StripedCounter(8).getStripeCount());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testConcurrentUpdates() throws Exception {
+		String mn = debugEntering("testConcurrentUpdates");
+		final StripedCounter counter = new StripedCounter(4);
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						counter.increment();
+						counter.add(2L);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(8L * 30000L, counter.sum());
+		counter.add(-240000L);
+		assertEquals(0L, counter.sum());
+		debugLeaving(mn);
+	}
+}
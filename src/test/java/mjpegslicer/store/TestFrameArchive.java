@@ -0,0 +1,211 @@
+package mjpegslicer.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+import mjpegslicer.ImageEvent;
+
+public class TestFrameArchive extends AbstractTestCase {
+
+	private static final int COUNT = 30;
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		String mn = debugEntering("setUp");
+		directory = File.createTempFile("archive-", "");
+		assertTrue(directory.delete());
+		debugLeaving(mn, "directory: ", directory);
+	}
+
+	@After
+	public void tearDown() {
+		String mn = debugEntering("tearDown");
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+		debugLeaving(mn);
+	}
+
+	/**
+	 * Records images captured every second over several segments.
+	 */
+	private FrameRecorder record() throws Exception {
+		FrameRecorder recorder = new FrameRecorder(directory);
+		recorder.setMaxSegmentBytes(1000L);
+		recorder.start();
+		for (int i = 0; i < COUNT; i++) {
+			recorder.newImage(TestFrameRecorder.createEvent(i, 100 + i));
+		}
+		return recorder;
+	}
+
+	private void assertFrame(int sequenceNumber, FrameSlice frame) {
+		assertEquals(sequenceNumber, frame.getSequenceNumber());
+		assertEquals(1000L * sequenceNumber, frame.getReceivedMillis());
+		assertEquals(ImageEvent.UNKNOWN_TIME, frame.getCameraMillis());
+		assertArrayEquals(TestFrameRecorder.createImageData(sequenceNumber,
+				100 + sequenceNumber), frame.getImageData());
+	}
+
+	private void assertArchive(FrameArchive archive) {
+		assertEquals(COUNT, archive.getFrameCount());
+		assertTrue(archive.getSegmentCount() > 1);
+		assertNull(archive.findByTime(-1L));
+		assertFrame(0, archive.findByTime(0L));
+		assertFrame(5, archive.findByTime(5999L));
+		assertFrame(COUNT - 1, archive.findByTime(Long.MAX_VALUE));
+		for (int i = 0; i < COUNT; i++) {
+			assertFrame(i, archive.findByTime(1000L * i));
+			assertFrame(i, archive.findBySequenceNumber(i));
+		}
+		assertNull(archive.findBySequenceNumber(COUNT));
+		Iterator<FrameSlice> range = archive.range(4500L, 12000L);
+		for (int i = 5; i < 12; i++) {
+			assertTrue(range.hasNext());
+			assertFrame(i, range.next());
+		}
+		assertFalse(range.hasNext());
+		assertFalse(archive.range(1000L * COUNT, Long.MAX_VALUE).hasNext());
+	}
+
+	@Test
+	public void testFind() throws Exception {
+		String mn = debugEntering("testFind");
+		record().close();
+		File[] segments = FrameRecorder.listSegments(directory);
+		for (File segment : segments) {
+			assertTrue(SegmentIndex.indexFileOf(segment).isFile());
+		}
+		FrameArchive archive = new FrameArchive(directory);
+		debug(mn, "archive: ", archive);
+		assertEquals(segments.length, archive.getSegmentCount());
+		assertArchive(archive);
+		FrameSlice frame = archive.findBySequenceNumber(7);
+		assertEquals(107, frame.getLength());
+		assertTrue(frame.getImageBuffer().isReadOnly());
+		Iterator<FrameSlice> range = archive.range(0L, Long.MAX_VALUE);
+		archive.close();
+		// the slices outlive the archive
+		assertFrame(7, frame);
+		try {
+			archive.findByTime(0L);
+			failedToThrowExpectedException(mn);
+		} catch (IllegalStateException ise) {
+			foundExpectedException(mn, ise);
+		}
+		try {
+			range.hasNext();
+			failedToThrowExpectedException(mn);
+		} catch (IllegalStateException ise) {
+			foundExpectedException(mn, ise);
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testWithoutIndexFiles() throws Exception {
+		String mn = debugEntering("testWithoutIndexFiles");
+		record().close();
+		for (File segment : FrameRecorder.listSegments(directory)) {
+			assertTrue(SegmentIndex.indexFileOf(segment).delete());
+		}
+		assertArchive(new FrameArchive(directory));
+		// a recovered segment is indexed on start
+		FrameRecorder recorder = new FrameRecorder(directory);
+		recorder.start();
+		File[] segments = FrameRecorder.listSegments(directory);
+		assertTrue(SegmentIndex.indexFileOf(segments[segments.length - 2])
+				.isFile());
+		recorder.close();
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testRecording() throws Exception {
+		String mn = debugEntering("testRecording");
+		FrameRecorder recorder = record();
+		try {
+			recorder.commit();
+			assertArchive(new FrameArchive(directory));
+		} finally {
+			recorder.close();
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testClockAndSequenceRestart() throws Exception {
+		String mn = debugEntering("testClockAndSequenceRestart");
+		FrameRecorder recorder = new FrameRecorder(directory);
+		recorder.start();
+		long[] millis = { 1000L, 2000L, 1500L, 3000L, 4000L, 4500L, 4600L,
+				5000L };
+		int[] sequenceNumbers = { 0, 1, 2, 3, 4, 0, 1, 2 };
+		// a camera clock far in the future
+		long bogusMillis = 4000000000000L;
+		for (int i = 0; i < millis.length; i++) {
+			ImageEvent event = new ImageEvent(this, millis[i],
+					sequenceNumbers[i], TestFrameRecorder.createImageData(i,
+							10));
+			if (i == 3) {
+				event.setCaptureTimes(0L, 0L, bogusMillis);
+			}
+			recorder.newImage(event);
+		}
+		// the camera reconnected with new sequence numbers
+		assertEquals(1L, recorder.getSegmentIndex());
+		recorder.close();
+		FrameArchive archive = new FrameArchive(directory);
+		assertEquals(2, archive.getSegmentCount());
+		// the local clock that went back is indexed as the time before
+		assertEquals(1500L, archive.findByTime(2000L).getReceivedMillis());
+		// the camera time is recorded, but not indexed
+		FrameSlice frame = archive.findByTime(3500L);
+		assertEquals(3000L, frame.getReceivedMillis());
+		assertEquals(bogusMillis, frame.getCameraMillis());
+		assertEquals(4000L, archive.findByTime(4000L).getReceivedMillis());
+		assertEquals(4600L, archive.findByTime(4999L).getReceivedMillis());
+		assertEquals(5000L, archive.findByTime(5000L).getReceivedMillis());
+		// the newest record with a sequence number wins
+		assertEquals(4600L, archive.findBySequenceNumber(1)
+				.getReceivedMillis());
+		assertEquals(3000L, archive.findBySequenceNumber(3)
+				.getReceivedMillis());
+		Iterator<FrameSlice> range = archive.range(Long.MIN_VALUE,
+				Long.MAX_VALUE);
+		for (int i = 0; i < millis.length; i++) {
+			assertTrue(range.hasNext());
+			assertEquals(millis[i], range.next().getReceivedMillis());
+		}
+		assertFalse(range.hasNext());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		String mn = debugEntering("testEmpty");
+		FrameArchive archive = new FrameArchive(directory);
+		assertEquals(0, archive.getSegmentCount());
+		assertNull(archive.findByTime(0L));
+		assertNull(archive.findBySequenceNumber(0));
+		assertFalse(archive.range(Long.MIN_VALUE, Long.MAX_VALUE).hasNext());
+		debugLeaving(mn);
+	}
+}
@@ -0,0 +1,252 @@
+package mjpegslicer.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+import mjpegslicer.ImageEvent;
+import mjpegslicer.util.Sleep;
+
+public class TestFrameRecorder extends AbstractTestCase {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		String mn = debugEntering("setUp");
+		directory = File.createTempFile("recorder-", "");
+		assertTrue(directory.delete());
+		debugLeaving(mn, "directory: ", directory);
+	}
+
+	@After
+	public void tearDown() {
+		String mn = debugEntering("tearDown");
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+		debugLeaving(mn);
+	}
+
+	static byte[] createImageData(int sequenceNumber, int length) {
+		byte[] result = new byte[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = (byte) (sequenceNumber + i);
+		}
+		return result;
+	}
+
+	static ImageEvent createEvent(int sequenceNumber, int length) {
+		return new ImageEvent(TestFrameRecorder.class, 1000L * sequenceNumber,
+				sequenceNumber, createImageData(sequenceNumber, length));
+	}
+
+	/**
+	 * Reads all records of a directory and checks their contents.
+	 */
+	private List<Integer> readAll() throws Exception {
+		List<Integer> result = new ArrayList<Integer>();
+		for (File file : FrameRecorder.listSegments(directory)) {
+			SegmentReader reader = new SegmentReader(file);
+			try {
+				while (reader.next()) {
+					int sequenceNumber = reader.getSequenceNumber();
+					assertEquals(1000L * sequenceNumber,
+							reader.getReceivedMillis());
+					assertEquals(ImageEvent.UNKNOWN_TIME,
+							reader.getCameraMillis());
+					assertArrayEquals(createImageData(sequenceNumber,
+							reader.getLength()), reader.getImageData());
+					result.add(sequenceNumber);
+				}
+				assertFalse(reader.isTorn());
+			} finally {
+				reader.close();
+			}
+		}
+		return result;
+	}
+
+	@Test
+	public void testAppendAndRead() throws Exception {
+		String mn = debugEntering("testAppendAndRead");
+		FrameRecorder recorder = new FrameRecorder(directory);
+		recorder.setBufferSize(1000);
+		recorder.start();
+		for (int i = 0; i < 20; i++) {
+			// some images are larger than the buffer
+			recorder.newImage(createEvent(i, 100 * i + 1));
+		}
+		recorder.close();
+		debug(mn, "recorder: ", recorder);
+		assertEquals(20L, recorder.getRecordCount());
+		assertEquals(0L, recorder.getFailedCount());
+		assertEquals(1, FrameRecorder.listSegments(directory).length);
+		List<Integer> read = readAll();
+		assertEquals(20, read.size());
+		for (int i = 0; i < 20; i++) {
+			assertEquals(Integer.valueOf(i), read.get(i));
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testRolling() throws Exception {
+		String mn = debugEntering("testRolling");
+		final List<File> completed = new ArrayList<File>();
+		FrameRecorder recorder = new FrameRecorder(directory) {
+			@Override
+			protected void segmentCompleted(File file) {
+				completed.add(file);
+			}
+		};
+		recorder.setMaxSegmentBytes(3 * (RecordFormat.HEADER_SIZE + 100));
+		recorder.start();
+		for (int i = 0; i < 7; i++) {
+			recorder.newImage(createEvent(i, 100));
+		}
+		assertEquals(2L, recorder.getSegmentIndex());
+		recorder.close();
+		File[] segments = FrameRecorder.listSegments(directory);
+		assertEquals(3, segments.length);
+		assertEquals(3, completed.size());
+		assertEquals(segments[2], completed.get(2));
+		assertEquals(7, readAll().size());
+		// the age rolls over too
+		recorder = new FrameRecorder(directory);
+		recorder.setMaxSegmentMillis(50L);
+		recorder.start();
+		recorder.newImage(createEvent(7, 10));
+		Sleep.sleepMillis(100);
+		recorder.newImage(createEvent(8, 10));
+		recorder.close();
+		assertEquals(5, FrameRecorder.listSegments(directory).length);
+		assertEquals(9, readAll().size());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testGroupCommit() throws Exception {
+		String mn = debugEntering("testGroupCommit");
+		FrameRecorder recorder = new FrameRecorder(directory);
+		recorder.setCommitIntervalMillis(50L);
+		recorder.start();
+		for (int i = 0; i < 100; i++) {
+			recorder.newImage(createEvent(i, 50));
+		}
+		Sleep.sleepMillis(300);
+		// the records are on disk without a close
+		assertEquals(100L * (RecordFormat.HEADER_SIZE + 50),
+				FrameRecorder.listSegments(directory)[0].length());
+		assertTrue(recorder.getCommitCount() >= 1L);
+		assertTrue(recorder.getCommitCount() < 100L);
+		recorder.commit();
+		recorder.close();
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testRecovery() throws Exception {
+		String mn = debugEntering("testRecovery");
+		FrameRecorder recorder = new FrameRecorder(directory);
+		recorder.start();
+		for (int i = 0; i < 5; i++) {
+			recorder.newImage(createEvent(i, 100));
+		}
+		recorder.close();
+		// a crash in the middle of the last record
+		File segment = FrameRecorder.listSegments(directory)[0];
+		long intact = segment.length();
+		RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+		raf.setLength(intact - 30);
+		raf.close();
+		recorder = new FrameRecorder(directory);
+		recorder.start();
+		assertEquals(RecordFormat.HEADER_SIZE + 100 - 30,
+				recorder.getRecoveredBytes());
+		assertEquals(intact - RecordFormat.HEADER_SIZE - 100, segment.length());
+		recorder.newImage(createEvent(5, 100));
+		recorder.close();
+		List<Integer> read = readAll();
+		assertEquals(5, read.size());
+		assertEquals(Integer.valueOf(3), read.get(3));
+		assertEquals(Integer.valueOf(5), read.get(4));
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testWriteFailure() throws Exception {
+		String mn = debugEntering("testWriteFailure");
+		FrameRecorder recorder = new FrameRecorder(directory);
+		recorder.setBufferSize(1000);
+		recorder.start();
+		recorder.newImage(createEvent(0, 100));
+		recorder.newImage(createEvent(1, 100));
+		recorder.commit();
+		recorder.newImage(createEvent(2, 100));
+		// the disk fails while record 2 is buffered
+		Field field = FrameRecorder.class.getDeclaredField("segment");
+		field.setAccessible(true);
+		((FileChannel) field.get(recorder)).close();
+		recorder.newImage(createEvent(3, 2000));
+		assertEquals(2L, recorder.getFailedCount());
+		assertEquals(2L, recorder.getRecordCount());
+		assertEquals(1L, recorder.getSegmentIndex());
+		// the recorder goes on with the next segment
+		for (int i = 4; i < 20; i++) {
+			recorder.newImage(createEvent(i, 100 * i));
+		}
+		recorder.close();
+		assertEquals(2L, recorder.getFailedCount());
+		assertEquals(18L, recorder.getRecordCount());
+		List<Integer> read = readAll();
+		assertEquals(18, read.size());
+		assertEquals(Integer.valueOf(1), read.get(1));
+		assertEquals(Integer.valueOf(4), read.get(2));
+		assertEquals(18L, new FrameArchive(directory).getFrameCount());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testNotStarted() throws Exception {
+		String mn = debugEntering("testNotStarted");
+		FrameRecorder recorder = new FrameRecorder(directory);
+		recorder.newImage(createEvent(0, 10));
+		assertEquals(1L, recorder.getFailedCount());
+		try {
+			// a segment must be mappable
+			recorder.setMaxSegmentBytes(Integer.MAX_VALUE + 1L);
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		recorder.start();
+		try {
+			recorder.setBufferSize(4096);
+			failedToThrowExpectedException(mn);
+		} catch (IllegalStateException ise) {
+			foundExpectedException(mn, ise);
+		}
+		recorder.close();
+		// an empty segment is not kept
+		assertEquals(0, FrameRecorder.listSegments(directory).length);
+		debugLeaving(mn);
+	}
+}
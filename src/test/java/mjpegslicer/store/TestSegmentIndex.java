@@ -0,0 +1,111 @@
+package mjpegslicer.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+
+public class TestSegmentIndex extends AbstractTestCase {
+
+	private static final int COUNT = 200;
+
+	/**
+	 * Returns an index with irregular time steps, sequence numbers that wrap
+	 * around and offsets beyond 4 GiB.
+	 */
+	private static SegmentIndex.Builder createBuilder() {
+		SegmentIndex.Builder result = new SegmentIndex.Builder();
+		for (int i = 0; i < COUNT; i++) {
+			result.add(1000000L + 40L * i + (i % 3), Integer.MAX_VALUE - 100
+					+ i, 5000000000L + 1000L * i);
+		}
+		return result;
+	}
+
+	@Test
+	public void testEntries() throws Exception {
+		String mn = debugEntering("testEntries");
+		SegmentIndex index = new SegmentIndex(createBuilder().encode());
+		assertEquals(COUNT, index.getCount());
+		for (int i = 0; i < COUNT; i++) {
+			assertEquals(1000000L + 40L * i + (i % 3), index.getReceivedMillis(i));
+			assertEquals(Integer.MAX_VALUE - 100 + i, index.getSequenceNumber(i));
+			assertEquals(5000000000L + 1000L * i, index.getOffset(i));
+		}
+		debug(mn, "index: ", index);
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testSearches() throws Exception {
+		String mn = debugEntering("testSearches");
+		SegmentIndex index = new SegmentIndex(createBuilder().encode());
+		assertEquals(-1, index.floorOfTime(999999L));
+		assertEquals(0, index.ceilingOfTime(999999L));
+		assertEquals(0, index.floorOfTime(1000000L));
+		assertEquals(99, index.floorOfTime(1000000L + 40L * 100 - 1));
+		assertEquals(100, index.ceilingOfTime(1000000L + 40L * 100 - 1));
+		assertEquals(100, index.floorOfTime(1000000L + 40L * 100 + 1));
+		assertEquals(COUNT - 1, index.floorOfTime(Long.MAX_VALUE));
+		assertEquals(COUNT, index.ceilingOfTime(Long.MAX_VALUE));
+		for (int i = 0; i < COUNT; i++) {
+			assertEquals(i, index.indexOfSequenceNumber(Integer.MAX_VALUE - 100
+					+ i));
+		}
+		assertEquals(-1, index.indexOfSequenceNumber(0));
+		assertEquals(-1, index.indexOfSequenceNumber(Integer.MAX_VALUE - 101));
+		SegmentIndex empty = new SegmentIndex(new SegmentIndex.Builder()
+				.encode());
+		assertEquals(-1, empty.floorOfTime(0L));
+		assertEquals(-1, empty.indexOfSequenceNumber(0));
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testTimeLeap() throws Exception {
+		String mn = debugEntering("testTimeLeap");
+		SegmentIndex.Builder builder = new SegmentIndex.Builder();
+		builder.add(0L, 0, 0L);
+		builder.add(1L << 40, 1, 100L);
+		try {
+			builder.encode();
+			failedToThrowExpectedException(mn);
+		} catch (IOException ioe) {
+			foundExpectedException(mn, ioe);
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testFile() throws Exception {
+		String mn = debugEntering("testFile");
+		File segment = File.createTempFile("index-", RecordFormat.SEGMENT_SUFFIX);
+		File file = SegmentIndex.write(segment, createBuilder().encode());
+		try {
+			assertEquals(SegmentIndex.indexFileOf(segment), file);
+			assertTrue(file.getName().endsWith(SegmentIndex.INDEX_SUFFIX));
+			SegmentIndex index = SegmentIndex.open(file);
+			assertEquals(COUNT, index.getCount());
+			assertEquals(5000000000L + 1000L * 150, index.getOffset(150));
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.setLength(raf.length() - 4);
+			raf.close();
+			try {
+				SegmentIndex.open(file);
+				failedToThrowExpectedException(mn);
+			} catch (IOException ioe) {
+				foundExpectedException(mn, ioe);
+			}
+		} finally {
+			file.delete();
+			segment.delete();
+		}
+		debugLeaving(mn);
+	}
+}
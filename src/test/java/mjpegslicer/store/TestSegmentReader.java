@@ -0,0 +1,109 @@
+package mjpegslicer.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+
+public class TestSegmentReader extends AbstractTestCase {
+
+	private File directory;
+	private File segment;
+
+	@Before
+	public void setUp() throws Exception {
+		String mn = debugEntering("setUp");
+		directory = File.createTempFile("segment-", "");
+		assertTrue(directory.delete());
+		FrameRecorder recorder = new FrameRecorder(directory);
+		recorder.start();
+		for (int i = 0; i < 3; i++) {
+			recorder.newImage(TestFrameRecorder.createEvent(i, 40));
+		}
+		recorder.close();
+		segment = FrameRecorder.listSegments(directory)[0];
+		debugLeaving(mn, "segment: ", segment);
+	}
+
+	@After
+	public void tearDown() {
+		SegmentIndex.indexFileOf(segment).delete();
+		segment.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void testSegmentNames() {
+		String mn = debugEntering("testSegmentNames");
+		assertEquals("0000000000000042.mjseg", RecordFormat.segmentName(42L));
+		assertEquals(42L, RecordFormat.segmentIndex("0000000000000042.mjseg"));
+		assertEquals(-1L, RecordFormat.segmentIndex("000000000000004x.mjseg"));
+		assertEquals(-1L, RecordFormat.segmentIndex("42.mjseg"));
+		assertEquals(-1L, RecordFormat.segmentIndex("0000000000000042.jpg"));
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testRead() throws Exception {
+		String mn = debugEntering("testRead");
+		SegmentReader reader = new SegmentReader(segment);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(reader.next());
+			assertEquals(i, reader.getSequenceNumber());
+			assertEquals(i * (RecordFormat.HEADER_SIZE + 40L),
+					reader.getRecordOffset());
+			assertEquals(40, reader.getImageBuffer().remaining());
+		}
+		assertFalse(reader.next());
+		assertFalse(reader.isTorn());
+		assertEquals(segment.length(), reader.getValidLength());
+		reader.close();
+		debugLeaving(mn);
+	}
+
+	private void assertTornAt(int validRecords) throws Exception {
+		SegmentReader reader = new SegmentReader(segment);
+		try {
+			for (int i = 0; i < validRecords; i++) {
+				assertTrue(reader.next());
+			}
+			assertFalse(reader.next());
+			assertTrue(reader.isTorn());
+			assertEquals(validRecords * (RecordFormat.HEADER_SIZE + 40L),
+					reader.getValidLength());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testCorruptData() throws Exception {
+		String mn = debugEntering("testCorruptData");
+		RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+		// a flipped bit in the image data of the second record
+		raf.seek(RecordFormat.HEADER_SIZE + 40 + RecordFormat.HEADER_SIZE + 5);
+		int b = raf.read();
+		raf.seek(raf.getFilePointer() - 1);
+		raf.write(b ^ 1);
+		assertTornAt(1);
+		// a length that leads out of the file
+		raf.seek(16);
+		raf.writeInt(1000);
+		assertTornAt(0);
+		raf.close();
+		// a truncated header
+		raf = new RandomAccessFile(segment, "rw");
+		raf.setLength(10);
+		raf.close();
+		assertTornAt(0);
+		debugLeaving(mn);
+	}
+}
@@ -0,0 +1,61 @@
+package mjpegslicer.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+
+public class TestExecutorStrategy extends AbstractTestCase {
+
+	/**
+	 * Runs a task by the strategy and returns the thread that ran it.
+	 */
+	private Thread runTask(ExecutorStrategy strategy) throws Exception {
+		final AtomicReference<Thread> result = new AtomicReference<Thread>();
+		ExecutorService executor = strategy.newExecutor();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				result.set(Thread.currentThread());
+			}
+		});
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		return result.get();
+	}
+
+	private static boolean isVirtual(Thread thread) throws Exception {
+		try {
+			return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+		} catch (NoSuchMethodException nsme) {
+			return false;
+		}
+	}
+
+	@Test
+	public void testPlatformThreadStrategy() throws Exception {
+		String mn = debugEntering("testPlatformThreadStrategy");
+		Thread thread = runTask(new PlatformThreadStrategy());
+		assertTrue(thread != Thread.currentThread());
+		assertEquals(false, isVirtual(thread));
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testVirtualThreadStrategy() throws Exception {
+		String mn = debugEntering("testVirtualThreadStrategy");
+		Thread thread = runTask(new VirtualThreadStrategy());
+		debug(mn, "supported: ", VirtualThreadStrategy.isSupported(),
+				", thread: ", thread);
+		assertTrue(thread != Thread.currentThread());
+		// platform threads are the fallback on older runtimes
+		assertEquals(VirtualThreadStrategy.isSupported(), isVirtual(thread));
+		debugLeaving(mn);
+	}
+}
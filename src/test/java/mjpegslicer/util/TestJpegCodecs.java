@@ -0,0 +1,126 @@
+package mjpegslicer.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+
+public class TestJpegCodecs extends AbstractTestCase {
+
+	private static BufferedImage createImage(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g2d = image.createGraphics();
+		g2d.setPaint(Color.BLUE);
+		g2d.fillRect(0, 0, width / 2, height);
+		g2d.setPaint(Color.YELLOW);
+		g2d.fillRect(width / 2, 0, width - width / 2, height);
+		g2d.dispose();
+		return image;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		String mn = debugEntering("testRoundTrip");
+		JpegCodecs.prewarm();
+		BufferedImage image = createImage(64, 32);
+		byte[] data = JpegCodecs.write(image);
+		debug(mn, "data length: ", data.length);
+		// the codecs of the thread are reused, the results must not change
+		assertTrue(Arrays.equals(data, JpegCodecs.write(image)));
+		BufferedImage expected = ImageIO.read(new ByteArrayInputStream(data));
+		for (int round = 0; round < 2; round++) {
+			BufferedImage decoded = JpegCodecs.read(data, 0, data.length, null);
+			assertEquals(64, decoded.getWidth());
+			assertEquals(32, decoded.getHeight());
+			assertEquals(expected.getRGB(10, 10), decoded.getRGB(10, 10));
+			assertEquals(expected.getRGB(50, 20), decoded.getRGB(50, 20));
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testReadRange() throws Exception {
+		String mn = debugEntering("testReadRange");
+		byte[] data = JpegCodecs.write(createImage(40, 20));
+		byte[] padded = new byte[data.length + 10];
+		System.arraycopy(data, 0, padded, 7, data.length);
+		ImageReadParam param = new ImageReadParam();
+		param.setSourceSubsampling(2, 2, 0, 0);
+		BufferedImage decoded = JpegCodecs.read(padded, 7, data.length, param);
+		assertEquals(20, decoded.getWidth());
+		assertEquals(10, decoded.getHeight());
+		try {
+			JpegCodecs.read(padded, 7, padded.length, null);
+			failedToThrowExpectedException(mn);
+		} catch (IllegalArgumentException iae) {
+			foundExpectedException(mn, iae);
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testCorruptData() throws Exception {
+		String mn = debugEntering("testCorruptData");
+		byte[] data = "0123456789".getBytes();
+		try {
+			JpegCodecs.read(data, 0, data.length, null);
+			failedToThrowExpectedException(mn);
+		} catch (IOException ioe) {
+			foundExpectedException(mn, ioe);
+		}
+		// the failure must not break the codecs of the thread
+		data = JpegCodecs.write(createImage(8, 8));
+		assertEquals(8, JpegCodecs.read(data, 0, data.length, null).getWidth());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testThreads() throws Exception {
+		String mn = debugEntering("testThreads");
+		final byte[] data = JpegCodecs.write(createImage(32, 32));
+		final Throwable[] failure = new Throwable[1];
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < 20; j++) {
+							BufferedImage image = JpegCodecs.read(data, 0,
+									data.length, null);
+							JpegCodecs.write(image);
+						}
+					} catch (Throwable t) {
+						synchronized (failure) {
+							failure[0] = t;
+						}
+					} finally {
+						JpegCodecs.dispose();
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		synchronized (failure) {
+			assertNull(failure[0]);
+		}
+		debugLeaving(mn);
+	}
+}
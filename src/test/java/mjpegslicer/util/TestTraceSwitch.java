@@ -0,0 +1,101 @@
+package mjpegslicer.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+import mjpegslicer.AbstractTestCase;
+
+public class TestTraceSwitch extends AbstractTestCase {
+
+	private static class Traced extends LoggableObject {
+
+		private final Object value = new Object();
+
+		private int work(int i) {
+			String mn = debugEntering("work");
+			debugEntering(mn, "value: ", value);
+			debug(mn);
+			debug(mn, "value: ", value);
+			Validator.checkState(mn, i >= 0, "must not be negative.");
+			Validator.checkArgument(mn, "i", i, i < Integer.MAX_VALUE,
+					"too large.");
+			Validator.checkArgument(mn, "value", value, value != null,
+					"must not be null.");
+			debugLeaving(mn, "result: ", value);
+			debugLeaving(mn);
+			return i + 1;
+		}
+	}
+
+	@Test
+	public void testForClass() {
+		String mn = debugEntering("testForClass");
+		TraceSwitch traced = TraceSwitch.forClass(Traced.class);
+		assertSame(traced, TraceSwitch.forClass(Traced.class));
+		assertNotSame(traced, TraceSwitch.forClass(LoggableObject.class));
+		assertEquals("TestTraceSwitch$Traced", traced.getSimpleClassName());
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testSetEnabled() {
+		String mn = debugEntering("testSetEnabled");
+		TraceSwitch traced = TraceSwitch.forClass(Traced.class);
+		boolean before = traced.isEnabled();
+		try {
+			Traced first = new Traced();
+			traced.setEnabled(false);
+			Traced second = new Traced();
+			assertFalse(first.isTraceEnabled());
+			assertFalse(second.isTraceEnabled());
+			assertTrue(new LoggableObject().isTraceEnabled() == TraceSwitch
+					.forClass(LoggableObject.class).isEnabled());
+			traced.setEnabled(true);
+			assertTrue(first.isTraceEnabled());
+			assertEquals(2, first.work(1));
+		} finally {
+			traced.setEnabled(before);
+		}
+		debugLeaving(mn);
+	}
+
+	@Test
+	public void testNoAllocationWhenDisabled() {
+		String mn = debugEntering("testNoAllocationWhenDisabled");
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+			debugLeaving(mn, "allocation counter not available.");
+			return;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		TraceSwitch traced = TraceSwitch.forClass(Traced.class);
+		boolean before = traced.isEnabled();
+		traced.setEnabled(false);
+		try {
+			Traced object = new Traced();
+			// the first rounds warm up the counting itself
+			long allocated = 0L;
+			int sum = 0;
+			for (int round = 0; round < 3; round++) {
+				long start = threads.getThreadAllocatedBytes(id);
+				for (int i = 1000; i < 2000; i++) {
+					sum += object.work(i);
+				}
+				allocated = threads.getThreadAllocatedBytes(id) - start;
+			}
+			assertEquals(3 * 1500500, sum);
+			assertEquals(0L, allocated);
+		} finally {
+			traced.setEnabled(before);
+		}
+		debugLeaving(mn);
+	}
+}
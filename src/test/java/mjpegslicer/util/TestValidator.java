@@ -1,6 +1,7 @@
 package mjpegslicer.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import mjpegslicer.AbstractTestCase;
 import mjpegslicer.util.Validator;
@@ -91,6 +92,8 @@ public class TestValidator extends AbstractTestCase {
 			failedToThrowExpectedException(mn);
 		} catch (IllegalArgumentException iae) {
 			foundExpectedException(mn, iae);
+			assertTrue(iae.getMessage().endsWith(
+					"\"arg\" = -1: Argument must be positive."));
 		}
 		debugLeaving(mn);
 	}